@@ -69,4 +69,20 @@ public interface FeedFetcher {
      */
     Subscription fetchSubscription(String feedURL, Date lastModified) throws FetcherException;
 
+
+    /**
+     * Conditionally fetch a subscription, the way its server asks to.
+     *
+     * Like fetchSubscription(feedURL, lastModified), using the ETag and
+     * Last-Modified of the subscription so the server can tell that the feed
+     * is unchanged without sending it.  Whatever the outcome, the ETag,
+     * Last-Modified and next fetch time of the given subscription are updated
+     * from the response; it is up to the caller to save them.
+     *
+     * @param sub The subscription to fetch, persistent or not.
+     * @return Subscription The fetched subscription, null if unchanged.
+     * @throws FetcherException If there is an error fetching the subscription.
+     */
+    Subscription fetchSubscription(Subscription sub) throws FetcherException;
+
 }
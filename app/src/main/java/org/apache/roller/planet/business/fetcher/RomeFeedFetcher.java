@@ -26,29 +26,53 @@ import com.rometools.rome.feed.synd.SyndFeed;
 import com.rometools.rome.io.FeedException;
 import com.rometools.rome.io.SyndFeedInput;
 import com.rometools.rome.io.XmlReader;
+import com.rometools.rome.io.impl.XmlFixerReader;
 
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.sql.Timestamp;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLStreamException;
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.planet.pojos.SubscriptionEntry;
 import org.apache.roller.planet.pojos.Subscription;
+import org.apache.roller.weblogger.config.WebloggerConfig;
 
 import static java.net.http.HttpResponse.BodyHandlers.ofInputStream;
 
 
 /**
  * A FeedFetcher based on Apache ROME and {@link java.net.http.HttpClient}.
+ *
+ * Feeds are fetched with conditional GETs where possible, and the
+ * Cache-Control, Expires and Retry-After headers of the server decide when a
+ * feed is due to be fetched again.
+ *
+ * RSS 2.0 and Atom 1.0 feeds are parsed as they stream in, keeping only the
+ * newest "planet.fetcher.maxEntries" entries, and feeds over
+ * "planet.fetcher.maxBytes" bytes are rejected.  Other formats are left to
+ * ROME.
  */
 public class RomeFeedFetcher implements FeedFetcher {
     
@@ -59,12 +83,24 @@ public class RomeFeedFetcher implements FeedFetcher {
                                 .timeout(Duration.ofSeconds(3))
                                 .header("User-Agent", "RollerPlanetAggregator");
     
+    // a server asking to wait longer than this is polled after this anyway
+    private static final Duration MAX_FETCH_DELAY = Duration.ofDays(1);
+    
+    private static final Pattern MAX_AGE = Pattern.compile("(?:^|[,\\s])max-age\\s*=\\s*\"?(\\d+)");
+    
+    // bytes the streaming parser may read before a feed goes to ROME instead
+    private static final int SNIFF_LIMIT = 64 * 1024;
+    
     private final HttpClient client;
+    private final StreamingFeedParser parser;
+    private final long maxBytes;
     
     public RomeFeedFetcher() {
         // immutable + thread safe, prefers HTTP/2, no redirects
         this.client = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(3)).build();
+        this.parser = new StreamingFeedParser(WebloggerConfig.getIntProperty("planet.fetcher.maxEntries", 50));
+        this.maxBytes = WebloggerConfig.getIntProperty("planet.fetcher.maxBytes", 10 * 1024 * 1024);
     }
     
     /**
@@ -90,11 +126,60 @@ public class RomeFeedFetcher implements FeedFetcher {
         log.debug("Fetching feed: "+feedURL);
         SyndFeed feed;
         try {
-            feed = fetchFeed(feedURL);
+            feed = fetchFeed(requestBuilder.copy().uri(URI.create(feedURL)).build(), null);
+        } catch (FeedException | IOException | InterruptedException ex) {
+            throw new FetcherException("Error fetching subscription - "+feedURL, ex);
+        }
+        
+        if (feed == null) {
+            // a 304, without asking for one
+            return null;
+        }
+        
+        return buildSubscription(feedURL, feed, lastModified);
+    }
+    
+    
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public Subscription fetchSubscription(Subscription sub) throws FetcherException {
+        
+        if(sub == null || sub.getFeedURL() == null) {
+            throw new IllegalArgumentException("feed url cannot be null");
+        }
+        
+        String feedURL = sub.getFeedURL();
+        HttpRequest.Builder request = requestBuilder.copy().uri(URI.create(feedURL));
+        if (sub.getETag() != null) {
+            request.header("If-None-Match", sub.getETag());
+        }
+        if (sub.getLastModified() != null) {
+            request.header("If-Modified-Since", sub.getLastModified());
+        }
+        
+        // fetch the feed, unless unchanged
+        log.debug("Conditionally fetching feed: "+feedURL);
+        SyndFeed feed;
+        try {
+            feed = fetchFeed(request.build(), sub);
         } catch (FeedException | IOException | InterruptedException ex) {
             throw new FetcherException("Error fetching subscription - "+feedURL, ex);
         }
         
+        if (feed == null) {
+            log.debug("Feed not modified - "+feedURL);
+            return null;
+        }
+        
+        return buildSubscription(feedURL, feed, sub.getLastUpdated());
+    }
+    
+    
+    // build a transient Subscription from a Rome SyndFeed, null if unchanged
+    private Subscription buildSubscription(String feedURL, SyndFeed feed, Date lastModified) {
+        
         log.debug("Feed pulled, extracting data into Subscription");
         
         // build planet subscription from fetched feed
@@ -172,6 +257,12 @@ public class RomeFeedFetcher implements FeedFetcher {
         newEntry.setTitle(romeEntry.getTitle());
         newEntry.setPermalink(romeEntry.getLink());
         
+        // <guid> or <id>, to recognize the entry when its link changes
+        String guid = romeEntry.getUri();
+        if (guid != null && guid.length() <= 255) {
+            newEntry.setGuid(guid);
+        }
+        
         // Play some games to get the author
         DCModule entrydc = (DCModule)romeEntry.getModule(DCModule.URI);
         if (romeEntry.getAuthor() != null) {
@@ -225,14 +316,182 @@ public class RomeFeedFetcher implements FeedFetcher {
         return newEntry;
     }
     
-    private SyndFeed fetchFeed(String url) throws IOException, InterruptedException, FeedException {
+    /**
+     * Fetch and parse a feed.  If a subscription is given, its caching state
+     * is updated from the response.
+     *
+     * @return the feed, or null if not modified
+     */
+    private SyndFeed fetchFeed(HttpRequest request, Subscription sub)
+            throws IOException, InterruptedException, FeedException {
         
-        HttpRequest request = requestBuilder.copy().uri(URI.create(url)).build();
+        HttpResponse<InputStream> response = client.send(request, ofInputStream());
+        HttpHeaders headers = response.headers();
+        int status = response.statusCode();
         
-        try(XmlReader reader = new XmlReader(client.send(request, ofInputStream()).body())) {
+        try(InputStream body = response.body()) {
+            
+            if (sub != null) {
+                sub.setNextFetch(getNextFetch(headers));
+                // a 304 may come with new validators, other errors never do
+                if (status == 200 || status == 304) {
+                    sub.setETag(getValidator(headers, "ETag",
+                            status == 304 ? sub.getETag() : null));
+                    sub.setLastModified(getValidator(headers, "Last-Modified",
+                            status == 304 ? sub.getLastModified() : null));
+                }
+            }
+            
+            if (status == 304) {
+                return null;
+            } else if (status < 200 || status >= 300) {
+                throw new IOException("Unexpected response status " + status);
+            }
+            
+            return parseFeed(new BufferedInputStream(new LimitedInputStream(body, maxBytes)));
+        }
+    }
+    
+    
+    /**
+     * A caching validator of the response, or the previous one if the
+     * response has none.  Like guids, validators too long for the database
+     * are dropped, the feed is then fetched without one next time.
+     */
+    private static String getValidator(HttpHeaders headers, String name, String previous) {
+        Optional<String> value = headers.firstValue(name);
+        if (!value.isPresent()) {
+            return previous;
+        }
+        return value.get().length() <= 255 ? value.get() : null;
+    }
+    
+    
+    // stream the feed if its format allows, else have ROME parse it whole
+    private SyndFeed parseFeed(InputStream in) throws IOException, FeedException {
+        
+        in.mark(SNIFF_LIMIT);
+        try {
+            // not closed, that would close the stream
+            SyndFeed feed = parser.parse(new XmlFixerReader(new XmlReader(in)));
+            if (feed != null) {
+                return feed;
+            }
+        } catch (XMLStreamException ex) {
+            throw new FeedException("Invalid feed", ex);
+        }
+        
+        log.debug("Feed format not streamable, parsing with ROME");
+        in.reset();
+        try(XmlReader reader = new XmlReader(in)) {
             return new SyndFeedInput().build(reader);
         }
-       
+    }
+    
+    
+    /**
+     * Fails once more than a given number of bytes are read, so that one huge
+     * feed can not take up all memory.  Marks are left to the buffer on top,
+     * bytes read again after a reset come from there and aren't counted twice.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        
+        private final long limit;
+        private long count = 0;
+        
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+        
+        private void count(long n) throws IOException {
+            count += n;
+            if (count > limit) {
+                throw new IOException("Feed larger than " + limit + " bytes");
+            }
+        }
+    }
+    
+    
+    /**
+     * When the server of a feed wants it fetched again at the earliest,
+     * according to the Retry-After, Cache-Control and Expires headers of a
+     * response, in that order.  Never later than a day from now.
+     *
+     * @return the time, or null if the feed may be fetched again right away
+     */
+    static Date getNextFetch(HttpHeaders headers) {
+        
+        Instant now = Instant.now();
+        Instant next = null;
+        
+        // given with 503 and 429, as seconds or a date
+        Optional<String> retryAfter = headers.firstValue("Retry-After");
+        if (retryAfter.isPresent()) {
+            String value = retryAfter.get().trim();
+            if (value.matches("\\d+")) {
+                next = now.plusSeconds(Long.parseLong(value));
+            } else {
+                next = parseHttpDate(value);
+            }
+        }
+        
+        if (next == null) {
+            String cacheControl = String.join(",", headers.allValues("Cache-Control")).toLowerCase();
+            Matcher maxAge = MAX_AGE.matcher(cacheControl);
+            if (cacheControl.contains("no-cache") || cacheControl.contains("no-store")) {
+                return null;
+            } else if (maxAge.find()) {
+                try {
+                    next = now.plusSeconds(Long.parseLong(maxAge.group(1)));
+                } catch (NumberFormatException e) {
+                    next = now.plus(MAX_FETCH_DELAY);
+                }
+            } else {
+                next = headers.firstValue("Expires").map(RomeFeedFetcher::parseHttpDate).orElse(null);
+            }
+        }
+        
+        if (next == null || !next.isAfter(now)) {
+            return null;
+        }
+        Instant latest = now.plus(MAX_FETCH_DELAY);
+        return Date.from(next.isAfter(latest) ? latest : next);
+    }
+    
+    
+    // null if not a valid date, as an Expires of 0 is meant to be
+    private static Instant parseHttpDate(String value) {
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
     }
     
 }
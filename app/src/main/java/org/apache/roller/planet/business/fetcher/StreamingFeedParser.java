@@ -0,0 +1,465 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.planet.business.fetcher;
+
+import com.rometools.rome.feed.synd.SyndCategory;
+import com.rometools.rome.feed.synd.SyndCategoryImpl;
+import com.rometools.rome.feed.synd.SyndContent;
+import com.rometools.rome.feed.synd.SyndContentImpl;
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndEntryImpl;
+import com.rometools.rome.feed.synd.SyndFeed;
+import com.rometools.rome.feed.synd.SyndFeedImpl;
+import com.rometools.rome.io.impl.DateParser;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.apache.commons.text.StringEscapeUtils;
+
+
+/**
+ * Reads RSS 0.9x/2.0 and Atom 1.0 feeds with StAX, without building a DOM of
+ * the whole feed as ROME does.
+ *
+ * Only what RomeFeedFetcher uses is read, into a lightweight SyndFeed, and
+ * only the newest entries are kept, so memory use does not grow with the
+ * size of the feed.  Other formats, such as RSS 1.0 and Atom 0.3, are left
+ * to ROME.
+ */
+final class StreamingFeedParser {
+
+    private static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+    private static final String CONTENT_NS = "http://purl.org/rss/1.0/modules/content/";
+    private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+
+    // configured once, then thread safe
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+    static {
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    }
+
+    private final int maxEntries;
+
+
+    /**
+     * @param maxEntries Max number of entries kept, the newest ones.
+     */
+    StreamingFeedParser(int maxEntries) {
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+
+    /**
+     * Parse a feed.
+     *
+     * @return the feed, or null if it is not in a format this parser reads,
+     *         in which case only its beginning was read
+     */
+    SyndFeed parse(Reader in) throws XMLStreamException {
+
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+        try {
+            while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+                // prolog
+            }
+            if (!reader.isStartElement()) {
+                return null;
+            }
+
+            if ("rss".equals(reader.getLocalName()) && isEmpty(reader.getNamespaceURI())) {
+                return parseRss(reader);
+            } else if ("feed".equals(reader.getLocalName()) && ATOM_NS.equals(reader.getNamespaceURI())) {
+                return parseAtom(reader);
+            }
+            return null;
+
+        } finally {
+            // leaves the underlying reader open
+            reader.close();
+        }
+    }
+
+
+    private SyndFeed parseRss(XMLStreamReader reader) throws XMLStreamException {
+
+        SyndFeed feed = new SyndFeedImpl();
+        NewestEntries entries = new NewestEntries(maxEntries);
+
+        children(reader, (ns, name) -> {
+            if (!"channel".equals(name)) {
+                skip(reader);
+                return;
+            }
+            children(reader, (cns, cname) -> {
+                if (isEmpty(cns) && "item".equals(cname)) {
+                    entries.add(parseRssItem(reader));
+                } else if (isEmpty(cns) && "title".equals(cname)) {
+                    feed.setTitle(text(reader));
+                } else if (isEmpty(cns) && "link".equals(cname)) {
+                    feed.setLink(text(reader));
+                } else if (isEmpty(cns) && "pubDate".equals(cname)) {
+                    feed.setPublishedDate(date(text(reader)));
+                } else if (DC_NS.equals(cns) && "date".equals(cname) && feed.getPublishedDate() == null) {
+                    feed.setPublishedDate(date(text(reader)));
+                } else if (DC_NS.equals(cns) && "creator".equals(cname)) {
+                    feed.setAuthor(text(reader));
+                } else {
+                    skip(reader);
+                }
+            });
+        });
+
+        feed.setEntries(entries.list());
+        return feed;
+    }
+
+
+    private SyndEntry parseRssItem(XMLStreamReader reader) throws XMLStreamException {
+
+        SyndEntry entry = new SyndEntryImpl();
+        List<SyndCategory> categories = new ArrayList<>();
+        String[] guid = new String[2];
+
+        children(reader, (ns, name) -> {
+            if (isEmpty(ns) && "title".equals(name)) {
+                entry.setTitle(text(reader));
+            } else if (isEmpty(ns) && "link".equals(name)) {
+                entry.setLink(text(reader));
+            } else if (isEmpty(ns) && "guid".equals(name)) {
+                guid[1] = reader.getAttributeValue(null, "isPermaLink");
+                guid[0] = text(reader);
+            } else if (isEmpty(ns) && "description".equals(name)) {
+                entry.setDescription(content("text/html", text(reader)));
+            } else if (CONTENT_NS.equals(ns) && "encoded".equals(name)) {
+                entry.setContents(Collections.singletonList(content("html", text(reader))));
+            } else if (isEmpty(ns) && "pubDate".equals(name)) {
+                entry.setPublishedDate(date(text(reader)));
+            } else if (DC_NS.equals(ns) && "date".equals(name) && entry.getPublishedDate() == null) {
+                entry.setPublishedDate(date(text(reader)));
+            } else if ((isEmpty(ns) && "author".equals(name)) || (DC_NS.equals(ns) && "creator".equals(name))) {
+                entry.setAuthor(text(reader));
+            } else if (isEmpty(ns) && "category".equals(name)) {
+                categories.add(category(text(reader)));
+            } else {
+                skip(reader);
+            }
+        });
+
+        // as ROME does, a guid is a permalink unless it says otherwise
+        if (guid[0] != null) {
+            entry.setUri(guid[0]);
+            if (entry.getLink() == null && !"false".equalsIgnoreCase(guid[1])) {
+                entry.setLink(guid[0]);
+            }
+        } else {
+            entry.setUri(entry.getLink());
+        }
+        entry.setCategories(categories);
+        return entry;
+    }
+
+
+    private SyndFeed parseAtom(XMLStreamReader reader) throws XMLStreamException {
+
+        SyndFeed feed = new SyndFeedImpl();
+        NewestEntries entries = new NewestEntries(maxEntries);
+
+        children(reader, (ns, name) -> {
+            if (!ATOM_NS.equals(ns)) {
+                skip(reader);
+            } else if ("entry".equals(name)) {
+                entries.add(parseAtomEntry(reader));
+            } else if ("title".equals(name)) {
+                feed.setTitle(text(reader));
+            } else if ("link".equals(name)) {
+                String href = alternateLink(reader);
+                if (feed.getLink() == null) {
+                    feed.setLink(href);
+                }
+            } else if ("updated".equals(name)) {
+                feed.setPublishedDate(date(text(reader)));
+            } else if ("author".equals(name)) {
+                String author = atomPerson(reader);
+                if (feed.getAuthor() == null) {
+                    feed.setAuthor(author);
+                }
+            } else {
+                skip(reader);
+            }
+        });
+
+        feed.setEntries(entries.list());
+        return feed;
+    }
+
+
+    private SyndEntry parseAtomEntry(XMLStreamReader reader) throws XMLStreamException {
+
+        SyndEntry entry = new SyndEntryImpl();
+        List<SyndCategory> categories = new ArrayList<>();
+
+        children(reader, (ns, name) -> {
+            if (!ATOM_NS.equals(ns)) {
+                skip(reader);
+            } else if ("title".equals(name)) {
+                entry.setTitle(text(reader));
+            } else if ("link".equals(name)) {
+                String href = alternateLink(reader);
+                if (entry.getLink() == null) {
+                    entry.setLink(href);
+                }
+            } else if ("id".equals(name)) {
+                entry.setUri(text(reader));
+            } else if ("published".equals(name)) {
+                entry.setPublishedDate(date(text(reader)));
+            } else if ("updated".equals(name)) {
+                entry.setUpdatedDate(date(text(reader)));
+            } else if ("author".equals(name)) {
+                String author = atomPerson(reader);
+                if (entry.getAuthor() == null) {
+                    entry.setAuthor(author);
+                }
+            } else if ("content".equals(name)) {
+                entry.setContents(Collections.singletonList(atomText(reader)));
+            } else if ("summary".equals(name)) {
+                entry.setDescription(atomText(reader));
+            } else if ("category".equals(name)) {
+                String term = reader.getAttributeValue(null, "term");
+                skip(reader);
+                if (term != null) {
+                    categories.add(category(term));
+                }
+            } else {
+                skip(reader);
+            }
+        });
+
+        entry.setCategories(categories);
+        return entry;
+    }
+
+
+    // href of a link element if it's the alternate link, else null
+    private static String alternateLink(XMLStreamReader reader) throws XMLStreamException {
+        String rel = reader.getAttributeValue(null, "rel");
+        String href = reader.getAttributeValue(null, "href");
+        skip(reader);
+        return (rel == null || "alternate".equals(rel)) ? href : null;
+    }
+
+
+    private static String atomPerson(XMLStreamReader reader) throws XMLStreamException {
+        String[] name = new String[1];
+        children(reader, (ns, child) -> {
+            if (ATOM_NS.equals(ns) && "name".equals(child)) {
+                name[0] = text(reader);
+            } else {
+                skip(reader);
+            }
+        });
+        return name[0];
+    }
+
+
+    // an atom text construct, its type as ROME would give it
+    private static SyndContent atomText(XMLStreamReader reader) throws XMLStreamException {
+        String type = reader.getAttributeValue(null, "type");
+        if ("xhtml".equals(type)) {
+            return content(type, markup(reader));
+        }
+        return content((type != null) ? type : "text", text(reader));
+    }
+
+
+    //------------------------------------------------------------------ stax
+
+    @FunctionalInterface
+    private interface ChildHandler {
+        // must read the child up to and including its end tag
+        void child(String namespace, String name) throws XMLStreamException;
+    }
+
+
+    // hand each child element of the current element to the handler, up to
+    // and including the end tag of the current element
+    private static void children(XMLStreamReader reader, ChildHandler handler) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                handler.child(reader.getNamespaceURI(), reader.getLocalName());
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            }
+        }
+    }
+
+
+    // skip the current element, up to and including its end tag
+    private static void skip(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+
+    // the text of the current element, of nested elements too, trimmed
+    private static String text(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                text.append(reader.getText());
+            }
+        }
+        return text.toString().trim();
+    }
+
+
+    // the content of the current element as markup, e.g. atom xhtml content
+    private static String markup(XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder markup = new StringBuilder();
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                markup.append('<').append(reader.getLocalName());
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    markup.append(' ').append(reader.getAttributeLocalName(i)).append("=\"")
+                            .append(StringEscapeUtils.escapeXml10(reader.getAttributeValue(i))).append('"');
+                }
+                markup.append('>');
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                if (depth > 0) {
+                    markup.append("</").append(reader.getLocalName()).append('>');
+                }
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                markup.append(StringEscapeUtils.escapeXml10(reader.getText()));
+            }
+        }
+        return markup.toString().trim();
+    }
+
+
+    //---------------------------------------------------------------- values
+
+    private static boolean isEmpty(String namespace) {
+        return namespace == null || namespace.isEmpty();
+    }
+
+
+    private static Date date(String text) {
+        return text.isEmpty() ? null : DateParser.parseDate(text, Locale.US);
+    }
+
+
+    private static SyndContent content(String type, String value) {
+        SyndContent content = new SyndContentImpl();
+        content.setType(type);
+        content.setValue(value);
+        return content;
+    }
+
+
+    private static SyndCategory category(String name) {
+        SyndCategory category = new SyndCategoryImpl();
+        category.setName(name);
+        return category;
+    }
+
+
+    /**
+     * The newest entries of a feed, by date or else by their order in the
+     * feed, the first being the newest.
+     */
+    static final class NewestEntries {
+
+        private static final class Ranked {
+            private final SyndEntry entry;
+            private final Date date;
+            private final int position;
+
+            private Ranked(SyndEntry entry, int position) {
+                this.entry = entry;
+                this.date = (entry.getPublishedDate() != null)
+                        ? entry.getPublishedDate() : entry.getUpdatedDate();
+                this.position = position;
+            }
+        }
+
+        // undated entries count as older than dated ones
+        private static final Comparator<Ranked> OLDEST_FIRST =
+                Comparator.<Ranked, Boolean>comparing(r -> r.date != null)
+                        .thenComparing(r -> r.date, Comparator.nullsFirst(Comparator.naturalOrder()))
+                        .thenComparingInt(r -> -r.position);
+
+        private final int max;
+        private final PriorityQueue<Ranked> entries;
+        private int count = 0;
+
+        NewestEntries(int max) {
+            this.max = max;
+            this.entries = new PriorityQueue<>(max + 1, OLDEST_FIRST);
+        }
+
+        void add(SyndEntry entry) {
+            entries.add(new Ranked(entry, count++));
+            if (entries.size() > max) {
+                entries.poll();
+            }
+        }
+
+        /** The entries kept, in the order of the feed. */
+        List<SyndEntry> list() {
+            List<Ranked> ranked = new ArrayList<>(entries);
+            ranked.sort(Comparator.comparingInt(r -> r.position));
+            List<SyndEntry> list = new ArrayList<>(ranked.size());
+            for (Ranked r : ranked) {
+                list.add(r.entry);
+            }
+            return list;
+        }
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.planet.business.updater;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.RollerException;
+import org.apache.roller.planet.business.PlanetManager;
+import org.apache.roller.planet.pojos.Subscription;
+import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.business.Weblogger;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+
+
+/**
+ * A FeedUpdater which fetches many feeds at once.
+ *
+ * Feeds are fetched by a pool of "planet.updater.threads" threads, with at
+ * most "planet.updater.threadsPerHost" of them fetching from the same host.
+ * The due feeds are grouped by host, and each host gets that many tasks which
+ * work off its feeds one after the other, so no thread ever sits waiting for
+ * a busy host while feeds of other hosts are due.
+ * The fetched feeds are saved by the calling thread, as they come in, and
+ * flushed every "planet.updater.batchSize" subscriptions.  If no feed at all
+ * comes in for "planet.updater.timeout" seconds, the feeds still being
+ * fetched are given up on.
+ */
+public class ConcurrentFeedUpdater extends SingleThreadedFeedUpdater {
+
+    private static Log log = LogFactory.getLog(ConcurrentFeedUpdater.class);
+
+    private final int threads;
+    private final int threadsPerHost;
+    private final int batchSize;
+    private final long timeout;
+
+
+    public ConcurrentFeedUpdater() {
+        this.threads = Math.max(1, WebloggerConfig.getIntProperty("planet.updater.threads", 10));
+        this.threadsPerHost = Math.max(1, WebloggerConfig.getIntProperty("planet.updater.threadsPerHost", 2));
+        this.batchSize = Math.max(1, WebloggerConfig.getIntProperty("planet.updater.batchSize", 20));
+        this.timeout = Math.max(1, WebloggerConfig.getIntProperty("planet.updater.timeout", 60))
+                * (long) RollerConstants.SEC_IN_MS;
+    }
+
+
+    // a feed as fetched, or the error fetching it
+    private static final class FetchResult {
+        // with the caching state as updated by the fetch
+        private final Subscription sub;
+        private final Subscription fetched;
+        private final Exception error;
+
+        private FetchResult(Subscription sub, Subscription fetched, Exception error) {
+            this.sub = sub;
+            this.fetched = fetched;
+            this.error = error;
+        }
+    }
+
+
+    @Override
+    protected void updateSubscriptions(Collection<Subscription> subscriptions) {
+
+        // only what's needed for fetching, subs are detached as we go
+        List<Subscription> due = new ArrayList<>();
+        for (Subscription sub : subscriptions) {
+            if (!isDue(sub)) {
+                log.debug("Skipping feed, not due until " + sub.getNextFetch() + " - " + sub.getFeedURL());
+                continue;
+            }
+            Subscription toFetch = new Subscription();
+            toFetch.setId(sub.getId());
+            toFetch.setFeedURL(sub.getFeedURL());
+            toFetch.setLastUpdated(sub.getLastUpdated());
+            toFetch.setETag(sub.getETag());
+            toFetch.setLastModified(sub.getLastModified());
+            toFetch.setNextFetch(sub.getNextFetch());
+            due.add(toFetch);
+        }
+
+        log.info(due.size() + " of " + subscriptions.size() + " subscriptions due for update");
+        if (due.isEmpty()) {
+            return;
+        }
+
+        Map<String, Queue<Subscription>> hosts = new LinkedHashMap<>();
+        for (Subscription toFetch : due) {
+            hosts.computeIfAbsent(getHost(toFetch.getFeedURL()),
+                    h -> new ConcurrentLinkedQueue<>()).add(toFetch);
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.min(threads, due.size()), r -> {
+                    Thread thread = new Thread(r, "PlanetFeedUpdater-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        BlockingQueue<FetchResult> fetches = new LinkedBlockingQueue<>();
+        for (Queue<Subscription> hostSubs : hosts.values()) {
+            for (int i = Math.min(threadsPerHost, hostSubs.size()); i > 0; i--) {
+                pool.execute(() -> fetchAll(hostSubs, fetches));
+            }
+        }
+
+        Weblogger roller = WebloggerFactory.getWeblogger();
+        PlanetManager pmgr = roller.getPlanetManager();
+        int saved = 0;
+        int unflushed = 0;
+        EntryCounts entries = new EntryCounts();
+        try {
+            for (int i = 0; i < due.size(); i++) {
+
+                FetchResult result = fetches.poll(timeout, TimeUnit.MILLISECONDS);
+                if (result == null) {
+                    log.warn("No feed fetched in " + (timeout / RollerConstants.SEC_IN_MS)
+                            + " seconds, giving up on " + (due.size() - i) + " feeds");
+                    break;
+                }
+
+                if (result.error != null) {
+                    logError(result.sub.getFeedURL(), result.error);
+                }
+
+                try {
+                    Subscription sub = pmgr.getSubscriptionById(result.sub.getId());
+                    if (sub == null) {
+                        log.warn("Subscription went missing while doing update: " + result.sub.getFeedURL());
+                        continue;
+                    }
+                    sub.setETag(result.sub.getETag());
+                    sub.setLastModified(result.sub.getLastModified());
+                    sub.setNextFetch(result.sub.getNextFetch());
+                    if (result.error != null) {
+                        scheduler.failed(sub);
+                        pmgr.saveSubscription(sub);
+                    } else if (result.fetched != null) {
+                        EntryCounts changes = saveSubscription(sub, result.fetched);
+                        scheduler.fetched(sub, changes.getChanged() > 0);
+                        entries.add(changes);
+                        saved++;
+                    } else {
+                        scheduler.fetched(sub, false);
+                        pmgr.saveSubscription(sub);
+                    }
+                    unflushed++;
+
+                    if (unflushed >= batchSize) {
+                        unflushed = 0;
+                        roller.flush();
+                    }
+                } catch (RollerException ex) {
+                    // the unflushed subscriptions of the batch are lost too
+                    log.error("Error saving updated subscriptions, " + unflushed
+                            + " of them lost, last one was " + result.sub.getFeedURL(), ex);
+                    unflushed = 0;
+                    roller.release();
+                }
+            }
+
+            if (unflushed > 0) {
+                roller.flush();
+            }
+
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while updating subscriptions");
+        } catch (RollerException ex) {
+            log.error("Error updating subscriptions", ex);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        log.info("Saved " + saved + " updated subscriptions, entries " + entries);
+    }
+
+
+    // runs on the pool, fetches the feeds of one host until none are left
+    private void fetchAll(Queue<Subscription> hostSubs, BlockingQueue<FetchResult> fetches) {
+        Subscription sub;
+        while (!Thread.currentThread().isInterrupted() && (sub = hostSubs.poll()) != null) {
+            fetches.add(fetch(sub));
+        }
+    }
+
+
+    // runs on the pool, never throws
+    private FetchResult fetch(Subscription sub) {
+
+        Subscription fetched = null;
+        Exception error = null;
+        try {
+            log.debug("updating feed: " + sub.getFeedURL());
+            fetched = fetchSubscription(sub);
+        } catch (Exception ex) {
+            error = ex;
+        } finally {
+            // local feeds are read from the database on this thread
+            WebloggerFactory.getWeblogger().release();
+        }
+
+        return new FetchResult(sub, fetched, error);
+    }
+
+
+    private static String getHost(String feedURL) {
+        try {
+            String host = URI.create(feedURL).getHost();
+            if (host != null) {
+                return host.toLowerCase();
+            }
+        } catch (IllegalArgumentException ex) {
+            // not a url, e.g. a local weblogger: feed
+        }
+        return "";
+    }
+
+
+    private static void logError(String feedURL, Exception ex) {
+        // do a little work to get at the source of the problem
+        Throwable cause = ex;
+        if (ex instanceof RollerException && ((RollerException) ex).getRootCause() != null) {
+            cause = ((RollerException) ex).getRootCause();
+        }
+        if (cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Error updating subscription - " + feedURL, cause);
+        } else {
+            log.warn("Error updating subscription - " + feedURL
+                    + " turn on debug logging for more info");
+        }
+    }
+
+}
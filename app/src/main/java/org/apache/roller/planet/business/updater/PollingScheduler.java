@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.planet.business.updater;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.roller.planet.pojos.Subscription;
+import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+
+
+/**
+ * Decides when each subscription is next due to be fetched.
+ *
+ * A feed is polled at half the average time between its changes, so a feed
+ * which changes hourly is polled every half hour and one which has not
+ * changed for a week is polled every few days.  Failed fetches back off
+ * exponentially.  The interval is kept between "planet.updater.minInterval"
+ * and "planet.updater.maxInterval" minutes, never shorter than its server
+ * asks for, and shifted by up to a tenth at random so that feeds spread out
+ * over time instead of coming due together.
+ */
+public class PollingScheduler {
+
+    // weight of the latest change in the average change interval
+    private static final double CHANGE_WEIGHT = 0.25;
+
+    private final long minInterval;
+    private final long maxInterval;
+
+
+    public PollingScheduler() {
+        this(WebloggerConfig.getIntProperty("planet.updater.minInterval", 15) * (long) RollerConstants.MIN_IN_MS,
+             WebloggerConfig.getIntProperty("planet.updater.maxInterval", 1440) * (long) RollerConstants.MIN_IN_MS);
+    }
+
+
+    /**
+     * @param minInterval Min milliseconds between fetches of a feed.
+     * @param maxInterval Max milliseconds between fetches of a feed.
+     */
+    public PollingScheduler(long minInterval, long maxInterval) {
+        this.minInterval = Math.max(1, minInterval);
+        this.maxInterval = Math.max(this.minInterval, maxInterval);
+    }
+
+
+    /**
+     * Schedule a subscription after fetching it.  Its next fetch time is
+     * expected to be what the server of the feed asked for, if anything.
+     *
+     * @param sub The subscription fetched.
+     * @param changed True if its entries changed.
+     */
+    public void fetched(Subscription sub, boolean changed) {
+
+        long now = System.currentTimeMillis();
+        sub.setFetchFailures(0);
+
+        if (changed) {
+            if (sub.getLastChanged() != null) {
+                long observed = Math.max(0, (now - sub.getLastChanged().getTime()) / RollerConstants.SEC_IN_MS);
+                long average = (sub.getChangeInterval() > 0)
+                        ? Math.round((1 - CHANGE_WEIGHT) * sub.getChangeInterval() + CHANGE_WEIGHT * observed)
+                        : observed;
+                sub.setChangeInterval((int) Math.min(Integer.MAX_VALUE, average));
+            }
+            sub.setLastChanged(new Date(now));
+        }
+
+        long interval = sub.getChangeInterval() * (long) RollerConstants.SEC_IN_MS / 2;
+        // not seen to change yet, the feed may tell when it last did
+        Date lastChanged = (sub.getLastChanged() != null) ? sub.getLastChanged() : sub.getLastUpdated();
+        if (!changed && lastChanged != null) {
+            // dormant feeds are polled less and less often
+            interval = Math.max(interval, (now - lastChanged.getTime()) / 2);
+        }
+
+        schedule(sub, now, interval);
+    }
+
+
+    /**
+     * Schedule a subscription after failing to fetch it.  Its next fetch time
+     * is expected to be what the server of the feed asked for, if anything.
+     */
+    public void failed(Subscription sub) {
+
+        long now = System.currentTimeMillis();
+        int failures = sub.getFetchFailures() + 1;
+        sub.setFetchFailures(failures);
+
+        // 2, 4, 8, ... times the min interval
+        long interval = minInterval << Math.min(failures, 20);
+
+        schedule(sub, now, interval);
+    }
+
+
+    private void schedule(Subscription sub, long now, long interval) {
+
+        interval = Math.min(maxInterval, Math.max(minInterval, interval));
+        interval += (long) (interval * ThreadLocalRandom.current().nextDouble(-0.1, 0.1));
+
+        long next = now + interval;
+        if (sub.getNextFetch() != null && sub.getNextFetch().getTime() > next) {
+            next = sub.getNextFetch().getTime();
+        }
+        sub.setNextFetch(new Date(next));
+    }
+
+}
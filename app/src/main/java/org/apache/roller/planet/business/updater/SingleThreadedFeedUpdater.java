@@ -18,7 +18,15 @@
 
 package org.apache.roller.planet.business.updater;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -41,8 +49,57 @@ public class SingleThreadedFeedUpdater implements FeedUpdater {
     
     private static Log log = LogFactory.getLog(SingleThreadedFeedUpdater.class);
 
+    // when subscriptions are due again
+    protected final PollingScheduler scheduler;
+
     public SingleThreadedFeedUpdater() {
-        // no-op
+        this.scheduler = new PollingScheduler();
+    }
+    
+    
+    /**
+     * Number of entries added, updated, deleted and left alone by updates.
+     */
+    public static final class EntryCounts {
+        
+        private int added = 0;
+        private int updated = 0;
+        private int deleted = 0;
+        private int unchanged = 0;
+        
+        public void add(EntryCounts other) {
+            added += other.added;
+            updated += other.updated;
+            deleted += other.deleted;
+            unchanged += other.unchanged;
+        }
+        
+        public int getAdded() {
+            return added;
+        }
+        
+        public int getUpdated() {
+            return updated;
+        }
+        
+        public int getDeleted() {
+            return deleted;
+        }
+        
+        public int getUnchanged() {
+            return unchanged;
+        }
+        
+        /** Number of entries written to or deleted from the database. */
+        public int getChanged() {
+            return added + updated + deleted;
+        }
+        
+        @Override
+        public String toString() {
+            return added + " added, " + updated + " updated, " + deleted + " deleted, "
+                    + unchanged + " unchanged";
+        }
     }
 
     /**
@@ -57,72 +114,49 @@ public class SingleThreadedFeedUpdater implements FeedUpdater {
         
         updateProxySettings();
         
+        update(sub);
+    }
+    
+    
+    // fetch and save one subscription, the proxy settings already done
+    private EntryCounts update(Subscription sub) throws UpdaterException {
+        
         log.debug("updating feed: "+sub.getFeedURL());
         
         long subStartTime = System.currentTimeMillis();
         
         Subscription updatedSub;
         try {
-            // fetch the latest version of the subscription
-            log.debug("Getting fetcher");
-            FeedFetcher fetcher = WebloggerFactory.getWeblogger().getFeedFetcher();
-            log.debug("Using fetcher class: " + fetcher.getClass().getName());
-            updatedSub = fetcher.fetchSubscription(sub.getFeedURL(), sub.getLastUpdated());
-            
-        } catch (FetcherException ex) {
-            throw new UpdaterException("Error fetching updated subscription", ex);
+            updatedSub = fetchSubscription(sub);
+        } catch (UpdaterException ex) {
+            // back off, or come back when the server asked to after a 503
+            scheduler.failed(sub);
+            saveFetchState(sub);
+            throw ex;
         }
         
         log.debug("Got updatedSub = " + updatedSub);
 
         // if sub was unchanged then we are done
         if (updatedSub == null) {
-            return;
-        }
-        
-        // if this subscription hasn't changed since last update then we're done
-        if (sub.getLastUpdated() != null && updatedSub.getLastUpdated() != null &&
-                !updatedSub.getLastUpdated().after(sub.getLastUpdated())) {
-            log.debug("Skipping update, feed hasn't changed - "+sub.getFeedURL());
+            scheduler.fetched(sub, false);
+            saveFetchState(sub);
+            return new EntryCounts();
         }
         
-        // update subscription attributes
-        sub.setSiteURL(updatedSub.getSiteURL());
-        sub.setTitle(updatedSub.getTitle());
-        sub.setAuthor(updatedSub.getAuthor());
-        sub.setLastUpdated(updatedSub.getLastUpdated());
-        
-        // update subscription entries
-        int entries = 0;
-        Set<SubscriptionEntry> newEntries = updatedSub.getEntries();
-        log.debug("newEntries.size() = " + newEntries.size());
-        if (!newEntries.isEmpty()) {
-            try {
-                PlanetManager pmgr = WebloggerFactory.getWeblogger().getPlanetManager();
-
-                // clear out old entries
-                pmgr.deleteEntries(sub);
-
-                // add fresh entries
-                sub.getEntries().clear();
-                sub.addEntries(newEntries);
-
-                // save and flush
-                pmgr.saveSubscription(sub);
-                WebloggerFactory.getWeblogger().flush();
-
-                log.debug("Added entries");
-                entries += newEntries.size();
-
-            } catch(RollerException ex) {
-                throw new UpdaterException("Error persisting updated subscription", ex);
-            }
+        EntryCounts entries = saveSubscription(sub, updatedSub);
+        scheduler.fetched(sub, entries.getChanged() > 0);
+        try {
+            WebloggerFactory.getWeblogger().flush();
+        } catch(RollerException ex) {
+            throw new UpdaterException("Error persisting updated subscription", ex);
         }
         
         long subEndTime = System.currentTimeMillis();
         log.debug("updated feed -- "+sub.getFeedURL()+" -- in " +
-                ((subEndTime-subStartTime) / RollerConstants.SEC_IN_MS) + " seconds.  " + entries +
-                " entries updated.");
+                ((subEndTime-subStartTime) / RollerConstants.SEC_IN_MS) + " seconds.  Entries " +
+                entries + ".");
+        return entries;
     }
     
     
@@ -176,10 +210,178 @@ public class SingleThreadedFeedUpdater implements FeedUpdater {
     }
     
     
+    /**
+     * Fetch the latest version of a subscription from its source.  The ETag,
+     * Last-Modified and next fetch time of the subscription are updated.
+     *
+     * @return a transient subscription with the fetched data, or null if
+     *         the feed is unchanged since the subscription was last updated
+     */
+    protected Subscription fetchSubscription(Subscription sub) throws UpdaterException {
+        try {
+            log.debug("Getting fetcher");
+            FeedFetcher fetcher = WebloggerFactory.getWeblogger().getFeedFetcher();
+            log.debug("Using fetcher class: " + fetcher.getClass().getName());
+            return fetcher.fetchSubscription(sub);
+            
+        } catch (FetcherException ex) {
+            throw new UpdaterException("Error fetching updated subscription", ex);
+        }
+    }
+    
+    
+    /**
+     * Copy the fetched data to a persistent subscription and save it, without
+     * flushing.  Only entries which are new, changed or gone from the feed
+     * are written.
+     *
+     * @param sub The persistent subscription.
+     * @param updatedSub The subscription as fetched.
+     * @return what happened to the entries of the subscription
+     */
+    protected EntryCounts saveSubscription(Subscription sub, Subscription updatedSub)
+            throws UpdaterException {
+        
+        // if this subscription hasn't changed since last update then we're done
+        if (sub.getLastUpdated() != null && updatedSub.getLastUpdated() != null &&
+                !updatedSub.getLastUpdated().after(sub.getLastUpdated())) {
+            log.debug("Skipping update, feed hasn't changed - "+sub.getFeedURL());
+        }
+        
+        // update subscription attributes
+        sub.setSiteURL(updatedSub.getSiteURL());
+        sub.setTitle(updatedSub.getTitle());
+        sub.setAuthor(updatedSub.getAuthor());
+        sub.setLastUpdated(updatedSub.getLastUpdated());
+        
+        // update subscription entries
+        EntryCounts entries = new EntryCounts();
+        Set<SubscriptionEntry> newEntries = updatedSub.getEntries();
+        log.debug("newEntries.size() = " + newEntries.size());
+        try {
+            PlanetManager pmgr = WebloggerFactory.getWeblogger().getPlanetManager();
+            if (!newEntries.isEmpty()) {
+                entries = saveEntries(pmgr, sub, newEntries);
+                log.debug("Entries " + entries);
+            }
+            pmgr.saveSubscription(sub);
+
+        } catch(RollerException ex) {
+            throw new UpdaterException("Error persisting updated subscription", ex);
+        }
+        return entries;
+    }
+    
+    
+    // merge the fetched entries into those of the subscription, matching them
+    // by guid or else by permalink
+    private EntryCounts saveEntries(PlanetManager pmgr, Subscription sub,
+            Collection<SubscriptionEntry> newEntries) throws RollerException {
+        
+        EntryCounts counts = new EntryCounts();
+        
+        Map<String, SubscriptionEntry> byGuid = new HashMap<>();
+        Map<String, SubscriptionEntry> byPermalink = new HashMap<>();
+        for (SubscriptionEntry entry : sub.getEntries()) {
+            if (entry.getGuid() != null) {
+                byGuid.put(entry.getGuid(), entry);
+            }
+            byPermalink.put(entry.getPermalink(), entry);
+        }
+        
+        Set<SubscriptionEntry> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<SubscriptionEntry> added = new ArrayList<>();
+        for (SubscriptionEntry newEntry : newEntries) {
+            SubscriptionEntry entry = (newEntry.getGuid() != null) ? byGuid.get(newEntry.getGuid()) : null;
+            if (entry == null) {
+                entry = byPermalink.get(newEntry.getPermalink());
+            }
+            
+            if (entry == null || !kept.add(entry)) {
+                added.add(newEntry);
+            } else if (sameContent(entry, newEntry)) {
+                counts.unchanged++;
+            } else {
+                entry.setGuid(newEntry.getGuid());
+                entry.setPermalink(newEntry.getPermalink());
+                entry.setTitle(newEntry.getTitle());
+                entry.setAuthor(newEntry.getAuthor());
+                entry.setText(newEntry.getText());
+                entry.setCategoriesString(newEntry.getCategoriesString());
+                entry.setPubTime(newEntry.getPubTime());
+                entry.setUpdateTime(newEntry.getUpdateTime());
+                counts.updated++;
+            }
+        }
+        
+        // entries gone from the feed
+        for (SubscriptionEntry entry : sub.getEntries()) {
+            if (!kept.contains(entry)) {
+                pmgr.deleteEntry(entry);
+                counts.deleted++;
+            }
+        }
+        
+        // rebuilt, as permalinks may have changed
+        sub.getEntries().clear();
+        sub.getEntries().addAll(kept);
+        for (SubscriptionEntry entry : added) {
+            sub.addEntry(entry);
+            pmgr.saveEntry(entry);
+            counts.added++;
+        }
+        
+        return counts;
+    }
+    
+    
+    private static boolean sameContent(SubscriptionEntry entry, SubscriptionEntry other) {
+        return Objects.equals(entry.getGuid(), other.getGuid())
+                && Objects.equals(entry.getPermalink(), other.getPermalink())
+                && Objects.equals(entry.getTitle(), other.getTitle())
+                && Objects.equals(entry.getAuthor(), other.getAuthor())
+                && Objects.equals(entry.getText(), other.getText())
+                && Objects.equals(entry.getCategoriesString(), other.getCategoriesString())
+                && sameTime(entry.getPubTime(), other.getPubTime())
+                && sameTime(entry.getUpdateTime(), other.getUpdateTime());
+    }
+    
+    
+    // compared as millis, the database may not keep nanos
+    private static boolean sameTime(Date time, Date other) {
+        if (time == null || other == null) {
+            return time == other;
+        }
+        return time.getTime() == other.getTime();
+    }
+    
+    
+    /**
+     * True if the subscription is due to be fetched, false if it was scheduled
+     * for later or its server asked not to be polled yet.
+     */
+    protected boolean isDue(Subscription sub) {
+        return sub.getNextFetch() == null || !sub.getNextFetch().after(new Date());
+    }
+    
+    
+    // save the caching state and schedule, the one thing that changed
+    private void saveFetchState(Subscription sub) {
+        try {
+            WebloggerFactory.getWeblogger().getPlanetManager().saveSubscription(sub);
+            WebloggerFactory.getWeblogger().flush();
+        } catch (RollerException ex) {
+            log.warn("Error saving fetch state of subscription - " + sub.getFeedURL(), ex);
+        }
+    }
+    
+    
     // convenience method which handles updating any arbitrary collection of subs
-    private void updateSubscriptions(Collection<Subscription> subscriptions) {
+    protected void updateSubscriptions(Collection<Subscription> subscriptions) {
         
         PlanetManager pmgr = WebloggerFactory.getWeblogger().getPlanetManager();
+        EntryCounts entries = new EntryCounts();
+        int notDue = 0;
 		for (Subscription sub : subscriptions) {
 			try {
 				// reattach sub.  sub gets detached as we iterate
@@ -188,9 +390,18 @@ public class SingleThreadedFeedUpdater implements FeedUpdater {
 				log.warn("Subscription went missing while doing update: "+ex.getMessage());
 			}
 			
+			if (sub == null) {
+				continue;
+			}
+			if (!isDue(sub)) {
+				log.debug("Skipping feed, not due until "+sub.getNextFetch()+" - "+sub.getFeedURL());
+				notDue++;
+				continue;
+			}
+			
 			// this updates and saves
 			try {
-				updateSubscription(sub);
+				entries.add(update(sub));
 			} catch(UpdaterException ex) {
 				// do a little work to get at the source of the problem
 				Throwable cause = ex;
@@ -217,11 +428,13 @@ public class SingleThreadedFeedUpdater implements FeedUpdater {
 				}
 			}
 		}
+        log.info("Skipped " + notDue + " subscriptions not due yet, entries of updated subscriptions: "
+                + entries);
     }
     
     
     // upate proxy settings for jvm based on planet configuration
-    private void updateProxySettings() {
+    protected void updateProxySettings() {
         String proxyHost = WebloggerRuntimeConfig.getProperty("planet.site.proxyhost");
         int proxyPort = WebloggerRuntimeConfig.getIntProperty("planet.site.proxyport");
         if (proxyHost != null && proxyPort > 0) {
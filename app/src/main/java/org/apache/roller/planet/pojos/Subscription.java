@@ -39,6 +39,16 @@ public class Subscription implements Serializable, Comparable<Subscription> {
     private int inboundlinks = 0;
     private int inboundblogs = 0;
 
+    // http caching, as last told by the server of the feed
+    private String etag;
+    private String lastModified;
+    private Date nextFetch;
+
+    // polling schedule, see PollingScheduler
+    private Date lastChanged;
+    private int changeInterval = 0;
+    private int fetchFailures = 0;
+
     // associations
     private Set<PlanetGroup> groups = new HashSet<>();
     private Set<SubscriptionEntry> entries = new HashSet<>();
@@ -166,6 +176,84 @@ public class Subscription implements Serializable, Comparable<Subscription> {
     }
 
 
+    /**
+     * The ETag header of the feed when it was last fetched, sent back as
+     * If-None-Match on the next fetch.
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    public void setETag(String etag) {
+        this.etag = etag;
+    }
+
+
+    /**
+     * The Last-Modified header of the feed when it was last fetched, as sent
+     * by the server, sent back as If-Modified-Since on the next fetch.
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+
+    /**
+     * Time before which the feed should not be fetched again.  Right after a
+     * fetch this is what its server asked for through Cache-Control, Expires
+     * or Retry-After, then it's the time the feed is scheduled for.  Null if
+     * the feed can be fetched any time.
+     */
+    public Date getNextFetch() {
+        return nextFetch;
+    }
+
+    public void setNextFetch(Date nextFetch) {
+        this.nextFetch = nextFetch;
+    }
+
+
+    /**
+     * Time the entries of the feed were last seen to change.
+     */
+    public Date getLastChanged() {
+        return lastChanged;
+    }
+
+    public void setLastChanged(Date lastChanged) {
+        this.lastChanged = lastChanged;
+    }
+
+
+    /**
+     * Average number of seconds between changes of the feed, 0 if not known
+     * yet.
+     */
+    public int getChangeInterval() {
+        return changeInterval;
+    }
+
+    public void setChangeInterval(int changeInterval) {
+        this.changeInterval = changeInterval;
+    }
+
+
+    /**
+     * Number of fetches of the feed that failed in a row.
+     */
+    public int getFetchFailures() {
+        return fetchFailures;
+    }
+
+    public void setFetchFailures(int fetchFailures) {
+        this.fetchFailures = fetchFailures;
+    }
+
+
     public Set<PlanetGroup> getGroups() {
         return groups;
     }
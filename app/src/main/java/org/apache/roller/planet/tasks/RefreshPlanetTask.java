@@ -21,7 +21,6 @@ package org.apache.roller.planet.tasks;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.planet.business.updater.FeedUpdater;
-import org.apache.roller.planet.business.updater.SingleThreadedFeedUpdater;
 import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.apache.roller.weblogger.business.startup.WebloggerStartup;
 
@@ -43,7 +42,7 @@ public class RefreshPlanetTask extends PlanetTask {
         try {            
             // Update all feeds in planet
             log.info("Refreshing Planet entries");
-            FeedUpdater updater = new SingleThreadedFeedUpdater();
+            FeedUpdater updater = WebloggerFactory.getWeblogger().getFeedUpdater();
             updater.updateSubscriptions();
             WebloggerFactory.getWeblogger().release();
             
@@ -0,0 +1,431 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.business;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+
+
+/**
+ * Keeps the recent hit counts of each weblog in memory, so the hottest
+ * weblogs of the last few minutes or hours can be listed without going to
+ * the db, and without depending on when the daily counts were last reset.
+ *
+ * Counts are kept by the minute for the last hour, and by the hour for the
+ * number of hours set with "hitcount.history.hours".  They are fed the hits
+ * tallied by the HitCountQueue each time those are stored in the db, so the
+ * most recent counts are only as fresh as "hitcount.queue.sleepTime".
+ *
+ * The rankings are worked out at most once per minute or hour and per batch
+ * of hits, every other lookup is served from memory.  Hourly counts are saved
+ * to a file every "hitcount.history.saveInterval" seconds and on shutdown,
+ * and are loaded again on startup.  Counts are per server, in a cluster each
+ * server only knows the hits it served itself.
+ */
+public final class HitCountHistory {
+
+    private static final Log log = LogFactory.getLog(HitCountHistory.class);
+
+    private static final int MINUTES = 60;
+
+    private final boolean enabled;
+
+    // how many hours of counts we keep
+    private final int hours;
+
+    private final File file;
+    private final long saveInterval;
+    private long lastSaved;
+
+    // counts by weblog handle, guarded by this
+    private final Map<String, Counts> counts = new HashMap<>();
+
+    // weblogs ranked by hits, by window, until the next hits come in
+    private final Map<String, Ranking> rankings = new ConcurrentHashMap<>();
+
+
+    private static class Holder {
+        private static final HitCountHistory INSTANCE = new HitCountHistory();
+    }
+
+
+    private HitCountHistory() {
+        this(WebloggerConfig.getBooleanProperty("hitcount.history.enabled", true),
+                WebloggerConfig.getIntProperty("hitcount.history.hours", 48),
+                file(WebloggerConfig.getProperty("hitcount.history.file")),
+                WebloggerConfig.getIntProperty("hitcount.history.saveInterval", 600));
+
+        if (!enabled) {
+            log.info("Hit count history is DISABLED");
+            return;
+        }
+
+        load(System.currentTimeMillis());
+    }
+
+
+    HitCountHistory(boolean enabled, int hours, File file, int saveInterval) {
+        this.enabled = enabled;
+        this.hours = Math.max(1, hours);
+        this.file = file;
+        this.saveInterval = Math.max(1, saveInterval) * (long) RollerConstants.SEC_IN_MS;
+        this.lastSaved = System.currentTimeMillis();
+    }
+
+
+    public static HitCountHistory getInstance() {
+        return Holder.INSTANCE;
+    }
+
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+
+    /**
+     * The number of hours of counts which are kept.
+     */
+    public int getHours() {
+        return hours;
+    }
+
+
+    /**
+     * True if there are no counts at all, e.g. right after the first startup.
+     */
+    public synchronized boolean isEmpty() {
+        return counts.isEmpty();
+    }
+
+
+    /**
+     * Add a batch of hits, as tallied by the HitCountQueue.
+     *
+     * @param hits The number of hits by weblog handle.
+     */
+    public void record(Map<String, Long> hits) {
+        record(hits, System.currentTimeMillis());
+    }
+
+
+    void record(Map<String, Long> hits, long now) {
+
+        if (!enabled || hits.isEmpty()) {
+            return;
+        }
+
+        long minute = now / RollerConstants.MIN_IN_MS;
+        long hour = now / RollerConstants.HOUR_IN_MS;
+        boolean save;
+        synchronized (this) {
+            for (Map.Entry<String, Long> entry : hits.entrySet()) {
+                Counts weblogCounts = counts.get(entry.getKey());
+                if (weblogCounts == null) {
+                    weblogCounts = new Counts(hours);
+                    counts.put(entry.getKey(), weblogCounts);
+                }
+                weblogCounts.add(minute, hour, entry.getValue());
+            }
+            rankings.clear();
+
+            save = now - lastSaved >= saveInterval;
+            if (save) {
+                lastSaved = now;
+            }
+        }
+
+        if (save) {
+            save(now);
+        }
+    }
+
+
+    /**
+     * Get the weblogs with the most hits in the last few hours, the current
+     * hour included.
+     *
+     * @param sinceHours Number of hours to consider, at most getHours().
+     * @param length The max number of weblogs to return, or -1 for all.
+     * @return Weblog handles and their hits, most hits first.
+     */
+    public List<Map.Entry<String, Long>> getHotWeblogs(int sinceHours, int length) {
+        return getRanking(false, Math.min(Math.max(1, sinceHours), hours),
+                System.currentTimeMillis() / RollerConstants.HOUR_IN_MS, length);
+    }
+
+
+    /**
+     * Get the weblogs with the most hits in the last few minutes, the current
+     * minute included.
+     *
+     * @param sinceMinutes Number of minutes to consider, at most 60.
+     * @param length The max number of weblogs to return, or -1 for all.
+     * @return Weblog handles and their hits, most hits first.
+     */
+    public List<Map.Entry<String, Long>> getHotWeblogsByMinute(int sinceMinutes, int length) {
+        return getRanking(true, Math.min(Math.max(1, sinceMinutes), MINUTES),
+                System.currentTimeMillis() / RollerConstants.MIN_IN_MS, length);
+    }
+
+
+    List<Map.Entry<String, Long>> getRanking(boolean byMinute, int window, long now, int length) {
+
+        if (!enabled) {
+            return Collections.emptyList();
+        }
+
+        String key = (byMinute ? "m" : "h") + window;
+        Ranking ranking = rankings.get(key);
+        if (ranking == null || ranking.time != now) {
+            synchronized (this) {
+                List<Map.Entry<String, Long>> ranked = new ArrayList<>();
+                for (Map.Entry<String, Counts> entry : counts.entrySet()) {
+                    long sum = entry.getValue().sum(byMinute, now, window);
+                    if (sum > 0) {
+                        ranked.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), sum));
+                    }
+                }
+                ranked.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+                ranking = new Ranking(now, Collections.unmodifiableList(ranked));
+                rankings.put(key, ranking);
+            }
+        }
+
+        if (length < 0 || length >= ranking.weblogs.size()) {
+            return ranking.weblogs;
+        }
+        return ranking.weblogs.subList(0, length);
+    }
+
+
+    /**
+     * Save the hourly counts, so they survive a restart.
+     */
+    void save(long now) {
+
+        if (file == null) {
+            return;
+        }
+
+        long hour = now / RollerConstants.HOUR_IN_MS;
+
+        // drop weblogs without hits in the hours we keep, and take a copy
+        // of the rest so we don't write to disk while holding the lock
+        Map<String, long[]> hourCounts = new HashMap<>();
+        synchronized (this) {
+            counts.entrySet().removeIf(entry -> entry.getValue().hour <= hour - hours);
+            for (Map.Entry<String, Counts> entry : counts.entrySet()) {
+                hourCounts.put(entry.getKey(), entry.getValue().hourCounts(hour));
+            }
+        }
+
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create directory "+dir);
+            }
+
+            // one line per weblog, the handle then pairs of hour and hits
+            File tmp = new File(file.getPath() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, long[]> entry : hourCounts.entrySet()) {
+                    StringBuilder line = new StringBuilder(entry.getKey());
+                    long[] hits = entry.getValue();
+                    for (int i = 0; i < hits.length; i++) {
+                        if (hits[i] > 0) {
+                            line.append(' ').append(hour - i).append(' ').append(hits[i]);
+                        }
+                    }
+                    writer.write(line.toString());
+                    writer.newLine();
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        } catch (IOException e) {
+            log.warn("Unable to save hit count history to "+file, e);
+        }
+    }
+
+
+    /**
+     * Load the hourly counts saved by a previous run.
+     */
+    void load(long now) {
+
+        if (file == null || !file.isFile()) {
+            return;
+        }
+
+        long hour = now / RollerConstants.HOUR_IN_MS;
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            synchronized (this) {
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = StringUtils.split(line, ' ');
+                    if (fields.length < 3 || fields.length % 2 == 0) {
+                        log.debug("Ignoring bad line in "+file+": "+line);
+                        continue;
+                    }
+                    try {
+                        // oldest hours first, so the counts only move forward
+                        for (int i = fields.length - 2; i > 0; i -= 2) {
+                            long hitsHour = Long.parseLong(fields[i]);
+                            long hits = Long.parseLong(fields[i + 1]);
+                            if (hitsHour > hour - hours && hitsHour <= hour && hits > 0) {
+                                Counts weblogCounts = counts.get(fields[0]);
+                                if (weblogCounts == null) {
+                                    weblogCounts = new Counts(hours);
+                                    counts.put(fields[0], weblogCounts);
+                                }
+                                weblogCounts.addHour(hitsHour, hits);
+                            }
+                        }
+                    } catch (NumberFormatException e) {
+                        log.debug("Ignoring bad line in "+file+": "+line);
+                    }
+                }
+                rankings.clear();
+            }
+            log.info("Loaded hit count history of "+counts.size()+" weblogs from "+file);
+        } catch (IOException e) {
+            log.warn("Unable to load hit count history from "+file, e);
+        }
+    }
+
+
+    /**
+     * Save the counts.
+     */
+    public void shutdown() {
+        if (enabled) {
+            save(System.currentTimeMillis());
+        }
+    }
+
+
+    private static File file(String path) {
+        return StringUtils.isBlank(path) ? null : new File(path.trim());
+    }
+
+
+    /**
+     * Ring buffers of the hits of one weblog, by minute and by hour.
+     */
+    private static final class Counts {
+
+        private final long[] minutes = new long[MINUTES];
+        private final long[] hours;
+
+        // newest minute and hour with hits
+        private long minute = Long.MIN_VALUE;
+        private long hour = Long.MIN_VALUE;
+
+        Counts(int hours) {
+            this.hours = new long[hours];
+        }
+
+        void add(long atMinute, long atHour, long hits) {
+            minute = roll(minutes, minute, atMinute);
+            minutes[slot(minutes, minute)] += hits;
+            addHour(atHour, hits);
+        }
+
+        void addHour(long atHour, long hits) {
+            hour = roll(hours, hour, atHour);
+            hours[slot(hours, hour)] += hits;
+        }
+
+        long sum(boolean byMinute, long now, int window) {
+            long[] slots = byMinute ? minutes : hours;
+            long newest = byMinute ? minute : hour;
+            long sum = 0;
+            long from = Math.max(now - window, newest - slots.length) + 1;
+            for (long t = from; t <= Math.min(now, newest); t++) {
+                sum += slots[slot(slots, t)];
+            }
+            return sum;
+        }
+
+        // hits by hour, the given hour first
+        long[] hourCounts(long now) {
+            long[] copy = new long[hours.length];
+            for (int i = 0; i < copy.length; i++) {
+                long t = now - i;
+                if (t <= hour && t > hour - hours.length) {
+                    copy[i] = hours[slot(hours, t)];
+                }
+            }
+            return copy;
+        }
+
+        // clear the slots which are reused when moving from newest to time,
+        // and return the new newest time.  hits from the past count as now
+        private static long roll(long[] slots, long newest, long time) {
+            if (time <= newest) {
+                return newest;
+            }
+            if (newest == Long.MIN_VALUE || time - newest >= slots.length) {
+                Arrays.fill(slots, 0);
+            } else {
+                for (long t = newest + 1; t <= time; t++) {
+                    slots[slot(slots, t)] = 0;
+                }
+            }
+            return time;
+        }
+
+        private static int slot(long[] slots, long time) {
+            return (int) Math.floorMod(time, (long) slots.length);
+        }
+    }
+
+
+    private static final class Ranking {
+
+        private final long time;
+        private final List<Map.Entry<String, Long>> weblogs;
+
+        Ranking(long time, List<Map.Entry<String, Long>> weblogs) {
+            this.time = time;
+            this.weblogs = weblogs;
+        }
+    }
+
+}
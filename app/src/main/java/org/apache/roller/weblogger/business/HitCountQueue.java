@@ -18,9 +18,11 @@
 
 package org.apache.roller.weblogger.business;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.util.RollerConstants;
@@ -35,8 +37,12 @@ import org.apache.roller.weblogger.pojos.Weblog;
  * Queue's up incoming hit counts so that they can be recorded to the db in
  * an asynchronous manner at give intervals.
  *
- * We also start up a single thread which runs continously to take the queued
- * hit counts, tally them, and record them into the db.
+ * Hits are tallied as they come in, with one counter per weblog, so memory
+ * use depends on the number of weblogs being read rather than on the amount
+ * of traffic, and concurrent hits on the same weblog don't contend on a lock.
+ *
+ * We also start up a single thread which runs continously to take the
+ * tallied hit counts and record them into the db.
  *
  * TODO: we may want to make this an interface that is pluggable if there is
  *   some indication that users want to override this implementation.
@@ -48,16 +54,34 @@ public final class HitCountQueue {
     private static HitCountQueue instance = null;
     
     private WorkerThread worker = null;
-    private List<String> queue = null;
+    
+    // hits since the counts were last taken, by weblog handle
+    private final Map<String, LongAdder> hits = new ConcurrentHashMap<>();
+    
+    // for metrics, of the hits stored so far
+    private long flushes = 0;
+    private long failedFlushes = 0;
+    private long storedHits = 0;
+    private long lostHits = 0;
+    private long lastFlushHits = 0;
+    private int lastFlushWeblogs = 0;
+    private long lastFlushTime = 0;
+    private long maxFlushTime = 0;
+    private long totalFlushTime = 0;
     
     
     static {
         instance = new HitCountQueue();
+        instance.startWorker();
     }
     
     
-    // non-instantiable because we are a singleton
-    private HitCountQueue() {
+    // only instantiated by tests because we are a singleton
+    HitCountQueue() {
+    }
+    
+    
+    private void startWorker() {
         int sleepTime = 3 * RollerConstants.MIN_IN_MS;
         String sleep = WebloggerConfig.getProperty("hitcount.queue.sleepTime", "180");
         
@@ -68,9 +92,6 @@ public final class HitCountQueue {
             log.warn("Invalid sleep time ["+sleep+"], using default");
         }
         
-        // create the hits queue
-        this.queue = Collections.synchronizedList(new ArrayList<String>());
-        
         // start up a worker to process the hits at intervals
         HitCountProcessingJob job = new HitCountProcessingJob();
         worker = new ContinuousWorkerThread("HitCountQueueProcessor", job, sleepTime);
@@ -85,24 +106,92 @@ public final class HitCountQueue {
     
     public void processHit(Weblog weblog) {
         
-        // if the weblog isn't null then just drop its handle in the queue
-        // each entry in the queue is a weblog handle and indicates a single hit
+        // if the weblog isn't null then count a hit for its handle
         if(weblog != null) {
-            this.queue.add(weblog.getHandle());
+            processHit(weblog.getHandle());
         }
     }
     
     
-    public List<String> getHits() {
-        return new ArrayList<>(this.queue);
+    void processHit(String handle) {
+        // a plain get first, computeIfAbsent() may lock even when present
+        LongAdder counter = this.hits.get(handle);
+        if (counter == null) {
+            counter = this.hits.computeIfAbsent(handle, k -> new LongAdder());
+        }
+        counter.increment();
     }
     
     
     /**
-     * Reset the queued hits.
+     * Take the hits counted so far and reset the counts.
+     *
+     * Each hit is returned by exactly one call, hits which come in while the
+     * counts are being taken are either included or left for the next call.
+     *
+     * @return the number of hits by weblog handle, weblogs without hits are
+     *         left out.
      */
-    public synchronized void resetHits() {
-        this.queue = Collections.synchronizedList(new ArrayList<String>());
+    public Map<String, Long> getAndResetHits() {
+        Map<String, Long> current = new HashMap<>();
+        for (Map.Entry<String, LongAdder> entry : this.hits.entrySet()) {
+            long count = entry.getValue().sumThenReset();
+            if (count > 0) {
+                current.put(entry.getKey(), count);
+            }
+        }
+        return current;
+    }
+    
+    
+    /**
+     * Note that tallied hits were stored in the db.
+     *
+     * @param hits the number of hits stored.
+     * @param weblogs the number of weblogs whose hit count was updated.
+     * @param time how long it took, in milliseconds.
+     */
+    public synchronized void recordFlush(long hits, int weblogs, long time) {
+        flushes++;
+        storedHits += hits;
+        lastFlushHits = hits;
+        lastFlushWeblogs = weblogs;
+        lastFlushTime = time;
+        maxFlushTime = Math.max(maxFlushTime, time);
+        totalFlushTime += time;
+    }
+    
+    
+    /**
+     * Note that tallied hits could not be stored and are lost.
+     */
+    public synchronized void recordFailedFlush(long hits) {
+        failedFlushes++;
+        lostHits += hits;
+    }
+    
+    
+    /**
+     * Statistics of the hits waiting to be stored and of storing them.
+     */
+    public synchronized Map<String, Object> getStats() {
+        long pendingHits = 0;
+        for (LongAdder counter : this.hits.values()) {
+            pendingHits += counter.sum();
+        }
+        
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pendingHits", pendingHits);
+        stats.put("flushes", flushes);
+        stats.put("failedFlushes", failedFlushes);
+        stats.put("storedHits", storedHits);
+        stats.put("lostHits", lostHits);
+        stats.put("lastFlushHits", lastFlushHits);
+        stats.put("lastFlushWeblogs", lastFlushWeblogs);
+        stats.put("lastFlushMillis", lastFlushTime);
+        stats.put("maxFlushMillis", maxFlushTime);
+        stats.put("averageFlushMillis", (flushes > 0) ? totalFlushTime / flushes : 0L);
+        return stats;
     }
     
     
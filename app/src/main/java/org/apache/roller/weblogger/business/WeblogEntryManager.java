@@ -28,6 +28,7 @@ import org.apache.roller.weblogger.pojos.TagStat;
 import org.apache.roller.weblogger.pojos.Weblog;
 import org.apache.roller.weblogger.pojos.WeblogCategory;
 import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntry.PubStatus;
 import org.apache.roller.weblogger.pojos.WeblogEntryComment;
 import org.apache.roller.weblogger.pojos.WeblogEntryComment.ApprovalStatus;
 import org.apache.roller.weblogger.pojos.WeblogEntrySearchCriteria;
@@ -60,6 +61,21 @@ public interface WeblogEntryManager {
     WeblogEntry getWeblogEntryByAnchor(Weblog website, String anchor)
             throws WebloggerException;
         
+    /**
+     * Get a page of WeblogEntries ordered by id, starting after the given id.
+     * Lets callers go through all entries one page at a time, passing the id
+     * of the last entry of a page to get the next one, without the cost of
+     * skipping over an ever larger offset.
+     * @param weblog Weblog to get entries of, or null for all weblogs
+     * @param status Status of the entries
+     * @param afterId Id of the last entry of the previous page, or null
+     * @param length Max number of entries to return
+     * @return List of WeblogEntry objects ordered by id
+     * @throws WebloggerException
+     */
+    List<WeblogEntry> getWeblogEntriesAfterId(Weblog weblog, PubStatus status,
+            String afterId, int length) throws WebloggerException;
+
     /**
      * Get WeblogEntries by offset/length as list in reverse chronological order.
      * The range offset and list arguments enable paging through query results.
@@ -357,6 +373,23 @@ public interface WeblogEntryManager {
         throws WebloggerException;
     
     
+    /**
+     * Increment the hit counts for many weblogs at once.
+     *
+     * Unlike incrementHitCount() this doesn't load each weblog and its hit
+     * count, the counts are updated in the db in a single batch.  Handles
+     * of weblogs which no longer exist are ignored.  The batch bypasses the
+     * persistence layer, so once it is flushed the caller must evict the
+     * cached WeblogHitCount objects.
+     *
+     * @param hitsByHandle How much to increment by, keyed by weblog handle.
+     * @return The number of weblogs whose hit count was updated.
+     * @throws WebloggerException If there was a problem with the backend.
+     */
+    int incrementHitCounts(Map<String, Long> hitsByHandle)
+        throws WebloggerException;
+    
+    
     /**
      * Reset the hit counts for all weblogs.  This sets the counts back to 0.
      *
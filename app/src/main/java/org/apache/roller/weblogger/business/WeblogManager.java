@@ -195,6 +195,12 @@ public interface WeblogManager {
     long getWeblogCount() throws WebloggerException;
     
     
+    /**
+     * Get the most recent last modified date of any weblog, null if none.
+     */
+    Date getWeblogsLastModified() throws WebloggerException;
+    
+    
     /**
      * Release any resources held by manager.
      */
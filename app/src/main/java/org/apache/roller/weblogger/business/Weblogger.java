@@ -20,6 +20,7 @@ package org.apache.roller.weblogger.business;
 
 import org.apache.roller.planet.business.PlanetManager;
 import org.apache.roller.planet.business.fetcher.FeedFetcher;
+import org.apache.roller.planet.business.updater.FeedUpdater;
 import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.plugins.PluginManager;
 import org.apache.roller.weblogger.business.pings.AutoPingManager;
@@ -145,6 +146,20 @@ public interface Weblogger {
     void release();
     
     
+    /**
+     * Drop any shared cached copy of an object, so the next lookup reads it
+     * from the database again.  Used when another server changed the object.
+     */
+    void evict(Class<?> type, String id);
+    
+    
+    /**
+     * Drop all shared cached copies of a type of object, after they were
+     * changed in the database behind the back of the persistence layer.
+     */
+    void evict(Class<?> type);
+    
+    
     /**
      * Initialize any resources necessary for this instance of Weblogger.
      */
@@ -179,6 +194,8 @@ public interface Weblogger {
 
 	FeedFetcher getFeedFetcher();
 
+	FeedUpdater getFeedUpdater();
+
 	PlanetManager getPlanetManager();
 
 	org.apache.roller.planet.business.PlanetURLStrategy getPlanetURLStrategy();
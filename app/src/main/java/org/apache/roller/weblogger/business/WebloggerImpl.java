@@ -22,6 +22,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.planet.business.PlanetManager;
 import org.apache.roller.planet.business.fetcher.FeedFetcher;
+import org.apache.roller.planet.business.updater.FeedUpdater;
 import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.pings.AutoPingManager;
 import org.apache.roller.weblogger.business.pings.PingQueueManager;
@@ -31,6 +32,7 @@ import org.apache.roller.weblogger.business.runnable.ThreadManager;
 import org.apache.roller.weblogger.business.search.IndexManager;
 import org.apache.roller.weblogger.business.themes.ThemeManager;
 import org.apache.roller.weblogger.config.PingConfig;
+import org.apache.roller.weblogger.util.cache.CacheManager;
 import org.apache.xmlrpc.util.SAXParsers;
 import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
@@ -70,6 +72,7 @@ public abstract class WebloggerImpl implements Weblogger {
     private final WeblogEntryManager   weblogEntryManager;
     private final OAuthManager         oauthManager;
     private final FeedFetcher          feedFetcher;
+    private final FeedUpdater          feedUpdater;
     private final PlanetManager        planetManager;
     
     // url strategy
@@ -100,6 +103,7 @@ public abstract class WebloggerImpl implements Weblogger {
         WeblogEntryManager   weblogEntryManager,
         OAuthManager         oauthManager,
         FeedFetcher          feedFetcher,
+        FeedUpdater          feedUpdater,
         PlanetManager        planetManager,
         org.apache.roller.planet.business.PlanetURLStrategy planetUrlStrategy,
         URLStrategy          urlStrategy) throws WebloggerException { 
@@ -121,6 +125,7 @@ public abstract class WebloggerImpl implements Weblogger {
         this.oauthManager        = oauthManager;
         this.urlStrategy         = urlStrategy;
         this.feedFetcher         = feedFetcher;
+        this.feedUpdater         = feedUpdater;
         this.planetManager       = planetManager;
         this.planetUrlStrategy   = planetUrlStrategy;
 
@@ -315,6 +320,11 @@ public abstract class WebloggerImpl implements Weblogger {
         return feedFetcher;
     }
 
+    @Override
+    public FeedUpdater getFeedUpdater() {
+        return feedUpdater;
+    }
+
     @Override
     public PlanetManager getPlanetManager() {
         return planetManager;
@@ -415,6 +425,8 @@ public abstract class WebloggerImpl implements Weblogger {
     public void shutdown() {
         try {
             HitCountQueue.getInstance().shutdown();
+            HitCountHistory.getInstance().shutdown();
+            CacheManager.shutdown();
             if (indexManager != null) {
                 indexManager.shutdown();
             }
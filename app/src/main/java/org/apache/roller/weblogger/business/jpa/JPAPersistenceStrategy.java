@@ -349,6 +349,24 @@ public class JPAPersistenceStrategy {
         return em.createNamedQuery(queryName);
     }
 
+    /**
+     * Remove an object from the shared cache of the EntityManagerFactory.
+     * @param clazz the class of the object
+     * @param id the id of the object
+     */
+    public void evict(Class<?> clazz, String id) {
+        emf.getCache().evict(clazz, id);
+    }
+
+    /**
+     * Remove all objects of a class from the shared cache of the
+     * EntityManagerFactory.
+     * @param clazz the class of the objects
+     */
+    public void evict(Class<?> clazz) {
+        emf.getCache().evict(clazz);
+    }
+
     public void shutdown() {
         if (emf != null) {
             emf.close();
@@ -19,8 +19,14 @@
 package org.apache.roller.weblogger.business.jpa;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.text.SimpleDateFormat;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
+import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
@@ -70,6 +76,16 @@ public class JPAWeblogEntryManagerImpl implements WeblogEntryManager {
     // cached mapping of entryAnchors -> entryIds
     private final Map<String, String> entryAnchorToIdMap = Collections.synchronizedMap(new HashMap<String, String>());
     
+    // cached mapping of weblogHandles -> weblogIds, for bulk hit count updates
+    private final Map<String, String> weblogHandleToIdMap = new ConcurrentHashMap<>();
+    
+    // bulk hit count updates go straight to the table, by weblog id
+    private static final String INCREMENT_HIT_COUNT_SQL =
+            "UPDATE roller_hitcounts SET dailyhits = dailyhits + ? WHERE websiteid = ?";
+    
+    // max number of handles looked up by a single query
+    private static final int HANDLE_LOOKUP_SIZE = 500;
+    
     private static final Comparator<TagStat> TAG_STAT_NAME_COMPARATOR = new TagStatComparator();
     
     private static final Comparator<TagStat> TAG_STAT_COUNT_REVERSE_COMPARATOR =
@@ -374,6 +390,30 @@ public class JPAWeblogEntryManagerImpl implements WeblogEntryManager {
         return q.getResultList();
     }
 
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public List<WeblogEntry> getWeblogEntriesAfterId(Weblog weblog, PubStatus status,
+            String afterId, int length) throws WebloggerException {
+        
+        TypedQuery<WeblogEntry> query;
+        if (weblog == null) {
+            query = strategy.getNamedQuery(
+                    "WeblogEntry.getByStatus&IdGreaterOrderById", WeblogEntry.class);
+            query.setParameter(1, status);
+            query.setParameter(2, afterId == null ? "" : afterId);
+        } else {
+            query = strategy.getNamedQuery(
+                    "WeblogEntry.getByStatus&Website&IdGreaterOrderById", WeblogEntry.class);
+            query.setParameter(1, status);
+            query.setParameter(2, weblog);
+            query.setParameter(3, afterId == null ? "" : afterId);
+        }
+        setFirstMax(query, 0, length);
+        return query.getResultList();
+    }
+    
     /**
      * @inheritDoc
      */
@@ -1301,6 +1341,87 @@ public class JPAWeblogEntryManagerImpl implements WeblogEntryManager {
         }
     }
     
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public int incrementHitCounts(Map<String, Long> hitsByHandle)
+    throws WebloggerException {
+        
+        if (hitsByHandle.isEmpty()) {
+            return 0;
+        }
+        
+        // look up ids for handles we haven't seen yet, many at a time
+        List<String> unknownHandles = new ArrayList<>();
+        for (String handle : hitsByHandle.keySet()) {
+            if (!weblogHandleToIdMap.containsKey(handle)) {
+                unknownHandles.add(handle);
+            }
+        }
+        for (int i = 0; i < unknownHandles.size(); i += HANDLE_LOOKUP_SIZE) {
+            List<String> handles = unknownHandles.subList(i,
+                    Math.min(i + HANDLE_LOOKUP_SIZE, unknownHandles.size()));
+            Query q = strategy.getNamedQuery("Weblog.getHandleAndIdByHandleIn");
+            q.setParameter(1, handles);
+            for (Object obj : q.getResultList()) {
+                Object[] row = (Object[]) obj;
+                weblogHandleToIdMap.put((String) row[0], (String) row[1]);
+            }
+        }
+        
+        List<String> handles = new ArrayList<>();
+        for (String handle : hitsByHandle.keySet()) {
+            if (weblogHandleToIdMap.containsKey(handle)) {
+                handles.add(handle);
+            } else {
+                LOG.debug("Ignoring hits for unknown weblog " + handle);
+            }
+        }
+        if (handles.isEmpty()) {
+            return 0;
+        }
+        
+        // update all the existing counts with a single batch, in the
+        // transaction of this thread's entity manager
+        EntityManager em = strategy.getEntityManager(true);
+        int[] updateCounts;
+        try {
+            Connection con = em.unwrap(Connection.class);
+            try (PreparedStatement stmt = con.prepareStatement(INCREMENT_HIT_COUNT_SQL)) {
+                for (String handle : handles) {
+                    stmt.setInt(1, hitsByHandle.get(handle).intValue());
+                    stmt.setString(2, weblogHandleToIdMap.get(handle));
+                    stmt.addBatch();
+                }
+                updateCounts = stmt.executeBatch();
+            }
+        } catch (SQLException ex) {
+            throw new WebloggerException("Error updating hit counts", ex);
+        }
+        
+        // weblogs without a hit count yet take the regular path, which
+        // creates one.  drivers which can't tell are assumed to have updated
+        int updated = 0;
+        for (int i = 0; i < handles.size(); i++) {
+            if (updateCounts[i] > 0 || updateCounts[i] == Statement.SUCCESS_NO_INFO) {
+                updated++;
+                continue;
+            }
+            String handle = handles.get(i);
+            Weblog weblog = roller.getWeblogManager().getWeblog(weblogHandleToIdMap.get(handle));
+            if (weblog == null) {
+                // weblog is gone, mapping must be old
+                weblogHandleToIdMap.remove(handle);
+            } else {
+                incrementHitCount(weblog, hitsByHandle.get(handle).intValue());
+                updated++;
+            }
+        }
+        
+        return updated;
+    }
+    
     /**
      * @inheritDoc
      */
@@ -705,6 +705,16 @@ public class JPAWeblogManagerImpl implements WeblogManager {
         return results.get(0);
     }
 
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public Date getWeblogsLastModified() throws WebloggerException {
+        List<Date> results = strategy.getNamedQuery(
+                "Weblog.getMaxLastModified", Date.class).getResultList();
+        return results.isEmpty() ? null : results.get(0);
+    }
+
     /**
      * Returns true if alphanumeric or '_'.
      */
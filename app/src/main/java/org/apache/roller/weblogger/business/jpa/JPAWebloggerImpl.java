@@ -20,6 +20,7 @@ package org.apache.roller.weblogger.business.jpa;
 import org.apache.roller.planet.business.PlanetManager;
 import org.apache.roller.planet.business.PlanetURLStrategy;
 import org.apache.roller.planet.business.fetcher.FeedFetcher;
+import org.apache.roller.planet.business.updater.FeedUpdater;
 import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.*;
 import org.apache.roller.weblogger.business.pings.AutoPingManager;
@@ -63,6 +64,7 @@ public class JPAWebloggerImpl extends WebloggerImpl {
         WeblogEntryManager   weblogEntryManager,
         OAuthManager         oauthManager,
 		FeedFetcher          feedFetcher,
+        FeedUpdater          feedUpdater,
         PlanetManager        planetManager,
         PlanetURLStrategy    planetUrlStrategy,
         URLStrategy          urlStrategy) throws WebloggerException {
@@ -84,6 +86,7 @@ public class JPAWebloggerImpl extends WebloggerImpl {
             weblogEntryManager,
             oauthManager,
             feedFetcher,
+            feedUpdater,
             planetManager,
             planetUrlStrategy,
             urlStrategy);
@@ -106,6 +109,18 @@ public class JPAWebloggerImpl extends WebloggerImpl {
     }
 
 
+    @Override
+    public void evict(Class<?> type, String id) {
+        this.strategy.evict(type, id);
+    }
+
+
+    @Override
+    public void evict(Class<?> type) {
+        this.strategy.evict(type);
+    }
+
+
     @Override
     public void shutdown() {
         // do our own shutdown first
@@ -29,6 +29,8 @@ import org.apache.roller.planet.business.PlanetURLStrategy;
 import org.apache.roller.planet.business.fetcher.FeedFetcher;
 import org.apache.roller.planet.business.jpa.JPAPlanetImpl;
 import org.apache.roller.planet.business.jpa.JPAPlanetManagerImpl;
+import org.apache.roller.planet.business.updater.ConcurrentFeedUpdater;
+import org.apache.roller.planet.business.updater.FeedUpdater;
 import org.apache.roller.weblogger.business.BookmarkManager;
 import org.apache.roller.weblogger.business.FileContentManager;
 import org.apache.roller.weblogger.business.FileContentManagerImpl;
@@ -90,6 +92,7 @@ public class JPAWebloggerModule implements Module {
 		binder.bind(Planet.class).to(              JPAPlanetImpl.class);
         binder.bind(PlanetManager.class).to(       JPAPlanetManagerImpl.class);   
         binder.bind(FeedFetcher.class).to(         WebloggerRomeFeedFetcher.class);
+        binder.bind(FeedUpdater.class).to(         ConcurrentFeedUpdater.class);
     }
     
 }
@@ -18,18 +18,15 @@
 
 package org.apache.roller.weblogger.business.runnable;
 
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.roller.util.RollerConstants;
 import org.apache.roller.weblogger.WebloggerException;
+import org.apache.roller.weblogger.business.HitCountHistory;
 import org.apache.roller.weblogger.business.HitCountQueue;
 import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.apache.roller.weblogger.business.WeblogEntryManager;
-import org.apache.roller.weblogger.business.WeblogManager;
-import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogHitCount;
 
 
 /**
@@ -53,51 +50,45 @@ public class HitCountProcessingJob implements Job {
     @Override
     public void execute() {
         
-        WeblogManager wmgr = WebloggerFactory.getWeblogger().getWeblogManager();
         WeblogEntryManager emgr = WebloggerFactory.getWeblogger().getWeblogEntryManager();
         
         HitCountQueue hitCounter = HitCountQueue.getInstance();
         
-        // first get the current set of hits
-        List<String> currentHits = hitCounter.getHits();
-        
-        // now reset the queued hits
-        hitCounter.resetHits();
-        
-        // tally the counts, grouped by weblog handle
-        Map<String, Long> hitsTally = new HashMap<>();
-        for (String weblogHandle : currentHits) {
-            Long count = hitsTally.get(weblogHandle);
-            if(count == null) {
-                count = 1L;
-            } else {
-                count = count + 1;
-            }
-            hitsTally.put(weblogHandle, count);
+        // take the hits tallied so far, grouped by weblog handle
+        Map<String, Long> hitsTally = hitCounter.getAndResetHits();
+        if (hitsTally.isEmpty()) {
+            return;
         }
+        
+        // keep the recent hits in memory too, for the hot weblogs lists
+        HitCountHistory.getInstance().record(hitsTally);
 
-        // iterate over the tallied hits and store them in the db
+        long hits = 0;
+        for (Long count : hitsTally.values()) {
+            hits += count;
+        }
+        
+        // store the tallied hits in the db with a single bulk update
         try {
             long startTime = System.currentTimeMillis();
             
-            Weblog weblog;
-            for (Map.Entry<String, Long> entry : hitsTally.entrySet()) {
-                try {
-                    weblog = wmgr.getWeblogByHandle(entry.getKey());
-                    emgr.incrementHitCount(weblog, entry.getValue().intValue());
-                } catch (WebloggerException ex) {
-                    log.error(ex);
-                }
-            }
+            int updated = emgr.incrementHitCounts(hitsTally);
 
             // flush the results to the db
             WebloggerFactory.getWeblogger().flush();
             
+            // the update bypassed JPA, so now that it is committed the cached
+            // hit counts are out of date
+            WebloggerFactory.getWeblogger().evict(WeblogHitCount.class);
+            
             long endTime = System.currentTimeMillis();
             
-            log.debug("Completed: "+ (endTime-startTime)/ RollerConstants.SEC_IN_MS + " secs");
+            hitCounter.recordFlush(hits, updated, endTime - startTime);
+            log.debug("Completed: recorded " + hits + " hits for " + updated
+                    + " of " + hitsTally.size() + " weblogs in " + (endTime-startTime) + " ms");
             
         } catch (WebloggerException ex) {
+            hitCounter.recordFailedFlush(hits);
             log.error("Error persisting updated hit counts", ex);
         } finally {
             // release session
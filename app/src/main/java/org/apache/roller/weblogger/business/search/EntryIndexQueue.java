@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.business.search;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Queue of weblog entries waiting to be (re)indexed, worked off by a single
+ * thread in batches.
+ *
+ * An entry which is queued again before it was indexed is only indexed once,
+ * keeping its place in the queue.  The worker waits a little after the first
+ * entry comes in so that a bulk edit ends up in as few batches as possible.
+ */
+final class EntryIndexQueue implements Runnable {
+
+    private static final Log log = LogFactory.getLog(EntryIndexQueue.class);
+
+    // time each entry was first queued, by entry id, oldest first
+    private final Map<String, Long> pending = new LinkedHashMap<>();
+
+    private final Consumer<List<String>> indexer;
+    private final int batchSize;
+    private final long batchDelay;
+
+    private Thread worker = null;
+    private boolean running = false;
+
+    // metrics, guarded by this
+    private long queued = 0;
+    private long indexed = 0;
+    private long batches = 0;
+    private int lastBatchSize = 0;
+    private long lastBatchTime = 0;
+    private long lastBatchLag = 0;
+
+
+    /**
+     * @param indexer Indexes a batch of entries, by id.
+     * @param batchSize Max number of entries indexed at once.
+     * @param batchDelay Milliseconds to wait for more entries before indexing.
+     */
+    EntryIndexQueue(Consumer<List<String>> indexer, int batchSize, long batchDelay) {
+        this.indexer = indexer;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchDelay = Math.max(0, batchDelay);
+    }
+
+
+    synchronized void start() {
+        if (worker == null) {
+            running = true;
+            worker = new Thread(this, "SearchIndexQueue");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+
+    /**
+     * Queue an entry to be indexed.
+     */
+    synchronized void add(String entryId) {
+        queued++;
+        if (pending.putIfAbsent(entryId, System.currentTimeMillis()) == null) {
+            notifyAll();
+        }
+    }
+
+
+    /**
+     * Drop an entry from the queue, e.g. because it's being removed from the
+     * index.
+     */
+    synchronized void remove(String entryId) {
+        pending.remove(entryId);
+    }
+
+
+    /**
+     * Number of entries waiting to be indexed.
+     */
+    synchronized int getDepth() {
+        return pending.size();
+    }
+
+
+    /**
+     * Milliseconds the oldest entry has been waiting to be indexed.
+     */
+    synchronized long getLag() {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        return System.currentTimeMillis() - pending.values().iterator().next();
+    }
+
+
+    synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", getDepth());
+        stats.put("queueLagMillis", getLag());
+        stats.put("queued", queued);
+        stats.put("indexed", indexed);
+        stats.put("batches", batches);
+        stats.put("lastBatchSize", lastBatchSize);
+        stats.put("lastBatchMillis", lastBatchTime);
+        stats.put("lastBatchLagMillis", lastBatchLag);
+        return stats;
+    }
+
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                synchronized (this) {
+                    while (running && pending.isEmpty()) {
+                        wait();
+                    }
+                    if (!running) {
+                        return;
+                    }
+                }
+
+                // let more changes come in, so they are indexed together
+                Thread.sleep(batchDelay);
+
+                indexNextBatch();
+
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                log.error("Error indexing queued entries", e);
+            }
+        }
+    }
+
+
+    /**
+     * Index the entries still queued, e.g. at shutdown after the worker is
+     * stopped.
+     */
+    void flush() {
+        while (getDepth() > 0) {
+            indexNextBatch();
+        }
+    }
+
+
+    /**
+     * Stop the worker, leaving queued entries for flush().
+     */
+    void stop() {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = worker;
+            worker = null;
+            notifyAll();
+        }
+        if (thread != null) {
+            // let a batch in progress finish
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    private void indexNextBatch() {
+
+        List<String> batch = new ArrayList<>();
+        long lag;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            lag = now - pending.values().iterator().next();
+            Iterator<String> ids = pending.keySet().iterator();
+            while (ids.hasNext() && batch.size() < batchSize) {
+                batch.add(ids.next());
+                ids.remove();
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        indexer.accept(batch);
+        long time = System.currentTimeMillis() - start;
+
+        synchronized (this) {
+            indexed += batch.size();
+            batches++;
+            lastBatchSize = batch.size();
+            lastBatchTime = time;
+            lastBatchLag = lag;
+        }
+        log.debug("Indexed " + batch.size() + " entries in " + time + " ms, "
+                + lag + " ms after they were queued");
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.business.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
+
+
+/**
+ * Number of search hits per category, weblog, locale and month.
+ *
+ * The counts are collected from the doc values of the hits while searching,
+ * in the same pass that finds the top hits, so no hit has to be loaded.
+ */
+public final class FacetCounts {
+
+    /** Hits by category, names in lower case. */
+    public static final String CATEGORY = FieldConstants.CATEGORY;
+
+    /** Hits by weblog handle. */
+    public static final String WEBLOG = FieldConstants.WEBSITE_HANDLE;
+
+    /** Hits by locale, in lower case. */
+    public static final String LOCALE = FieldConstants.LOCALE;
+
+    /** Hits by month of publication, as yyyy-MM. */
+    public static final String MONTH = FieldConstants.PUBLISHED_MONTH;
+
+    private static final String[] DIMENSIONS = { CATEGORY, WEBLOG, LOCALE, MONTH };
+
+    // counts by value, most hits first, by dimension
+    private final Map<String, Map<String, Integer>> counts;
+
+
+    private FacetCounts(Map<String, Map<String, Integer>> counts) {
+        this.counts = counts;
+    }
+
+
+    /**
+     * Get the hits per value of a dimension, the value with the most hits
+     * first.
+     */
+    public Map<String, Integer> get(String dimension) {
+        Map<String, Integer> values = counts.get(dimension);
+        return (values != null) ? values : Collections.emptyMap();
+    }
+
+
+    /**
+     * Get the hits per value of all dimensions.
+     */
+    public Map<String, Map<String, Integer>> asMap() {
+        return counts;
+    }
+
+
+    /**
+     * Collector which counts the hits of a search.  Use it together with the
+     * collector of the top hits, see MultiCollector.
+     */
+    public static final class Collector extends SimpleCollector {
+
+        private final List<Map<String, Integer>> totals = new ArrayList<>();
+
+        // doc values and counts by ordinal of the current segment
+        private final SortedDocValues[] values = new SortedDocValues[DIMENSIONS.length];
+        private final int[][] segmentCounts = new int[DIMENSIONS.length][];
+
+        public Collector() {
+            for (int i = 0; i < DIMENSIONS.length; i++) {
+                totals.add(new HashMap<>());
+            }
+        }
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            finishSegment();
+            for (int i = 0; i < DIMENSIONS.length; i++) {
+                // null if the segment was written without doc values
+                SortedDocValues docValues = context.reader().getSortedDocValues(DIMENSIONS[i]);
+                values[i] = (docValues != null) ? docValues : DocValues.emptySorted();
+                segmentCounts[i] = new int[values[i].getValueCount()];
+            }
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            for (int i = 0; i < DIMENSIONS.length; i++) {
+                if (values[i].advanceExact(doc)) {
+                    segmentCounts[i][values[i].ordValue()]++;
+                }
+            }
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
+        }
+
+        /**
+         * Get the counts, once the search is done.
+         */
+        public FacetCounts getCounts() throws IOException {
+            finishSegment();
+            Map<String, Map<String, Integer>> counts = new LinkedHashMap<>();
+            for (int i = 0; i < DIMENSIONS.length; i++) {
+                counts.put(DIMENSIONS[i], totals.get(i).entrySet().stream()
+                        .sorted(Map.Entry.<String, Integer>comparingByValue().reversed()
+                                .thenComparing(Map.Entry.comparingByKey()))
+                        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue,
+                                (a, b) -> a, LinkedHashMap::new)));
+            }
+            return new FacetCounts(Collections.unmodifiableMap(counts));
+        }
+
+        // add the counts of the segment done to the totals, by value
+        private void finishSegment() throws IOException {
+            for (int i = 0; i < DIMENSIONS.length; i++) {
+                if (values[i] == null) {
+                    continue;
+                }
+                int[] ordCounts = segmentCounts[i];
+                for (int ord = 0; ord < ordCounts.length; ord++) {
+                    if (ordCounts[ord] > 0) {
+                        totals.get(i).merge(values[i].lookupOrd(ord).utf8ToString(),
+                                ordCounts[ord], Integer::sum);
+                    }
+                }
+                values[i] = null;
+                segmentCounts[i] = null;
+            }
+        }
+    }
+
+}
@@ -43,4 +43,12 @@ public final class FieldConstants {
     public static final String CONSTANT_V = "v";
     public static final String WEBSITE_HANDLE = "handle";
     public static final String LOCALE = "locale";
+
+    // stored only, so search results can be shown without loading entries
+    public static final String CREATOR = "creator";
+    public static final String CATEGORY_NAME = "catname";
+    public static final String SUMMARY = "summary";
+
+    // doc values only, year and month of publication for facet counts
+    public static final String PUBLISHED_MONTH = "month";
 }
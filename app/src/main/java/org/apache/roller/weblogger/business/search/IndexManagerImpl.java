@@ -24,6 +24,17 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -34,27 +45,48 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.miscellaneous.LimitTokenCountAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.roller.util.RollerConstants;
 import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.InitializationException;
 import org.apache.roller.weblogger.business.Weblogger;
-import org.apache.roller.weblogger.business.search.operations.AddEntryOperation;
+import org.apache.roller.weblogger.business.search.operations.IndexEntriesOperation;
 import org.apache.roller.weblogger.business.search.operations.IndexOperation;
-import org.apache.roller.weblogger.business.search.operations.ReIndexEntryOperation;
 import org.apache.roller.weblogger.business.search.operations.RebuildWebsiteIndexOperation;
 import org.apache.roller.weblogger.business.search.operations.RemoveEntryOperation;
 import org.apache.roller.weblogger.business.search.operations.RemoveWebsiteIndexOperation;
+import org.apache.roller.weblogger.business.search.operations.WriteToIndexOperation;
 import org.apache.roller.weblogger.pojos.WeblogEntry;
 import org.apache.roller.weblogger.pojos.Weblog;
 import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.util.cache.Cache;
+import org.apache.roller.weblogger.util.cache.CacheManager;
 
 /**
  * Lucene implementation of IndexManager. This is the central entry point into
  * the Lucene searching API.
+ *
+ * A single IndexWriter is kept open for as long as the manager runs, and all
+ * write operations share it.  Searches use near-real-time searchers from a
+ * SearcherManager on top of that writer, so they never wait for a write to
+ * finish and don't have to open the index from scratch after one.  Searchers
+ * are refreshed every "search.index.refreshInterval" seconds, and right after
+ * a write operation executed with executeIndexOperationNow().  Changes are
+ * committed every "search.index.commitInterval" seconds and on shutdown.
+ *
+ * Entries to be added or re-indexed go through a queue worked off by a single
+ * thread, see EntryIndexQueue, rather than being indexed one at a time.
+ *
+ * A rebuild of the whole index is written to a separate directory while
+ * searches keep using the current index, and then replaces its contents in
+ * one step, see replaceIndex().
  * 
  * @author Mindaugas Idzelis (min@idzelis.com)
  * @author mraible (formatting and making indexDir configurable)
@@ -62,11 +94,14 @@ import org.apache.roller.weblogger.config.WebloggerConfig;
 @com.google.inject.Singleton
 public class IndexManagerImpl implements IndexManager {
 
-    private IndexReader reader;
     private final Weblogger roller;
 
     private final static Log mLogger = LogFactory.getFactory().getInstance(IndexManagerImpl.class);
 
+    // prefixes of the config properties of the search caches
+    public static final String RESULTS_CACHE_ID = "cache.search";
+    public static final String QUERY_CACHE_ID = "cache.searchquery";
+
     private boolean searchEnabled = true;
 
     private final String indexDir;
@@ -77,6 +112,33 @@ public class IndexManagerImpl implements IndexManager {
 
     private final ReadWriteLock rwl = new ReentrantReadWriteLock();
 
+    // set while the whole index is rebuilt, which only one thread may do
+    private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+
+    private Directory indexDirectory;
+
+    private IndexWriter indexWriter;
+
+    private SearcherManager searcherManager;
+
+    private ScheduledExecutorService refresher;
+
+    private final long refreshInterval;
+
+    private final long commitInterval;
+
+    private long lastCommit = System.currentTimeMillis();
+
+    private EntryIndexQueue entryQueue;
+
+    // ids of entries changed while the whole index is rebuilt, or null
+    private Set<String> changedDuringRebuild = null;
+
+    // search results by query and index version, cleared when searchers
+    // are refreshed, and parsed queries by search term; null if disabled
+    private final Cache resultsCache;
+    private final Cache queryCache;
+
 
     /**
      * Creates a new lucene index manager. This should only be created once.
@@ -107,6 +169,38 @@ public class IndexManagerImpl implements IndexManager {
 
         String test = indexDir + File.separator + ".index-inconsistent";
         indexConsistencyMarker = new File(test);
+
+        this.refreshInterval = Math.max(1, WebloggerConfig.getIntProperty(
+                "search.index.refreshInterval", 1)) * (long) RollerConstants.SEC_IN_MS;
+        this.commitInterval = Math.max(1, WebloggerConfig.getIntProperty(
+                "search.index.commitInterval", 60)) * (long) RollerConstants.SEC_IN_MS;
+
+        this.resultsCache = constructCache(RESULTS_CACHE_ID);
+        this.queryCache = constructCache(QUERY_CACHE_ID);
+    }
+
+    private static Cache constructCache(String cacheId) {
+
+        if (!WebloggerConfig.getBooleanProperty(cacheId + ".enabled", true)) {
+            mLogger.info("cache " + cacheId + " is disabled");
+            return null;
+        }
+
+        Map<String, String> cacheProps = new HashMap<>();
+        cacheProps.put("id", cacheId);
+        Enumeration<Object> allProps = WebloggerConfig.keys();
+        String prop;
+        while (allProps.hasMoreElements()) {
+            prop = (String) allProps.nextElement();
+
+            // we are only interested in props for this cache
+            if (prop.startsWith(cacheId + ".")) {
+                cacheProps.put(prop.substring(cacheId.length() + 1),
+                        WebloggerConfig.getProperty(prop));
+            }
+        }
+
+        return CacheManager.constructCache(null, cacheProps);
     }
 
     /**
@@ -140,10 +234,9 @@ public class IndexManagerImpl implements IndexManager {
             if (indexExists()) {
 
                 // test if the index is readable, if the version is outdated or it fails we rebuild.
-                try {
-                    synchronized(this) {
-                        reader = DirectoryReader.open(getIndexDirectory());
-                    }
+                try (Directory dir = getIndexDirectory();
+                     DirectoryReader test = DirectoryReader.open(dir)) {
+                    mLogger.debug("Index contains " + test.numDocs() + " documents");
                 } catch (IOException | IllegalArgumentException ex) {  // IAE for incompatible codecs
                     mLogger.warn("Failed to open search index, scheduling rebuild.", ex);
                     inconsistentAtStartup = true;
@@ -153,9 +246,26 @@ public class IndexManagerImpl implements IndexManager {
                 mLogger.debug("Creating index");
                 inconsistentAtStartup = true;
                 deleteIndex();
-                createIndex(getIndexDirectory());
             }
 
+            // open the writer and searchers shared by all operations, this
+            // creates the index if there isn't one
+            if (!openIndex()) {
+                mLogger.error("Unable to open search index, search is disabled");
+                this.searchEnabled = false;
+                return;
+            }
+
+            entryQueue = new EntryIndexQueue(
+                    ids -> {
+                        trackChanges(ids);
+                        new IndexEntriesOperation(roller, this, ids).run();
+                        refreshSearcher();
+                    },
+                    WebloggerConfig.getIntProperty("search.index.batchSize", 500),
+                    WebloggerConfig.getIntProperty("search.index.batchDelay", 500));
+            entryQueue.start();
+
             if (inconsistentAtStartup) {
                 mLogger.info("Index was inconsistent. Rebuilding index in the background...");
                 try {
@@ -187,19 +297,46 @@ public class IndexManagerImpl implements IndexManager {
 
     @Override
     public void addEntryIndexOperation(WeblogEntry entry) throws WebloggerException {
-        scheduleIndexOperation(new AddEntryOperation(roller, this, entry));
+        queueEntry(entry);
     }
 
     @Override
     public void addEntryReIndexOperation(WeblogEntry entry) throws WebloggerException {
-        scheduleIndexOperation(new ReIndexEntryOperation(roller, this, entry));
+        queueEntry(entry);
     }
 
     @Override
     public void removeEntryIndexOperation(WeblogEntry entry) throws WebloggerException {
+        if (entryQueue != null) {
+            entryQueue.remove(entry.getId());
+        }
+        trackChanges(Collections.singletonList(entry.getId()));
         executeIndexOperationNow(new RemoveEntryOperation(roller, this, entry));
     }
 
+    /**
+     * Queue an entry to be added or re-indexed in the background.  The queued
+     * entries are indexed in batches, each entry once no matter how often it
+     * was queued.
+     */
+    private void queueEntry(WeblogEntry entry) {
+        if (this.searchEnabled && entryQueue != null) {
+            mLogger.debug("Queueing entry for indexing: " + entry.getId());
+            entryQueue.add(entry.getId());
+        }
+    }
+
+    /**
+     * Statistics of the queue of entries waiting to be indexed, including its
+     * depth and how long the oldest entry has been waiting.
+     */
+    public Map<String, Object> getEntryQueueStats() {
+        if (entryQueue == null) {
+            return Collections.emptyMap();
+        }
+        return entryQueue.getStats();
+    }
+
     public ReadWriteLock getReadWriteLock() {
         return rwl;
     }
@@ -210,12 +347,18 @@ public class IndexManagerImpl implements IndexManager {
     }
 
     /**
-     * This is the analyzer that will be used to tokenize comment text.
+     * This is the analyzer that will be used to tokenize comment text.  One
+     * instance is shared by all threads, streams taken from it must be
+     * closed.
      * 
      * @return Analyzer to be used in manipulating the database.
      */
     public static final Analyzer getAnalyzer() {
-        return instantiateAnalyzer();
+        return AnalyzerHolder.ANALYZER;
+    }
+
+    private static class AnalyzerHolder {
+        private static final Analyzer ANALYZER = instantiateAnalyzer();
     }
 
     private static Analyzer instantiateAnalyzer() {
@@ -260,26 +403,292 @@ public class IndexManagerImpl implements IndexManager {
                 mLogger.debug("Executing index operation now: "
                         + op.getClass().getName());
                 roller.getThreadManager().executeInForeground(op);
+
+                // the caller expects to find its changes when searching next
+                if (op instanceof WriteToIndexOperation) {
+                    refreshSearcher();
+                }
             }
         } catch (InterruptedException e) {
             mLogger.error("Error executing operation", e);
         }
     }
 
-    public synchronized void resetSharedReader() {
-        reader = null;
+    /**
+     * Get the writer shared by all write operations, null if the index isn't
+     * open.  Callers must not close it.
+     */
+    public IndexWriter getSharedIndexWriter() {
+        return indexWriter;
+    }
+
+    /**
+     * Get a searcher which sees the index as of the last refresh.  It must be
+     * given back with releaseSearcher() once the results have been read.
+     */
+    public IndexSearcher acquireSearcher() throws IOException {
+        SearcherManager manager = searcherManager;
+        if (manager == null) {
+            throw new IOException("Search index is not open");
+        }
+        return manager.acquire();
     }
 
-    public synchronized IndexReader getSharedIndexReader() {
-        if (reader == null) {
+    /**
+     * Give back a searcher obtained from acquireSearcher().
+     */
+    public void releaseSearcher(IndexSearcher searcher) {
+        SearcherManager manager = searcherManager;
+        if (manager != null && searcher != null) {
             try {
-                reader = DirectoryReader.open(getIndexDirectory());
+                manager.release(searcher);
             } catch (IOException ex) {
-                mLogger.error("Error opening DirectoryReader", ex);
-                throw new RuntimeException(ex);
+                mLogger.error("Error releasing searcher", ex);
             }
         }
-        return reader;
+    }
+
+    /**
+     * Make sure searches see all changes written so far.  Waits for a
+     * refresh already in progress, and for a write operation in progress so
+     * searches never see e.g. the emptied index in the middle of
+     * replaceIndex().
+     */
+    public void refreshSearcher() {
+        rwl.readLock().lock();
+        try {
+            SearcherManager manager = searcherManager;
+            if (manager != null) {
+                manager.maybeRefreshBlocking();
+            }
+        } catch (IOException ex) {
+            mLogger.error("Error refreshing searcher", ex);
+        } finally {
+            rwl.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the cached results of a search, null if not cached.
+     *
+     * @param key Identifies the search and the version of the index searched.
+     */
+    public Object getCachedResults(String key) {
+        return (resultsCache != null) ? resultsCache.get(key) : null;
+    }
+
+    /**
+     * Cache the results of a search.  All cached results are dropped when
+     * searchers are refreshed.
+     */
+    public void cacheResults(String key, Object results) {
+        if (resultsCache != null) {
+            resultsCache.put(key, results);
+        }
+    }
+
+    /**
+     * Get the query a search term was parsed into, null if not cached.
+     */
+    public Query getCachedQuery(String term) {
+        return (queryCache != null) ? (Query) queryCache.get(term) : null;
+    }
+
+    /**
+     * Cache the query a search term was parsed into.  Queries don't depend on
+     * the index, so they stay cached when it changes.
+     */
+    public void cacheQuery(String term, Query query) {
+        if (queryCache != null) {
+            queryCache.put(term, query);
+        }
+    }
+
+    /**
+     * Get a new configuration for writing the index.
+     */
+    public IndexWriterConfig newIndexWriterConfig() {
+        LimitTokenCountAnalyzer analyzer = new LimitTokenCountAnalyzer(
+                IndexManagerImpl.getAnalyzer(),
+                WebloggerConfig.getIntProperty("lucene.analyzer.maxTokenCount"));
+        return new IndexWriterConfig(analyzer);
+    }
+
+    /**
+     * Get the directory in which a rebuild of the whole index is written,
+     * next to the index directory.
+     */
+    public Path getRebuildDirectoryPath() {
+        return Path.of(indexDir + "-rebuild");
+    }
+
+    /**
+     * Claim the rebuild directory for a rebuild of the whole index.
+     *
+     * @return false if another rebuild of the whole index is in progress.
+     */
+    public boolean startRebuild() {
+        return rebuilding.compareAndSet(false, true);
+    }
+
+    /**
+     * Release the rebuild directory claimed by startRebuild().
+     */
+    public void endRebuild() {
+        rebuilding.set(false);
+    }
+
+    /**
+     * Start noting which entries are changed, because a rebuild of the whole
+     * index may have read them before the change.
+     */
+    public synchronized void startTrackingChanges() {
+        changedDuringRebuild = new HashSet<>();
+    }
+
+    private synchronized void trackChanges(Collection<String> entryIds) {
+        if (changedDuringRebuild != null) {
+            changedDuringRebuild.addAll(entryIds);
+        }
+    }
+
+    /**
+     * Stop noting changed entries, e.g. because a rebuild failed.
+     *
+     * @return ids of the entries changed since startTrackingChanges()
+     */
+    public synchronized Set<String> stopTrackingChanges() {
+        Set<String> changed = changedDuringRebuild;
+        changedDuringRebuild = null;
+        return changed == null ? Collections.<String>emptySet() : changed;
+    }
+
+    /**
+     * Replace the contents of the index with the index in the given
+     * directory, in one step as far as searches are concerned.  Entries
+     * changed since startTrackingChanges() are indexed again afterwards.
+     */
+    public void replaceIndex(Directory source) throws IOException {
+
+        Set<String> changed;
+        rwl.writeLock().lock();
+        try {
+            if (indexWriter == null) {
+                throw new IOException("Search index is not open");
+            }
+            indexWriter.deleteAll();
+            indexWriter.addIndexes(source);
+            indexWriter.commit();
+        } finally {
+            changed = stopTrackingChanges();
+            rwl.writeLock().unlock();
+        }
+
+        refreshSearcher();
+
+        if (entryQueue != null) {
+            for (String id : changed) {
+                entryQueue.add(id);
+            }
+        }
+    }
+
+    /**
+     * Scheduled refresh of the searchers and commit of the index.
+     */
+    private void refreshAndCommit() {
+
+        // skip this round if a write operation is in progress, searches
+        // shouldn't see the half done work of e.g. a rebuild
+        if (!rwl.readLock().tryLock()) {
+            return;
+        }
+        try {
+            searcherManager.maybeRefresh();
+
+            long now = System.currentTimeMillis();
+            if (now - lastCommit >= commitInterval) {
+                lastCommit = now;
+                if (indexWriter.hasUncommittedChanges()) {
+                    indexWriter.commit();
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            mLogger.error("Error refreshing search index", ex);
+        } finally {
+            rwl.readLock().unlock();
+        }
+    }
+
+    private boolean openIndex() {
+        try {
+            IndexWriterConfig config = newIndexWriterConfig();
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+
+            indexDirectory = FSDirectory.open(Path.of(indexDir));
+            indexWriter = new IndexWriter(indexDirectory, config);
+            indexWriter.commit();
+            searcherManager = new SearcherManager(indexWriter, null);
+            searcherManager.addListener(new ReferenceManager.RefreshListener() {
+                @Override
+                public void beforeRefresh() {
+                }
+
+                @Override
+                public void afterRefresh(boolean didRefresh) {
+                    // cached results are of the index as it was
+                    if (didRefresh && resultsCache != null) {
+                        resultsCache.clear();
+                    }
+                }
+            });
+
+        } catch (IOException e) {
+            mLogger.error("Error opening index", e);
+            closeIndex();
+            return false;
+        }
+
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "SearchIndexRefresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleWithFixedDelay(this::refreshAndCommit,
+                refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private void closeIndex() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+            refresher = null;
+        }
+        if (searcherManager != null) {
+            try {
+                searcherManager.close();
+            } catch (IOException ex) {
+                mLogger.error("Unable to close searcher manager.", ex);
+            }
+            searcherManager = null;
+        }
+        if (indexWriter != null) {
+            try {
+                // commits pending changes
+                indexWriter.close();
+            } catch (IOException ex) {
+                mLogger.error("Unable to close index writer.", ex);
+            }
+            indexWriter = null;
+        }
+        if (indexDirectory != null) {
+            try {
+                indexDirectory.close();
+            } catch (IOException ex) {
+                mLogger.error("Unable to close index directory.", ex);
+            }
+            indexDirectory = null;
+        }
     }
 
     /**
@@ -322,30 +731,6 @@ public class IndexManagerImpl implements IndexManager {
 
     }
 
-    private void createIndex(Directory dir) {
-        IndexWriter writer = null;
-
-        try {
-
-            IndexWriterConfig config = new IndexWriterConfig(
-                    new LimitTokenCountAnalyzer(
-                            IndexManagerImpl.getAnalyzer(), 128));
-
-            writer = new IndexWriter(dir, config);
-
-        } catch (IOException e) {
-            mLogger.error("Error creating index", e);
-        } finally {
-            if (writer != null) {
-                try {
-                    writer.close();
-                } catch (IOException ex) {
-                    mLogger.warn("Unable to close IndexWriter.", ex);
-                }
-            }
-        }
-    }
-
     @Override
     public void release() {
         // no-op
@@ -353,16 +738,22 @@ public class IndexManagerImpl implements IndexManager {
 
     @Override
     public void shutdown() {
-        
-        indexConsistencyMarker.delete();
 
-        if (reader != null) {
-            try {
-                reader.close();
-            } catch (IOException ex) {
-                mLogger.error("Unable to close reader.", ex);
-            }
+        // index what's still queued, so the index is consistent at startup
+        if (entryQueue != null) {
+            entryQueue.stop();
+            entryQueue.flush();
         }
+
+        // wait for a write operation in progress, then close for good
+        rwl.writeLock().lock();
+        try {
+            closeIndex();
+        } finally {
+            rwl.writeLock().unlock();
+        }
+
+        indexConsistencyMarker.delete();
     }
 
 }
@@ -51,8 +51,8 @@ public final class IndexUtil {
         }
         Analyzer analyzer = IndexManagerImpl.getAnalyzer();
         Term term = null;
-        try {
-            TokenStream tokens = analyzer.tokenStream(field, new StringReader(input));
+        // the analyzer is shared, the stream must be closed for it to be reused
+        try (TokenStream tokens = analyzer.tokenStream(field, new StringReader(input))) {
             CharTermAttribute termAtt = tokens.addAttribute(CharTermAttribute.class);
             tokens.reset();
 
@@ -60,6 +60,7 @@ public final class IndexUtil {
                 String termt = termAtt.toString();
                 term = new Term(field, termt);
             }
+            tokens.end();
         } catch (IOException e) {
             // ignored
         }
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.business.search;
+
+import java.sql.Timestamp;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntry.PubStatus;
+
+
+/**
+ * A weblog entry found by a search, as stored in the search index.
+ *
+ * Holds what is needed to show the entry in search results, so results
+ * can be shown without loading each entry from the database.
+ */
+public final class SearchResult {
+
+    private final String id;
+    private final String weblogHandle;
+    private final String creatorUserName;
+    private final String title;
+    private final String anchor;
+    private final String summary;
+    private final String categoryName;
+    private final Timestamp pubTime;
+    private final Timestamp updateTime;
+
+
+    private SearchResult(Document doc) {
+        this.id = doc.get(FieldConstants.ID);
+        this.weblogHandle = doc.get(FieldConstants.WEBSITE_HANDLE);
+        this.creatorUserName = doc.get(FieldConstants.CREATOR);
+        this.title = doc.get(FieldConstants.TITLE);
+        this.anchor = doc.get(FieldConstants.ANCHOR);
+        this.summary = doc.get(FieldConstants.SUMMARY);
+        // older documents only have the name in lower case
+        String category = doc.get(FieldConstants.CATEGORY_NAME);
+        this.categoryName = (category != null) ? category : doc.get(FieldConstants.CATEGORY);
+
+        IndexableField published = doc.getField(FieldConstants.PUBLISHED);
+        if (published != null && published.numericValue() != null) {
+            this.pubTime = new Timestamp(published.numericValue().longValue());
+        } else {
+            this.pubTime = null;
+        }
+
+        String updated = doc.get(FieldConstants.UPDATED);
+        this.updateTime = (updated != null) ? Timestamp.valueOf(updated) : null;
+    }
+
+
+    /**
+     * Read a search result from a document of the search index.
+     */
+    public static SearchResult fromDocument(Document doc) {
+        return new SearchResult(doc);
+    }
+
+
+    /**
+     * True if the document held all fields needed to show the entry.  Entries
+     * indexed by older versions don't, until the index is rebuilt.
+     */
+    public boolean isComplete() {
+        return id != null && weblogHandle != null && anchor != null && pubTime != null;
+    }
+
+
+    /**
+     * Make an entry of the result, for rendering only.  The entry is not
+     * loaded from nor saved to the database; its text is the summary stored
+     * in the index.
+     *
+     * @param weblog The weblog of the entry, with handle getWeblogHandle().
+     */
+    public WeblogEntry toWeblogEntry(Weblog weblog) {
+        return toWeblogEntry(weblog, null);
+    }
+
+
+    /**
+     * Make an entry of the result, for rendering only, showing a snippet of
+     * its text such as SearchOperation.getSnippets() returns.
+     *
+     * @param weblog The weblog of the entry, with handle getWeblogHandle().
+     * @param snippet Summary and text of the entry, the stored summary if null.
+     */
+    public WeblogEntry toWeblogEntry(Weblog weblog, String snippet) {
+
+        String text = (snippet != null) ? snippet : summary;
+        WeblogEntry entry = new WeblogEntry();
+        entry.setId(id);
+        entry.setWebsite(weblog);
+        entry.setCreatorUserName(creatorUserName);
+        entry.setTitle(title);
+        entry.setAnchor(anchor);
+        entry.setSummary(text);
+        entry.setText(text);
+        entry.setPubTime(pubTime);
+        entry.setUpdateTime(updateTime);
+        entry.setStatus(PubStatus.PUBLISHED);
+
+        if (categoryName != null) {
+            for (WeblogCategory category : weblog.getWeblogCategories()) {
+                if (categoryName.equals(category.getName())) {
+                    entry.setCategory(category);
+                    break;
+                }
+            }
+        }
+
+        return entry;
+    }
+
+
+    public String getId() {
+        return id;
+    }
+
+    public String getWeblogHandle() {
+        return weblogHandle;
+    }
+
+    public String getCreatorUserName() {
+        return creatorUserName;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getAnchor() {
+        return anchor;
+    }
+
+    public String getSummary() {
+        return summary;
+    }
+
+    public String getCategoryName() {
+        return categoryName;
+    }
+
+    public Timestamp getPubTime() {
+        return pubTime;
+    }
+
+    public Timestamp getUpdateTime() {
+        return updateTime;
+    }
+
+}
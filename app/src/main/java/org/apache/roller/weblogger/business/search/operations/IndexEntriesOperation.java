@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+package org.apache.roller.weblogger.business.search.operations;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.roller.weblogger.WebloggerException;
+import org.apache.roller.weblogger.business.WeblogEntryManager;
+import org.apache.roller.weblogger.business.Weblogger;
+import org.apache.roller.weblogger.business.search.FieldConstants;
+import org.apache.roller.weblogger.business.search.IndexManagerImpl;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+
+/**
+ * An operation that brings a batch of entries up to date in the index, and
+ * commits them together.
+ *
+ * Each entry is looked up again and replaces whatever the index held for it.
+ * Entries which are gone or no longer published are only removed.
+ */
+public class IndexEntriesOperation extends WriteToIndexOperation {
+
+    private static Log mLogger = LogFactory.getFactory().getInstance(
+            IndexEntriesOperation.class);
+
+    private final List<String> entryIds;
+    private final Weblogger roller;
+
+    /**
+     * Index the given entries.
+     */
+    public IndexEntriesOperation(Weblogger roller, IndexManagerImpl mgr,
+            List<String> entryIds) {
+        super(mgr);
+        this.roller = roller;
+        this.entryIds = entryIds;
+    }
+
+    @Override
+    public void doRun() {
+
+        IndexWriter writer = beginWriting();
+        if (writer == null) {
+            return;
+        }
+
+        try {
+            WeblogEntryManager wMgr = roller.getWeblogEntryManager();
+            for (String id : entryIds) {
+                writer.deleteDocuments(new Term(FieldConstants.ID, id));
+                try {
+                    WeblogEntry entry = wMgr.getWeblogEntry(id);
+                    if (entry != null && entry.isPublished()) {
+                        writer.addDocument(getDocument(entry));
+                    }
+                } catch (WebloggerException ex) {
+                    mLogger.error("Error getting weblogentry object " + id, ex);
+                }
+            }
+
+            // one commit for the whole batch
+            writer.commit();
+
+        } catch (IOException e) {
+            mLogger.error("Problems adding/deleting docs to index", e);
+        } finally {
+            if (roller != null) {
+                roller.release();
+            }
+            endWriting();
+        }
+    }
+}
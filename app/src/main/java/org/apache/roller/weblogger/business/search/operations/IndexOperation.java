@@ -18,19 +18,19 @@
 /* Created on Jul 16, 2003 */
 package org.apache.roller.weblogger.business.search.operations;
 
-import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.lucene.analysis.miscellaneous.LimitTokenCountAnalyzer;
+import org.apache.commons.text.StringEscapeUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.util.BytesRef;
 import org.apache.roller.weblogger.business.search.FieldConstants;
 import org.apache.roller.weblogger.business.search.IndexManagerImpl;
@@ -38,6 +38,7 @@ import org.apache.roller.weblogger.config.WebloggerConfig;
 import org.apache.roller.weblogger.pojos.WeblogCategory;
 import org.apache.roller.weblogger.pojos.WeblogEntry;
 import org.apache.roller.weblogger.pojos.WeblogEntryComment;
+import org.apache.roller.weblogger.util.Utilities;
 
 /**
  * This is the base class for all index operation. These operations include:<br>
@@ -53,6 +54,9 @@ public abstract class IndexOperation implements Runnable {
     private static Log mLogger = LogFactory.getFactory().getInstance(
             IndexOperation.class);
 
+    // length of the summary stored for search results
+    private static final int SUMMARY_LENGTH = 250;
+
     // ~ Instance fields
     // ========================================================
     protected IndexManagerImpl manager;
@@ -109,14 +113,18 @@ public abstract class IndexOperation implements Runnable {
         doc.add(new StringField(FieldConstants.ID, data.getId(),
                 Field.Store.YES));
 
-        // keyword
+        // keyword, and doc values for facet counts
         doc.add(new StringField(FieldConstants.WEBSITE_HANDLE, data
                 .getWebsite().getHandle(), Field.Store.YES));
+        doc.add(new SortedDocValuesField(FieldConstants.WEBSITE_HANDLE,
+                new BytesRef(data.getWebsite().getHandle())));
 
         // text, don't index deleted/disabled users of a group blog
         if (data.getCreator() != null) {
             doc.add(new TextField(FieldConstants.USERNAME, data.getCreator()
                     .getUserName().toLowerCase(), Field.Store.YES));
+            doc.add(new StoredField(FieldConstants.CREATOR, data.getCreator()
+                    .getUserName()));
         }
 
         // text
@@ -126,10 +134,12 @@ public abstract class IndexOperation implements Runnable {
         // keyword needs to be in lower case as we are used in a term
         doc.add(new StringField(FieldConstants.LOCALE, data.getLocale()
                 .toLowerCase(), Field.Store.YES));
+        doc.add(new SortedDocValuesField(FieldConstants.LOCALE,
+                new BytesRef(data.getLocale().toLowerCase())));
 
-        // index the entry text, but don't store it
-        doc.add(new TextField(FieldConstants.CONTENT, data.getText(),
-                Field.Store.NO));
+        // index the entry text as plain text, stored for highlighting
+        doc.add(new TextField(FieldConstants.CONTENT, getPlainText(data.getText()),
+                Field.Store.YES));
 
         // keyword
         doc.add(new StringField(FieldConstants.UPDATED, data.getUpdateTime()
@@ -139,6 +149,29 @@ public abstract class IndexOperation implements Runnable {
         if (data.getPubTime() != null) {
             // SearchOperation sorts results by date
             doc.add(new SortedDocValuesField(FieldConstants.PUBLISHED, new BytesRef(data.getPubTime().toString())));
+            doc.add(new StoredField(FieldConstants.PUBLISHED, data.getPubTime().getTime()));
+
+            // month in the weblog's time zone, for facet counts
+            SimpleDateFormat monthFormat = new SimpleDateFormat("yyyy-MM");
+            monthFormat.setTimeZone(data.getWebsite().getTimeZoneInstance());
+            doc.add(new SortedDocValuesField(FieldConstants.PUBLISHED_MONTH,
+                    new BytesRef(monthFormat.format(data.getPubTime()))));
+        }
+
+        // stored, for the permalink of search results
+        if (data.getAnchor() != null) {
+            doc.add(new StoredField(FieldConstants.ANCHOR, data.getAnchor()));
+        }
+
+        // stored, plain text shown with search results
+        String summary = data.getSummary();
+        if (summary == null || summary.isBlank()) {
+            summary = data.getText();
+        }
+        if (summary != null) {
+            doc.add(new StoredField(FieldConstants.SUMMARY, Utilities.truncateText(
+                    Utilities.removeHTML(summary, false), SUMMARY_LENGTH,
+                    SUMMARY_LENGTH + 20, "...")));
         }
 
         // index Category, needs to be in lower case as it is used in a term
@@ -146,6 +179,10 @@ public abstract class IndexOperation implements Runnable {
         if (categorydata != null) {
             doc.add(new StringField(FieldConstants.CATEGORY, categorydata
                     .getName().toLowerCase(), Field.Store.YES));
+            doc.add(new SortedDocValuesField(FieldConstants.CATEGORY,
+                    new BytesRef(categorydata.getName().toLowerCase())));
+            doc.add(new StoredField(FieldConstants.CATEGORY_NAME, categorydata
+                    .getName()));
         }
 
         // index Comments, unstored
@@ -163,40 +200,37 @@ public abstract class IndexOperation implements Runnable {
         return doc;
     }
 
+    /**
+     * Text of an entry without markup, as searched and shown in highlighted
+     * snippets.
+     */
+    private static String getPlainText(String text) {
+        if (text == null) {
+            return "";
+        }
+        return StringEscapeUtils.unescapeHtml4(Utilities.removeHTML(text));
+    }
+
     /**
      * Begin writing.
      * 
-     * @return the index writer
+     * @return the index writer shared by all operations, or null if the
+     *         index isn't open
      */
     protected IndexWriter beginWriting() {
-        try {
-
-            LimitTokenCountAnalyzer analyzer = new LimitTokenCountAnalyzer(
-                    IndexManagerImpl.getAnalyzer(),
-                    WebloggerConfig.getIntProperty("lucene.analyzer.maxTokenCount"));
-
-            IndexWriterConfig config = new IndexWriterConfig(analyzer);
-
-            writer = new IndexWriter(manager.getIndexDirectory(), config);
-
-        } catch (IOException e) {
-            mLogger.error("ERROR creating writer", e);
+        writer = manager.getSharedIndexWriter();
+        if (writer == null) {
+            mLogger.error("ERROR index writer is not available");
         }
-
         return writer;
     }
 
     /**
-     * End writing.
+     * End writing.  The shared writer stays open, changes are committed by
+     * the index manager.
      */
     protected void endWriting() {
-        if (writer != null) {
-            try {
-                writer.close();
-            } catch (IOException e) {
-                mLogger.error("ERROR closing writer", e);
-            }
-        }
+        writer = null;
     }
 
     /**
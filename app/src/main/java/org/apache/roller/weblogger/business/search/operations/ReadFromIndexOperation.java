@@ -22,6 +22,8 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.roller.weblogger.business.search.IndexManagerImpl;
 
 /**
+ * An operation that reads from the index.  Reads don't wait for write
+ * operations, they see the index as of the last searcher refresh.
  * @author aim4min
  */
 public abstract class ReadFromIndexOperation extends IndexOperation {
@@ -35,13 +37,9 @@ public abstract class ReadFromIndexOperation extends IndexOperation {
     @Override
     public final void run() {
         try {
-            manager.getReadWriteLock().readLock().lock();
             doRun();
-
         } catch (Exception e) {
-            mLogger.error("Error acquiring read lock on index", e);
-        } finally {
-            manager.getReadWriteLock().readLock().unlock();
+            mLogger.error("Error reading from index", e);
         }
     }
     
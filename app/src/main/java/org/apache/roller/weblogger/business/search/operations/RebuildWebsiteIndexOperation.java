@@ -18,14 +18,27 @@
 /* Created on Jul 16, 2003 */
 package org.apache.roller.weblogger.business.search.operations;
 
-import java.text.MessageFormat;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.apache.roller.util.RollerConstants;
 import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.WeblogEntryManager;
@@ -33,13 +46,25 @@ import org.apache.roller.weblogger.business.Weblogger;
 import org.apache.roller.weblogger.business.search.FieldConstants;
 import org.apache.roller.weblogger.business.search.IndexManagerImpl;
 import org.apache.roller.weblogger.business.search.IndexUtil;
+import org.apache.roller.weblogger.config.WebloggerConfig;
 import org.apache.roller.weblogger.pojos.Weblog;
 import org.apache.roller.weblogger.pojos.WeblogEntry;
 import org.apache.roller.weblogger.pojos.WeblogEntry.PubStatus;
-import org.apache.roller.weblogger.pojos.WeblogEntrySearchCriteria;
 
 /**
  * An index operation that rebuilds a given users index (or all indexes).
+ *
+ * Entries are read one page at a time, "search.index.rebuildPageSize" entries
+ * per page, so they never all have to fit in memory.  While the next page is
+ * read from the db, the documents of the previous one are indexed by
+ * "search.index.rebuildThreads" threads.
+ *
+ * The index of a single weblog is rebuilt in place, holding the write lock.
+ * The whole index is built in a directory of its own, with a writer using a
+ * RAM buffer of "search.index.rebuildRAMBufferMB" MB, while searches and
+ * other writes keep using the current index.  The new index then replaces
+ * the current one in one step.  Only one rebuild of the whole index runs at
+ * a time, others asked for meanwhile are skipped.
  * 
  * @author Mindaugas Idzelis (min@idzelis.com)
  */
@@ -76,6 +101,28 @@ public class RebuildWebsiteIndexOperation extends WriteToIndexOperation {
     // ~ Methods
     // ================================================================
 
+    @Override
+    public void run() {
+        if (website != null) {
+            // in place, under the write lock
+            super.run();
+        } else {
+            // the write lock is only needed to swap in the new index, but
+            // rebuilds of the whole index share the rebuild directory
+            if (!manager.startRebuild()) {
+                mLogger.info("Index for all users is already being rebuilt, skipping");
+                return;
+            }
+            try {
+                doRun();
+            } catch (Exception e) {
+                mLogger.error("Error rebuilding index", e);
+            } finally {
+                manager.endRebuild();
+            }
+        }
+    }
+
     @Override
     public void doRun() {
 
@@ -97,49 +144,16 @@ public class RebuildWebsiteIndexOperation extends WriteToIndexOperation {
             mLogger.debug("Reindexining entire site");
         }
 
-        IndexWriter writer = beginWriting();
-
+        long count = 0;
         try {
-            if (writer != null) {
-
-                // Delete Doc
-                Term tWebsite = null;
-                if (website != null) {
-                    tWebsite = IndexUtil.getTerm(FieldConstants.WEBSITE_HANDLE,
-                            website.getHandle());
-                }
-                if (tWebsite != null) {
-                    writer.deleteDocuments(tWebsite);
-                } else {
-                    Term all = IndexUtil.getTerm(FieldConstants.CONSTANT,
-                            FieldConstants.CONSTANT_V);
-                    writer.deleteDocuments(all);
-                }
-
-                // Add Doc
-                WeblogEntryManager weblogManager = roller
-                        .getWeblogEntryManager();
-                WeblogEntrySearchCriteria wesc = new WeblogEntrySearchCriteria();
-                wesc.setWeblog(website);
-                wesc.setStatus(PubStatus.PUBLISHED);
-                List<WeblogEntry> entries = weblogManager.getWeblogEntries(wesc);
-
-                mLogger.debug("Entries to index: " + entries.size());
-
-                for (WeblogEntry entry : entries) {
-                    writer.addDocument(getDocument(entry));
-                    mLogger.debug(MessageFormat.format(
-                            "Indexed entry {0}: {1}",
-                            entry.getPubTime(), entry.getAnchor()));
-                }
-
-                // release the database connection
-                roller.release();
+            if (website != null) {
+                count = rebuildWeblog();
+            } else {
+                count = rebuildAll();
             }
         } catch (Exception e) {
             mLogger.error("ERROR adding/deleting doc to index", e);
         } finally {
-            endWriting();
             if (roller != null) {
                 roller.release();
             }
@@ -149,11 +163,152 @@ public class RebuildWebsiteIndexOperation extends WriteToIndexOperation {
         double length = (end.getTime() - start.getTime()) / (double) RollerConstants.SEC_IN_MS;
 
         if (website == null) {
-            mLogger.info("Completed rebuilding index for all users in '"
-                    + length + "' secs");
+            mLogger.info("Completed rebuilding index for all users, "
+                    + count + " entries in '" + length + "' secs");
         } else {
             mLogger.info("Completed rebuilding index for website handle: '"
-                    + website.getHandle() + "' in '" + length + "' seconds");
+                    + website.getHandle() + "', " + count + " entries in '"
+                    + length + "' seconds");
+        }
+    }
+
+    private long rebuildWeblog() throws Exception {
+
+        IndexWriter writer = beginWriting();
+        if (writer == null) {
+            return 0;
+        }
+        try {
+            // Delete Doc
+            Term tWebsite = IndexUtil.getTerm(FieldConstants.WEBSITE_HANDLE,
+                    website.getHandle());
+            if (tWebsite != null) {
+                writer.deleteDocuments(tWebsite);
+            }
+
+            // Add Doc
+            return addEntries(writer);
+        } finally {
+            endWriting();
+        }
+    }
+
+    private long rebuildAll() throws Exception {
+
+        Path path = manager.getRebuildDirectoryPath();
+        deleteDirectory(path);
+
+        // entries changed from now on may be missed by the new index
+        manager.startTrackingChanges();
+        boolean replaced = false;
+        try (Directory dir = FSDirectory.open(path)) {
+
+            IndexWriterConfig config = manager.newIndexWriterConfig();
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            config.setRAMBufferSizeMB(Math.max(16, WebloggerConfig.getIntProperty(
+                    "search.index.rebuildRAMBufferMB", 256)));
+
+            long count;
+            try (IndexWriter writer = new IndexWriter(dir, config)) {
+                count = addEntries(writer);
+                writer.commit();
+            }
+
+            manager.replaceIndex(dir);
+            replaced = true;
+            return count;
+
+        } finally {
+            if (!replaced) {
+                manager.stopTrackingChanges();
+            }
+            deleteDirectory(path);
+        }
+    }
+
+    /**
+     * Add the published entries of the weblog, or of all weblogs, one page
+     * at a time.
+     */
+    private long addEntries(IndexWriter writer) throws Exception {
+
+        int pageSize = Math.max(1, WebloggerConfig.getIntProperty(
+                "search.index.rebuildPageSize", 500));
+        int threads = WebloggerConfig.getIntProperty("search.index.rebuildThreads", 0);
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+
+        WeblogEntryManager weblogManager = roller.getWeblogEntryManager();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long count = 0;
+            String lastId = null;
+            Future<?> previous = null;
+            while (true) {
+                List<WeblogEntry> entries = weblogManager.getWeblogEntriesAfterId(
+                        website, PubStatus.PUBLISHED, lastId, pageSize);
+                if (entries.isEmpty()) {
+                    break;
+                }
+
+                // documents are built here, they need the db
+                List<Document> docs = new ArrayList<>(entries.size());
+                for (WeblogEntry entry : entries) {
+                    docs.add(getDocument(entry));
+                }
+                lastId = entries.get(entries.size() - 1).getId();
+                count += entries.size();
+
+                // let go of the entries read so far
+                roller.release();
+
+                // at most one page is indexed while the next one is read
+                await(previous);
+                previous = pool.submit(() -> docs.parallelStream().forEach(doc -> {
+                    try {
+                        writer.addDocument(doc);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+
+                mLogger.debug("Entries read for indexing: " + count);
+
+                if (entries.size() < pageSize) {
+                    break;
+                }
+            }
+            await(previous);
+            return count;
+
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void await(Future<?> task) throws IOException, InterruptedException {
+        if (task == null) {
+            return;
+        }
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void deleteDirectory(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
         }
     }
 }
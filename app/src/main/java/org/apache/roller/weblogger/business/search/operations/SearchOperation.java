@@ -19,21 +19,28 @@
 package org.apache.roller.weblogger.business.search.operations;
 
 import java.io.IOException;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiCollector;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopFieldCollector;
 import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.roller.weblogger.business.search.FacetCounts;
 import org.apache.roller.weblogger.business.search.FieldConstants;
 import org.apache.roller.weblogger.business.search.IndexManager;
 import org.apache.roller.weblogger.business.search.IndexManagerImpl;
@@ -59,11 +66,17 @@ public class SearchOperation extends ReadFromIndexOperation {
     private static final Sort SORTER = new Sort(new SortField(
             FieldConstants.PUBLISHED, SortField.Type.STRING, true));
 
+    // passages per snippet, and how much of the text to look for them in
+    private static final int SNIPPET_PASSAGES = 2;
+    private static final int SNIPPET_MAX_TEXT = 50000;
+
     // ~ Instance fields
     // ========================================================
 
     private IndexSearcher searcher;
     private TopFieldDocs searchresults;
+    private FacetCounts facets;
+    private Query query;
 
     private String term;
     private String websiteHandle;
@@ -99,12 +112,50 @@ public class SearchOperation extends ReadFromIndexOperation {
     public void doRun() {
         final int docLimit = 500;
         searchresults = null;
-        searcher = null;
+        facets = null;
+        query = null;
+        release();
 
         try {
-            IndexReader reader = manager.getSharedIndexReader();
-            searcher = new IndexSearcher(reader);
+            searcher = manager.acquireSearcher();
+
+            // results stay valid for as long as the index doesn't change
+            long version = ((DirectoryReader) searcher.getIndexReader()).getVersion();
+            String key = version + ":" + websiteHandle + ":" + category + ":"
+                    + locale + ":" + term;
+
+            query = getQuery();
+            Results results = (Results) manager.getCachedResults(key);
+            if (results == null) {
+                // top hits and facet counts in one pass over the hits
+                TopFieldCollector topHits = TopFieldCollector.create(
+                        SORTER, docLimit, Integer.MAX_VALUE);
+                FacetCounts.Collector facetCounts = new FacetCounts.Collector();
+                searcher.search(query, MultiCollector.wrap(topHits, facetCounts));
+
+                results = new Results((TopFieldDocs) topHits.topDocs(),
+                        facetCounts.getCounts());
+                manager.cacheResults(key, results);
+            }
+            searchresults = results.docs;
+            facets = results.facets;
+
+        } catch (IOException e) {
+            mLogger.error("Error searching index", e);
+            parseError = e.getMessage();
+
+        } catch (ParseException e) {
+            // who cares?
+            parseError = e.getMessage();
+        }
+        // the searcher is kept until release(), callers read the hits with it
+    }
+
+    private Query getQuery() throws ParseException {
 
+        // parsing the term is the same for every search of it
+        Query query = manager.getCachedQuery(term);
+        if (query == null) {
             MultiFieldQueryParser multiParser = new MultiFieldQueryParser(
                     SEARCH_FIELDS, IndexManagerImpl.getAnalyzer());
 
@@ -112,46 +163,60 @@ public class SearchOperation extends ReadFromIndexOperation {
             multiParser.setDefaultOperator(MultiFieldQueryParser.Operator.AND);
 
             // Create a query object out of our term
-            Query query = multiParser.parse(term);
+            query = multiParser.parse(term);
+            manager.cacheQuery(term, query);
+        }
 
-            Term tUsername = IndexUtil.getTerm(FieldConstants.WEBSITE_HANDLE,
-                    websiteHandle);
+        Term tUsername = IndexUtil.getTerm(FieldConstants.WEBSITE_HANDLE,
+                websiteHandle);
 
-            if (tUsername != null) {
-                query = new BooleanQuery.Builder()
-                    .add(query, BooleanClause.Occur.MUST)
-                    .add(new TermQuery(tUsername), BooleanClause.Occur.MUST)
-                    .build();
-            }
+        if (tUsername != null) {
+            query = new BooleanQuery.Builder()
+                .add(query, BooleanClause.Occur.MUST)
+                .add(new TermQuery(tUsername), BooleanClause.Occur.MUST)
+                .build();
+        }
 
-            if (category != null) {
-                Term tCategory = new Term(FieldConstants.CATEGORY, category.toLowerCase());
-                query = new BooleanQuery.Builder()
-                    .add(query, BooleanClause.Occur.MUST)
-                    .add(new TermQuery(tCategory), BooleanClause.Occur.MUST)
-                    .build();
-            }
+        if (category != null) {
+            Term tCategory = new Term(FieldConstants.CATEGORY, category.toLowerCase());
+            query = new BooleanQuery.Builder()
+                .add(query, BooleanClause.Occur.MUST)
+                .add(new TermQuery(tCategory), BooleanClause.Occur.MUST)
+                .build();
+        }
 
-            Term tLocale = IndexUtil.getTerm(FieldConstants.LOCALE, locale);
+        Term tLocale = IndexUtil.getTerm(FieldConstants.LOCALE, locale);
 
-            if (tLocale != null) {
-                query = new BooleanQuery.Builder()
-                    .add(query, BooleanClause.Occur.MUST)
-                    .add(new TermQuery(tLocale), BooleanClause.Occur.MUST)
-                    .build();
-            }
+        if (tLocale != null) {
+            query = new BooleanQuery.Builder()
+                .add(query, BooleanClause.Occur.MUST)
+                .add(new TermQuery(tLocale), BooleanClause.Occur.MUST)
+                .build();
+        }
 
-            searchresults = searcher.search(query, docLimit, SORTER);
+        return query;
+    }
 
-        } catch (IOException e) {
-            mLogger.error("Error searching index", e);
-            parseError = e.getMessage();
+    // what is cached of a search
+    private static final class Results {
+        private final TopFieldDocs docs;
+        private final FacetCounts facets;
 
-        } catch (ParseException e) {
-            // who cares?
-            parseError = e.getMessage();
+        private Results(TopFieldDocs docs, FacetCounts facets) {
+            this.docs = docs;
+            this.facets = facets;
+        }
+    }
+
+    /**
+     * Give back the searcher used by the search.  Call this once done with
+     * the results, the searcher and results can't be used afterwards.
+     */
+    public void release() {
+        if (searcher != null) {
+            manager.releaseSearcher(searcher);
+            searcher = null;
         }
-        // don't need to close the reader, since we didn't do any writing!
     }
 
     /**
@@ -182,6 +247,56 @@ public class SearchOperation extends ReadFromIndexOperation {
         return searchresults;
     }
 
+    /**
+     * Gets the number of hits by category, weblog, locale and month, see
+     * FacetCounts.
+     *
+     * @return the facet counts, null if the search failed
+     */
+    public FacetCounts getFacets() {
+        return facets;
+    }
+
+    /**
+     * Get excerpts of the text of hits, with the words searched for in bold.
+     * Must be called before release().
+     *
+     * @param hits
+     *            hits of the results to get excerpts of
+     * @return an excerpt per hit, null where there is none, e.g. because
+     *         the text wasn't stored when the entry was indexed
+     */
+    public String[] getSnippets(ScoreDoc[] hits) {
+        String[] snippets = new String[hits.length];
+        if (searcher == null || query == null || hits.length == 0) {
+            return snippets;
+        }
+
+        int[] docIds = new int[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            docIds[i] = hits[i].doc;
+        }
+
+        try {
+            UnifiedHighlighter highlighter = new UnifiedHighlighter(
+                    searcher, IndexManagerImpl.getAnalyzer());
+            highlighter.setFormatter(new DefaultPassageFormatter(
+                    "<b>", "</b>", "... ", true));
+            highlighter.setMaxLength(SNIPPET_MAX_TEXT);
+
+            Map<String, String[]> highlights = highlighter.highlightFields(
+                    new String[] { FieldConstants.CONTENT }, query, docIds,
+                    new int[] { SNIPPET_PASSAGES });
+            String[] content = highlights.get(FieldConstants.CONTENT);
+            if (content != null) {
+                System.arraycopy(content, 0, snippets, 0, snippets.length);
+            }
+        } catch (IOException | RuntimeException e) {
+            mLogger.error("Error highlighting search results", e);
+        }
+        return snippets;
+    }
+
     /**
      * Gets the results count.
      * 
@@ -59,6 +59,22 @@ public class WebloggerRomeFeedFetcher extends RomeFeedFetcher {
     }
     
     
+    @Override
+    public Subscription fetchSubscription(Subscription sub) throws FetcherException {
+
+        if(sub == null || sub.getFeedURL() == null) {
+            throw new IllegalArgumentException("feed url cannot be null");
+        }
+
+        // local feeds are cheap to check, no http caching for them
+        if(sub.getFeedURL().startsWith("weblogger:")) {
+            return fetchSubscription(sub.getFeedURL(), sub.getLastUpdated());
+        }
+
+        return super.fetchSubscription(sub);
+    }
+
+
     @Override
     public Subscription fetchSubscription(String feedURL, Date lastModified)
             throws FetcherException {
@@ -24,7 +24,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.weblogger.business.runnable.RollerTaskWithLeasing;
 import org.apache.roller.planet.business.updater.FeedUpdater;
-import org.apache.roller.planet.business.updater.SingleThreadedFeedUpdater;
 import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.GuiceWebloggerProvider;
 import org.apache.roller.weblogger.business.WebloggerFactory;
@@ -52,8 +51,9 @@ public class RefreshRollerPlanetTask extends RollerTaskWithLeasing {
     // a String description of when to start this task
     private String startTimeDesc = "immediate";
 
-    // interval at which the task is run, default is 60 minutes
-    private int interval = 60;
+    // interval at which the task is run, default is 5 minutes, each run
+    // only updates the subscriptions which are due
+    private int interval = 5;
 
     // lease time given to task, default is 10 minutes
     private int leaseTime = 10;
@@ -134,7 +134,7 @@ public class RefreshRollerPlanetTask extends RollerTaskWithLeasing {
         try {
             log.info("Refreshing Planet subscriptions");
 
-            FeedUpdater updater = new SingleThreadedFeedUpdater();
+            FeedUpdater updater = WebloggerFactory.getWeblogger().getFeedUpdater();
             updater.updateSubscriptions();
 
         } catch (Exception e) {
@@ -20,6 +20,7 @@ package org.apache.roller.weblogger.pojos.wrapper;
 
 import java.util.Date;
 import org.apache.roller.weblogger.pojos.ThemeTemplate;
+import org.apache.roller.weblogger.util.cache.CacheDependencies;
 
 
 /**
@@ -38,6 +39,7 @@ public final class ThemeTemplateWrapper {
     // wrap the given pojo if it is not null
     public static ThemeTemplateWrapper wrap(ThemeTemplate toWrap) {
         if (toWrap != null) {
+            CacheDependencies.recordTemplate(toWrap.getId());
             return new ThemeTemplateWrapper(toWrap);
         }
         return null;
@@ -23,6 +23,7 @@ import java.util.stream.Collectors;
 import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.URLStrategy;
 import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.util.cache.CacheDependencies;
 
 
 /**
@@ -47,6 +48,7 @@ public final class WeblogCategoryWrapper {
     // wrap the given pojo if it is not null
     public static WeblogCategoryWrapper wrap(WeblogCategory toWrap, URLStrategy strat) {
         if (toWrap != null) {
+            CacheDependencies.recordCategory(toWrap);
             return new WeblogCategoryWrapper(toWrap, strat);
         }
         
@@ -78,6 +80,7 @@ public final class WeblogCategoryWrapper {
     }
 
     public List<WeblogEntryWrapper> retrieveWeblogEntries(boolean publishedOnly) throws WebloggerException {
+        CacheDependencies.recordEntries(this.pojo.getWeblog());
         return this.pojo.retrieveWeblogEntries(publishedOnly).stream()
                 .map(entry -> WeblogEntryWrapper.wrap(entry, urlStrategy))
                 .collect(Collectors.toList());
@@ -85,6 +88,7 @@ public final class WeblogCategoryWrapper {
     
     
     public boolean isInUse() {
+        CacheDependencies.recordEntries(this.pojo.getWeblog());
         return this.pojo.isInUse();
     }
     
@@ -26,6 +26,7 @@ import org.apache.roller.weblogger.business.plugins.PluginManager;
 import org.apache.roller.weblogger.pojos.WeblogEntryComment;
 import org.apache.roller.weblogger.pojos.WeblogEntryComment.ApprovalStatus;
 import org.apache.roller.weblogger.util.Utilities;
+import org.apache.roller.weblogger.util.cache.CacheDependencies;
 
 
 /**
@@ -50,6 +51,8 @@ public final class WeblogEntryCommentWrapper {
     // wrap the given pojo if it is not null
     public static WeblogEntryCommentWrapper wrap(WeblogEntryComment toWrap, URLStrategy strat) {
         if(toWrap != null) {
+            // comments are invalidated along with their entry
+            CacheDependencies.recordEntry(toWrap.getWeblogEntry());
             return new WeblogEntryCommentWrapper(toWrap, strat);
         }
         
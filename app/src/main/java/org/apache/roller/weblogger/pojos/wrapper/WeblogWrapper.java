@@ -31,6 +31,7 @@ import org.apache.roller.weblogger.util.HTMLSanitizer;
 import java.util.stream.Collectors;
 import org.apache.roller.weblogger.pojos.ThemeTemplate.ComponentType;
 import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.util.cache.CacheDependencies;
 
 
 /**
@@ -61,21 +62,25 @@ public final class WeblogWrapper {
 
 
     public ThemeTemplateWrapper getTemplateByAction(ComponentType action) throws WebloggerException {
+        CacheDependencies.recordTemplates(this.pojo);
         return ThemeTemplateWrapper.wrap(this.pojo.getTheme().getTemplateByAction(action));
     }
     
     
     public ThemeTemplateWrapper getTemplateByName(String name) throws WebloggerException {
+        CacheDependencies.recordTemplates(this.pojo);
         return ThemeTemplateWrapper.wrap(this.pojo.getTheme().getTemplateByName(name));
     }
     
     
     public ThemeTemplateWrapper getTemplateByLink(String link) throws WebloggerException {
+        CacheDependencies.recordTemplates(this.pojo);
         return ThemeTemplateWrapper.wrap(this.pojo.getTheme().getTemplateByLink(link));
     }
     
     
     public List<ThemeTemplateWrapper> getTemplates() throws WebloggerException {
+        CacheDependencies.recordTemplates(this.pojo);
         return this.pojo.getTheme().getTemplates().stream()
                 .map(ThemeTemplateWrapper::wrap)
                 .collect(Collectors.toList());
@@ -275,22 +280,26 @@ public final class WeblogWrapper {
     
     
     public WeblogEntryWrapper getWeblogEntry(String anchor) {
+        CacheDependencies.recordEntries(this.pojo);
         return WeblogEntryWrapper.wrap(this.pojo.getWeblogEntry(anchor), urlStrategy);
     }
 
 
     public List<WeblogCategoryWrapper> getWeblogCategories() {
+        CacheDependencies.recordCategories(this.pojo);
         return this.pojo.getWeblogCategories().stream()
                 .map(cat -> WeblogCategoryWrapper.wrap(cat, urlStrategy))
                 .collect(Collectors.toList());
     }
 
     public WeblogCategoryWrapper getWeblogCategory(String categoryName) {
+        CacheDependencies.recordCategories(this.pojo);
         return WeblogCategoryWrapper.wrap(this.pojo.getWeblogCategory(categoryName), urlStrategy);
     }
 
     
     public List<WeblogEntryWrapper> getRecentWeblogEntries(String cat, int length) {
+        CacheDependencies.recordEntries(this.pojo);
         return this.pojo.getRecentWeblogEntries(cat, length).stream()
                 .map(entry -> WeblogEntryWrapper.wrap(entry, urlStrategy))
                 .collect(Collectors.toList());
@@ -298,6 +307,7 @@ public final class WeblogWrapper {
     
     
     public List<WeblogEntryWrapper> getRecentWeblogEntriesByTag(String tag, int length) {
+        CacheDependencies.recordEntries(this.pojo);
         return this.pojo.getRecentWeblogEntriesByTag(tag, length).stream()
                 .map(entry -> WeblogEntryWrapper.wrap(entry, urlStrategy))
                 .collect(Collectors.toList());
@@ -305,6 +315,7 @@ public final class WeblogWrapper {
     
     
     public List<WeblogEntryCommentWrapper> getRecentComments(int length) {
+        CacheDependencies.recordComments(this.pojo);
         return this.pojo.getRecentComments(length).stream()
                 .map(wec -> WeblogEntryCommentWrapper.wrap(wec, urlStrategy))
                 .collect(Collectors.toList());
@@ -312,6 +323,7 @@ public final class WeblogWrapper {
     
     
     public WeblogBookmarkFolderWrapper getBookmarkFolder(String folderName) {
+        CacheDependencies.recordBookmarks(this.pojo);
         return WeblogBookmarkFolderWrapper.wrap(this.pojo.getBookmarkFolder(folderName));
     }
 
@@ -320,16 +332,19 @@ public final class WeblogWrapper {
     }
     
     public List<TagStat> getPopularTags(int sinceDays,int length) {
+        CacheDependencies.recordEntries(this.pojo);
         return this.pojo.getPopularTags(sinceDays,length);
     }
     
     
     public long getCommentCount() {
+        CacheDependencies.recordComments(this.pojo);
         return this.pojo.getCommentCount();
     }
     
     
     public long getEntryCount() {
+        CacheDependencies.recordEntries(this.pojo);
         return this.pojo.getEntryCount();
     }
     
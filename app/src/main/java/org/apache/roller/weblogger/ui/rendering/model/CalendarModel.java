@@ -29,6 +29,7 @@ import org.apache.roller.weblogger.ui.core.tags.calendar.CalendarTag;
 import org.apache.roller.weblogger.ui.core.tags.calendar.WeblogCalendarModel;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogPageRequest;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogRequest;
+import org.apache.roller.weblogger.util.cache.CacheDependencies;
 
 
 /**
@@ -91,6 +92,7 @@ public class CalendarModel implements Model {
             catArgument = null;
         }
         String ret = null;
+        CacheDependencies.recordEntries(pageRequest.getWeblog());
         try {
             org.apache.roller.weblogger.ui.core.tags.calendar.CalendarModel model = null;
             if (big) {
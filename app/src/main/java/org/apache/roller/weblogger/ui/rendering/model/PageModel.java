@@ -41,6 +41,7 @@ import org.apache.roller.weblogger.ui.rendering.pagers.WeblogEntriesPermalinkPag
 import org.apache.roller.weblogger.ui.rendering.util.WeblogEntryCommentForm;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogPageRequest;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogRequest;
+import org.apache.roller.weblogger.util.cache.CacheDependencies;
 
 
 /**
@@ -240,6 +241,10 @@ public class PageModel implements Model {
     
     private WeblogEntriesPager getWeblogEntriesPager(String catArgument, String tagArgument) {
         
+        // even a filtered list of entries depends on all entries, as an
+        // entry may be edited out of a category or tag we would not know of
+        CacheDependencies.recordEntries(weblog);
+        
         // category specified by argument wins over request parameter
         String cat = pageRequest.getWeblogCategoryName();
         if (catArgument != null && !StringUtils.isEmpty(catArgument) && !"nil".equals(catArgument)) {
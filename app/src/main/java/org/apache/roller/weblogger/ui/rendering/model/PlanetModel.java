@@ -37,6 +37,7 @@ import org.apache.roller.weblogger.pojos.Weblog;
 import org.apache.roller.weblogger.ui.rendering.pagers.PlanetEntriesPager;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogPageRequest;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogRequest;
+import org.apache.roller.weblogger.util.cache.CacheDependencies;
 
 /**
  * Model that provides access to planet aggregations, feeds and subscriptions.
@@ -64,6 +65,9 @@ public class PlanetModel implements Model {
     @Override
     public void init(Map<String, Object> initData) throws WebloggerException {
 
+        // planet content can't be tracked
+        CacheDependencies.recordUntracked();
+
         if (!WebloggerConfig.getBooleanProperty("planet.aggregator.enabled")) {
             return;
         }
@@ -21,8 +21,10 @@ package org.apache.roller.weblogger.ui.rendering.model;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -30,16 +32,17 @@ import java.util.TreeSet;
 import org.apache.commons.text.StringEscapeUtils;
 
 import org.apache.commons.lang3.StringUtils;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopFieldDocs;
 import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.URLStrategy;
 import org.apache.roller.weblogger.business.WeblogEntryManager;
+import org.apache.roller.weblogger.business.WeblogManager;
 import org.apache.roller.weblogger.business.Weblogger;
 import org.apache.roller.weblogger.business.WebloggerFactory;
-import org.apache.roller.weblogger.business.search.FieldConstants;
+import org.apache.roller.weblogger.business.search.FacetCounts;
 import org.apache.roller.weblogger.business.search.IndexManager;
+import org.apache.roller.weblogger.business.search.SearchResult;
 import org.apache.roller.weblogger.business.search.operations.SearchOperation;
 import org.apache.roller.weblogger.config.WebloggerRuntimeConfig;
 import org.apache.roller.weblogger.pojos.Weblog;
@@ -73,6 +76,7 @@ public class SearchResultsFeedModel implements Model {
 	private Set<String> categories = Collections.emptySet();
 
 	private boolean websiteSpecificSearch = true;
+	private FacetCounts facets = null;
 
 	private int hits = 0;
 	private int offset = 0;
@@ -150,14 +154,19 @@ public class SearchResultsFeedModel implements Model {
 		// execute search
 		indexMgr.executeIndexOperationNow(search);
 
-		if (search.getResultsCount() > -1) {
+		try {
+			if (search.getResultsCount() > -1) {
 
-			TopFieldDocs docs = search.getResults();
-			ScoreDoc[] hitsArr = docs.scoreDocs;
-			this.hits = search.getResultsCount();
+				TopFieldDocs docs = search.getResults();
+				ScoreDoc[] hitsArr = docs.scoreDocs;
+				this.hits = search.getResultsCount();
+				this.facets = search.getFacets();
 
-			// Convert the Hits into WeblogEntryData instances.
-			convertHitsToEntries(hitsArr, search);
+				// Convert the Hits into WeblogEntryData instances.
+				convertHitsToEntries(hitsArr, search);
+			}
+		} finally {
+			search.release();
 		}
 
 		// search completed, setup pager based on results
@@ -196,25 +205,36 @@ public class SearchResultsFeedModel implements Model {
 		}
 
 		try {
-			TreeSet<String> categorySet = new TreeSet<>();
 			Weblogger roller = WebloggerFactory.getWeblogger();
 			WeblogEntryManager weblogMgr = roller.getWeblogEntryManager();
+			WeblogManager blogMgr = roller.getWeblogManager();
+
+			// weblogs of the results, most often only one
+			Map<String, Weblog> weblogs = new HashMap<>();
+
+			// excerpts of the text of the hits shown, with the words searched
+			String[] snippets = search.getSnippets(
+					Arrays.copyOfRange(hits, offset, offset + limit));
 
 			WeblogEntry entry;
-			Document doc;
+			SearchResult result;
 			String handle;
 			Timestamp now = new Timestamp(new Date().getTime());
 			for (int i = offset; i < offset + limit; i++) {
-				doc = search.getSearcher().doc(hits[i].doc);
-				handle = doc.getField(FieldConstants.WEBSITE_HANDLE)
-						.stringValue();
-
-                entry = weblogMgr.getWeblogEntry(doc.getField(
-                        FieldConstants.ID).stringValue());
-
-				if (!(websiteSpecificSearch && handle.equals(feedRequest.getWeblogHandle()))
-                        && doc.getField(FieldConstants.CATEGORY) != null) {
-                    categorySet.add(doc.getField(FieldConstants.CATEGORY).stringValue());
+				result = SearchResult.fromDocument(search.getSearcher().doc(hits[i].doc));
+				handle = result.getWeblogHandle();
+
+				if (result.isComplete()) {
+					// show the entry as stored in the index
+					if (!weblogs.containsKey(handle)) {
+						weblogs.put(handle, blogMgr.getWeblogByHandle(handle));
+					}
+					Weblog weblog = weblogs.get(handle);
+					entry = (weblog != null)
+							? result.toWeblogEntry(weblog, snippets[i - offset]) : null;
+				} else {
+					// indexed before the index stored enough to show it
+					entry = weblogMgr.getWeblogEntry(result.getId());
 				}
 
 				// maybe null if search result returned inactive user
@@ -225,8 +245,10 @@ public class SearchResultsFeedModel implements Model {
 				}
 			}
 
-			if (!categorySet.isEmpty()) {
-				this.categories = categorySet;
+			// categories of all hits, counted while searching
+			if (!websiteSpecificSearch && facets != null
+					&& !facets.get(FacetCounts.CATEGORY).isEmpty()) {
+				this.categories = new TreeSet<>(facets.get(FacetCounts.CATEGORY).keySet());
 			}
 		} catch (IOException e) {
 			throw new WebloggerException(e);
@@ -270,6 +292,14 @@ public class SearchResultsFeedModel implements Model {
 		return categories;
 	}
 
+	/**
+	 * Number of hits by dimension and value, see FacetCounts for the
+	 * dimensions.
+	 */
+	public Map<String, Map<String, Integer>> getFacets() {
+		return (facets != null) ? facets.asMap() : Collections.emptyMap();
+	}
+
 	public String getCategoryName() {
 		return feedRequest.getWeblogCategoryName();
 	}
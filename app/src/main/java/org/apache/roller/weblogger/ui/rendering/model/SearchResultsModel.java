@@ -20,8 +20,10 @@ package org.apache.roller.weblogger.ui.rendering.model;
 
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
@@ -29,19 +31,21 @@ import java.util.TreeSet;
 
 import org.apache.commons.text.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TopFieldDocs;
 import org.apache.roller.util.DateUtil;
 import org.apache.roller.weblogger.WebloggerException;
 import org.apache.roller.weblogger.business.URLStrategy;
 import org.apache.roller.weblogger.business.WeblogEntryManager;
+import org.apache.roller.weblogger.business.WeblogManager;
 import org.apache.roller.weblogger.business.Weblogger;
 import org.apache.roller.weblogger.business.WebloggerFactory;
-import org.apache.roller.weblogger.business.search.FieldConstants;
+import org.apache.roller.weblogger.business.search.FacetCounts;
 import org.apache.roller.weblogger.business.search.IndexManager;
+import org.apache.roller.weblogger.business.search.SearchResult;
 import org.apache.roller.weblogger.business.search.operations.SearchOperation;
 import org.apache.roller.weblogger.config.WebloggerRuntimeConfig;
+import org.apache.roller.weblogger.pojos.Weblog;
 import org.apache.roller.weblogger.pojos.WeblogEntry;
 import org.apache.roller.weblogger.pojos.WeblogEntryWrapperComparator;
 import org.apache.roller.weblogger.pojos.wrapper.WeblogCategoryWrapper;
@@ -75,6 +79,7 @@ public class SearchResultsModel extends PageModel {
 	private int limit = 0;
 	private Set<String> categories = new TreeSet<String>();
 	private boolean websiteSpecificSearch = true;
+	private FacetCounts facets = null;
 	private String errorMessage = null;
 
 	@Override
@@ -128,20 +133,25 @@ public class SearchResultsModel extends PageModel {
 		// execute search
 		indexMgr.executeIndexOperationNow(search);
 
-		if (search.getResultsCount() == -1) {
-			// this means there has been a parsing (or IO) error
-			this.errorMessage = I18nMessages.getMessages(
-					searchRequest.getLocaleInstance()).getString(
-					"error.searchProblem");
-		} else {
+		try {
+			if (search.getResultsCount() == -1) {
+				// this means there has been a parsing (or IO) error
+				this.errorMessage = I18nMessages.getMessages(
+						searchRequest.getLocaleInstance()).getString(
+						"error.searchProblem");
+			} else {
 
-			TopFieldDocs docs = search.getResults();
-			ScoreDoc[] hitsArr = docs.scoreDocs;
-			this.hits = search.getResultsCount();
+				TopFieldDocs docs = search.getResults();
+				ScoreDoc[] hitsArr = docs.scoreDocs;
+				this.hits = search.getResultsCount();
+				this.facets = search.getFacets();
 
-			// Convert the Hits into WeblogEntryData instances.
-			convertHitsToEntries(hitsArr, search);
+				// Convert the Hits into WeblogEntryData instances.
+				convertHitsToEntries(hitsArr, search);
 
+			}
+		} finally {
+			search.release();
 		}
 
 		// search completed, setup pager based on results
@@ -195,26 +205,37 @@ public class SearchResultsModel extends PageModel {
 		}
 
 		try {
-			Set<String> categorySet = new TreeSet<>();
 			Weblogger roller = WebloggerFactory.getWeblogger();
 			WeblogEntryManager weblogMgr = roller.getWeblogEntryManager();
+			WeblogManager blogMgr = roller.getWeblogManager();
+
+			// weblogs of the results, most often only one
+			Map<String, Weblog> weblogs = new HashMap<>();
+
+			// excerpts of the text of the hits shown, with the words searched
+			String[] snippets = search.getSnippets(
+					Arrays.copyOfRange(hits, offset, offset + limit));
 
 			WeblogEntry entry;
-			Document doc;
+			SearchResult result;
 			String handle;
 			Timestamp now = new Timestamp(new Date().getTime());
 			for (int i = offset; i < offset + limit; i++) {
-				doc = search.getSearcher().doc(hits[i].doc);
-				handle = doc.getField(FieldConstants.WEBSITE_HANDLE)
-						.stringValue();
-
-                entry = weblogMgr.getWeblogEntry(doc.getField(
-                        FieldConstants.ID).stringValue());
-
-                if (!(websiteSpecificSearch && handle.equals(searchRequest.getWeblogHandle()))
-                        && doc.getField(FieldConstants.CATEGORY) != null) {
-                    categorySet.add(doc.getField(FieldConstants.CATEGORY).stringValue());
-                }
+				result = SearchResult.fromDocument(search.getSearcher().doc(hits[i].doc));
+				handle = result.getWeblogHandle();
+
+				if (result.isComplete()) {
+					// show the entry as stored in the index
+					if (!weblogs.containsKey(handle)) {
+						weblogs.put(handle, blogMgr.getWeblogByHandle(handle));
+					}
+					Weblog weblog = weblogs.get(handle);
+					entry = (weblog != null)
+							? result.toWeblogEntry(weblog, snippets[i - offset]) : null;
+				} else {
+					// indexed before the index stored enough to show it
+					entry = weblogMgr.getWeblogEntry(result.getId());
+				}
 
 				// maybe null if search result returned inactive user
 				// or entry's user is not the requested user.
@@ -225,8 +246,10 @@ public class SearchResultsModel extends PageModel {
 				}
 			}
 
-			if (!categorySet.isEmpty()) {
-				this.categories = categorySet;
+			// categories of all hits, counted while searching
+			if (!websiteSpecificSearch && facets != null
+					&& !facets.get(FacetCounts.CATEGORY).isEmpty()) {
+				this.categories = new TreeSet<>(facets.get(FacetCounts.CATEGORY).keySet());
 			}
 		} catch (IOException e) {
 			throw new WebloggerException(e);
@@ -280,6 +303,14 @@ public class SearchResultsModel extends PageModel {
 		return categories;
 	}
 
+	/**
+	 * Number of hits by dimension and value, see FacetCounts for the
+	 * dimensions.
+	 */
+	public Map<String, Map<String, Integer>> getFacets() {
+		return (facets != null) ? facets.asMap() : Collections.emptyMap();
+	}
+
 	public String getErrorMessage() {
 		return errorMessage;
 	}
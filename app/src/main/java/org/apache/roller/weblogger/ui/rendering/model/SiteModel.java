@@ -24,15 +24,18 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.weblogger.WebloggerException;
+import org.apache.roller.weblogger.business.HitCountHistory;
 import org.apache.roller.weblogger.business.URLStrategy;
 import org.apache.roller.weblogger.business.Weblogger;
 import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.apache.roller.weblogger.business.UserManager;
 import org.apache.roller.weblogger.business.WeblogEntryManager;
+import org.apache.roller.weblogger.business.WeblogManager;
 import org.apache.roller.weblogger.business.jpa.JPAWeblogEntryManagerImpl;
 import org.apache.roller.weblogger.pojos.TagStat;
 import org.apache.roller.weblogger.pojos.WeblogHitCount;
@@ -54,6 +57,7 @@ import org.apache.roller.weblogger.ui.rendering.pagers.WeblogsPager;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogFeedRequest;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogPageRequest;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogRequest;
+import org.apache.roller.weblogger.util.cache.CacheDependencies;
 
 
 /**
@@ -63,6 +67,14 @@ public class SiteModel implements Model {
     
     private static final Log log = LogFactory.getLog(SiteModel.class);   
     
+    // how many of the hottest weblogs to look at per weblog listed, so a lot
+    // of hidden or inactive weblogs can't make us look up every single one
+    private static final int HOT_WEBLOG_CANDIDATES = 10;
+    
+    // hot weblogs listed from the in-memory history by sinceDays, until the
+    // history ranks the weblogs again
+    private static final Map<Integer, HotWeblogs> hotWeblogs = new ConcurrentHashMap<>();
+    
     private Weblog weblog = null;
     private WeblogRequest weblogRequest = null;
     private WeblogFeedRequest feedRequest = null;
@@ -81,6 +93,9 @@ public class SiteModel implements Model {
     @Override
     public void init(Map<String, Object> initData) throws WebloggerException {
         
+        // content of other weblogs can't be tracked
+        CacheDependencies.recordUntracked();
+        
         // we expect the init data to contain a weblogRequest object
         this.weblogRequest = (WeblogRequest) initData.get("parsedRequest");
         if(this.weblogRequest == null) {
@@ -427,7 +442,9 @@ public class SiteModel implements Model {
     
     
     /**
-     * Get list of WebsiteDisplay objects, ordered by number of hits.
+     * Get list of WebsiteDisplay objects, ordered by number of hits in the
+     * last 24 hours.  Lists made from the in-memory hit count history are
+     * kept until the history ranks the weblogs again.
      * @param sinceDays Only consider weblogs updated in the last sinceDays
      * @param length      Max number of results to return
      */
@@ -435,6 +452,49 @@ public class SiteModel implements Model {
         
         List<StatCount> results = new ArrayList<>();
         try {
+            // use the recent hits kept in memory, unless there aren't any
+            // yet, e.g. right after the first startup
+            HitCountHistory history = HitCountHistory.getInstance();
+            if (history.isEnabled() && !history.isEmpty()) {
+                List<Map.Entry<String, Long>> ranking = history.getHotWeblogs(24, -1);
+                HotWeblogs listed = hotWeblogs.get(sinceDays);
+                if (listed != null && listed.ranking == ranking && listed.length >= length) {
+                    return new ArrayList<>(listed.weblogs.subList(0,
+                            Math.min(length, listed.weblogs.size())));
+                }
+                
+                WeblogManager wmgr = WebloggerFactory.getWeblogger().getWeblogManager();
+                Date startDate = JPAWeblogEntryManagerImpl.getStartDateNow(sinceDays);
+                
+                int candidates = Math.min(ranking.size(), length * HOT_WEBLOG_CANDIDATES);
+                for (Map.Entry<String, Long> hits : ranking.subList(0, candidates)) {
+                    if (results.size() >= length) {
+                        break;
+                    }
+                    
+                    // same weblogs as the db would have listed
+                    Weblog weblog = wmgr.getWeblogByHandle(hits.getKey());
+                    if (weblog == null || !Boolean.TRUE.equals(weblog.getActive())
+                            || !Boolean.TRUE.equals(weblog.getVisible())
+                            || weblog.getLastModified() == null
+                            || !weblog.getLastModified().after(startDate)) {
+                        continue;
+                    }
+                    
+                    StatCount statCount = new StatCount(
+                        weblog.getId(),
+                        weblog.getHandle(),
+                        weblog.getName(),
+                        "statCount.weblogDayHits",
+                        hits.getValue());
+                    statCount.setWeblogHandle(weblog.getHandle());
+                    results.add(statCount);
+                }
+                hotWeblogs.put(sinceDays, new HotWeblogs(ranking, length,
+                        Collections.unmodifiableList(new ArrayList<>(results))));
+                return results;
+            }
+            
             WeblogEntryManager mgr = WebloggerFactory.getWeblogger().getWeblogEntryManager();
             List<WeblogHitCount> hotBlogs = mgr.getHotWeblogs(sinceDays, 0, length);
             
@@ -589,4 +649,21 @@ public class SiteModel implements Model {
         return count;
     }
     
+    
+    /**
+     * The hot weblogs listed from one ranking of the hit count history.
+     */
+    private static final class HotWeblogs {
+        
+        private final List<Map.Entry<String, Long>> ranking;
+        private final int length;
+        private final List<StatCount> weblogs;
+        
+        private HotWeblogs(List<Map.Entry<String, Long>> ranking, int length, List<StatCount> weblogs) {
+            this.ranking = ranking;
+            this.length = length;
+            this.weblogs = weblogs;
+        }
+    }
+    
 }
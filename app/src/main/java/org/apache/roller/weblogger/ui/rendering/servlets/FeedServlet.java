@@ -45,9 +45,14 @@ import org.apache.roller.weblogger.ui.rendering.RendererManager;
 import org.apache.roller.weblogger.ui.rendering.mobile.MobileDeviceRepository;
 import org.apache.roller.weblogger.ui.rendering.model.ModelLoader;
 import org.apache.roller.weblogger.ui.rendering.model.SearchResultsFeedModel;
+import org.apache.roller.weblogger.ui.rendering.util.cache.CacheWarmer;
+import org.apache.roller.weblogger.ui.rendering.util.cache.RenderCoalescer;
 import org.apache.roller.weblogger.ui.rendering.util.cache.SiteWideCache;
 import org.apache.roller.weblogger.ui.rendering.util.cache.WeblogFeedCache;
+import org.apache.roller.weblogger.ui.rendering.util.ContentEncodingUtil;
+import org.apache.roller.weblogger.ui.rendering.util.ETagHeaderUtil;
 import org.apache.roller.weblogger.ui.rendering.util.ModDateHeaderUtil;
+import org.apache.roller.weblogger.ui.rendering.util.RevalidationRequest;
 
 
 /**
@@ -59,6 +64,11 @@ public class FeedServlet extends HttpServlet {
 
     private WeblogFeedCache weblogFeedCache = null;
     private SiteWideCache siteWideCache = null;
+    // for coalescing concurrent renders of the same feed
+    private RenderCoalescer renderCoalescer = null;
+    private CacheWarmer cacheWarmer = null;
+    // for pre-compressing rendered content
+    private boolean gzipContent = false;
 
 
     /**
@@ -76,6 +86,15 @@ public class FeedServlet extends HttpServlet {
 
         // get a reference to the site wide cache
         this.siteWideCache = SiteWideCache.getInstance();
+
+        this.renderCoalescer = new RenderCoalescer();
+
+        // keep track of the feeds readers ask for most
+        this.cacheWarmer = CacheWarmer.getInstance();
+
+        // gzip rendered content once, rather than on every response
+        this.gzipContent = WebloggerConfig
+                .getBooleanProperty("compression.gzipResponse.enabled");
     }
 
 
@@ -123,13 +142,12 @@ public class FeedServlet extends HttpServlet {
 
         // Respond with 304 Not Modified if it is not modified.
         if (ModDateHeaderUtil.respondIfNotModified(request, response,
-                lastModified, feedRequest.getDeviceType())) {
+                lastModified)) {
             return;
         }
 
         // set last-modified date
-        ModDateHeaderUtil.setLastModifiedHeader(response, lastModified,
-                feedRequest.getDeviceType());
+        ModDateHeaderUtil.setLastModifiedHeader(response, lastModified);
 
         // set content type
         String accepts = request.getHeader("Accept");
@@ -157,20 +175,40 @@ public class FeedServlet extends HttpServlet {
             cacheKey = weblogFeedCache.generateKey(feedRequest);
         }
 
-        // cached content checking
-        CachedContent cachedContent;
+        // cached content checking, unless we are here to replace a stale feed
+        boolean revalidating = request instanceof RevalidationRequest;
+        CachedContent cachedContent = null;
         if (isSiteWide) {
             cachedContent = (CachedContent) siteWideCache.get(cacheKey);
-        } else {
+        } else if (!revalidating) {
             cachedContent = (CachedContent) weblogFeedCache.get(cacheKey,
                     lastModified);
         }
 
+        // a feed which expired recently is still good enough for the reader,
+        // while a fresh copy is rendered in the background
+        boolean revalidate = false;
+        if (cachedContent == null && !isSiteWide && !revalidating) {
+            cachedContent = (CachedContent) weblogFeedCache.getStale(cacheKey,
+                    lastModified);
+            revalidate = cachedContent != null
+                    && weblogFeedCache.startRevalidation(cacheKey);
+        }
+
         if (cachedContent != null) {
             log.debug("HIT " + cacheKey);
+            cacheWarmer.recordHit(weblog, request);
 
-            response.setContentLength(cachedContent.getContent().length);
-            response.getOutputStream().write(cachedContent.getContent());
+            // Respond with 304 Not Modified if the content did not change
+            if (!ETagHeaderUtil.respondIfNoneMatch(request, response,
+                    cachedContent)) {
+                ContentEncodingUtil.writeContent(request, response, cachedContent);
+            }
+
+            if (revalidate) {
+                log.debug("REVALIDATING " + cacheKey);
+                RevalidationRequest.renderInBackground(this, request);
+            }
             return;
 
         } else {
@@ -216,127 +254,168 @@ public class FeedServlet extends HttpServlet {
             feedRequest.setLocale(weblog.getLocale());
         }
 
-        // looks like we need to render content
-        HashMap<String, Object> model = new HashMap<>();
-        String pageId;
-        try {
-            // determine what template to render with
-            boolean siteWide = WebloggerRuntimeConfig.isSiteWideWeblog(weblog
-                    .getHandle());
-            if (siteWide && "entries".equals(feedRequest.getType())
-                    && feedRequest.getTerm() != null) {
-                pageId = "site-search-atom.vm";
-
-            } else if ("entries".equals(feedRequest.getType())
-                    && feedRequest.getTerm() != null) {
-                pageId = "feeds/weblog-search-atom.vm";
-
-            } else if (siteWide) {
-                pageId = "site-" + feedRequest.getType() + "-"
-                        + feedRequest.getFormat() + ".vm";
-
-            } else {
-                pageId = "weblog-" + feedRequest.getType() + "-"
-                        + feedRequest.getFormat() + ".vm";
+        // if the feed is already being rendered for another request then
+        // wait for that instead of loading the models and rendering it again
+        RenderCoalescer.Render render = renderCoalescer.join(cacheKey);
+        if (!render.isLeader()) {
+            CachedContent renderedContent = render.await();
+            if (renderedContent != null) {
+                log.debug("COALESCED " + cacheKey);
+                if (!ETagHeaderUtil.respondIfNoneMatch(request, response,
+                        renderedContent)) {
+                    ContentEncodingUtil.writeContent(request, response, renderedContent);
+                }
+                return;
             }
+            render = null;
+        }
 
-            // populate the rendering model
-            Map<String, Object> initData = new HashMap<>();
-            initData.put("parsedRequest", feedRequest);
-
-            // define url strategy
-            initData.put("urlStrategy", WebloggerFactory.getWeblogger()
-                    .getUrlStrategy());
-
-            // Load models for feeds
-            String feedModels = WebloggerConfig
-                    .getProperty("rendering.feedModels");
-            ModelLoader.loadModels(feedModels, model, initData, true);
+        try {
+            // looks like we need to render content
+            HashMap<String, Object> model = new HashMap<>();
+            String pageId;
+            try {
+                // determine what template to render with
+                boolean siteWide = WebloggerRuntimeConfig.isSiteWideWeblog(weblog
+                        .getHandle());
+                if (siteWide && "entries".equals(feedRequest.getType())
+                        && feedRequest.getTerm() != null) {
+                    pageId = "site-search-atom.vm";
+
+                } else if ("entries".equals(feedRequest.getType())
+                        && feedRequest.getTerm() != null) {
+                    pageId = "feeds/weblog-search-atom.vm";
+
+                } else if (siteWide) {
+                    pageId = "site-" + feedRequest.getType() + "-"
+                            + feedRequest.getFormat() + ".vm";
+
+                } else {
+                    pageId = "weblog-" + feedRequest.getType() + "-"
+                            + feedRequest.getFormat() + ".vm";
+                }
+
+                // populate the rendering model
+                Map<String, Object> initData = new HashMap<>();
+                initData.put("parsedRequest", feedRequest);
+
+                // define url strategy
+                initData.put("urlStrategy", WebloggerFactory.getWeblogger()
+                        .getUrlStrategy());
+
+                // Load models for feeds
+                String feedModels = WebloggerConfig
+                        .getProperty("rendering.feedModels");
+                ModelLoader.loadModels(feedModels, model, initData, true);
+
+                // Load special models for site-wide blog
+
+                if (siteWide) {
+                    String siteModels = WebloggerConfig
+                            .getProperty("rendering.siteModels");
+                    ModelLoader.loadModels(siteModels, model, initData, true);
+                }
+
+                // Load search models if search feed
+                if ("entries".equals(feedRequest.getType())
+                        && feedRequest.getTerm() != null) {
+                    ModelLoader.loadModels(SearchResultsFeedModel.class.getName(),
+                            model, initData, true);
+                }
 
-            // Load special models for site-wide blog
+            } catch (WebloggerException ex) {
+                log.error("ERROR loading model for page", ex);
 
-            if (siteWide) {
-                String siteModels = WebloggerConfig
-                        .getProperty("rendering.siteModels");
-                ModelLoader.loadModels(siteModels, model, initData, true);
+                if (!response.isCommitted()) {
+                    response.reset();
+                }
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                return;
             }
 
-            // Load search models if search feed
-            if ("entries".equals(feedRequest.getType())
-                    && feedRequest.getTerm() != null) {
-                ModelLoader.loadModels(SearchResultsFeedModel.class.getName(),
-                        model, initData, true);
+            // lookup Renderer we are going to use
+            Renderer renderer;
+            try {
+                log.debug("Looking up renderer");
+                Template template = new StaticTemplate(pageId, TemplateLanguage.VELOCITY);
+                renderer = RendererManager.getRenderer(template,
+                        MobileDeviceRepository.DeviceType.standard);
+            } catch (Exception e) {
+                // nobody wants to render my content :(
+
+                // TODO: this log message has been disabled because it fills up
+                // the logs with useless errors due to the fact that the way these
+                // template ids are formed comes directly from the request and it
+                // often gets bunk data causing invalid template ids.
+                // at some point we should have better validation on the input so
+                // that we can quickly dispatch invalid feed requests and only
+                // get this far if we expect the template to be found
+                // log.error("Couldn't find renderer for page "+pageId, e);
+
+                if (!response.isCommitted()) {
+                    response.reset();
+                }
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
             }
 
-        } catch (WebloggerException ex) {
-            log.error("ERROR loading model for page", ex);
-
-            if (!response.isCommitted()) {
-                response.reset();
+            // render content. use default size of 24K for a standard page
+            CachedContent rendererOutput = new CachedContent(RollerConstants.TWENTYFOUR_KB_IN_BYTES);
+            try {
+                log.debug("Doing rendering");
+                renderer.render(model, rendererOutput.getCachedWriter());
+
+                // flush rendered output and close
+                rendererOutput.flush();
+                rendererOutput.close();
+
+                if (this.gzipContent) {
+                    rendererOutput.gzip();
+                }
+            } catch (Exception e) {
+                // bummer, error during rendering
+                log.error("Error during rendering for page " + pageId, e);
+
+                if (!response.isCommitted()) {
+                    response.reset();
+                }
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
             }
-            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            return;
-        }
 
-        // lookup Renderer we are going to use
-        Renderer renderer;
-        try {
-            log.debug("Looking up renderer");
-            Template template = new StaticTemplate(pageId, TemplateLanguage.VELOCITY);
-            renderer = RendererManager.getRenderer(template,
-                    MobileDeviceRepository.DeviceType.standard);
-        } catch (Exception e) {
-            // nobody wants to render my content :(
+            // post rendering process
 
-            // TODO: this log message has been disabled because it fills up
-            // the logs with useless errors due to the fact that the way these
-            // template ids are formed comes directly from the request and it
-            // often gets bunk data causing invalid template ids.
-            // at some point we should have better validation on the input so
-            // that we can quickly dispatch invalid feed requests and only
-            // get this far if we expect the template to be found
-            // log.error("Couldn't find renderer for page "+pageId, e);
-
-            if (!response.isCommitted()) {
-                response.reset();
+            // cache rendered content. only cache if user is not logged in?
+            log.debug("PUT " + cacheKey);
+            if (isSiteWide) {
+                siteWideCache.put(cacheKey, rendererOutput);
+            } else {
+                weblogFeedCache.put(cacheKey, rendererOutput);
             }
-            response.sendError(HttpServletResponse.SC_NOT_FOUND);
-            return;
-        }
-
-        // render content. use default size of 24K for a standard page
-        CachedContent rendererOutput = new CachedContent(RollerConstants.TWENTYFOUR_KB_IN_BYTES);
-        try {
-            log.debug("Doing rendering");
-            renderer.render(model, rendererOutput.getCachedWriter());
 
-            // flush rendered output and close
-            rendererOutput.flush();
-            rendererOutput.close();
-        } catch (Exception e) {
-            // bummer, error during rendering
-            log.error("Error during rendering for page " + pageId, e);
-
-            if (!response.isCommitted()) {
-                response.reset();
+            if (!revalidating) {
+                cacheWarmer.recordHit(weblog, request);
             }
-            response.sendError(HttpServletResponse.SC_NOT_FOUND);
-            return;
-        }
 
-        // post rendering process
+            // hand the content to waiting requests, once it's in the cache for
+            // any request coming after them
+            if (render != null) {
+                render.finish(rendererOutput);
+            }
 
-        // flush rendered content to response
-        log.debug("Flushing response output");
-        response.setContentLength(rendererOutput.getContent().length);
-        response.getOutputStream().write(rendererOutput.getContent());
+            // flush rendered content to response, unless the client already
+            // has exactly this content from before it expired here
+            log.debug("Flushing response output");
+            if (!ETagHeaderUtil.respondIfNoneMatch(request, response,
+                    rendererOutput)) {
+                ContentEncodingUtil.writeContent(request, response, rendererOutput);
+            }
 
-        // cache rendered content. only cache if user is not logged in?
-        log.debug("PUT " + cacheKey);
-        if (isSiteWide) {
-            siteWideCache.put(cacheKey, rendererOutput);
-        } else {
-            weblogFeedCache.put(cacheKey, rendererOutput);
+        } finally {
+            // let waiting requests go, in case rendering failed
+            if (render != null) {
+                render.finish(null);
+            }
         }
 
         log.debug("Exiting");
@@ -36,6 +36,7 @@ import org.apache.roller.weblogger.business.MediaFileManager;
 import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.apache.roller.weblogger.pojos.MediaFile;
 import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.ui.rendering.util.ETagHeaderUtil;
 import org.apache.roller.weblogger.ui.rendering.util.ModDateHeaderUtil;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogMediaResourceRequest;
 
@@ -105,13 +106,18 @@ public class MediaResourceServlet extends HttpServlet {
         }
 
         // Respond with 304 Not Modified if it is not modified.
-        if (ModDateHeaderUtil.respondIfNotModified(request, response,
-                resourceLastMod, resourceRequest.getDeviceType())) {
+        // thumbnails are a different representation of the same media file
+        String eTag = ETagHeaderUtil.generateETag(mediaFile.getId()
+                + (resourceRequest.isThumbnail() ? "/thumbnail" : ""),
+                mediaFile.getLength(), resourceLastMod);
+        if (ETagHeaderUtil.respondIfNoneMatch(request, response, eTag)
+                || ModDateHeaderUtil.respondIfNotModified(request, response,
+                        resourceLastMod)) {
             return;
         } else {
             // set last-modified date
-            ModDateHeaderUtil.setLastModifiedHeader(response, resourceLastMod,
-                    resourceRequest.getDeviceType());
+            ModDateHeaderUtil.setLastModifiedHeader(response, resourceLastMod);
+            ETagHeaderUtil.setETagHeader(response, eTag);
         }
 
         // set the content type based on whatever is in our web.xml mime defs
@@ -44,13 +44,19 @@ import org.apache.roller.weblogger.ui.rendering.Renderer;
 import org.apache.roller.weblogger.ui.rendering.RendererManager;
 import org.apache.roller.weblogger.ui.rendering.model.ModelLoader;
 import org.apache.roller.weblogger.ui.rendering.util.InvalidRequestException;
+import org.apache.roller.weblogger.ui.rendering.util.ContentEncodingUtil;
+import org.apache.roller.weblogger.ui.rendering.util.ETagHeaderUtil;
 import org.apache.roller.weblogger.ui.rendering.util.ModDateHeaderUtil;
+import org.apache.roller.weblogger.ui.rendering.util.RevalidationRequest;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogEntryCommentForm;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogPageRequest;
+import org.apache.roller.weblogger.ui.rendering.util.cache.CacheWarmer;
+import org.apache.roller.weblogger.ui.rendering.util.cache.RenderCoalescer;
 import org.apache.roller.weblogger.ui.rendering.util.cache.SiteWideCache;
 import org.apache.roller.weblogger.ui.rendering.util.cache.WeblogPageCache;
 import org.apache.roller.weblogger.util.BannedwordslistChecker;
 import org.apache.roller.weblogger.util.I18nMessages;
+import org.apache.roller.weblogger.util.cache.CacheDependencies;
 import org.apache.roller.weblogger.util.cache.CachedContent;
 
 import javax.servlet.ServletConfig;
@@ -79,6 +85,11 @@ public class PageServlet extends HttpServlet {
     private boolean excludeOwnerPages = false;
     private WeblogPageCache weblogPageCache = null;
     private SiteWideCache siteWideCache = null;
+    // for coalescing concurrent renders of the same page
+    private RenderCoalescer renderCoalescer = null;
+    private CacheWarmer cacheWarmer = null;
+    // for pre-compressing rendered content
+    private boolean gzipContent = false;
 
     // Development theme reloading
     Boolean themeReload = false;
@@ -102,6 +113,15 @@ public class PageServlet extends HttpServlet {
         // get a reference to the site wide cache
         this.siteWideCache = SiteWideCache.getInstance();
 
+        this.renderCoalescer = new RenderCoalescer();
+
+        // keep track of the pages readers ask for most
+        this.cacheWarmer = CacheWarmer.getInstance();
+
+        // gzip rendered content once, rather than on every response
+        this.gzipContent = WebloggerConfig
+                .getBooleanProperty("compression.gzipResponse.enabled");
+
         // see if built-in referrer spam check is enabled
         this.processReferrers = WebloggerConfig
                 .getBooleanProperty("site.bannedwordslist.enable.referrers");
@@ -142,7 +162,8 @@ public class PageServlet extends HttpServlet {
         // NOTE: this *must* be done first because it triggers a hibernate flush
         // which will close the active session and cause lazy init exceptions
         // otherwise
-        if (this.processReferrers) {
+        boolean revalidating = request instanceof RevalidationRequest;
+        if (this.processReferrers && !revalidating) {
             boolean spam = this.processReferrer(request);
             if (spam) {
                 log.debug("spammer, giving 'em a 403");
@@ -190,12 +211,11 @@ public class PageServlet extends HttpServlet {
         // views their weblog, logs in, then gets a 304 without the 'edit' links
         if (!pageRequest.isLoggedIn()) {
             if (ModDateHeaderUtil.respondIfNotModified(request, response,
-                    lastModified, pageRequest.getDeviceType())) {
+                    lastModified)) {
                 return;
             } else {
                 // set last-modified date
-                ModDateHeaderUtil.setLastModifiedHeader(response, lastModified,
-                        pageRequest.getDeviceType());
+                ModDateHeaderUtil.setLastModifiedHeader(response, lastModified);
             }
         }
 
@@ -232,32 +252,57 @@ public class PageServlet extends HttpServlet {
             }
         }
 
-        // cached content checking
-        if ((!this.excludeOwnerPages || !pageRequest.isLoggedIn())
+        // cached content checking, unless we are here to replace a stale page
+        if (!revalidating
+                && (!this.excludeOwnerPages || !pageRequest.isLoggedIn())
                 && request.getAttribute("skipCache") == null
                 && request.getParameter("skipCache") == null) {
 
             CachedContent cachedContent;
+            boolean revalidate = false;
             if (isSiteWide) {
                 cachedContent = (CachedContent) siteWideCache.get(cacheKey);
             } else {
                 cachedContent = (CachedContent) weblogPageCache.get(cacheKey,
                         lastModified);
+
+                // a page which expired recently is still good enough for
+                // the reader, while a fresh copy is rendered in the background
+                if (cachedContent == null) {
+                    cachedContent = (CachedContent) weblogPageCache.getStale(
+                            cacheKey, lastModified);
+                    revalidate = cachedContent != null
+                            && weblogPageCache.startRevalidation(cacheKey);
+                }
             }
 
             if (cachedContent != null) {
                 log.debug("HIT " + cacheKey);
 
-                // allow for hit counting
-                if (!isSiteWide
-                        && (pageRequest.isWebsitePageHit() || pageRequest
-                                .isOtherPageHit())) {
-                    this.processHit(weblog);
+                if (!pageRequest.isLoggedIn()) {
+                    cacheWarmer.recordHit(weblog, request);
                 }
 
-                response.setContentLength(cachedContent.getContent().length);
-                response.setContentType(cachedContent.getContentType());
-                response.getOutputStream().write(cachedContent.getContent());
+                // 304 Not Modified handling, if the content itself did not
+                // change since the client last saw it
+                if (!ETagHeaderUtil.respondIfNoneMatch(request, response,
+                        cachedContent)) {
+
+                    // allow for hit counting
+                    if (!isSiteWide
+                            && (pageRequest.isWebsitePageHit() || pageRequest
+                                    .isOtherPageHit())) {
+                        this.processHit(weblog, request);
+                    }
+
+                    response.setContentType(cachedContent.getContentType());
+                    ContentEncodingUtil.writeContent(request, response, cachedContent);
+                }
+
+                if (revalidate) {
+                    log.debug("REVALIDATING " + cacheKey);
+                    RevalidationRequest.renderInBackground(this, request);
+                }
                 return;
             } else {
                 log.debug("MISS " + cacheKey);
@@ -411,11 +456,11 @@ public class PageServlet extends HttpServlet {
             pageRequest.setLocale(weblog.getLocale());
         }
 
-        // allow for hit counting
-        if (!isSiteWide
+        // allow for hit counting, unless already counted for a stale page
+        if (!isSiteWide && !revalidating
                 && (pageRequest.isWebsitePageHit() || pageRequest
                         .isOtherPageHit())) {
-            this.processHit(weblog);
+            this.processHit(weblog, request);
         }
 
         // looks like we need to render content
@@ -439,111 +484,169 @@ public class PageServlet extends HttpServlet {
             }
         }
 
-        HashMap<String, Object> model = new HashMap<>();
+        // if the page is already being rendered for another request then
+        // wait for that instead of loading the models and rendering it again
+        RenderCoalescer.Render render = null;
+        if ((!this.excludeOwnerPages || !pageRequest.isLoggedIn())
+                && request.getAttribute("skipCache") == null
+                && request.getParameter("skipCache") == null) {
+
+            render = renderCoalescer.join(cacheKey);
+            if (!render.isLeader()) {
+                CachedContent renderedContent = render.await();
+                if (renderedContent != null) {
+                    log.debug("COALESCED " + cacheKey);
+                    if (!ETagHeaderUtil.respondIfNoneMatch(request, response,
+                            renderedContent)) {
+                        response.setContentType(renderedContent.getContentType());
+                        ContentEncodingUtil.writeContent(request, response, renderedContent);
+                    }
+                    return;
+                }
+                render = null;
+            }
+        }
+
+        // record what the page is rendered from, so that it only expires
+        // when one of those things changes
+        CacheDependencies dependencies = null;
         try {
-            PageContext pageContext = JspFactory.getDefaultFactory()
-                    .getPageContext(this, request, response, "", false,
-                            RollerConstants.EIGHT_KB_IN_BYTES, true);
+            if (!isSiteWide) {
+                dependencies = weblogPageCache.startTracking(weblog);
+                CacheDependencies.recordTemplate(page.getId());
+            }
 
-            // special hack for menu tag
-            request.setAttribute("pageRequest", pageRequest);
+            HashMap<String, Object> model = new HashMap<>();
+            try {
+                PageContext pageContext = JspFactory.getDefaultFactory()
+                        .getPageContext(this, request, response, "", false,
+                                RollerConstants.EIGHT_KB_IN_BYTES, true);
+
+                // special hack for menu tag
+                request.setAttribute("pageRequest", pageRequest);
+
+                // populate the rendering model
+                Map<String, Object> initData = new HashMap<>();
+                initData.put("requestParameters", request.getParameterMap());
+                initData.put("parsedRequest", pageRequest);
+                initData.put("pageContext", pageContext);
+
+                // define url strategy
+                initData.put("urlStrategy", WebloggerFactory.getWeblogger()
+                        .getUrlStrategy());
+
+                // if this was a comment posting, check for comment form
+                WeblogEntryCommentForm commentForm = (WeblogEntryCommentForm) request
+                        .getAttribute("commentForm");
+                if (commentForm != null) {
+                    initData.put("commentForm", commentForm);
+                }
 
-            // populate the rendering model
-            Map<String, Object> initData = new HashMap<>();
-            initData.put("requestParameters", request.getParameterMap());
-            initData.put("parsedRequest", pageRequest);
-            initData.put("pageContext", pageContext);
+                // Load models for pages
+                String pageModels = WebloggerConfig
+                        .getProperty("rendering.pageModels");
+                ModelLoader.loadModels(pageModels, model, initData, true);
+                // Load special models for site-wide blog
+                if (WebloggerRuntimeConfig.isSiteWideWeblog(weblog.getHandle())) {
+                    String siteModels = WebloggerConfig
+                            .getProperty("rendering.siteModels");
+                    ModelLoader.loadModels(siteModels, model, initData, true);
+                }
 
-            // define url strategy
-            initData.put("urlStrategy", WebloggerFactory.getWeblogger()
-                    .getUrlStrategy());
+            } catch (WebloggerException ex) {
+                log.error("Error loading model objects for page", ex);
 
-            // if this was a comment posting, check for comment form
-            WeblogEntryCommentForm commentForm = (WeblogEntryCommentForm) request
-                    .getAttribute("commentForm");
-            if (commentForm != null) {
-                initData.put("commentForm", commentForm);
+                if (!response.isCommitted()) {
+                    response.reset();
+                }
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                return;
             }
 
-            // Load models for pages
-            String pageModels = WebloggerConfig
-                    .getProperty("rendering.pageModels");
-            ModelLoader.loadModels(pageModels, model, initData, true);
-            // Load special models for site-wide blog
-            if (WebloggerRuntimeConfig.isSiteWideWeblog(weblog.getHandle())) {
-                String siteModels = WebloggerConfig
-                        .getProperty("rendering.siteModels");
-                ModelLoader.loadModels(siteModels, model, initData, true);
+            // lookup Renderer we are going to use
+            Renderer renderer;
+            try {
+                log.debug("Looking up renderer");
+                renderer = RendererManager.getRenderer(page,
+                        pageRequest.getDeviceType());
+            } catch (Exception e) {
+                // nobody wants to render my content :(
+                log.error("Couldn't find renderer for page " + page.getId(), e);
+
+                if (!response.isCommitted()) {
+                    response.reset();
+                }
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
             }
 
-        } catch (WebloggerException ex) {
-            log.error("Error loading model objects for page", ex);
+            // render content
+            CachedContent rendererOutput = new CachedContent(
+                    RollerConstants.TWENTYFOUR_KB_IN_BYTES, contentType);
+            try {
+                log.debug("Doing rendering");
+                renderer.render(model, rendererOutput.getCachedWriter());
 
-            if (!response.isCommitted()) {
-                response.reset();
-            }
-            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            return;
-        }
+                // flush rendered output and close
+                rendererOutput.flush();
+                rendererOutput.close();
 
-        // lookup Renderer we are going to use
-        Renderer renderer;
-        try {
-            log.debug("Looking up renderer");
-            renderer = RendererManager.getRenderer(page,
-                    pageRequest.getDeviceType());
-        } catch (Exception e) {
-            // nobody wants to render my content :(
-            log.error("Couldn't find renderer for page " + page.getId(), e);
+                if (this.gzipContent) {
+                    rendererOutput.gzip();
+                }
+            } catch (Exception e) {
+                // bummer, error during rendering
+                log.error("Error during rendering for page " + page.getId(), e);
 
-            if (!response.isCommitted()) {
-                response.reset();
+                if (!response.isCommitted()) {
+                    response.reset();
+                }
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
             }
-            response.sendError(HttpServletResponse.SC_NOT_FOUND);
-            return;
-        }
 
-        // render content
-        CachedContent rendererOutput = new CachedContent(
-                RollerConstants.TWENTYFOUR_KB_IN_BYTES, contentType);
-        try {
-            log.debug("Doing rendering");
-            renderer.render(model, rendererOutput.getCachedWriter());
+            // post rendering process
+            // cache rendered content. only cache if user is not logged in?
+            if ((!this.excludeOwnerPages || !pageRequest.isLoggedIn())
+                    && request.getAttribute("skipCache") == null) {
+                log.debug("PUT " + cacheKey);
 
-            // flush rendered output and close
-            rendererOutput.flush();
-            rendererOutput.close();
-        } catch (Exception e) {
-            // bummer, error during rendering
-            log.error("Error during rendering for page " + page.getId(), e);
+                // put it in the right cache
+                if (isSiteWide) {
+                    siteWideCache.put(cacheKey, rendererOutput);
+                } else {
+                    weblogPageCache.put(cacheKey, rendererOutput, dependencies);
+                }
 
-            if (!response.isCommitted()) {
-                response.reset();
+                if (!revalidating && !pageRequest.isLoggedIn()) {
+                    cacheWarmer.recordHit(weblog, request);
+                }
+            } else {
+                log.debug("SKIPPED " + cacheKey);
             }
-            response.sendError(HttpServletResponse.SC_NOT_FOUND);
-            return;
-        }
 
-        // post rendering process
-        // flush rendered content to response
-        log.debug("Flushing response output");
-        response.setContentType(contentType);
-        response.setContentLength(rendererOutput.getContent().length);
-        response.getOutputStream().write(rendererOutput.getContent());
+            // hand the content to waiting requests, once it's in the cache
+            // for any request coming after them
+            if (render != null) {
+                render.finish(rendererOutput);
+            }
 
-        // cache rendered content. only cache if user is not logged in?
-        if ((!this.excludeOwnerPages || !pageRequest.isLoggedIn())
-                && request.getAttribute("skipCache") == null) {
-            log.debug("PUT " + cacheKey);
+            // flush rendered content to response, unless the client already
+            // has exactly this content from before it expired here
+            log.debug("Flushing response output");
+            if (!ETagHeaderUtil.respondIfNoneMatch(request, response,
+                    rendererOutput)) {
+                response.setContentType(contentType);
+                ContentEncodingUtil.writeContent(request, response, rendererOutput);
+            }
 
-            // put it in the right cache
-            if (isSiteWide) {
-                siteWideCache.put(cacheKey, rendererOutput);
-            } else {
-                weblogPageCache.put(cacheKey, rendererOutput);
+        } finally {
+            CacheDependencies.stopRecording();
+
+            // let waiting requests go, in case rendering failed
+            if (render != null) {
+                render.finish(null);
             }
-        } else {
-            log.debug("SKIPPED " + cacheKey);
         }
 
         log.debug("Exiting");
@@ -569,9 +672,14 @@ public class PageServlet extends HttpServlet {
     }
 
     /**
-     * Notify the hit tracker that it has an incoming page hit.
+     * Notify the hit tracker that it has an incoming page hit, unless the
+     * request only warms up the cache.
      */
-    private void processHit(Weblog weblog) {
+    private void processHit(Weblog weblog, HttpServletRequest request) {
+
+        if (cacheWarmer.isWarmupRequest(request)) {
+            return;
+        }
 
         HitCountQueue counter = HitCountQueue.getInstance();
         counter.processHit(weblog);
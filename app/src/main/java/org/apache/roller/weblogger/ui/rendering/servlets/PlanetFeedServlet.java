@@ -32,6 +32,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.config.WebloggerConfig;
 import org.apache.roller.weblogger.config.WebloggerRuntimeConfig;
 import org.apache.roller.planet.business.PlanetManager;
 import org.apache.roller.planet.config.PlanetRuntimeConfig;
@@ -45,8 +46,11 @@ import org.apache.roller.weblogger.ui.rendering.RendererManager;
 import org.apache.roller.weblogger.ui.rendering.mobile.MobileDeviceRepository.DeviceType;
 import org.apache.roller.weblogger.ui.rendering.model.UtilitiesModel;
 import org.apache.roller.weblogger.ui.rendering.util.cache.PlanetCache;
+import org.apache.roller.weblogger.ui.rendering.util.cache.RenderCoalescer;
 import org.apache.roller.weblogger.ui.rendering.util.PlanetRequest;
 import org.apache.roller.weblogger.ui.rendering.util.ModDateHeaderUtil;
+import org.apache.roller.weblogger.ui.rendering.util.ContentEncodingUtil;
+import org.apache.roller.weblogger.ui.rendering.util.ETagHeaderUtil;
 import org.apache.roller.weblogger.util.cache.CachedContent;
 
 /**
@@ -56,6 +60,10 @@ public class PlanetFeedServlet extends HttpServlet {
 
     private static Log log = LogFactory.getLog(PlanetFeedServlet.class);
     private PlanetCache planetCache = null;
+    // for coalescing concurrent renders of the same feed
+    private RenderCoalescer renderCoalescer = null;
+    // for pre-compressing rendered content
+    private boolean gzipContent = false;
 
     /**
      * Init method for this servlet
@@ -68,6 +76,12 @@ public class PlanetFeedServlet extends HttpServlet {
         log.info("Initializing PlanetRssServlet");
 
         this.planetCache = PlanetCache.getInstance();
+
+        this.renderCoalescer = new RenderCoalescer();
+
+        // gzip rendered content once, rather than on every response
+        this.gzipContent = WebloggerConfig
+                .getBooleanProperty("compression.gzipResponse.enabled");
     }
 
     /**
@@ -97,7 +111,7 @@ public class PlanetFeedServlet extends HttpServlet {
 
         // Respond with 304 Not Modified if it is not modified.
         if (ModDateHeaderUtil.respondIfNotModified(request, response,
-                lastModified.getTime(), planetRequest.getDeviceType())) {
+                lastModified.getTime())) {
             return;
         }
 
@@ -117,130 +131,170 @@ public class PlanetFeedServlet extends HttpServlet {
 
         // set last-modified date
         ModDateHeaderUtil.setLastModifiedHeader(response,
-                lastModified.getTime(), planetRequest.getDeviceType());
+                lastModified.getTime());
 
         // cached content checking
         String cacheKey = PlanetCache.CACHE_ID + ":"
                 + this.generateKey(planetRequest);
         CachedContent entry = (CachedContent) planetCache.get(cacheKey);
         if (entry != null) {
-            response.setContentLength(entry.getContent().length);
-            response.getOutputStream().write(entry.getContent());
+            // Respond with 304 Not Modified if the content did not change
+            if (ETagHeaderUtil.respondIfNoneMatch(request, response, entry)) {
+                return;
+            }
+            ContentEncodingUtil.writeContent(request, response, entry);
             return;
         }
 
-        // looks like we need to render content
-        HashMap<String, Object> model = new HashMap<>();
-        try {
-
-            // populate the rendering model
-            if (request.getParameter("group") != null) {
-                Planet planetObject = planet.getWeblogger("default");
-                model.put(
-                        "group",
-                        planet.getGroup(planetObject,
-                                request.getParameter("group")));
+        // if the feed is already being rendered for another request then
+        // wait for that instead of loading the models and rendering it again
+        RenderCoalescer.Render render = renderCoalescer.join(cacheKey);
+        if (!render.isLeader()) {
+            CachedContent renderedContent = render.await();
+            if (renderedContent != null) {
+                log.debug("COALESCED " + cacheKey);
+                if (!ETagHeaderUtil.respondIfNoneMatch(request, response,
+                        renderedContent)) {
+                    ContentEncodingUtil.writeContent(request, response, renderedContent);
+                }
+                return;
             }
+            render = null;
+        }
 
-            model.put("planet", planet);
-            model.put("date", new Date());
-            model.put("utils", new UtilitiesModel());
-            model.put("lastModified", lastModified);
-
-            model.put("siteName",
-                    PlanetRuntimeConfig.getProperty("planet.site.name"));
-
-            model.put("siteDescription",
-                    PlanetRuntimeConfig.getProperty("planet.site.description"));
+        try {
+            // looks like we need to render content
+            HashMap<String, Object> model = new HashMap<>();
+            try {
+
+                // populate the rendering model
+                if (request.getParameter("group") != null) {
+                    Planet planetObject = planet.getWeblogger("default");
+                    model.put(
+                            "group",
+                            planet.getGroup(planetObject,
+                                    request.getParameter("group")));
+                }
 
+                model.put("planet", planet);
+                model.put("date", new Date());
+                model.put("utils", new UtilitiesModel());
+                model.put("lastModified", lastModified);
 
-            if (StringUtils.isNotEmpty(WebloggerRuntimeConfig
-                    .getProperty("planet.site.absoluteurl"))) {
-                model.put("absoluteSite",
-                        PlanetRuntimeConfig.getProperty("planet.site.absoluteurl"));
-            } else {
-                model.put("absoluteSite",
-                        WebloggerRuntimeConfig.getAbsoluteContextURL());
-            }
+                model.put("siteName",
+                        PlanetRuntimeConfig.getProperty("planet.site.name"));
 
-            model.put("feedStyle", WebloggerRuntimeConfig
-                    .getBooleanProperty("site.newsfeeds.styledFeeds"));
+                model.put("siteDescription",
+                        PlanetRuntimeConfig.getProperty("planet.site.description"));
 
-            int numEntries = WebloggerRuntimeConfig
-                    .getIntProperty("site.newsfeeds.defaultEntries");
 
-            int entryCount = numEntries;
-            String sCount = request.getParameter("count");
-            if (sCount != null) {
-                try {
-                    entryCount = Integer.parseInt(sCount);
-                } catch (NumberFormatException e) {
-                    log.warn("Improperly formatted count parameter");
+                if (StringUtils.isNotEmpty(WebloggerRuntimeConfig
+                        .getProperty("planet.site.absoluteurl"))) {
+                    model.put("absoluteSite",
+                            PlanetRuntimeConfig.getProperty("planet.site.absoluteurl"));
+                } else {
+                    model.put("absoluteSite",
+                            WebloggerRuntimeConfig.getAbsoluteContextURL());
                 }
-                if (entryCount > numEntries) {
-                    entryCount = numEntries;
+
+                model.put("feedStyle", WebloggerRuntimeConfig
+                        .getBooleanProperty("site.newsfeeds.styledFeeds"));
+
+                int numEntries = WebloggerRuntimeConfig
+                        .getIntProperty("site.newsfeeds.defaultEntries");
+
+                int entryCount = numEntries;
+                String sCount = request.getParameter("count");
+                if (sCount != null) {
+                    try {
+                        entryCount = Integer.parseInt(sCount);
+                    } catch (NumberFormatException e) {
+                        log.warn("Improperly formatted count parameter");
+                    }
+                    if (entryCount > numEntries) {
+                        entryCount = numEntries;
+                    }
+                    if (entryCount < 0) {
+                        entryCount = 0;
+                    }
                 }
-                if (entryCount < 0) {
-                    entryCount = 0;
+                model.put("entryCount", entryCount);
+            } catch (Exception ex) {
+                log.error("Error loading model objects for page", ex);
+
+                if (!response.isCommitted()) {
+                    response.reset();
                 }
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                return;
             }
-            model.put("entryCount", entryCount);
-        } catch (Exception ex) {
-            log.error("Error loading model objects for page", ex);
 
-            if (!response.isCommitted()) {
-                response.reset();
+            // lookup Renderer we are going to use
+            Renderer renderer = null;
+            try {
+                log.debug("Looking up renderer");
+                Template template = new StaticTemplate(
+                        "templates/planet/planetrss.vm", TemplateLanguage.VELOCITY);
+                renderer = RendererManager.getRenderer(template, DeviceType.mobile);
+            } catch (Exception e) {
+                // nobody wants to render my content :(
+                log.error("Couldn't find renderer for planet rss", e);
+
+                if (!response.isCommitted()) {
+                    response.reset();
+                }
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
             }
-            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            return;
-        }
 
-        // lookup Renderer we are going to use
-        Renderer renderer = null;
-        try {
-            log.debug("Looking up renderer");
-            Template template = new StaticTemplate(
-                    "templates/planet/planetrss.vm", TemplateLanguage.VELOCITY);
-            renderer = RendererManager.getRenderer(template, DeviceType.mobile);
-        } catch (Exception e) {
-            // nobody wants to render my content :(
-            log.error("Couldn't find renderer for planet rss", e);
+            // render content
+            CachedContent rendererOutput = new CachedContent(RollerConstants.TWENTYFOUR_KB_IN_BYTES);
+            try {
+                log.debug("Doing rendering");
+                renderer.render(model, rendererOutput.getCachedWriter());
 
-            if (!response.isCommitted()) {
-                response.reset();
-            }
-            response.sendError(HttpServletResponse.SC_NOT_FOUND);
-            return;
-        }
+                // flush rendered output and close
+                rendererOutput.flush();
+                rendererOutput.close();
 
-        // render content
-        CachedContent rendererOutput = new CachedContent(RollerConstants.TWENTYFOUR_KB_IN_BYTES);
-        try {
-            log.debug("Doing rendering");
-            renderer.render(model, rendererOutput.getCachedWriter());
+                if (this.gzipContent) {
+                    rendererOutput.gzip();
+                }
+            } catch (Exception e) {
+                // bummer, error during rendering
+                log.error("Error during rendering for planet rss", e);
 
-            // flush rendered output and close
-            rendererOutput.flush();
-            rendererOutput.close();
-        } catch (Exception e) {
-            // bummer, error during rendering
-            log.error("Error during rendering for planet rss", e);
+                if (!response.isCommitted()) {
+                    response.reset();
+                }
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+
+            // post rendering process
+            // cache rendered content.
+            this.planetCache.put(cacheKey, rendererOutput);
 
-            if (!response.isCommitted()) {
-                response.reset();
+            // hand the content to waiting requests, once it's in the cache for
+            // any request coming after them
+            if (render != null) {
+                render.finish(rendererOutput);
             }
-            response.sendError(HttpServletResponse.SC_NOT_FOUND);
-            return;
-        }
 
-        // post rendering process
-        // flush rendered content to response
-        log.debug("Flushing response output");
-        response.setContentLength(rendererOutput.getContent().length);
-        response.getOutputStream().write(rendererOutput.getContent());
+            // flush rendered content to response, unless the client already
+            // has exactly this content from before it expired here
+            log.debug("Flushing response output");
+            if (!ETagHeaderUtil.respondIfNoneMatch(request, response,
+                    rendererOutput)) {
+                ContentEncodingUtil.writeContent(request, response, rendererOutput);
+            }
 
-        // cache rendered content.
-        this.planetCache.put(cacheKey, rendererOutput);
+        } finally {
+            // let waiting requests go, in case rendering failed
+            if (render != null) {
+                render.finish(null);
+            }
+        }
 
         log.debug("Exiting");
     }
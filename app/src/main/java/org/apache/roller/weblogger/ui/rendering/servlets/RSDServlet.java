@@ -100,13 +100,12 @@ public class RSDServlet extends HttpServlet {
             lastModified = weblog.getLastModified().getTime();
         }
         if (ModDateHeaderUtil.respondIfNotModified(request, response,
-                lastModified, weblogRequest.getDeviceType())) {
+                lastModified)) {
             return;
         }
 
         // set last-modified date
-        ModDateHeaderUtil.setLastModifiedHeader(response, lastModified,
-                weblogRequest.getDeviceType());
+        ModDateHeaderUtil.setLastModifiedHeader(response, lastModified);
 
         // set the content type
         response.setContentType("application/rsd+xml; charset=utf-8");
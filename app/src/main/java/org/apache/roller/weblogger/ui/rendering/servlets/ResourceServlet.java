@@ -37,6 +37,7 @@ import org.apache.roller.weblogger.pojos.MediaFile;
 import org.apache.roller.weblogger.pojos.ThemeResource;
 import org.apache.roller.weblogger.pojos.Weblog;
 import org.apache.roller.weblogger.pojos.WeblogTheme;
+import org.apache.roller.weblogger.ui.rendering.util.ETagHeaderUtil;
 import org.apache.roller.weblogger.ui.rendering.util.ModDateHeaderUtil;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogResourceRequest;
 
@@ -99,6 +100,8 @@ public class ResourceServlet extends HttpServlet {
                 + "]");
 
         long resourceLastMod = 0;
+        long resourceLength = 0;
+        String resourceId = null;
         InputStream resourceStream = null;
 
         // first see if resource comes from weblog's shared theme
@@ -109,6 +112,8 @@ public class ResourceServlet extends HttpServlet {
                         .getResource(resourceRequest.getResourcePath());
                 if (resource != null) {
                     resourceLastMod = resource.getLastModified();
+                    resourceLength = resource.getLength();
+                    resourceId = weblogTheme.getId() + '/' + resource.getPath();
                     resourceStream = resource.getInputStream();
                 }
             }
@@ -132,6 +137,8 @@ public class ResourceServlet extends HttpServlet {
                 MediaFile mf = mmgr.getMediaFileByOriginalPath(weblog,
                         resourceRequest.getResourcePath());
                 resourceLastMod = mf.getLastModified();
+                resourceLength = mf.getLength();
+                resourceId = mf.getId();
                 resourceStream = mf.getInputStream();
 
             } catch (Exception ex) {
@@ -149,13 +156,17 @@ public class ResourceServlet extends HttpServlet {
         }
 
         // Respond with 304 Not Modified if it is not modified.
-        if (ModDateHeaderUtil.respondIfNotModified(request, response,
-                resourceLastMod, resourceRequest.getDeviceType())) {
+        String eTag = ETagHeaderUtil.generateETag(resourceId, resourceLength,
+                resourceLastMod);
+        if (ETagHeaderUtil.respondIfNoneMatch(request, response, eTag)
+                || ModDateHeaderUtil.respondIfNotModified(request, response,
+                        resourceLastMod)) {
+            resourceStream.close();
             return;
         } else {
             // set last-modified date
-            ModDateHeaderUtil.setLastModifiedHeader(response, resourceLastMod,
-                    resourceRequest.getDeviceType());
+            ModDateHeaderUtil.setLastModifiedHeader(response, resourceLastMod);
+            ETagHeaderUtil.setETagHeader(response, eTag);
         }
 
         // set the content type based on whatever is in our web.xml mime defs
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util;
+
+import java.io.IOException;
+import java.util.Locale;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+
+/**
+ * Utility class to localize the content-encoding negotiation logic used when
+ * writing rendered content to a response.
+ */
+public final class ContentEncodingUtil {
+
+    private static Log log = LogFactory.getLog(ContentEncodingUtil.class);
+
+    private ContentEncodingUtil() {
+    }
+
+    /**
+     * Determine if the client accepts gzip content-encoding, as indicated by
+     * the Accept-Encoding header of the request.
+     *
+     * @param request
+     *            the request
+     * @return true if gzip has a non-zero quality value, either explicitly or
+     *         through a wildcard.
+     */
+    public static boolean acceptsGzip(HttpServletRequest request) {
+
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        boolean accepts = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] params = coding.split(";");
+            String name = params[0].trim().toLowerCase(Locale.ENGLISH);
+
+            boolean acceptable = true;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        acceptable = Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        acceptable = false;
+                    }
+                }
+            }
+
+            if ("gzip".equals(name) || "x-gzip".equals(name)) {
+                // an explicit gzip coding always wins over a wildcard
+                return acceptable;
+            } else if ("*".equals(name)) {
+                accepts = acceptable;
+            }
+        }
+
+        return accepts;
+    }
+
+    /**
+     * Write rendered content to the response, using the pre-gzipped variant
+     * of the content when there is one and the client accepts it.  The ETag
+     * header is set to the tag of the variant being sent.
+     *
+     * The content-type is expected to have been set already.
+     *
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @param content
+     *            the rendered content
+     */
+    public static void writeContent(HttpServletRequest request,
+            HttpServletResponse response, CachedContent content)
+            throws IOException {
+
+        if (content.isGzipped()) {
+            // caches between us and the client need to know the response
+            // depends on the Accept-Encoding header
+            response.addHeader("Vary", "Accept-Encoding");
+
+            if (acceptsGzip(request)) {
+                log.debug("Writing gzipped content");
+                response.setHeader("Content-Encoding", "gzip");
+                ETagHeaderUtil.setETagHeader(response, ETagHeaderUtil.generateETag(content, true));
+                response.setContentLength(content.getGzippedContentLength());
+                content.writeGzippedContent(response.getOutputStream());
+                return;
+            }
+        }
+
+        ETagHeaderUtil.setETagHeader(response, ETagHeaderUtil.generateETag(content, false));
+        response.setContentLength(content.getContentLength());
+        content.writeContent(response.getOutputStream());
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A response without a client.
+ *
+ * Used when a fresh copy of stale content is rendered for the cache in the
+ * background, after the reader was sent the stale copy, so everything the
+ * render tries to send is quietly dropped.
+ */
+public class DiscardingResponseWrapper extends HttpServletResponseWrapper {
+
+    private final ServletOutputStream outputStream = new ServletOutputStream() {
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            // nothing will ever be written
+        }
+
+        @Override
+        public void write(int b) {
+            // discarded
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // discarded
+        }
+    };
+
+    private final PrintWriter writer = new PrintWriter(Writer.nullWriter());
+
+
+    public DiscardingResponseWrapper() {
+        super((HttpServletResponse) Proxy.newProxyInstance(
+                DiscardingResponseWrapper.class.getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class },
+                (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(
+                            method.getName() + " is not available without a client");
+                }));
+    }
+
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return true;
+    }
+
+    @Override
+    public void sendError(int sc) {
+        // too late
+    }
+
+    @Override
+    public void sendError(int sc, String msg) {
+        // too late
+    }
+
+    @Override
+    public void sendRedirect(String location) {
+        // too late
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        // too late
+    }
+
+    @Override
+    public void reset() {
+        // too late
+    }
+
+    @Override
+    public void resetBuffer() {
+        // too late
+    }
+
+    @Override
+    public void flushBuffer() {
+        // nothing to flush
+    }
+
+    @Override
+    public void setContentType(String type) {
+        // too late
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        // too late
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        // too late
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        // too late
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        // too late
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        // too late
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        // too late
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        // too late
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        // too late
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+        // too late
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+        // too late
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return StandardCharsets.UTF_8.name();
+    }
+
+    @Override
+    public void setLocale(Locale loc) {
+        // too late
+    }
+
+    @Override
+    public Locale getLocale() {
+        return Locale.getDefault();
+    }
+
+    @Override
+    public String getContentType() {
+        return null;
+    }
+
+    @Override
+    public void setBufferSize(int size) {
+        // nothing is buffered
+    }
+
+    @Override
+    public int getBufferSize() {
+        return 0;
+    }
+
+    @Override
+    public int getStatus() {
+        return SC_OK;
+    }
+
+    @Override
+    public boolean containsHeader(String name) {
+        return false;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        return null;
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public String encodeURL(String url) {
+        return url;
+    }
+
+    @Override
+    public String encodeRedirectURL(String url) {
+        return url;
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+
+/**
+ * Utility class to localize the entity tag header-related logic.
+ *
+ * Rendered content is tagged with the hash of its content, so a page only
+ * needs to be sent again when its bytes actually changed.  The gzipped
+ * variant of some content gets a tag of its own, as required for strong
+ * entity tags, but either tag is accepted when revalidating.
+ */
+public final class ETagHeaderUtil {
+
+    private static Log log = LogFactory.getLog(ETagHeaderUtil.class);
+
+    private static final String GZIP_SUFFIX = "-gzip";
+
+    private ETagHeaderUtil() {
+    }
+
+    /**
+     * Generate the strong entity tag for rendered content.
+     *
+     * @param content
+     *            the rendered content, which must have been closed
+     * @param gzipped
+     *            true if the gzipped variant of the content is being sent
+     * @return the quoted entity tag, or null if the content has no hash
+     */
+    public static String generateETag(CachedContent content, boolean gzipped) {
+        if (content.getContentHash() == null) {
+            return null;
+        }
+        return '"' + content.getContentHash() + (gzipped ? GZIP_SUFFIX : "") + '"';
+    }
+
+    /**
+     * Generate the entity tag for a stored resource such as a theme resource
+     * or a media file.
+     *
+     * Hashing the bytes of a file on every request would cost more than
+     * sending it, so the tag is derived from the identity, length and last
+     * modified time of the resource instead.
+     *
+     * @return the quoted entity tag
+     */
+    public static String generateETag(String resourceId, long length, long lastModified) {
+        return '"' + DigestUtils.md5Hex(resourceId + ':' + length + ':' + lastModified) + '"';
+    }
+
+    /**
+     * Sets the HTTP response status to 304 (NOT MODIFIED) if the request
+     * contains an If-None-Match header which matches the given entity tag.
+     * Tags are compared with the weak comparison function, as required for
+     * If-None-Match, and the gzip variant of a tag matches the tag itself.
+     *
+     * @param request
+     *            the request
+     * @param response
+     *            the response
+     * @param eTag
+     *            the current entity tag of the resource, may be null
+     * @return true if a response status was sent, false otherwise.
+     */
+    public static boolean respondIfNoneMatch(HttpServletRequest request,
+            HttpServletResponse response, String eTag) {
+
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (eTag == null || ifNoneMatch == null) {
+            return false;
+        }
+
+        String opaqueTag = opaqueTag(eTag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if ("*".equals(tag) || opaqueTag.equals(opaqueTag(tag))) {
+
+                if (log.isDebugEnabled()) {
+                    log.debug("NOT MODIFIED " + request.getRequestURL());
+                }
+
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                response.setHeader("ETag", eTag);
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Shortcut for checking If-None-Match against rendered content, using
+     * the tag of the variant the client would have been sent.
+     */
+    public static boolean respondIfNoneMatch(HttpServletRequest request,
+            HttpServletResponse response, CachedContent content) {
+        boolean gzipped = content.isGzipped() && ContentEncodingUtil.acceptsGzip(request);
+        return respondIfNoneMatch(request, response, generateETag(content, gzipped));
+    }
+
+    /**
+     * Set the ETag header, unless there is no tag.
+     */
+    public static void setETagHeader(HttpServletResponse response, String eTag) {
+        if (eTag != null) {
+            response.setHeader("ETag", eTag);
+        }
+    }
+
+    /**
+     * Strip the weak indicator, the quotes and the gzip suffix off a tag.
+     */
+    private static String opaqueTag(String eTag) {
+        String tag = eTag;
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            tag = tag.substring(1, tag.length() - 1);
+        }
+        if (tag.endsWith(GZIP_SUFFIX)) {
+            tag = tag.substring(0, tag.length() - GZIP_SUFFIX.length());
+        }
+        return tag;
+    }
+
+}
@@ -0,0 +1,379 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util;
+
+import java.lang.reflect.Proxy;
+import java.security.Principal;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.servlet.DispatcherType;
+import javax.servlet.Servlet;
+import javax.servlet.ServletContext;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+
+/**
+ * A copy of a request, for rendering a fresh copy of stale content in the
+ * background once the reader has been sent the stale copy.
+ *
+ * The container recycles a request as soon as it has been answered, so
+ * everything rendering asks a request for is copied up front, and anything
+ * else fails rather than reaching into a request which may belong to
+ * another client by then.  Conditional headers are left out, since there is
+ * no client to answer.
+ */
+public class RevalidationRequest extends HttpServletRequestWrapper {
+
+    private static final Log log = LogFactory.getLog(RevalidationRequest.class);
+
+    private final String method;
+    private final String requestURI;
+    private final String requestURL;
+    private final String contextPath;
+    private final String servletPath;
+    private final String pathInfo;
+    private final String queryString;
+    private final Map<String, String[]> parameters;
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final List<Locale> locales;
+    private final String characterEncoding;
+    private final String protocol;
+    private final String scheme;
+    private final String serverName;
+    private final int serverPort;
+    private final boolean secure;
+    private final String remoteAddr;
+    private final String remoteHost;
+    private final Cookie[] cookies;
+    private final HttpSession session;
+    private final Principal userPrincipal;
+    private final String remoteUser;
+    private final ServletContext servletContext;
+
+
+    public RevalidationRequest(HttpServletRequest request) {
+        super(unavailable());
+
+        method = request.getMethod();
+        requestURI = request.getRequestURI();
+        requestURL = request.getRequestURL().toString();
+        contextPath = request.getContextPath();
+        servletPath = request.getServletPath();
+        pathInfo = request.getPathInfo();
+        queryString = request.getQueryString();
+        parameters = Collections.unmodifiableMap(new LinkedHashMap<>(request.getParameterMap()));
+
+        for (String name : Collections.list(request.getHeaderNames())) {
+            if (!name.regionMatches(true, 0, "If-", 0, 3)) {
+                headers.put(name, Collections.list(request.getHeaders(name)));
+            }
+        }
+        for (String name : Collections.list(request.getAttributeNames())) {
+            attributes.put(name, request.getAttribute(name));
+        }
+
+        locales = Collections.list(request.getLocales());
+        characterEncoding = request.getCharacterEncoding();
+        protocol = request.getProtocol();
+        scheme = request.getScheme();
+        serverName = request.getServerName();
+        serverPort = request.getServerPort();
+        secure = request.isSecure();
+        remoteAddr = request.getRemoteAddr();
+        remoteHost = request.getRemoteHost();
+        cookies = request.getCookies();
+        session = request.getSession(false);
+        userPrincipal = request.getUserPrincipal();
+        remoteUser = request.getRemoteUser();
+        servletContext = request.getServletContext();
+    }
+
+
+    /**
+     * Render a fresh copy of what the request asked for on a background
+     * thread, for the servlet to put into its cache.
+     */
+    public static void renderInBackground(final Servlet servlet, HttpServletRequest request) {
+
+        final RevalidationRequest revalidation = new RevalidationRequest(request);
+        try {
+            WebloggerFactory.getWeblogger().getThreadManager().executeInBackground(() -> {
+                try {
+                    servlet.service(revalidation, new DiscardingResponseWrapper());
+                } catch (Exception e) {
+                    log.error("Error revalidating " + revalidation.getRequestURI(), e);
+                } finally {
+                    WebloggerFactory.getWeblogger().release();
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    // the request being wrapped, for anything we didn't copy
+    private static HttpServletRequest unavailable() {
+        return (HttpServletRequest) Proxy.newProxyInstance(
+                RevalidationRequest.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class },
+                (proxy, method, args) -> {
+                    throw new UnsupportedOperationException(
+                            method.getName() + " is not available when revalidating");
+                });
+    }
+
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return requestURI;
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+        return new StringBuffer(requestURL);
+    }
+
+    @Override
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    @Override
+    public String getServletPath() {
+        return servletPath;
+    }
+
+    @Override
+    public String getPathInfo() {
+        return pathInfo;
+    }
+
+    @Override
+    public String getQueryString() {
+        return queryString;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        String[] values = parameters.get(name);
+        return (values != null && values.length > 0) ? values[0] : null;
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return parameters;
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        return parameters.get(name);
+    }
+
+    @Override
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return (values != null && !values.isEmpty()) ? values.get(0) : null;
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        return Collections.enumeration(headers.getOrDefault(name, Collections.emptyList()));
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(headers.keySet());
+    }
+
+    @Override
+    public int getIntHeader(String name) {
+        String value = getHeader(name);
+        return (value != null) ? Integer.parseInt(value) : -1;
+    }
+
+    @Override
+    public long getDateHeader(String name) {
+        String value = getHeader(name);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Not a date: " + value, e);
+        }
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(new ArrayList<>(attributes.keySet()));
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        if (value == null) {
+            attributes.remove(name);
+        } else {
+            attributes.put(name, value);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        attributes.remove(name);
+    }
+
+    @Override
+    public Locale getLocale() {
+        return locales.isEmpty() ? Locale.getDefault() : locales.get(0);
+    }
+
+    @Override
+    public Enumeration<Locale> getLocales() {
+        return Collections.enumeration(locales);
+    }
+
+    @Override
+    public String getCharacterEncoding() {
+        return characterEncoding;
+    }
+
+    @Override
+    public void setCharacterEncoding(String env) {
+        // the parameters are already decoded
+    }
+
+    @Override
+    public String getContentType() {
+        return null;
+    }
+
+    @Override
+    public String getProtocol() {
+        return protocol;
+    }
+
+    @Override
+    public String getScheme() {
+        return scheme;
+    }
+
+    @Override
+    public String getServerName() {
+        return serverName;
+    }
+
+    @Override
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return secure;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return remoteAddr;
+    }
+
+    @Override
+    public String getRemoteHost() {
+        return remoteHost;
+    }
+
+    @Override
+    public Cookie[] getCookies() {
+        return (cookies != null) ? cookies.clone() : null;
+    }
+
+    @Override
+    public HttpSession getSession() {
+        return session;
+    }
+
+    @Override
+    public HttpSession getSession(boolean create) {
+        return session;
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return userPrincipal;
+    }
+
+    @Override
+    public String getRemoteUser() {
+        return remoteUser;
+    }
+
+    @Override
+    public boolean isUserInRole(String role) {
+        return false;
+    }
+
+    @Override
+    public String getAuthType() {
+        return null;
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
+    @Override
+    public DispatcherType getDispatcherType() {
+        return DispatcherType.REQUEST;
+    }
+
+}
@@ -0,0 +1,617 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.pojos.User;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogBookmark;
+import org.apache.roller.weblogger.pojos.WeblogBookmarkFolder;
+import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntryComment;
+import org.apache.roller.weblogger.pojos.WeblogTemplate;
+import org.apache.roller.weblogger.util.cache.CacheHandler;
+import org.apache.roller.weblogger.util.cache.CacheManager;
+
+
+/**
+ * Warms up the rendered content caches with the pages and feeds readers ask
+ * for most.
+ *
+ * The page and feed servlets record every anonymous request they serve from,
+ * or put into, the weblog page, weblog feed and site-wide caches.  The most
+ * requested urls are saved to a file now and then, and are requested again
+ * from this server after startup, after a weblog is invalidated as a whole
+ * and after the caches are cleared, so readers find them in the cache.
+ *
+ * Urls are requested through the servlets like any other, so they are
+ * rendered and cached exactly as they would be for a reader.  They are sent
+ * to "cache.warmup.baseURL", which must point at this server itself, and the
+ * warmer stays off until it is set.  Query strings are dropped, so the warmer
+ * never replays searches or other requests made up by readers.  Only a few
+ * are rendered at once, set with "cache.warmup.threads", since each one needs
+ * a database connection.  Warmup requests carry a header which keeps them out
+ * of the hit counts and out of the recorded traffic.
+ *
+ * Counts are halved every time the urls are saved, so the list follows what
+ * readers are asking for lately.
+ */
+public final class CacheWarmer implements CacheHandler {
+    
+    private static final Log log = LogFactory.getLog(CacheWarmer.class);
+    
+    /** Header sent with the requests made by the warmer. */
+    public static final String WARMUP_HEADER = "X-Roller-Cache-Warmup";
+    
+    private static final int CONNECT_TIMEOUT = 10 * RollerConstants.SEC_IN_MS;
+    private static final int READ_TIMEOUT = 60 * RollerConstants.SEC_IN_MS;
+    
+    // proves a request was made by us, and not by someone avoiding hit counts
+    private final String token = UUID.randomUUID().toString();
+    
+    private final boolean enabled;
+    
+    // how many urls we warm up
+    private final int size;
+    
+    // how many urls we keep counting, the top ones among them get warmed up
+    private final int maxTracked;
+    
+    private final File file;
+    private final String baseURL;
+    private final int threads;
+    
+    // hits per url
+    private final Map<String, Hits> hits = new ConcurrentHashMap<>();
+    
+    // weblog handles waiting to be warmed up, null for all of them
+    private Set<String> pending = null;
+    private boolean pendingAll = false;
+    
+    private ExecutorService renderers = null;
+    private ScheduledExecutorService scheduler = null;
+    private long invalidationDelay = 0;
+    
+    
+    private static class Holder {
+        private static final CacheWarmer INSTANCE = new CacheWarmer();
+    }
+    
+    
+    private CacheWarmer() {
+        this(WebloggerConfig.getBooleanProperty("cache.warmup.enabled", false),
+                WebloggerConfig.getIntProperty("cache.warmup.size", 200),
+                file(WebloggerConfig.getProperty("cache.warmup.file")),
+                WebloggerConfig.getProperty("cache.warmup.baseURL"),
+                WebloggerConfig.getIntProperty("cache.warmup.threads", 4));
+        
+        if (!enabled) {
+            log.info("Cache warmup is DISABLED");
+            return;
+        }
+        
+        load();
+        
+        invalidationDelay = WebloggerConfig.getIntProperty("cache.warmup.invalidationDelay", 10)
+                * (long) RollerConstants.SEC_IN_MS;
+        long startupDelay = WebloggerConfig.getIntProperty("cache.warmup.startupDelay", 60)
+                * (long) RollerConstants.SEC_IN_MS;
+        long saveInterval = Math.max(1, WebloggerConfig.getIntProperty("cache.warmup.saveInterval", 600))
+                * (long) RollerConstants.SEC_IN_MS;
+        
+        scheduler = Executors.newSingleThreadScheduledExecutor(daemon("CacheWarmupScheduler"));
+        synchronized (this) {
+            pendingAll = true;
+        }
+        scheduler.schedule(this::warmupPending, startupDelay, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::saveAndAge, saveInterval, saveInterval, TimeUnit.MILLISECONDS);
+        
+        // hear about weblogs being invalidated
+        CacheManager.registerHandler(this);
+    }
+    
+    
+    CacheWarmer(boolean enabled, int size, File file, String baseURL, int threads) {
+        this.size = Math.max(0, size);
+        this.maxTracked = Math.max(100, this.size * 10);
+        this.file = file;
+        this.baseURL = StringUtils.isBlank(baseURL) ? null : StringUtils.removeEnd(baseURL.trim(), "/");
+        this.threads = Math.max(1, threads);
+        
+        // never guess where to send requests, the public url may not be us
+        if (enabled && this.baseURL == null) {
+            log.warn("cache.warmup.baseURL is not set, cache warmup is disabled");
+        }
+        this.enabled = enabled && this.baseURL != null;
+    }
+    
+    
+    public static CacheWarmer getInstance() {
+        return Holder.INSTANCE;
+    }
+    
+    
+    /**
+     * True if the request was made by the warmer, in which case it shouldn't
+     * count as a hit.
+     */
+    public boolean isWarmupRequest(HttpServletRequest request) {
+        return token.equals(request.getHeader(WARMUP_HEADER));
+    }
+    
+    
+    /**
+     * Note that a reader asked for the cacheable content of a weblog at the
+     * url of the given request.
+     */
+    public void recordHit(Weblog weblog, HttpServletRequest request) {
+        
+        if (!enabled || weblog == null || isWarmupRequest(request)) {
+            return;
+        }
+        
+        // the url the reader asked for, not where it was forwarded to
+        String uri = (String) request.getAttribute(RequestDispatcher.FORWARD_REQUEST_URI);
+        if (uri == null) {
+            uri = request.getRequestURI();
+        }
+        
+        String contextPath = request.getContextPath();
+        if (contextPath != null && uri.startsWith(contextPath)) {
+            uri = uri.substring(contextPath.length());
+        }
+        
+        recordHit(weblog.getHandle(), uri);
+    }
+    
+    
+    void recordHit(String handle, String url) {
+        
+        Hits urlHits = hits.get(url);
+        if (urlHits == null) {
+            if (hits.size() >= maxTracked) {
+                prune();
+            }
+            urlHits = hits.computeIfAbsent(url, key -> new Hits(handle));
+        }
+        urlHits.count.increment();
+    }
+    
+    
+    /**
+     * The most requested urls, most requested first.
+     *
+     * @param handles only include urls of these weblogs, null for all.
+     */
+    List<String> getTopURLs(Collection<String> handles) {
+        
+        List<Map.Entry<String, Long>> counts = new ArrayList<>(hits.size());
+        for (Map.Entry<String, Hits> entry : hits.entrySet()) {
+            counts.add(Map.entry(entry.getKey(), entry.getValue().count.sum()));
+        }
+        counts.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()));
+        
+        List<String> urls = new ArrayList<>();
+        for (Map.Entry<String, Long> count : counts.subList(0, Math.min(size, counts.size()))) {
+            Hits urlHits = hits.get(count.getKey());
+            if (urlHits != null && (handles == null || handles.contains(urlHits.handle))) {
+                urls.add(count.getKey());
+            }
+        }
+        return urls;
+    }
+    
+    
+    /**
+     * Forget the least requested urls, keeping half of what we may track.
+     */
+    private synchronized void prune() {
+        
+        if (hits.size() < maxTracked) {
+            return;
+        }
+        
+        List<Map.Entry<String, Long>> counts = new ArrayList<>(hits.size());
+        for (Map.Entry<String, Hits> entry : hits.entrySet()) {
+            counts.add(Map.entry(entry.getKey(), entry.getValue().count.sum()));
+        }
+        counts.sort(Map.Entry.comparingByValue());
+        for (Map.Entry<String, Long> count : counts.subList(0, counts.size() - maxTracked / 2)) {
+            hits.remove(count.getKey());
+        }
+    }
+    
+    
+    /**
+     * Warm up the urls of a weblog, or of all weblogs, a little later on.
+     * Requests which come in before then are all handled together.
+     *
+     * @param handle the weblog to warm up, or null for all of them.
+     */
+    public void warmupLater(String handle) {
+        
+        if (scheduler == null) {
+            return;
+        }
+        
+        synchronized (this) {
+            boolean scheduled = pendingAll || pending != null;
+            if (handle == null) {
+                pendingAll = true;
+            } else {
+                if (pending == null) {
+                    pending = new HashSet<>();
+                }
+                pending.add(handle);
+            }
+            if (scheduled) {
+                return;
+            }
+        }
+        
+        scheduler.schedule(this::warmupPending, invalidationDelay, TimeUnit.MILLISECONDS);
+    }
+    
+    
+    private void warmupPending() {
+        
+        Set<String> handles;
+        synchronized (this) {
+            handles = pendingAll ? null : pending;
+            pending = null;
+            pendingAll = false;
+        }
+        
+        try {
+            warmup(handles);
+        } catch (RuntimeException e) {
+            log.error("Error warming up caches", e);
+        }
+    }
+    
+    
+    /**
+     * Request the most requested urls of some weblogs, waiting until they
+     * have all been rendered.
+     *
+     * @param handles the weblogs to warm up, or null for all of them.
+     */
+    void warmup(Collection<String> handles) {
+        
+        if (baseURL == null) {
+            log.warn("Unable to warm up caches, cache.warmup.baseURL is not set");
+            return;
+        }
+        
+        List<String> urls = getTopURLs(handles);
+        if (urls.isEmpty()) {
+            return;
+        }
+        
+        synchronized (this) {
+            if (renderers == null) {
+                renderers = Executors.newFixedThreadPool(threads, daemon("CacheWarmupRenderer"));
+            }
+        }
+        
+        log.info("Warming up "+urls.size()+" urls with "+threads+" threads");
+        long start = System.currentTimeMillis();
+        
+        final AtomicInteger warmed = new AtomicInteger();
+        List<Future<?>> requests = new ArrayList<>(urls.size());
+        for (final String url : urls) {
+            requests.add(renderers.submit(() -> {
+                if (request(url)) {
+                    warmed.incrementAndGet();
+                }
+            }));
+        }
+        
+        for (Future<?> request : requests) {
+            try {
+                request.get();
+            } catch (ExecutionException e) {
+                log.debug("Warmup request failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        
+        log.info("Warmed up "+warmed.get()+" of "+urls.size()+" urls in "+
+                (System.currentTimeMillis() - start)+" ms");
+    }
+    
+    
+    /**
+     * Request a url so it gets rendered and cached.
+     */
+    private boolean request(String url) {
+        
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(baseURL + url).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setInstanceFollowRedirects(false);
+            connection.setRequestProperty(WARMUP_HEADER, token);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            connection.setRequestProperty("User-Agent", "Roller cache warmup");
+            
+            int status = connection.getResponseCode();
+            drain(status < HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getInputStream() : connection.getErrorStream());
+            
+            if (status != HttpURLConnection.HTTP_OK) {
+                // not something we can cache, at least not anymore
+                log.debug("Forgetting "+url+", got status "+status);
+                hits.remove(url);
+                return false;
+            }
+            
+            log.debug("Warmed up "+url);
+            return true;
+            
+        } catch (IOException e) {
+            log.debug("Unable to warm up "+url, e);
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+    
+    
+    private static void drain(InputStream in) throws IOException {
+        if (in != null) {
+            try (InputStream stream = in) {
+                byte[] buffer = new byte[RollerConstants.EIGHT_KB_IN_BYTES];
+                while (stream.read(buffer) != -1) {
+                    // discard
+                }
+            }
+        }
+    }
+    
+    
+    /**
+     * Save the most requested urls, for warming up the caches after the next
+     * startup.
+     */
+    void save() {
+        
+        if (file == null) {
+            return;
+        }
+        
+        try {
+            File dir = file.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Unable to create directory "+dir);
+            }
+            
+            File tmp = new File(file.getPath() + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+                for (String url : getTopURLs(null)) {
+                    Hits urlHits = hits.get(url);
+                    if (urlHits != null) {
+                        writer.write(urlHits.count.sum() + " " + urlHits.handle + " " + url);
+                        writer.newLine();
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            
+        } catch (IOException e) {
+            log.warn("Unable to save cache warmup urls to "+file, e);
+        }
+    }
+    
+    
+    /**
+     * Load the urls saved by a previous run.
+     */
+    void load() {
+        
+        if (file == null || !file.isFile()) {
+            return;
+        }
+        
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = StringUtils.split(line, " ", 3);
+                if (fields.length == 3) {
+                    try {
+                        // older files may still have query strings
+                        String url = StringUtils.substringBefore(fields[2], "?");
+                        Hits urlHits = hits.computeIfAbsent(url, key -> new Hits(fields[1]));
+                        urlHits.count.add(Long.parseLong(fields[0]));
+                    } catch (NumberFormatException e) {
+                        log.debug("Ignoring bad line in "+file+": "+line);
+                    }
+                }
+            }
+            log.info("Loaded "+hits.size()+" cache warmup urls from "+file);
+        } catch (IOException e) {
+            log.warn("Unable to load cache warmup urls from "+file, e);
+        }
+    }
+    
+    
+    /**
+     * Save the urls, then halve the counts so old traffic fades away.
+     */
+    private void saveAndAge() {
+        
+        try {
+            save();
+            for (Map.Entry<String, Hits> entry : hits.entrySet()) {
+                long count = entry.getValue().count.sumThenReset();
+                if (count > 1) {
+                    entry.getValue().count.add(count / 2);
+                } else {
+                    hits.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Error saving cache warmup urls", e);
+        }
+    }
+    
+    
+    /**
+     * Save the urls and stop warming up.
+     */
+    public void shutdown() {
+        
+        if (!enabled) {
+            return;
+        }
+        
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        synchronized (this) {
+            if (renderers != null) {
+                renderers.shutdownNow();
+            }
+        }
+        save();
+    }
+    
+    
+    /**
+     * A weblog changed as a whole, so all of its pages will be rendered
+     * again.  Do that before readers ask for them.
+     */
+    @Override
+    public void invalidate(Weblog website) {
+        warmupLater(website.getHandle());
+    }
+    
+    
+    @Override
+    public void invalidate(WeblogEntry entry) {
+        // only a few pages are affected
+    }
+    
+    
+    @Override
+    public void invalidate(WeblogBookmark bookmark) {
+        // only a few pages are affected
+    }
+    
+    
+    @Override
+    public void invalidate(WeblogBookmarkFolder folder) {
+        // only a few pages are affected
+    }
+    
+    
+    @Override
+    public void invalidate(WeblogEntryComment comment) {
+        // only a few pages are affected
+    }
+    
+    
+    @Override
+    public void invalidate(User user) {
+        // no-op
+    }
+    
+    
+    @Override
+    public void invalidate(WeblogCategory category) {
+        // only a few pages are affected
+    }
+    
+    
+    @Override
+    public void invalidate(WeblogTemplate template) {
+        // only a few pages are affected
+    }
+    
+    
+    private static File file(String path) {
+        return StringUtils.isBlank(path) ? null : new File(path.trim());
+    }
+    
+    
+    private static ThreadFactory daemon(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+    
+    
+    /**
+     * The hits of a url.
+     */
+    private static final class Hits {
+        
+        private final String handle;
+        private final LongAdder count = new LongAdder();
+        
+        private Hits(String handle) {
+            this.handle = handle;
+        }
+    }
+    
+}
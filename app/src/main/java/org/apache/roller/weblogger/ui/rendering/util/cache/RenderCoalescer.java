@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+
+
+/**
+ * Makes sure only one request at a time renders the content for a given
+ * cache key.
+ *
+ * When cached content expires on a popular weblog many requests miss the
+ * cache at once.  The first one to join() becomes the leader and renders the
+ * content, the others wait for the leader and are given the content it
+ * rendered.  If the leader fails, or takes longer than the configured wait
+ * time, the waiting requests render the content themselves.
+ *
+ * A wait time of 0, set with the "rendering.coalesce.waitTime" property,
+ * turns coalescing off and every request becomes a leader.
+ */
+public final class RenderCoalescer {
+
+    private static final Log log = LogFactory.getLog(RenderCoalescer.class);
+
+    // renders in progress, by cache key
+    private final ConcurrentHashMap<String, CompletableFuture<CachedContent>> renders =
+            new ConcurrentHashMap<>();
+
+    // how long followers wait for the leader, in millis
+    private final long waitTime;
+
+
+    public RenderCoalescer() {
+        this(WebloggerConfig.getIntProperty("rendering.coalesce.waitTime", 10)
+                * (long) RollerConstants.SEC_IN_MS);
+    }
+
+
+    RenderCoalescer(long waitTime) {
+        this.waitTime = Math.max(0, waitTime);
+    }
+
+
+    /**
+     * Join the render of the content for the given key.
+     *
+     * The caller becomes the leader if nobody else is rendering the content,
+     * in which case it must call Render.finish() once done, whether or not
+     * rendering succeeded.
+     */
+    public Render join(String key) {
+
+        CompletableFuture<CachedContent> render = new CompletableFuture<>();
+        if (this.waitTime == 0) {
+            return new Render(key, render, true);
+        }
+
+        CompletableFuture<CachedContent> current = renders.putIfAbsent(key, render);
+        if (current == null) {
+            return new Render(key, render, true);
+        }
+
+        log.debug("JOINED " + key);
+        return new Render(key, current, false);
+    }
+
+
+    /**
+     * A render of some content, as seen by one of the requests for it.
+     */
+    public final class Render {
+
+        private final String key;
+        private final CompletableFuture<CachedContent> content;
+        private final boolean leader;
+
+
+        private Render(String key, CompletableFuture<CachedContent> content, boolean leader) {
+            this.key = key;
+            this.content = content;
+            this.leader = leader;
+        }
+
+
+        /**
+         * True if this request is responsible for rendering the content.
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+
+
+        /**
+         * Wait for the leader to render the content.
+         *
+         * @return the rendered content, or null if the leader failed or was
+         *         too slow, in which case the caller should render the
+         *         content itself.
+         */
+        public CachedContent await() {
+
+            try {
+                return content.get(waitTime, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                log.debug("Gave up waiting for render of " + key);
+            } catch (ExecutionException e) {
+                log.debug("Render of " + key + " failed");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+
+
+        /**
+         * Hand the rendered content to the requests waiting for it.  Only the
+         * leader's first call counts, later calls are ignored, so the leader
+         * may finish(null) in a finally block after handing out the content.
+         *
+         * @param rendered the rendered content, or null if rendering failed.
+         */
+        public void finish(CachedContent rendered) {
+
+            if (!leader) {
+                return;
+            }
+
+            renders.remove(key, content);
+            content.complete(rendered);
+        }
+    }
+
+}
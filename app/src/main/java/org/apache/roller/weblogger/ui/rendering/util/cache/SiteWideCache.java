@@ -28,6 +28,8 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.WebloggerException;
+import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.apache.roller.weblogger.config.WebloggerConfig;
 import org.apache.roller.weblogger.config.WebloggerRuntimeConfig;
 import org.apache.roller.weblogger.pojos.WeblogBookmark;
@@ -45,10 +47,15 @@ import org.apache.roller.weblogger.util.cache.Cache;
 import org.apache.roller.weblogger.util.cache.CacheHandler;
 import org.apache.roller.weblogger.util.cache.CacheManager;
 import org.apache.roller.weblogger.util.cache.ExpiringCacheEntry;
+import org.apache.roller.weblogger.util.cache.LazyExpiringCacheEntry;
 
 
 /**
  * Cache for site-wide weblog content.
+ *
+ * Content is dropped whenever anything changes, so content cached by this
+ * server is always fresh.  Content cached before this server started, which
+ * the disk cache may restore, is only used if no weblog has changed since.
  */
 public final class SiteWideCache implements CacheHandler {
     
@@ -64,6 +71,12 @@ public final class SiteWideCache implements CacheHandler {
     
     // keep a cached version of last expired time
     private ExpiringCacheEntry lastUpdateTime = null;
+    
+    // content cached before this may have missed invalidations
+    private final long startTime = System.currentTimeMillis();
+    
+    // last time any weblog changed as of startup, looked up when first needed
+    private volatile Long weblogsLastModified = null;
 
     // reference to our singleton instance
     private static final SiteWideCache singletonInstance = new SiteWideCache();
@@ -108,12 +121,31 @@ public final class SiteWideCache implements CacheHandler {
             return null;
         }
         
-        Object entry = contentCache.get(key);
+        Object entry = null;
         
-        if(entry == null) {
-            log.debug("MISS "+key);
-        } else {
+        // content restored from disk without the time it was cached is
+        // of no use, it can't be checked
+        Object value = this.contentCache.get(key);
+        LazyExpiringCacheEntry lazyEntry = (value instanceof LazyExpiringCacheEntry)
+                ? (LazyExpiringCacheEntry) value : null;
+        if(lazyEntry != null && lazyEntry.getTimeCached() < startTime) {
+            entry = lazyEntry.getValue(getWeblogsLastModified());
+            
+            if(entry != null) {
+                log.debug("HIT-RESTORED "+key);
+            } else {
+                log.debug("HIT-EXPIRED "+key);
+            }
+            
+        } else if(lazyEntry != null) {
+            entry = lazyEntry.getRawValue();
             log.debug("HIT "+key);
+            
+        } else if(value != null) {
+            log.debug("HIT-EXPIRED "+key);
+            
+        } else {
+            log.debug("MISS "+key);
         }
         
         return entry;
@@ -126,7 +158,8 @@ public final class SiteWideCache implements CacheHandler {
             return;
         }
         
-        contentCache.put(key, value);
+        // the time cached goes to disk along with the content
+        contentCache.put(key, new LazyExpiringCacheEntry(value));
         log.debug("PUT "+key);
     }
 
@@ -173,6 +206,24 @@ public final class SiteWideCache implements CacheHandler {
     }
     
     
+    // when any weblog last changed, or now if that can't be told
+    private long getWeblogsLastModified() {
+        
+        Long lastModified = this.weblogsLastModified;
+        if(lastModified == null) {
+            try {
+                Date date = WebloggerFactory.getWeblogger().getWeblogManager().getWeblogsLastModified();
+                lastModified = (date != null) ? date.getTime() : startTime;
+            } catch (WebloggerException ex) {
+                log.warn("Unable to tell when weblogs last changed", ex);
+                return System.currentTimeMillis();
+            }
+            this.weblogsLastModified = lastModified;
+        }
+        return lastModified;
+    }
+    
+    
     /**
      * Generate a cache key from a parsed weblog page request.
      * This generates a key of the form ...
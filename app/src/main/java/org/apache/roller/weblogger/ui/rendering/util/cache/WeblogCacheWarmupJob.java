@@ -16,35 +16,22 @@
  * directory of this distribution.
  */
 
+
 package org.apache.roller.weblogger.ui.rendering.util.cache;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.roller.util.RollerConstants;
 import org.apache.roller.weblogger.business.runnable.Job;
-import org.apache.roller.weblogger.config.WebloggerConfig;
-import org.apache.roller.weblogger.pojos.StaticTemplate;
-import org.apache.roller.weblogger.pojos.Template;
-import org.apache.roller.weblogger.pojos.TemplateRendition.TemplateLanguage;
-import org.apache.roller.weblogger.ui.rendering.Renderer;
-import org.apache.roller.weblogger.ui.rendering.RendererManager;
-import org.apache.roller.weblogger.ui.rendering.mobile.MobileDeviceRepository.DeviceType;
-import org.apache.roller.weblogger.ui.rendering.model.ModelLoader;
-import org.apache.roller.weblogger.ui.rendering.util.WeblogFeedRequest;
-import org.apache.roller.weblogger.util.cache.CachedContent;
 
 
 /**
- * EXPERIMENTAL!!
- *
- * A job which will "warm up" some of the rendering layer caches by iterating
- * over all weblogs in the system and rendering a set of their content to put
- * in the caches for later use.
+ * A job which will "warm up" the rendering layer caches by rendering the
+ * pages and feeds readers ask for most, using the CacheWarmer.
  *
- * Currently only supports warming up the feed cache.
+ * The "weblogs" input may list the handles of the weblogs to warm up, all
+ * weblogs are warmed up otherwise.
  */
 public class WeblogCacheWarmupJob implements Job {
     
@@ -59,27 +46,15 @@ public class WeblogCacheWarmupJob implements Job {
         
         log.debug("starting");
         
-        // check inputs to see what work we are going to do
+        List<String> weblogs = null;
         if(inputs != null) {
-            
-            // what weblogs will we handle?
             @SuppressWarnings("unchecked")
-            List<String> weblogs = (List<String>) inputs.get("weblogs");
-            if(weblogs == null) {
-                return;
-            }
-            
-            // should we do rss entries feeds?
-            if("true".equals(inputs.get("feed-entries-rss"))) {
-                this.warmupFeedCache(weblogs, "entries", "rss");
-            }
-            
-            // should we do atom entries feeds?
-            if("true".equals(inputs.get("feed-entries-atom"))) {
-                this.warmupFeedCache(weblogs, "entries", "atom");
-            }
+            List<String> handles = (List<String>) inputs.get("weblogs");
+            weblogs = handles;
         }
         
+        CacheWarmer.getInstance().warmup(weblogs);
+        
         log.debug("finished");
     }
     
@@ -95,75 +70,4 @@ public class WeblogCacheWarmupJob implements Job {
         this.inputs = input;
     }
     
-    
-    private void warmupFeedCache(List<String> weblogs, String type, String format) {
-        
-        if(weblogs == null) {
-            return;
-        }
-        
-        // we are working on the feed cache
-        WeblogFeedCache feedCache = WeblogFeedCache.getInstance();
-        long start = System.currentTimeMillis();
-        
-        for (String weblogHandle : weblogs) {
-            log.debug("doing weblog "+weblogHandle);
-            
-            try {
-                // we need a feed request to represent the data
-                WeblogFeedRequest feedRequest = new WeblogFeedRequest();
-                feedRequest.setWeblogHandle(weblogHandle);
-                feedRequest.setType(type);
-                feedRequest.setFormat(format);
-                
-                
-                // populate the rendering model
-                Map<String, Object> modelMap = new HashMap<>();
-                Map<String, Object> initData = new HashMap<>();
-                initData.put("request", null);
-                initData.put("feedRequest", feedRequest);
-                initData.put("weblogRequest", feedRequest);
-                
-                // Load models for feeds
-                String feedModels = WebloggerConfig.getProperty("rendering.feedModels");
-                ModelLoader.loadModels(feedModels, modelMap, initData, true);
-                
-                // TODO: re-enable custom models when they are actually used
-                // Load weblog custom models
-                //ModelLoader.loadCustomModels(weblog, model, initData);
-                
-                
-                // lookup Renderer we are going to use
-                Renderer renderer;
-                Template template = new StaticTemplate(
-					"weblog-"+type+"-"+format+".vm", TemplateLanguage.VELOCITY);
-                renderer = RendererManager.getRenderer(template, DeviceType.standard);
-                
-                
-                // render content.  use default size of about 24K for a standard page
-                CachedContent rendererOutput = new CachedContent(RollerConstants.TWENTYFOUR_KB_IN_BYTES);
-                renderer.render(modelMap, rendererOutput.getCachedWriter());
-                
-                
-                // flush rendered output and close
-                rendererOutput.flush();
-                rendererOutput.close();
-                
-                // now just put it in the cache
-                String key = feedCache.generateKey(feedRequest);
-                feedCache.put(key, rendererOutput);
-                
-            } catch(Exception e) {
-                // bummer, error during rendering
-                log.error("Error rendering for weblog "+weblogHandle, e);
-            }
-        }
-        
-        long end = System.currentTimeMillis();
-        long time = (end-start) * RollerConstants.SEC_IN_MS;
-        
-        log.info("Completed warmup for "+type+"/"+format+" in "+time+" secs.");
-        
-    }
-    
 }
@@ -32,10 +32,14 @@ import org.apache.roller.weblogger.util.Utilities;
 import org.apache.roller.weblogger.util.cache.Cache;
 import org.apache.roller.weblogger.util.cache.CacheManager;
 import org.apache.roller.weblogger.util.cache.LazyExpiringCacheEntry;
+import org.apache.roller.weblogger.util.cache.StaleWhileRevalidateCacheImpl;
 
 
 /**
  * Cache for weblog feed content.
+ *
+ * When the cache is configured with a staleWhileRevalidate window, expired
+ * feeds may still be served for that long while one request re-renders them.
  */
 public final class WeblogFeedCache {
     
@@ -49,6 +53,9 @@ public final class WeblogFeedCache {
     private boolean cacheEnabled = true;
     private Cache contentCache = null;
     
+    // serves stale feeds while they are re-rendered, if enabled
+    private StaleWhileRevalidateCacheImpl staleCache = null;
+    
     // reference to our singleton instance
     private static final WeblogFeedCache singletonInstance = new WeblogFeedCache();
     
@@ -76,6 +83,9 @@ public final class WeblogFeedCache {
         
         if(cacheEnabled) {
             contentCache = CacheManager.constructCache(null, cacheProps);
+            if (contentCache instanceof StaleWhileRevalidateCacheImpl) {
+                staleCache = (StaleWhileRevalidateCacheImpl) contentCache;
+            }
         } else {
             log.warn("Caching has been DISABLED");
         }
@@ -114,6 +124,46 @@ public final class WeblogFeedCache {
     }
     
     
+    /**
+     * Retrieve a feed which is no longer fresh, but went stale recently
+     * enough that it may still be served while it's being re-rendered.
+     *
+     * Callers serving the feed should call startRevalidation() next.
+     */
+    public Object getStale(String key, long lastModified) {
+        
+        if (!cacheEnabled || staleCache == null) {
+            return null;
+        }
+        
+        LazyExpiringCacheEntry lazyEntry =
+                (LazyExpiringCacheEntry) this.contentCache.get(key);
+        if(lazyEntry == null || !lazyEntry.isInvalid(lastModified)
+                || !staleCache.isServable(lastModified)) {
+            return null;
+        }
+        
+        log.debug("HIT-STALE "+key);
+        return lazyEntry.getRawValue();
+    }
+    
+    
+    /**
+     * Note that a stale feed is being served.
+     *
+     * @return true if the caller should render and put() a fresh copy of
+     *         the feed, false if somebody is already doing that.
+     */
+    public boolean startRevalidation(String key) {
+        
+        if (!cacheEnabled || staleCache == null) {
+            return false;
+        }
+        
+        return staleCache.staleHit(key);
+    }
+    
+    
     public void put(String key, Object value) {
         
         if (!cacheEnabled) {
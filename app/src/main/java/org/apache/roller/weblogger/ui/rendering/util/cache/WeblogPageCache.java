@@ -24,20 +24,43 @@ import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.pojos.User;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogBookmark;
+import org.apache.roller.weblogger.pojos.WeblogBookmarkFolder;
+import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntryComment;
+import org.apache.roller.weblogger.pojos.WeblogTemplate;
 import org.apache.roller.weblogger.ui.rendering.util.WeblogPageRequest;
 import org.apache.roller.weblogger.util.Utilities;
 import org.apache.roller.weblogger.util.cache.Cache;
+import org.apache.roller.weblogger.util.cache.CacheDependencies;
+import org.apache.roller.weblogger.util.cache.CacheHandler;
 import org.apache.roller.weblogger.util.cache.CacheManager;
+import org.apache.roller.weblogger.util.cache.DependentCacheEntry;
 import org.apache.roller.weblogger.util.cache.LazyExpiringCacheEntry;
+import org.apache.roller.weblogger.util.cache.StaleWhileRevalidateCacheImpl;
 
 
 /**
  * Cache for weblog page content.
+ *
+ * By default a cached page is considered expired as soon as anything in its
+ * weblog has changed.  When dependency tracking is enabled pages remember
+ * what they were rendered from instead, see CacheDependencies, and only the
+ * pages depending on an invalidated object expire.  Pages which used
+ * something that can't be tracked still expire the old way.
+ *
+ * When the cache is configured with a staleWhileRevalidate window, expired
+ * pages may still be served for that long while one request re-renders them.
  */
-public final class WeblogPageCache {
+public final class WeblogPageCache implements CacheHandler {
     
     private static final Log log = LogFactory.getLog(WeblogPageCache.class);
     
@@ -49,6 +72,20 @@ public final class WeblogPageCache {
     private boolean cacheEnabled = true;
     private Cache contentCache = null;
     
+    // serves stale pages while they are re-rendered, if enabled
+    private StaleWhileRevalidateCacheImpl staleCache = null;
+    
+    // dependency tracking
+    private boolean trackDependencies = false;
+    
+    // every invalidation gets a new version, and pages remember the version
+    // they started rendering at
+    private final AtomicLong version = new AtomicLong();
+    private volatile Invalidations invalidations = new Invalidations(0);
+    
+    // how many invalidated dependencies we remember before starting over
+    private static final int MAX_INVALIDATIONS = 10000;
+    
     // reference to our singleton instance
     private static final WeblogPageCache singletonInstance = new WeblogPageCache();
     
@@ -56,6 +93,7 @@ public final class WeblogPageCache {
     private WeblogPageCache() {
         
         cacheEnabled = WebloggerConfig.getBooleanProperty(CACHE_ID+".enabled");
+        trackDependencies = WebloggerConfig.getBooleanProperty(CACHE_ID+".trackDependencies");
         
         Map<String, String> cacheProps = new HashMap<>();
         cacheProps.put("id", CACHE_ID);
@@ -74,7 +112,10 @@ public final class WeblogPageCache {
         log.info(cacheProps);
         
         if (cacheEnabled) {
-            contentCache = CacheManager.constructCache(null, cacheProps);
+            contentCache = CacheManager.constructCache(this, cacheProps);
+            if (contentCache instanceof StaleWhileRevalidateCacheImpl) {
+                staleCache = (StaleWhileRevalidateCacheImpl) contentCache;
+            }
         } else {
             log.warn("Caching has been DISABLED");
         }
@@ -95,7 +136,16 @@ public final class WeblogPageCache {
         Object entry = null;
         
         LazyExpiringCacheEntry lazyEntry = (LazyExpiringCacheEntry) this.contentCache.get(key);
-        if(lazyEntry != null) {
+        if(lazyEntry instanceof DependentCacheEntry) {
+            entry = getValue((DependentCacheEntry) lazyEntry);
+            
+            if(entry != null) {
+                log.debug("HIT "+key);
+            } else {
+                log.debug("HIT-INVALIDATED "+key);
+            }
+            
+        } else if(lazyEntry != null) {
             entry = lazyEntry.getValue(lastModified);
             
             if(entry != null) {
@@ -112,6 +162,55 @@ public final class WeblogPageCache {
     }
     
     
+    /**
+     * Retrieve a page which is no longer fresh, but went stale recently
+     * enough that it may still be served while it's being re-rendered.
+     *
+     * Callers serving the page should call startRevalidation() next.
+     */
+    public Object getStale(String key, long lastModified) {
+        
+        if (!cacheEnabled || staleCache == null) {
+            return null;
+        }
+        
+        LazyExpiringCacheEntry lazyEntry = (LazyExpiringCacheEntry) this.contentCache.get(key);
+        if(lazyEntry == null) {
+            return null;
+        }
+        
+        long staleSince;
+        if(lazyEntry instanceof DependentCacheEntry) {
+            staleSince = getStaleSince((DependentCacheEntry) lazyEntry);
+        } else {
+            staleSince = lazyEntry.isInvalid(lastModified) ? lastModified : -1;
+        }
+        
+        if(staleSince < 0 || !staleCache.isServable(staleSince)) {
+            return null;
+        }
+        
+        log.debug("HIT-STALE "+key);
+        return lazyEntry.getRawValue();
+    }
+    
+    
+    /**
+     * Note that a stale page is being served.
+     *
+     * @return true if the caller should render and put() a fresh copy of
+     *         the page, false if somebody is already doing that.
+     */
+    public boolean startRevalidation(String key) {
+        
+        if (!cacheEnabled || staleCache == null) {
+            return false;
+        }
+        
+        return staleCache.staleHit(key);
+    }
+    
+    
     public void put(String key, Object value) {
         
         if (!cacheEnabled) {
@@ -123,6 +222,46 @@ public final class WeblogPageCache {
     }
     
     
+    /**
+     * Start recording what the page about to be rendered by this thread
+     * depends on.  Rendering must be followed by CacheDependencies.stopRecording().
+     *
+     * @return the recorded dependencies, or null if dependencies are not tracked.
+     */
+    public CacheDependencies startTracking(Weblog weblog) {
+        
+        if (!cacheEnabled || !trackDependencies) {
+            return null;
+        }
+        
+        CacheDependencies dependencies = CacheDependencies.startRecording(version.get());
+        CacheDependencies.record(CacheDependencies.weblogKey(weblog));
+        return dependencies;
+    }
+    
+    
+    /**
+     * Store a page along with the dependencies recorded while rendering it.
+     * Pages without dependencies, or with untracked ones, expire whenever
+     * their weblog changes.
+     */
+    public void put(String key, Object value, CacheDependencies dependencies) {
+        
+        if (dependencies == null || dependencies.isUntracked()) {
+            put(key, value);
+            return;
+        }
+        
+        if (!cacheEnabled) {
+            return;
+        }
+        
+        contentCache.put(key, new DependentCacheEntry(value,
+                dependencies.getDependencies(), dependencies.getVersion()));
+        log.debug("PUT "+key+" "+dependencies.getDependencies());
+    }
+    
+    
     public void remove(String key) {
         
         if (!cacheEnabled) {
@@ -145,6 +284,141 @@ public final class WeblogPageCache {
     }
     
     
+    /**
+     * A weblog entry has changed.
+     */
+    @Override
+    public void invalidate(WeblogEntry entry) {
+        invalidate(CacheDependencies.keysFor(entry));
+    }
+    
+    
+    /**
+     * A weblog has changed.
+     */
+    @Override
+    public void invalidate(Weblog website) {
+        invalidate(CacheDependencies.weblogKey(website));
+    }
+    
+    
+    /**
+     * A bookmark has changed.
+     */
+    @Override
+    public void invalidate(WeblogBookmark bookmark) {
+        invalidate(CacheDependencies.keysFor(bookmark));
+    }
+    
+    
+    /**
+     * A folder has changed.
+     */
+    @Override
+    public void invalidate(WeblogBookmarkFolder folder) {
+        invalidate(CacheDependencies.keysFor(folder));
+    }
+    
+    
+    /**
+     * A comment has changed.
+     */
+    @Override
+    public void invalidate(WeblogEntryComment comment) {
+        invalidate(CacheDependencies.keysFor(comment));
+    }
+    
+    
+    /**
+     * A user profile has changed.
+     */
+    @Override
+    public void invalidate(User user) {
+        // ignored
+    }
+    
+    
+    /**
+     * A category has changed.
+     */
+    @Override
+    public void invalidate(WeblogCategory category) {
+        invalidate(CacheDependencies.keysFor(category));
+    }
+    
+    
+    /**
+     * A weblog template has changed.
+     */
+    @Override
+    public void invalidate(WeblogTemplate template) {
+        invalidate(CacheDependencies.keysFor(template));
+    }
+    
+    
+    /**
+     * Invalidate the pages depending on any of the given dependencies.
+     *
+     * Pages are not purged, rather the invalidation is remembered and the
+     * pages are found to be stale when they are next requested.  Untracked
+     * pages are taken care of by the weblog last modified date.
+     */
+    private synchronized void invalidate(String... dependencies) {
+        
+        if (!cacheEnabled || !trackDependencies) {
+            return;
+        }
+        
+        Invalidations current = this.invalidations;
+        if (current.versions.size() + dependencies.length > MAX_INVALIDATIONS) {
+            // forget what was invalidated, which means all pages cached so
+            // far have to be considered stale
+            log.debug("too many invalidations, expiring all tracked pages");
+            current = new Invalidations(version.incrementAndGet());
+            this.invalidations = current;
+        }
+        
+        long invalidated = version.incrementAndGet();
+        long now = System.currentTimeMillis();
+        for (String dependency : dependencies) {
+            current.times.put(dependency, now);
+            current.versions.put(dependency, invalidated);
+        }
+        
+        if (log.isDebugEnabled()) {
+            log.debug("INVALIDATE "+Arrays.toString(dependencies));
+        }
+    }
+    
+    
+    /**
+     * The time a tracked page went stale, or -1 if it's still fresh.
+     */
+    private long getStaleSince(DependentCacheEntry entry) {
+        
+        Invalidations current = this.invalidations;
+        if (entry.getVersion() < current.floor) {
+            return current.floorTime;
+        }
+        
+        String dependency = entry.getInvalidatedDependency(current.versions);
+        if (dependency == null) {
+            return -1;
+        }
+        return current.times.getOrDefault(dependency, current.floorTime);
+    }
+    
+    
+    private Object getValue(DependentCacheEntry entry) {
+        
+        Invalidations current = this.invalidations;
+        if (entry.getVersion() < current.floor || entry.isInvalid(current.versions)) {
+            return null;
+        }
+        return entry.getValue();
+    }
+    
+    
     /**
      * Generate a cache key from a parsed weblog page request.
      * This generates a key of the form ...
@@ -240,4 +514,22 @@ public final class WeblogPageCache {
 
         return Utilities.toBase64(string.toString().substring(1).getBytes());
     }
+    
+    
+    /**
+     * The dependencies invalidated since the floor version was reached,
+     * pages older than the floor version are all considered stale.
+     */
+    private static final class Invalidations {
+        
+        private final long floor;
+        private final long floorTime = System.currentTimeMillis();
+        private final Map<String, Long> versions = new ConcurrentHashMap<>();
+        private final Map<String, Long> times = new ConcurrentHashMap<>();
+        
+        Invalidations(long floor) {
+            this.floor = floor;
+        }
+    }
+    
 }
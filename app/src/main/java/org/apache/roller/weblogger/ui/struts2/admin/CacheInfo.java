@@ -21,7 +21,13 @@ package org.apache.roller.weblogger.ui.struts2.admin;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import org.apache.roller.weblogger.business.HitCountHistory;
+import org.apache.roller.weblogger.business.HitCountQueue;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.business.search.IndexManager;
+import org.apache.roller.weblogger.business.search.IndexManagerImpl;
 import org.apache.roller.weblogger.pojos.GlobalPermission;
+import org.apache.roller.weblogger.ui.rendering.util.cache.CacheWarmer;
 import org.apache.roller.weblogger.ui.struts2.util.UIAction;
 import org.apache.roller.weblogger.util.cache.CacheManager;
 import org.apache.struts2.convention.annotation.AllowedMethods;
@@ -36,6 +42,16 @@ public class CacheInfo extends UIAction {
     // map of stats to display
     private Map<String, Map<String, Object>> stats = Collections.emptyMap();
     
+    // state of the queue of entries waiting to be indexed
+    private Map<String, Object> indexQueueStats = Collections.emptyMap();
+    
+    // hits waiting to be stored and how storing them went
+    private Map<String, Object> hitCountStats = Collections.emptyMap();
+    
+    // weblogs with the most recent hits
+    private List<Map.Entry<String, Long>> hotWeblogsLastHour = Collections.emptyList();
+    private List<Map.Entry<String, Long>> hotWeblogsLastDay = Collections.emptyList();
+    
     // cache which we would clear when clear() is called
     private String cache = null;
     
@@ -61,6 +77,17 @@ public class CacheInfo extends UIAction {
     @Override
     public void myPrepare() {
         setStats(CacheManager.getStats());
+        
+        IndexManager indexManager = WebloggerFactory.getWeblogger().getIndexManager();
+        if (indexManager instanceof IndexManagerImpl) {
+            setIndexQueueStats(((IndexManagerImpl) indexManager).getEntryQueueStats());
+        }
+        
+        setHitCountStats(HitCountQueue.getInstance().getStats());
+        
+        HitCountHistory history = HitCountHistory.getInstance();
+        setHotWeblogsLastHour(history.getHotWeblogsByMinute(60, 10));
+        setHotWeblogsLastDay(history.getHotWeblogs(24, 10));
     }
     
     
@@ -86,6 +113,9 @@ public class CacheInfo extends UIAction {
             CacheManager.clear();
         }
         
+        // render the most requested content again before readers ask for it
+        CacheWarmer.getInstance().warmupLater(null);
+        
         // update stats after clear
         myPrepare();
         
@@ -101,6 +131,38 @@ public class CacheInfo extends UIAction {
         this.stats = stats;
     }
 
+    public Map<String, Object> getIndexQueueStats() {
+        return indexQueueStats;
+    }
+
+    public void setIndexQueueStats(Map<String, Object> indexQueueStats) {
+        this.indexQueueStats = indexQueueStats;
+    }
+
+    public Map<String, Object> getHitCountStats() {
+        return hitCountStats;
+    }
+
+    public void setHitCountStats(Map<String, Object> hitCountStats) {
+        this.hitCountStats = hitCountStats;
+    }
+
+    public List<Map.Entry<String, Long>> getHotWeblogsLastHour() {
+        return hotWeblogsLastHour;
+    }
+
+    public void setHotWeblogsLastHour(List<Map.Entry<String, Long>> hotWeblogsLastHour) {
+        this.hotWeblogsLastHour = hotWeblogsLastHour;
+    }
+
+    public List<Map.Entry<String, Long>> getHotWeblogsLastDay() {
+        return hotWeblogsLastDay;
+    }
+
+    public void setHotWeblogsLastDay(List<Map.Entry<String, Long>> hotWeblogsLastDay) {
+        this.hotWeblogsLastDay = hotWeblogsLastDay;
+    }
+
     public String getCache() {
         return cache;
     }
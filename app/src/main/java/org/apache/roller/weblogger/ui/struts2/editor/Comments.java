@@ -289,7 +289,12 @@ public class Comments extends UIAction {
                     // make sure comment is tied to action weblog
                     if (getActionWeblog().equals(
                             deleteComment.getWeblogEntry().getWebsite())) {
-                        flushList.add(deleteComment);
+                        // JPA nulls out the fields of removed comments, so
+                        // keep what cache invalidation needs in a copy
+                        WeblogEntryComment removed = new WeblogEntryComment();
+                        removed.setId(deleteComment.getId());
+                        removed.setWeblogEntry(deleteComment.getWeblogEntry());
+                        flushList.add(removed);
                         reindexList.add(deleteComment.getWeblogEntry());
                         wmgr.removeComment(deleteComment);
                     }
@@ -358,9 +363,11 @@ public class Comments extends UIAction {
 
             WebloggerFactory.getWeblogger().flush();
 
-            // notify caches of changes by flushing whole site because we can't
-            // invalidate deleted comment objects (JPA nulls the fields out).
-            CacheManager.invalidate(getActionWeblog());
+            // notify caches of changes, only pages showing the changed
+            // comments need to go
+            for (WeblogEntryComment comment : flushList) {
+                CacheManager.invalidate(comment);
+            }
 
             // if required, send notification for all comments changed
             if (MailUtil.isMailConfigured()) {
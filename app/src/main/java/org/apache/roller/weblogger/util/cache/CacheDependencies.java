@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogBookmark;
+import org.apache.roller.weblogger.pojos.WeblogBookmarkFolder;
+import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntryComment;
+import org.apache.roller.weblogger.pojos.WeblogTemplate;
+
+
+/**
+ * Records the data some cached content was built from.
+ *
+ * While content is being rendered the thread doing the rendering has a
+ * recorder attached, and the pojo wrappers and models note every entry,
+ * category, template, etc. that they hand out to the template.  A cache can
+ * then keep the recorded dependencies along with the content, and invalidate
+ * only the content which depends on the objects being invalidated.
+ *
+ * Anything which can't be tracked in detail marks the recording as untracked,
+ * in which case the content should be invalidated the old fashioned way,
+ * whenever anything in its weblog changes.
+ *
+ * The dependency keys are plain strings, the static *Key() methods build the
+ * keys for a given object so that recording and invalidation agree.
+ */
+public final class CacheDependencies {
+
+    private static final ThreadLocal<CacheDependencies> recorder = new ThreadLocal<>();
+
+    private final Set<String> dependencies = new LinkedHashSet<>();
+    private final long version;
+    private boolean untracked = false;
+
+
+    private CacheDependencies(long version) {
+        this.version = version;
+    }
+
+
+    /**
+     * Start recording the dependencies of content rendered by this thread.
+     *
+     * @param version an opaque value the cache wants to keep along with the
+     *        dependencies, typically the state of the cache when rendering began.
+     */
+    public static CacheDependencies startRecording(long version) {
+        CacheDependencies dependencies = new CacheDependencies(version);
+        recorder.set(dependencies);
+        return dependencies;
+    }
+
+
+    /**
+     * Stop recording for this thread, returns what was recorded or null if
+     * nothing was being recorded.
+     */
+    public static CacheDependencies stopRecording() {
+        CacheDependencies dependencies = recorder.get();
+        recorder.remove();
+        return dependencies;
+    }
+
+
+    /**
+     * Record a dependency, if this thread is recording.
+     */
+    public static void record(String key) {
+        CacheDependencies dependencies = recorder.get();
+        if (dependencies != null) {
+            dependencies.dependencies.add(key);
+        }
+    }
+
+
+    /**
+     * Mark the content being rendered as depending on things we can't track.
+     */
+    public static void recordUntracked() {
+        CacheDependencies dependencies = recorder.get();
+        if (dependencies != null) {
+            dependencies.untracked = true;
+        }
+    }
+
+
+    public static void recordEntry(WeblogEntry entry) {
+        if (recorder.get() != null) {
+            record(entryKey(entry));
+        }
+    }
+
+
+    public static void recordEntries(Weblog weblog) {
+        if (recorder.get() != null) {
+            record(entriesKey(weblog));
+        }
+    }
+
+
+    public static void recordComments(Weblog weblog) {
+        if (recorder.get() != null) {
+            record(commentsKey(weblog));
+        }
+    }
+
+
+    public static void recordCategory(WeblogCategory category) {
+        if (recorder.get() != null) {
+            record(categoryKey(category));
+        }
+    }
+
+
+    public static void recordCategories(Weblog weblog) {
+        if (recorder.get() != null) {
+            record(categoriesKey(weblog));
+        }
+    }
+
+
+    public static void recordBookmarks(Weblog weblog) {
+        if (recorder.get() != null) {
+            record(bookmarksKey(weblog));
+        }
+    }
+
+
+    public static void recordTemplate(String templateId) {
+        if (recorder.get() != null) {
+            record(templateKey(templateId));
+        }
+    }
+
+
+    public static void recordTemplates(Weblog weblog) {
+        if (recorder.get() != null) {
+            record(templatesKey(weblog));
+        }
+    }
+
+
+    /** A single entry, including its comments. */
+    public static String entryKey(WeblogEntry entry) {
+        return "entry:" + entry.getId();
+    }
+
+
+    /** Any list of entries of a weblog, along with their counts and tags. */
+    public static String entriesKey(Weblog weblog) {
+        return "entries:" + weblog.getId();
+    }
+
+
+    /** Any list of comments of a weblog, along with their counts. */
+    public static String commentsKey(Weblog weblog) {
+        return "comments:" + weblog.getId();
+    }
+
+
+    /** A single category. */
+    public static String categoryKey(WeblogCategory category) {
+        return "category:" + category.getId();
+    }
+
+
+    /** The list of categories of a weblog. */
+    public static String categoriesKey(Weblog weblog) {
+        return "categories:" + weblog.getId();
+    }
+
+
+    /** The bookmarks and folders of a weblog. */
+    public static String bookmarksKey(Weblog weblog) {
+        return "bookmarks:" + weblog.getId();
+    }
+
+
+    /** A single template. */
+    public static String templateKey(String templateId) {
+        return "template:" + templateId;
+    }
+
+
+    /** Lookups of weblog templates which may come out differently once
+     *  a template is added or renamed. */
+    public static String templatesKey(Weblog weblog) {
+        return "templates:" + weblog.getId();
+    }
+
+
+    /** Everything about a weblog, all tracked content of a weblog depends on this. */
+    public static String weblogKey(Weblog weblog) {
+        return "weblog:" + weblog.getId();
+    }
+
+
+    /**
+     * The keys to invalidate when an entry changes.
+     */
+    public static String[] keysFor(WeblogEntry entry) {
+        return new String[] { entryKey(entry), entriesKey(entry.getWebsite()) };
+    }
+
+
+    /**
+     * The keys to invalidate when a comment changes.
+     */
+    public static String[] keysFor(WeblogEntryComment comment) {
+        WeblogEntry entry = comment.getWeblogEntry();
+        return new String[] { entryKey(entry), commentsKey(entry.getWebsite()) };
+    }
+
+
+    /**
+     * The keys to invalidate when a category changes.  Removing a category
+     * moves its entries elsewhere, so lists of entries are invalidated too.
+     */
+    public static String[] keysFor(WeblogCategory category) {
+        Weblog weblog = category.getWeblog();
+        return new String[] { categoryKey(category), categoriesKey(weblog), entriesKey(weblog) };
+    }
+
+
+    /**
+     * The keys to invalidate when a bookmark changes.
+     */
+    public static String[] keysFor(WeblogBookmark bookmark) {
+        return new String[] { bookmarksKey(bookmark.getWebsite()) };
+    }
+
+
+    /**
+     * The keys to invalidate when a bookmark folder changes.
+     */
+    public static String[] keysFor(WeblogBookmarkFolder folder) {
+        return new String[] { bookmarksKey(folder.getWeblog()) };
+    }
+
+
+    /**
+     * The keys to invalidate when a template changes.
+     */
+    public static String[] keysFor(WeblogTemplate template) {
+        return new String[] { templateKey(template.getId()), templatesKey(template.getWeblog()) };
+    }
+
+
+    public Set<String> getDependencies() {
+        return dependencies;
+    }
+
+
+    public long getVersion() {
+        return version;
+    }
+
+
+    public boolean isUntracked() {
+        return untracked;
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+
+/**
+ * Figures out how many bytes a cached value accounts for.
+ *
+ * Only rendered content is weighed, using the length of the cached byte
+ * arrays, including the gzipped variant if there is one.  The entry wrappers
+ * used by the rendering caches are unwrapped first, everything else weighs
+ * nothing and is only bounded by entry count.
+ */
+final class CacheEntryWeigher {
+
+    // a non-instantiable class
+    private CacheEntryWeigher() {}
+
+
+    static long weigh(Object value) {
+
+        Object item = value;
+        if (item instanceof ExpiringCacheEntry) {
+            item = ((ExpiringCacheEntry) item).getRawValue();
+        }
+        if (item instanceof LazyExpiringCacheEntry) {
+            item = ((LazyExpiringCacheEntry) item).getRawValue();
+        }
+
+        if (item instanceof CachedContent) {
+            CachedContent content = (CachedContent) item;
+            return content.getContentLength() + Math.max(0, content.getGzippedContentLength());
+        }
+
+        return 0;
+    }
+
+
+    /**
+     * Parse the optional "maxBytes" cache property, 0 means no byte budget.
+     */
+    static long parseMaxBytes(Object property) {
+
+        if (property == null) {
+            return 0;
+        }
+
+        long maxBytes = Long.parseLong(((String) property).trim());
+        return Math.max(0, maxBytes);
+    }
+
+}
@@ -18,6 +18,8 @@
 
 package org.apache.roller.weblogger.util.cache;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -130,6 +132,17 @@ public final class CacheManager {
      * use for the whole system, but override it in certain places where they
      * see fit.  It also allows users to write their own caching modifications
      * and have them used only by specific caches.
+     *
+     * Any cache can also keep its rendered content off the java heap by
+     * supplying an "offHeap" property set to true.
+     *
+     * Content may also be kept on disk across restarts by supplying a "disk"
+     * property set to true, in which case a "diskMaxBytes" property limits
+     * how much disk space it may use.
+     *
+     * A cache may also allow stale entries to be served while they are being
+     * revalidated by supplying a "staleWhileRevalidate" property, the number
+     * of seconds an entry may be served after going stale.
      */
     public static Cache constructCache(CacheHandler handler, Map<String, String> properties) {
         
@@ -161,6 +174,47 @@ public final class CacheManager {
             cache = cacheFactory.constructCache(properties);
         }
         
+        if(cache != null && properties != null && Boolean.parseBoolean(properties.get("offHeap"))) {
+            long maxBytes = parseLong(properties, "maxBytes");
+            if(maxBytes <= 0) {
+                log.error("Not keeping content of cache "+cache.getId()+" off heap, offHeap needs a maxBytes budget");
+            } else {
+                log.debug("Keeping content of cache "+cache.getId()+" off heap");
+                cache = new OffHeapCacheImpl(cache, maxBytes);
+            }
+        }
+        
+        String diskDir = WebloggerConfig.getProperty("cache.disk.dir");
+        if(cache != null && properties != null && Boolean.parseBoolean(properties.get("disk"))
+                && diskDir != null && !diskDir.trim().isEmpty()) {
+            File dir = new File(diskDir.trim(), cache.getId());
+            long timeout = parseLong(properties, "timeout");
+            long diskMaxBytes = parseLong(properties, "diskMaxBytes");
+            if(timeout < 0 || diskMaxBytes < 0) {
+                log.error("Not keeping content of cache "+cache.getId()+" on disk, see invalid properties");
+            } else {
+                try {
+                    log.debug("Keeping content of cache "+cache.getId()+" on disk in "+dir);
+                    cache = new DiskCacheImpl(cache, dir, timeout, diskMaxBytes);
+                } catch(IOException e) {
+                    log.error("Unable to keep content of cache "+cache.getId()+" on disk", e);
+                }
+            }
+        }
+        
+        if(cache != null && properties != null && properties.get("staleWhileRevalidate") != null) {
+            long window = 0;
+            try {
+                window = Long.parseLong(properties.get("staleWhileRevalidate").trim());
+            } catch(NumberFormatException e) {
+                log.warn("invalid staleWhileRevalidate property", e);
+            }
+            if(window > 0) {
+                log.debug("Serving stale entries of cache "+cache.getId()+" for "+window+" seconds");
+                cache = new StaleWhileRevalidateCacheImpl(cache, window);
+            }
+        }
+        
         if(cache != null) {
             caches.put(cache.getId(), cache);
             
@@ -174,6 +228,21 @@ public final class CacheManager {
     }
     
     
+    // 0 if the property is not set, -1 if it is not a valid number
+    private static long parseLong(Map<String, String> properties, String name) {
+        String value = properties.get(name);
+        if(value == null || value.trim().isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch(NumberFormatException e) {
+            log.warn("invalid "+name+" property", e);
+            return -1;
+        }
+    }
+    
+    
     /**
      * Register a CacheHandler to listen for object invalidations.
      *
@@ -308,7 +377,11 @@ public final class CacheManager {
      * Place to do any cleanup tasks for cache system.
      */
     public static void shutdown() {
-        // no-op
+        for (CacheHandler handler : cacheHandlers) {
+            if (handler instanceof ClusterCacheHandler) {
+                ((ClusterCacheHandler) handler).shutdown();
+            }
+        }
     }
     
 }
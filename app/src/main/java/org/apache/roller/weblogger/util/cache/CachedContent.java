@@ -3,9 +3,12 @@ package org.apache.roller.weblogger.util.cache;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.util.RollerConstants;
@@ -14,6 +17,15 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * A utility class for storing cached content written to a java.io.Writer.
+ *
+ * When closed a hash of the content is computed, which makes for a strong
+ * validator of the content, see getContentHash().
+ *
+ * Once closed a gzipped variant of the content may be computed, see gzip(),
+ * so it can be served as is to clients which accept gzip encoding.
+ *
+ * Once closed the content may be copied to an OffHeapSlab, see toOffHeap(),
+ * in which case the heap only holds this small descriptor.
  */
 public class CachedContent implements AutoCloseable, Serializable {
     
@@ -22,9 +34,19 @@ public class CachedContent implements AutoCloseable, Serializable {
     // the byte array we use to maintain the cached content
     private byte[] content = new byte[0];
     
+    // the cached content when it has been moved off the heap
+    private final transient OffHeapSlab.Block offHeapContent;
+    
+    // the gzipped cached content, if any, on or off the heap
+    private byte[] gzippedContent = null;
+    private final transient OffHeapSlab.Block offHeapGzippedContent;
+    
     // content-type of data in byte array
     private final String contentType;
     
+    // hex encoded hash of the content, computed on close()
+    private String contentHash = null;
+    
     // Use a byte array output stream to cached the output bytes
     private transient ByteArrayOutputStream outstream = null;
     
@@ -47,6 +69,24 @@ public class CachedContent implements AutoCloseable, Serializable {
         // construct writer from output stream
         this.cachedWriter = new PrintWriter(new OutputStreamWriter(this.outstream, UTF_8));
         this.contentType = contentType;
+        this.offHeapContent = null;
+        this.offHeapGzippedContent = null;
+    }
+    
+    CachedContent(byte[] content, byte[] gzippedContent, String contentType, String contentHash) {
+        this.content = content;
+        this.gzippedContent = gzippedContent;
+        this.contentType = contentType;
+        this.contentHash = contentHash;
+        this.offHeapContent = null;
+        this.offHeapGzippedContent = null;
+    }
+    
+    private CachedContent(OffHeapSlab.Block offHeapContent, OffHeapSlab.Block offHeapGzippedContent, String contentType, String contentHash) {
+        this.offHeapContent = offHeapContent;
+        this.offHeapGzippedContent = offHeapGzippedContent;
+        this.contentType = contentType;
+        this.contentHash = contentHash;
     }
     
     
@@ -56,12 +96,113 @@ public class CachedContent implements AutoCloseable, Serializable {
      *
      * NOTE: the content is only a representation of the data written to the
      *       enclosed Writer up until the last call to flush().
+     *
+     * NOTE: off-heap content is copied to a new array on every call, prefer
+     *       writeContent() for sending content somewhere.
      */
     public byte[] getContent() {
+        if(this.offHeapContent != null) {
+            return this.offHeapContent.toByteArray();
+        }
         return this.content;
     }
     
     
+    /**
+     * Get the length in bytes of the content cached in this object.
+     */
+    public int getContentLength() {
+        if(this.offHeapContent != null) {
+            return this.offHeapContent.length();
+        }
+        return this.content.length;
+    }
+    
+    
+    /**
+     * Write the content cached in this object to the given stream.
+     *
+     * Off-heap content is transferred a page at a time, so it is never copied
+     * to the heap as a whole.
+     */
+    public void writeContent(OutputStream out) throws IOException {
+        if(this.offHeapContent != null) {
+            this.offHeapContent.writeTo(out);
+        } else {
+            out.write(this.content);
+        }
+    }
+    
+    
+    /**
+     * True if a gzipped variant of the content is available.
+     */
+    public boolean isGzipped() {
+        return this.gzippedContent != null || this.offHeapGzippedContent != null;
+    }
+    
+    
+    /**
+     * Get the length in bytes of the gzipped content, or -1 if the content
+     * has not been gzipped.
+     */
+    public int getGzippedContentLength() {
+        if(this.offHeapGzippedContent != null) {
+            return this.offHeapGzippedContent.length();
+        } else if(this.gzippedContent != null) {
+            return this.gzippedContent.length;
+        }
+        return -1;
+    }
+    
+    
+    /**
+     * Write the gzipped content cached in this object to the given stream.
+     *
+     * @throws IllegalStateException if the content has not been gzipped
+     */
+    public void writeGzippedContent(OutputStream out) throws IOException {
+        if(this.offHeapGzippedContent != null) {
+            this.offHeapGzippedContent.writeTo(out);
+        } else if(this.gzippedContent != null) {
+            out.write(this.gzippedContent);
+        } else {
+            throw new IllegalStateException("Content has not been gzipped!");
+        }
+    }
+    
+    
+    /**
+     * Compute the gzipped variant of the content, so that it only needs to
+     * be compressed once no matter how many times it gets served.
+     *
+     * Content which does not get any smaller is left alone.
+     *
+     * @throws IllegalStateException if calling gzip() before a close()
+     */
+    public void gzip() throws IOException {
+        
+        if(this.outstream != null) {
+            throw new IllegalStateException("Cannot gzip() before a close()!");
+        }
+        
+        if(isGzipped()) {
+            return;
+        }
+        
+        byte[] plain = getContent();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(plain.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(plain);
+        }
+        
+        if(bytes.size() < plain.length) {
+            this.gzippedContent = bytes.toByteArray();
+            log.debug("GZIPPED "+plain.length+" -> "+this.gzippedContent.length);
+        }
+    }
+    
+    
     /**
      * Get the content cached in this object as a String.
      *
@@ -69,7 +210,7 @@ public class CachedContent implements AutoCloseable, Serializable {
      *       enclosed Writer up until the last call to flush().
      */
     public String getContentAsString() {
-        return new String(this.content, UTF_8);
+        return new String(getContent(), UTF_8);
     }
     
     
@@ -83,6 +224,84 @@ public class CachedContent implements AutoCloseable, Serializable {
     }
     
     
+    /**
+     * Get a hex encoded hash of the content, or null if this CachedContent
+     * has not been closed yet.
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+    
+    
+    public boolean isOffHeap() {
+        return this.offHeapContent != null;
+    }
+    
+    
+    /**
+     * Copy the content cached in this object to blocks of the given slab.
+     * Off-heap content is first copied back to the heap, so the copy is
+     * never shared with the content it was made from.
+     *
+     * @return a closed CachedContent with the same content and content-type,
+     *         or null if the slab is full
+     */
+    CachedContent toOffHeap(OffHeapSlab slab) {
+        
+        byte[] plain = getContent();
+        byte[] gzipped = null;
+        if(this.offHeapGzippedContent != null) {
+            gzipped = this.offHeapGzippedContent.toByteArray();
+        } else if(this.gzippedContent != null) {
+            gzipped = this.gzippedContent;
+        }
+        
+        OffHeapSlab.Block[] blocks = gzipped != null ? slab.store(plain, gzipped) : slab.store(plain);
+        if(blocks == null) {
+            return null;
+        }
+        return new CachedContent(blocks[0], gzipped != null ? blocks[1] : null, this.contentType, this.contentHash);
+    }
+    
+    
+    /**
+     * True if the given slab will have room for this content once the
+     * blocks freed so far can be used again.
+     */
+    boolean willFitOffHeap(OffHeapSlab slab) {
+        return slab.willFit(getContentLength(), Math.max(0, getGzippedContentLength()));
+    }
+    
+    
+    /**
+     * Give the off-heap blocks of this content back to their slab, after
+     * which this content must no longer be handed out.
+     */
+    void freeOffHeap() {
+        if(this.offHeapContent != null) {
+            this.offHeapContent.free();
+        }
+        if(this.offHeapGzippedContent != null) {
+            this.offHeapGzippedContent.free();
+        }
+    }
+    
+    
+    /**
+     * Off-heap blocks can't be serialized, so serialize an on-heap copy.
+     */
+    private Object writeReplace() {
+        if(this.offHeapContent != null) {
+            byte[] gzipped = null;
+            if(this.offHeapGzippedContent != null) {
+                gzipped = this.offHeapGzippedContent.toByteArray();
+            }
+            return new CachedContent(this.offHeapContent.toByteArray(), gzipped, this.contentType, this.contentHash);
+        }
+        return this;
+    }
+    
+    
     /**
      * Called to flush any output in the cached Writer to
      * the cached content for more permanent storage.
@@ -121,6 +340,8 @@ public class CachedContent implements AutoCloseable, Serializable {
             }
             this.outstream.close();
             this.outstream = null;
+            
+            this.contentHash = DigestUtils.md5Hex(this.content);
         }
         
         log.debug("CLOSED");
@@ -0,0 +1,402 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
+import org.apache.roller.weblogger.WebloggerException;
+import org.apache.roller.weblogger.business.Weblogger;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.apache.roller.weblogger.pojos.User;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogBookmark;
+import org.apache.roller.weblogger.pojos.WeblogBookmarkFolder;
+import org.apache.roller.weblogger.pojos.WeblogCategory;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntryComment;
+import org.apache.roller.weblogger.pojos.WeblogTemplate;
+import org.apache.roller.weblogger.util.Reflection;
+
+
+/**
+ * Shares cache invalidations between the servers of a cluster.
+ *
+ * Enable by adding this class to the "cache.customHandlers" property on every
+ * server.  Each invalidation on this server is turned into an event naming the
+ * object by id, events are queued and sent to the other servers in batches by
+ * the configured InvalidationTransport, with duplicates within a batch only
+ * sent once.  Events received from other servers are replayed through the
+ * CacheManager after looking the objects up again, so every cache on this
+ * server sees the same invalidations it would have seen had the change
+ * happened here.  Replaying happens on a thread of its own, so database
+ * lookups never hold up the transport, and the changed weblogs and entries
+ * are first evicted from the shared JPA cache so the lookups see the change.
+ *
+ * Objects which no longer exist, because the change was a removal, are
+ * invalidated through their entry or weblog instead.
+ */
+public class ClusterCacheHandler implements CacheHandler {
+    
+    private static final Log log = LogFactory.getLog(ClusterCacheHandler.class);
+    
+    private static final String DEFAULT_TRANSPORT =
+            "org.apache.roller.weblogger.util.cache.UdpInvalidationTransport";
+    
+    static final String ENTRY = "entry";
+    static final String WEBLOG = "weblog";
+    static final String BOOKMARK = "bookmark";
+    static final String FOLDER = "folder";
+    static final String COMMENT = "comment";
+    static final String USER = "user";
+    static final String CATEGORY = "category";
+    static final String TEMPLATE = "template";
+    
+    // stands in for an id we don't know
+    private static final String NONE = "-";
+    
+    // set while replaying events from other servers, so they aren't sent back
+    private static final ThreadLocal<Boolean> replaying = new ThreadLocal<>();
+    
+    private final InvalidationTransport transport;
+    
+    // events waiting for the next batch, in order and without duplicates
+    private final Set<String> pending = new LinkedHashSet<>();
+    
+    private Thread worker = null;
+    
+    // replays received events, one batch at a time
+    private final ExecutorService replayer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ClusterCacheReplayer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    
+    public ClusterCacheHandler() throws ReflectiveOperationException {
+        this((InvalidationTransport) Reflection.newInstance(
+                WebloggerConfig.getProperty("cache.cluster.transport", DEFAULT_TRANSPORT)));
+        
+        // send batches at intervals
+        final long batchInterval = Math.max(1, WebloggerConfig.getIntProperty("cache.cluster.batchInterval", 250));
+        worker = new Thread("ClusterCacheInvalidator") {
+            @Override
+            public void run() {
+                while (!isInterrupted()) {
+                    try {
+                        Thread.sleep(batchInterval);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    flush();
+                }
+            }
+        };
+        worker.setDaemon(true);
+        worker.start();
+    }
+    
+    
+    /**
+     * A handler whose batches are only sent when flush() is called.
+     */
+    ClusterCacheHandler(InvalidationTransport transport) {
+        this.transport = transport;
+        
+        try {
+            transport.start(this::receive);
+        } catch (IOException e) {
+            log.error("Unable to start cache invalidation transport, "+
+                    "invalidations will not be shared with other servers", e);
+        }
+    }
+    
+    
+    @Override
+    public void invalidate(WeblogEntry entry) {
+        queue(ENTRY, entry.getId(), idOf(entry.getWebsite()));
+    }
+    
+    
+    @Override
+    public void invalidate(Weblog website) {
+        queue(WEBLOG, website.getId());
+    }
+    
+    
+    @Override
+    public void invalidate(WeblogBookmark bookmark) {
+        queue(BOOKMARK, bookmark.getId(), idOf(bookmark.getWebsite()));
+    }
+    
+    
+    @Override
+    public void invalidate(WeblogBookmarkFolder folder) {
+        queue(FOLDER, folder.getId(), idOf(folder.getWeblog()));
+    }
+    
+    
+    @Override
+    public void invalidate(WeblogEntryComment comment) {
+        WeblogEntry entry = comment.getWeblogEntry();
+        if (entry != null) {
+            queue(COMMENT, comment.getId(), idOf(entry.getWebsite()), entry.getId());
+        } else {
+            queue(COMMENT, comment.getId(), null, null);
+        }
+    }
+    
+    
+    @Override
+    public void invalidate(User user) {
+        queue(USER, user.getId());
+    }
+    
+    
+    @Override
+    public void invalidate(WeblogCategory category) {
+        queue(CATEGORY, category.getId(), idOf(category.getWeblog()));
+    }
+    
+    
+    @Override
+    public void invalidate(WeblogTemplate template) {
+        queue(TEMPLATE, template.getId(), idOf(template.getWeblog()));
+    }
+    
+    
+    /**
+     * Send all queued events to the other servers.
+     */
+    public void flush() {
+        
+        List<String> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+        
+        try {
+            log.debug("Sending "+batch.size()+" cache invalidations");
+            transport.send(batch);
+        } catch (IOException e) {
+            log.warn("Unable to send "+batch.size()+" cache invalidations", e);
+        }
+    }
+    
+    
+    /**
+     * Send anything still queued and stop listening to the other servers.
+     */
+    public void shutdown() {
+        
+        if (worker != null) {
+            log.info("stopping "+worker.getName());
+            worker.interrupt();
+            try {
+                worker.join(RollerConstants.GRACEFUL_SHUTDOWN_WAIT_IN_MILLISECONDS);
+            } catch (InterruptedException e) {
+                log.debug(e.getMessage(), e);
+            }
+        }
+        flush();
+        transport.shutdown();
+        replayer.shutdownNow();
+    }
+    
+    
+    private void queue(String... event) {
+        
+        // don't echo what other servers told us
+        if (Boolean.TRUE.equals(replaying.get()) || event[1] == null) {
+            return;
+        }
+        
+        // keep the position of unknown ids
+        for (int i = 2; i < event.length; i++) {
+            if (event[i] == null) {
+                event[i] = NONE;
+            }
+        }
+        
+        synchronized (pending) {
+            pending.add(StringUtils.join(event, ' '));
+        }
+    }
+    
+    
+    private static String idOf(Weblog weblog) {
+        return weblog != null ? weblog.getId() : null;
+    }
+    
+    
+    /**
+     * Hand events received from another server to the replay thread.
+     */
+    private void receive(final List<String> events) {
+        try {
+            replayer.execute(() -> replay(events));
+        } catch (RejectedExecutionException e) {
+            log.debug("Ignoring "+events.size()+" cache invalidations received during shutdown");
+        }
+    }
+    
+    
+    /**
+     * Replay the events received from another server.
+     */
+    void replay(List<String> events) {
+        
+        if (!WebloggerFactory.isBootstrapped()) {
+            log.debug("Ignoring "+events.size()+" cache invalidations received during startup");
+            return;
+        }
+        
+        replaying.set(Boolean.TRUE);
+        try {
+            for (String event : new LinkedHashSet<>(events)) {
+                try {
+                    replay(StringUtils.split(event, ' '));
+                } catch (WebloggerException | RuntimeException e) {
+                    log.warn("Unable to replay cache invalidation ["+event+"]", e);
+                }
+            }
+        } finally {
+            replaying.remove();
+            WebloggerFactory.getWeblogger().release();
+        }
+    }
+    
+    
+    private void replay(String[] event) throws WebloggerException {
+        
+        if (event.length < 2) {
+            return;
+        }
+        
+        log.debug("Replaying cache invalidation "+StringUtils.join(event, ' '));
+        
+        Weblogger roller = WebloggerFactory.getWeblogger();
+        String id = event[1];
+        String weblogId = event.length > 2 && !NONE.equals(event[2]) ? event[2] : null;
+        
+        // the shared cache still holds our copies from before the change,
+        // which would be looked up again and hand out stale last modified times
+        if (weblogId != null) {
+            roller.evict(Weblog.class, weblogId);
+        }
+        if (WEBLOG.equals(event[0])) {
+            roller.evict(Weblog.class, id);
+        } else if (ENTRY.equals(event[0])) {
+            roller.evict(WeblogEntry.class, id);
+        } else if (COMMENT.equals(event[0]) && event.length > 3 && !NONE.equals(event[3])) {
+            roller.evict(WeblogEntry.class, event[3]);
+        }
+        
+        switch (event[0]) {
+            case ENTRY:
+                WeblogEntry entry = roller.getWeblogEntryManager().getWeblogEntry(id);
+                if (entry != null) {
+                    CacheManager.invalidate(entry);
+                    return;
+                }
+                break;
+            case WEBLOG:
+                Weblog weblog = roller.getWeblogManager().getWeblog(id);
+                if (weblog != null) {
+                    CacheManager.invalidate(weblog);
+                }
+                return;
+            case BOOKMARK:
+                WeblogBookmark bookmark = roller.getBookmarkManager().getBookmark(id);
+                if (bookmark != null) {
+                    CacheManager.invalidate(bookmark);
+                    return;
+                }
+                break;
+            case FOLDER:
+                WeblogBookmarkFolder folder = roller.getBookmarkManager().getFolder(id);
+                if (folder != null) {
+                    CacheManager.invalidate(folder);
+                    return;
+                }
+                break;
+            case COMMENT:
+                WeblogEntryComment comment = roller.getWeblogEntryManager().getComment(id);
+                if (comment != null) {
+                    CacheManager.invalidate(comment);
+                    return;
+                }
+                // a removed comment changes its entry
+                WeblogEntry commented = event.length > 3 && !NONE.equals(event[3])
+                        ? roller.getWeblogEntryManager().getWeblogEntry(event[3]) : null;
+                if (commented != null) {
+                    CacheManager.invalidate(commented);
+                    return;
+                }
+                break;
+            case USER:
+                User user = roller.getUserManager().getUser(id);
+                if (user != null) {
+                    CacheManager.invalidate(user);
+                }
+                return;
+            case CATEGORY:
+                WeblogCategory category = roller.getWeblogEntryManager().getWeblogCategory(id);
+                if (category != null) {
+                    CacheManager.invalidate(category);
+                    return;
+                }
+                break;
+            case TEMPLATE:
+                WeblogTemplate template = roller.getWeblogManager().getTemplate(id);
+                if (template != null) {
+                    CacheManager.invalidate(template);
+                    return;
+                }
+                break;
+            default:
+                log.debug("Unknown cache invalidation "+event[0]);
+                return;
+        }
+        
+        // the object is gone, so invalidate everything about its weblog
+        if (weblogId != null) {
+            Weblog weblog = roller.getWeblogManager().getWeblog(weblogId);
+            if (weblog != null) {
+                CacheManager.invalidate(weblog);
+            }
+        }
+    }
+    
+}
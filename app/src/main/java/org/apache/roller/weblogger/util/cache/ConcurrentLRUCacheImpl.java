@@ -0,0 +1,367 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
+
+
+/**
+ * A segmented, approximate LRU cache where entries may expire after a given
+ * timeout period.
+ *
+ * Unlike LRUCacheImpl this cache never takes a lock to read.  Keys are spread
+ * over a number of segments, each one backed by a ConcurrentHashMap, and every
+ * entry remembers the last time it was accessed.  When a put() pushes a
+ * segment over its share of the maximum size, the put()ing thread evicts the
+ * expired and least recently accessed entries of that segment only, so the
+ * LRU ordering is exact per segment and approximate for the cache as a whole.
+ *
+ * A byte budget may be given as well, in which case it is split evenly over
+ * the segments and rendered content is weighed by its size.
+ */
+public class ConcurrentLRUCacheImpl implements Cache {
+
+    private static final Log log = LogFactory.getLog(ConcurrentLRUCacheImpl.class);
+
+    // we want segments to hold at least this many entries
+    private static final int MIN_SEGMENT_SIZE = 32;
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final String id;
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    // timeout in millis, 0 means entries never expire
+    private final long timeout;
+
+    // byte budget, 0 means unbounded
+    private final long maxBytes;
+
+    // for metrics
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder removes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder weightEvictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private volatile Date startTime = new Date();
+
+
+    protected ConcurrentLRUCacheImpl(String id) {
+
+        this(id, 100, 0);
+    }
+
+
+    protected ConcurrentLRUCacheImpl(String id, int maxsize, long timeout) {
+
+        this(id, maxsize, timeout, 0);
+    }
+
+
+    protected ConcurrentLRUCacheImpl(String id, int maxsize, long timeout, long maxBytes) {
+
+        this.id = id;
+        this.maxBytes = Math.max(0, maxBytes);
+
+        // timeout is specified in seconds; only positive values allowed
+        this.timeout = (timeout > 0) ? timeout * RollerConstants.SEC_IN_MS : 0;
+
+        int maxEntries = Math.max(1, maxsize);
+        int count = Integer.highestOneBit(Math.max(1, maxEntries / MIN_SEGMENT_SIZE));
+        count = Math.min(count, MAX_SEGMENTS);
+
+        // spread the max size over the segments, rounding up
+        int segmentSize = (maxEntries + count - 1) / count;
+        long segmentBytes = (this.maxBytes + count - 1) / count;
+
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            this.segments[i] = new Segment(segmentSize, segmentBytes);
+        }
+        this.segmentMask = count - 1;
+    }
+
+
+    @Override
+    public String getId() {
+        return this.id;
+    }
+
+
+    /**
+     * Store an entry in the cache.
+     */
+    @Override
+    public void put(String key, Object value) {
+
+        long now = System.currentTimeMillis();
+        long expires = (this.timeout > 0) ? now + this.timeout : Long.MAX_VALUE;
+
+        Entry entry = new Entry(value, expires, System.nanoTime(), CacheEntryWeigher.weigh(value));
+
+        Segment segment = segmentFor(key);
+        Entry previous = segment.map.put(key, entry);
+        segment.bytes.addAndGet(entry.weight - ((previous != null) ? previous.weight : 0));
+        puts.increment();
+
+        if (segment.isOverflowing()) {
+            segment.evict(now);
+        }
+    }
+
+
+    /**
+     * Retrieve an entry from the cache.
+     *
+     * If the cached object has expired then we return null, just as if the
+     * entry wasn't found.
+     */
+    @Override
+    public Object get(String key) {
+
+        Segment segment = segmentFor(key);
+        Entry entry = segment.map.get(key);
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (entry.hasExpired(System.currentTimeMillis())) {
+            log.debug("EXPIRED ["+key+"]");
+
+            // only remove the entry we looked at, somebody may have put a
+            // fresh one in the meantime
+            if (segment.map.remove(key, entry)) {
+                segment.bytes.addAndGet(-entry.weight);
+                expirations.increment();
+            }
+            misses.increment();
+            return null;
+        }
+
+        // racy by design, the last writer wins which is good enough for LRU
+        entry.lastAccess = System.nanoTime();
+        hits.increment();
+
+        return entry.value;
+    }
+
+
+    @Override
+    public void remove(String key) {
+
+        Segment segment = segmentFor(key);
+        Entry removed = segment.map.remove(key);
+        if (removed != null) {
+            segment.bytes.addAndGet(-removed.weight);
+        }
+        removes.increment();
+    }
+
+
+    @Override
+    public void clear() {
+
+        for (Segment segment : this.segments) {
+            // remove one by one so the byte count stays in line with
+            // entries being put concurrently
+            for (Map.Entry<String, Entry> entry : segment.map.entrySet()) {
+                if (segment.map.remove(entry.getKey(), entry.getValue())) {
+                    segment.bytes.addAndGet(-entry.getValue().weight);
+                }
+            }
+        }
+
+        // clear metrics
+        hits.reset();
+        misses.reset();
+        puts.reset();
+        removes.reset();
+        evictions.reset();
+        weightEvictions.reset();
+        expirations.reset();
+        startTime = new Date();
+    }
+
+
+    @Override
+    public Map<String, Object> getStats() {
+
+        long size = 0;
+        long bytes = 0;
+        for (Segment segment : this.segments) {
+            size += segment.map.size();
+            bytes += segment.bytes.get();
+        }
+
+        double hitCount = hits.doubleValue();
+        double missCount = misses.doubleValue();
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("startTime", this.startTime);
+        stats.put("size", size);
+        stats.put("segments", this.segments.length);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("puts", puts.doubleValue());
+        stats.put("removes", removes.doubleValue());
+        stats.put("evictions", evictions.doubleValue());
+        stats.put("expirations", expirations.doubleValue());
+
+        if (this.maxBytes > 0) {
+            stats.put("bytes", bytes);
+            stats.put("maxBytes", this.maxBytes);
+            stats.put("weightEvictions", weightEvictions.doubleValue());
+        }
+
+        // calculate efficiency
+        if((missCount + hitCount) > 0) {
+            double efficiency = hitCount / (missCount + hitCount);
+            stats.put("efficiency", efficiency * RollerConstants.PERCENT_100);
+        }
+
+        return stats;
+    }
+
+
+    private Segment segmentFor(String key) {
+        // spread the hash bits a bit, the same way HashMap does
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return this.segments[h & this.segmentMask];
+    }
+
+
+    /**
+     * A cached value along with its expiration time, last access time and
+     * weight in bytes.
+     */
+    private static final class Entry {
+
+        private final Object value;
+        private final long expires;
+        private final long weight;
+        private volatile long lastAccess;
+
+        Entry(Object value, long expires, long lastAccess, long weight) {
+            this.value = value;
+            this.expires = expires;
+            this.lastAccess = lastAccess;
+            this.weight = weight;
+        }
+
+        boolean hasExpired(long now) {
+            return this.expires < now;
+        }
+    }
+
+
+    /**
+     * A slice of the cache.  The lock is only used to serialize evictions,
+     * readers and writers never touch it.
+     */
+    private final class Segment {
+
+        private final ConcurrentHashMap<String, Entry> map;
+        private final int maxsize;
+        private final long maxBytes;
+        private final AtomicLong bytes = new AtomicLong();
+        private final ReentrantLock evictionLock = new ReentrantLock();
+
+        Segment(int maxsize, long maxBytes) {
+            this.maxsize = maxsize;
+            this.maxBytes = maxBytes;
+            this.map = new ConcurrentHashMap<>(maxsize * 4 / 3 + 1);
+        }
+
+        boolean isOverflowing() {
+            return map.size() > maxsize || isOverweight();
+        }
+
+        boolean isOverweight() {
+            return maxBytes > 0 && bytes.get() > maxBytes;
+        }
+
+        /**
+         * Bring this segment back down to its max size and byte budget,
+         * dropping expired entries first and then the least recently
+         * accessed ones.
+         *
+         * If another thread is already evicting then we let it do the work.
+         */
+        void evict(long now) {
+
+            if (!evictionLock.tryLock()) {
+                return;
+            }
+
+            try {
+                // sweep out expired entries
+                Iterator<Entry> values = map.values().iterator();
+                while (values.hasNext()) {
+                    Entry entry = values.next();
+                    if (entry.hasExpired(now)) {
+                        values.remove();
+                        bytes.addAndGet(-entry.weight);
+                        expirations.increment();
+                    }
+                }
+
+                // then drop the eldest until we fit again
+                while (isOverflowing()) {
+                    Map.Entry<String, Entry> eldest = null;
+                    for (Map.Entry<String, Entry> candidate : map.entrySet()) {
+                        if (eldest == null || candidate.getValue().lastAccess < eldest.getValue().lastAccess) {
+                            eldest = candidate;
+                        }
+                    }
+
+                    if (eldest == null) {
+                        break;
+                    }
+                    if (map.remove(eldest.getKey(), eldest.getValue())) {
+                        bytes.addAndGet(-eldest.getValue().weight);
+                        if (map.size() >= maxsize) {
+                            evictions.increment();
+                        } else {
+                            weightEvictions.increment();
+                        }
+                    }
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.Collection;
+import java.util.Map;
+
+
+/**
+ * A lazy expiring cache entry which also knows what its value depends on.
+ *
+ * A cache using these entries checks the dependencies, instead of the time
+ * cached, to find out if the entry is still fresh.  The version is whatever
+ * the cache needs to compare dependencies against, see CacheDependencies.
+ */
+public class DependentCacheEntry extends LazyExpiringCacheEntry {
+    
+    private final String[] dependencies;
+    private final long version;
+    
+    
+    public DependentCacheEntry(Object item, Collection<String> dependencies, long version) {
+        this(item, System.currentTimeMillis(), dependencies.toArray(new String[0]), version);
+    }
+    
+    
+    private DependentCacheEntry(Object item, long timeCached, String[] dependencies, long version) {
+        super(item, timeCached);
+        this.dependencies = dependencies;
+        this.version = version;
+    }
+    
+    
+    @Override
+    LazyExpiringCacheEntry withValue(Object item) {
+        return new DependentCacheEntry(item, getTimeCached(), this.dependencies, this.version);
+    }
+    
+    
+    /**
+     * Retrieve the value of this cache entry, the caller is responsible for
+     * checking the dependencies first.
+     */
+    public Object getValue() {
+        return getRawValue();
+    }
+    
+    
+    /**
+     * Determine if any of the dependencies of this entry was invalidated
+     * after the entry was versioned.
+     *
+     * @param invalidations the version each invalidated dependency was
+     *        invalidated at, dependencies never invalidated are absent.
+     */
+    public boolean isInvalid(Map<String, Long> invalidations) {
+        return getInvalidatedDependency(invalidations) != null;
+    }
+    
+    
+    /**
+     * Find the dependency which invalidated this entry.
+     *
+     * @return the first invalidated dependency found, or null if the entry
+     *         is still valid.
+     */
+    public String getInvalidatedDependency(Map<String, Long> invalidations) {
+        for (String dependency : this.dependencies) {
+            Long invalidated = invalidations.get(dependency);
+            if (invalidated != null && invalidated > this.version) {
+                return dependency;
+            }
+        }
+        return null;
+    }
+    
+    
+    public long getVersion() {
+        return version;
+    }
+    
+}
@@ -0,0 +1,675 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.util.RollerConstants;
+
+
+/**
+ * A cache which keeps a copy of rendered content on disk, so the content
+ * survives a restart of the server.
+ *
+ * This wraps any other cache, which remains the first level.  CachedContent,
+ * as is or inside a LazyExpiringCacheEntry, is appended to memory mapped
+ * segment files as it is put into the cache, and content which can't be
+ * found in the wrapped cache is read back from disk and promoted into the
+ * wrapped cache.  Writes happen on a background thread, a key with a write
+ * still waiting for it is a miss on disk, and a key put again before its
+ * write happens only has its latest value written.  Entries keep the time they were cached, so a weblog's
+ * last modified time decides whether restored content is still fresh just
+ * like it does for content which never left memory.  Dependencies of
+ * tracked pages are not kept since the invalidations they are checked
+ * against don't survive a restart.
+ *
+ * Segments are only ever appended to.  Once the segments take up more than
+ * the byte budget the oldest segment is deleted along with whatever it
+ * holds and unmapped as soon as nobody is reading from it, and content older than the cache timeout is dropped when the
+ * segments are loaded at startup or when it's asked for.
+ *
+ * The CacheManager wraps a cache with this when its "disk" property is set
+ * to true.
+ */
+public class DiskCacheImpl implements Cache {
+
+    private static final Log log = LogFactory.getLog(DiskCacheImpl.class);
+
+    // segment file header, change the version when the record format changes
+    private static final int MAGIC = 0x52434348;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int FRAME_SIZE = 8;
+    private static final String SUFFIX = ".seg";
+
+    // segments hold at least this much, and there are around this many of them
+    private static final long MIN_SEGMENT_SIZE = 4L * 1024 * 1024;
+    private static final long MAX_SEGMENT_SIZE = 1024L * 1024 * 1024;
+    private static final int SEGMENTS = 8;
+
+    // record types
+    private static final byte CONTENT = 1;
+    private static final byte ENTRY = 2;
+    private static final byte REMOVED = 3;
+
+    // pending value of a removed key
+    private static final Object REMOVED_VALUE = new Object();
+
+    // unmaps a buffer right away, if the jvm lets us
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.info("Cache segments will be unmapped by the garbage collector", e);
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private final Cache cache;
+    private final File dir;
+    private final long timeout;
+    private final long maxBytes;
+    private final int segmentSize;
+
+    // where the content for each key lives on disk
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+
+    // oldest first, new records go to the last one, guarded by this
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentId = 0;
+
+    // the latest value of each key waiting to be written
+    private final Map<String, Object> pending = new ConcurrentHashMap<>();
+
+    // writes pending values, so requests don't wait on the disk
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "DiskCacheWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // for metrics
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder diskPuts = new LongAdder();
+    private final LongAdder diskErrors = new LongAdder();
+
+
+    /**
+     * @param timeout how long content is kept, in seconds, 0 for no limit.
+     * @param maxBytes how much disk space the segments may use, 0 for no limit.
+     */
+    protected DiskCacheImpl(Cache cache, File dir, long timeout, long maxBytes) throws IOException {
+        this.cache = cache;
+        this.dir = dir;
+        this.timeout = Math.max(0, timeout) * RollerConstants.SEC_IN_MS;
+        this.maxBytes = Math.max(0, maxBytes);
+        this.segmentSize = (int) Math.min(MAX_SEGMENT_SIZE,
+                Math.max(MIN_SEGMENT_SIZE, this.maxBytes / SEGMENTS));
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create cache directory "+dir);
+        }
+
+        load();
+    }
+
+
+    @Override
+    public String getId() {
+        return this.cache.getId();
+    }
+
+
+    /**
+     * Store an entry in the cache, writing rendered content to disk.
+     */
+    @Override
+    public void put(String key, Object value) {
+
+        this.cache.put(key, value);
+        enqueue(key, value);
+    }
+
+
+    /**
+     * Retrieve an entry from the cache, falling back on content from disk.
+     */
+    @Override
+    public Object get(String key) {
+
+        Object value = this.cache.get(key);
+        if (value != null) {
+            return value;
+        }
+
+        Location location = index.get(key);
+        if (location == null || pending.containsKey(key)) {
+            return null;
+        }
+
+        if (isExpired(location.time)) {
+            index.remove(key, location);
+            return null;
+        }
+
+        if (!location.segment.retain()) {
+            // the segment was just trimmed
+            index.remove(key, location);
+            return null;
+        }
+        try {
+            value = read(key, location);
+        } catch (IOException | RuntimeException e) {
+            diskErrors.increment();
+            log.warn("Unable to read "+key+" from disk", e);
+            index.remove(key, location);
+            return null;
+        } finally {
+            location.segment.release();
+        }
+
+        diskHits.increment();
+        log.debug("PROMOTED "+key);
+        this.cache.put(key, value);
+        return value;
+    }
+
+
+    @Override
+    public void remove(String key) {
+
+        this.cache.remove(key);
+
+        if (index.containsKey(key) || pending.containsKey(key)) {
+            enqueue(key, REMOVED_VALUE);
+        }
+    }
+
+
+    @Override
+    public void clear() {
+
+        this.cache.clear();
+
+        synchronized (this) {
+            pending.clear();
+            index.clear();
+            while (!segments.isEmpty()) {
+                delete(segments.removeFirst());
+            }
+            try {
+                roll();
+            } catch (IOException e) {
+                diskErrors.increment();
+                log.error("Unable to start a new cache segment in "+dir, e);
+            }
+        }
+
+        diskHits.reset();
+        diskPuts.reset();
+        diskErrors.reset();
+    }
+
+
+    @Override
+    public Map<String, Object> getStats() {
+
+        Map<String, Object> stats = new HashMap<>(this.cache.getStats());
+        stats.put("diskHits", diskHits.doubleValue());
+        stats.put("diskPuts", diskPuts.doubleValue());
+        stats.put("diskErrors", diskErrors.doubleValue());
+        stats.put("diskEntries", index.size());
+        stats.put("diskPending", pending.size());
+        synchronized (this) {
+            stats.put("diskSegments", segments.size());
+            stats.put("diskBytes", diskBytes());
+        }
+
+        return stats;
+    }
+
+
+    /**
+     * Wait for the pending writes, for tests.
+     */
+    void awaitWrites() throws InterruptedException, ExecutionException {
+        while (!pending.isEmpty()) {
+            writer.submit(() -> { }).get();
+        }
+    }
+
+
+    private void enqueue(String key, Object value) {
+        // a key already waiting is written with its latest value
+        if (pending.put(key, value) == null) {
+            writer.execute(() -> write(key));
+        }
+    }
+
+
+    /**
+     * Write the pending value of a key, on the writer thread.
+     */
+    private void write(String key) {
+
+        Object value = pending.get(key);
+        if (value == null) {
+            // cleared
+            return;
+        }
+
+        try {
+            byte[] record = null;
+            long time = System.currentTimeMillis();
+            if (value instanceof CachedContent) {
+                record = record(CONTENT, key, time, (CachedContent) value);
+            } else if (value instanceof LazyExpiringCacheEntry
+                    && ((LazyExpiringCacheEntry) value).getRawValue() instanceof CachedContent) {
+                LazyExpiringCacheEntry entry = (LazyExpiringCacheEntry) value;
+                time = entry.getTimeCached();
+                record = record(ENTRY, key, time, (CachedContent) entry.getRawValue());
+            }
+
+            synchronized (this) {
+                if (pending.get(key) != value) {
+                    // cleared, or put again while we were building the record
+                } else if (record != null && record.length <= segmentSize - HEADER_SIZE) {
+                    append(key, record, time);
+                    diskPuts.increment();
+                } else if (index.containsKey(key)) {
+                    // whatever we have on disk is out of date now
+                    append(key, record(REMOVED, key, time, null), time);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            diskErrors.increment();
+            log.warn("Unable to write "+key+" to disk", e);
+            index.remove(key);
+        } finally {
+            if (!pending.remove(key, value) && pending.containsKey(key)) {
+                // put again since we started, which didn't queue another write
+                writer.execute(() -> write(key));
+            }
+        }
+    }
+
+
+    private boolean isExpired(long time) {
+        return timeout > 0 && System.currentTimeMillis() - time > timeout;
+    }
+
+
+    /**
+     * Load the index from the segments left by a previous run.
+     */
+    private synchronized void load() throws IOException {
+
+        File[] files = dir.listFiles((parent, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            throw new IOException("Unable to list cache directory "+dir);
+        }
+        Arrays.sort(files);
+
+        for (File file : files) {
+            long id;
+            try {
+                id = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                log.warn("Ignoring unknown file "+file+" in cache directory");
+                continue;
+            }
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+
+            Segment segment;
+            try (FileChannel channel = FileChannel.open(file.toPath())) {
+                segment = new Segment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+
+            if (!scan(segment)) {
+                log.info("Discarding unusable cache segment "+file);
+                delete(segment);
+            } else if (segment.size == HEADER_SIZE) {
+                delete(segment);
+            } else {
+                segments.addLast(segment);
+            }
+        }
+
+        roll();
+        trim();
+
+        log.info("Loaded "+index.size()+" entries of cache "+getId()+" from "+dir);
+    }
+
+
+    /**
+     * Add the records of a segment to the index, up to the first broken one.
+     *
+     * @return false if this is not a segment we can read.
+     */
+    private boolean scan(Segment segment) {
+
+        ByteBuffer buffer = segment.buffer.duplicate();
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            return false;
+        }
+
+        while (buffer.remaining() >= FRAME_SIZE) {
+            int offset = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                // the end of the segment, or a record cut short by a crash
+                break;
+            }
+
+            byte[] body = new byte[length];
+            buffer.get(body);
+            if (checksum(body, 0, length) != checksum) {
+                log.debug("Corrupt record in "+segment.file+" at "+offset);
+                break;
+            }
+
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+                byte type = in.readByte();
+                String key = in.readUTF();
+                long time = in.readLong();
+
+                if (type == REMOVED || isExpired(time)) {
+                    index.remove(key);
+                } else {
+                    index.put(key, new Location(segment, offset, FRAME_SIZE + length, time));
+                }
+            } catch (IOException e) {
+                log.debug("Unreadable record in "+segment.file+" at "+offset, e);
+                break;
+            }
+            segment.size = buffer.position();
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Start a new segment for records to be appended to.
+     */
+    private Segment roll() throws IOException {
+
+        File file = new File(dir, String.format("%019d%s", nextSegmentId++, SUFFIX));
+
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(segmentSize);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+
+        Segment segment = new Segment(file, buffer);
+        segments.addLast(segment);
+        return segment;
+    }
+
+
+    /**
+     * Delete the oldest segments until we are within our byte budget, counting
+     * the segment being written to as full.
+     */
+    private void trim() {
+        while (maxBytes > 0 && segments.size() > 1
+                && diskBytes() - segments.peekLast().size + segmentSize > maxBytes) {
+            Segment oldest = segments.removeFirst();
+            index.values().removeIf(location -> location.segment == oldest);
+            delete(oldest);
+        }
+    }
+
+
+    private long diskBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.size;
+        }
+        return bytes;
+    }
+
+
+    private void delete(Segment segment) {
+        // the mapping itself goes away once nobody is reading from it
+        segment.release();
+        if (!segment.file.delete()) {
+            log.warn("Unable to delete cache segment "+segment.file);
+        }
+    }
+
+
+    // called with the lock held
+    private void append(String key, byte[] record, long time) throws IOException {
+
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.size + record.length > segment.buffer.capacity()) {
+            segment = roll();
+            trim();
+        }
+
+        int offset = segment.size;
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(offset);
+        buffer.put(record);
+        segment.size += record.length;
+
+        if (record[FRAME_SIZE] == REMOVED) {
+            index.remove(key);
+        } else {
+            index.put(key, new Location(segment, offset, record.length, time));
+        }
+    }
+
+
+    /**
+     * Build a record, along with the frame holding its length and checksum.
+     */
+    private static byte[] record(byte type, String key, long time, CachedContent content) throws IOException {
+
+        int size = 64 + key.length();
+        if (content != null) {
+            size += content.getContentLength() + Math.max(0, content.getGzippedContentLength());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(type);
+        out.writeUTF(key);
+        out.writeLong(time);
+        if (content != null) {
+            out.writeUTF(content.getContentType() != null ? content.getContentType() : "");
+            out.writeUTF(content.getContentHash() != null ? content.getContentHash() : "");
+            out.writeInt(content.getContentLength());
+            content.writeContent(out);
+            out.writeInt(content.getGzippedContentLength());
+            if (content.isGzipped()) {
+                content.writeGzippedContent(out);
+            }
+        }
+        out.flush();
+
+        byte[] record = bytes.toByteArray();
+        int length = record.length - FRAME_SIZE;
+        ByteBuffer.wrap(record).putInt(length).putInt(checksum(record, FRAME_SIZE, length));
+        return record;
+    }
+
+
+    /**
+     * Read back the cached value stored at the given location.
+     */
+    private static Object read(String key, Location location) throws IOException {
+
+        byte[] record = new byte[location.length];
+        ByteBuffer buffer = location.segment.buffer.duplicate();
+        buffer.position(location.offset);
+        try {
+            buffer.get(record);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Record runs past the end of "+location.segment.file, e);
+        }
+
+        ByteBuffer frame = ByteBuffer.wrap(record);
+        int length = frame.getInt();
+        int checksum = frame.getInt();
+        if (length != record.length - FRAME_SIZE || checksum(record, FRAME_SIZE, length) != checksum) {
+            throw new IOException("Corrupt record in "+location.segment.file+" at "+location.offset);
+        }
+
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(record, FRAME_SIZE, length));
+        byte type = in.readByte();
+        if (!key.equals(in.readUTF())) {
+            throw new IOException("Wrong record in "+location.segment.file+" at "+location.offset);
+        }
+        long time = in.readLong();
+        String contentType = in.readUTF();
+        String contentHash = in.readUTF();
+        byte[] content = new byte[in.readInt()];
+        in.readFully(content);
+        byte[] gzippedContent = null;
+        int gzippedLength = in.readInt();
+        if (gzippedLength >= 0) {
+            gzippedContent = new byte[gzippedLength];
+            in.readFully(gzippedContent);
+        }
+
+        CachedContent cachedContent = new CachedContent(content, gzippedContent,
+                contentType.isEmpty() ? null : contentType,
+                contentHash.isEmpty() ? null : contentHash);
+
+        if (type == ENTRY) {
+            return new LazyExpiringCacheEntry(cachedContent, time);
+        }
+        return cachedContent;
+    }
+
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+
+    /**
+     * A segment file, mapped into memory.
+     */
+    private static final class Segment {
+
+        private final File file;
+        private final MappedByteBuffer buffer;
+
+        // where the next record goes, guarded by the cache
+        private int size = HEADER_SIZE;
+
+        // one for the cache, plus one per reader, or 0 once unmapped
+        private final AtomicInteger refs = new AtomicInteger(1);
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        private boolean retain() {
+            int count;
+            do {
+                count = refs.get();
+                if (count <= 0) {
+                    return false;
+                }
+            } while (!refs.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        private void release() {
+            if (refs.decrementAndGet() == 0 && INVOKE_CLEANER != null) {
+                try {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    log.debug("Unable to unmap "+file, e);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Where a record lives.
+     */
+    private static final class Location {
+
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+        private final long time;
+
+        private Location(Segment segment, int offset, int length, long time) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.time = time;
+        }
+    }
+
+}
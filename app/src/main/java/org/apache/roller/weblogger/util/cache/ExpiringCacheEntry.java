@@ -65,6 +65,14 @@ public class ExpiringCacheEntry implements Serializable {
     }
     
     
+    /**
+     * Retrieve the value of this cache entry, whether expired or not.
+     */
+    Object getRawValue() {
+        return this.value;
+    }
+    
+    
     /**
      * Determine if this cache entry has expired.
      */
@@ -43,6 +43,7 @@ public class ExpiringLRUCacheFactoryImpl implements CacheFactory {
         
         int size = 100;
         long timeout = 15 * 60;
+        long maxBytes = 0;
         String id = "unknown";
         
         try {
@@ -57,14 +58,21 @@ public class ExpiringLRUCacheFactoryImpl implements CacheFactory {
             log.warn("invalid timeout property", e);
         }
         
+        try {
+            maxBytes = CacheEntryWeigher.parseMaxBytes(properties.get("maxBytes"));
+        } catch(Exception e) {
+            log.warn("invalid maxBytes property", e);
+        }
+        
         String cacheId = (String) properties.get("id");
         if(cacheId != null) {
             id = cacheId;
         }
         
-        Cache cache = new ExpiringLRUCacheImpl(id, size, timeout);
+        Cache cache = new ExpiringLRUCacheImpl(id, size, timeout, maxBytes);
         
-        log.debug("new cache constructed. size=" + size + ", timeout=" + timeout);
+        log.debug("new cache constructed. size=" + size + ", timeout=" + timeout
+                + ", maxBytes=" + maxBytes);
         
         return cache;
     }
@@ -42,7 +42,13 @@ public class ExpiringLRUCacheImpl extends LRUCacheImpl {
     
     protected ExpiringLRUCacheImpl(String id, int maxsize, long timeout) {
         
-        super(id, maxsize);
+        this(id, maxsize, timeout, 0);
+    }
+    
+    
+    protected ExpiringLRUCacheImpl(String id, int maxsize, long timeout, long maxBytes) {
+        
+        super(id, maxsize, maxBytes);
         
         // timeout is specified in seconds; only positive values allowed
         if (timeout > 0) {
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.io.IOException;
+import java.util.List;
+
+
+/**
+ * Carries cache invalidation events between the servers of a cluster.
+ *
+ * Events are opaque single line strings.  A transport must deliver the events
+ * sent by every other server to the receiver, but never the events sent by
+ * this server itself.  Delivery may be best effort, a lost event only means
+ * some content stays cached until it times out.
+ */
+public interface InvalidationTransport {
+    
+    /**
+     * Receives the events sent by the other servers.
+     */
+    interface Receiver {
+        
+        void receive(List<String> events);
+        
+    }
+    
+    
+    /**
+     * Start listening for events, which are handed to the given receiver.
+     */
+    void start(Receiver receiver) throws IOException;
+    
+    
+    /**
+     * Send a batch of events to all other servers.
+     */
+    void send(List<String> events) throws IOException;
+    
+    
+    /**
+     * Stop listening and release any resources held.
+     */
+    void shutdown();
+    
+}
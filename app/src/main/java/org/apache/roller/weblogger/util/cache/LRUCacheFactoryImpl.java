@@ -41,6 +41,7 @@ public class LRUCacheFactoryImpl implements CacheFactory {
     @Override
     public Cache constructCache(Map<String, ?> properties) {
         int size = 100;
+        long maxBytes = 0;
         String id = "unknown";
         
         try {
@@ -49,14 +50,20 @@ public class LRUCacheFactoryImpl implements CacheFactory {
             log.warn("invalide size property", e);
         }
         
+        try {
+            maxBytes = CacheEntryWeigher.parseMaxBytes(properties.get("maxBytes"));
+        } catch(Exception e) {
+            log.warn("invalid maxBytes property", e);
+        }
+        
         String cacheId = (String) properties.get("id");
         if (cacheId != null) {
             id = cacheId;
         }
         
-        Cache cache = new LRUCacheImpl(id, size);
+        Cache cache = new LRUCacheImpl(id, size, maxBytes);
         
-        log.debug("new cache constructed. size="+size);
+        log.debug("new cache constructed. size="+size+", maxBytes="+maxBytes);
         
         return cache;
     }
@@ -20,6 +20,7 @@ package org.apache.roller.weblogger.util.cache;
 
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import org.apache.roller.util.RollerConstants;
@@ -27,17 +28,26 @@ import org.apache.roller.util.RollerConstants;
 
 /**
  * A simple LRU Cache.
+ *
+ * Besides the max number of entries the cache may be given a byte budget, in
+ * which case rendered content is weighed by its size and the least recently
+ * used entries are evicted until the cache fits in the budget again.
  */
 public class LRUCacheImpl implements Cache {
     
     private final String id;
     private final Map<String, Object> cache;
     
+    // byte budget, 0 means unbounded
+    private final long maxBytes;
+    private long bytes = 0;
+    
     // for metrics
     protected double hits = 0;
     protected double misses = 0;
     protected double puts = 0;
     protected double removes = 0;
+    protected double weightEvictions = 0;
     protected Date startTime = new Date();
     
     
@@ -49,8 +59,15 @@ public class LRUCacheImpl implements Cache {
     
     protected LRUCacheImpl(String id, int maxsize) {
         
+        this(id, maxsize, 0);
+    }
+    
+    
+    protected LRUCacheImpl(String id, int maxsize, long maxBytes) {
+        
         this.id = id;
-        this.cache = new LRULinkedHashMap<>(maxsize);
+        this.cache = new LRULinkedHashMap(maxsize);
+        this.maxBytes = Math.max(0, maxBytes);
     }
     
     
@@ -66,8 +83,20 @@ public class LRUCacheImpl implements Cache {
     @Override
     public synchronized void put(String key, Object value) {
         
-        this.cache.put(key, value);
+        Object previous = this.cache.put(key, value);
+        bytes += CacheEntryWeigher.weigh(value) - CacheEntryWeigher.weigh(previous);
         puts++;
+        
+        if(maxBytes > 0 && bytes > maxBytes) {
+            // drop least recently used entries until we fit in the budget,
+            // which may include the new entry if it's bigger than the budget
+            Iterator<Object> eldest = this.cache.values().iterator();
+            while(bytes > maxBytes && eldest.hasNext()) {
+                bytes -= CacheEntryWeigher.weigh(eldest.next());
+                eldest.remove();
+                weightEvictions++;
+            }
+        }
     }
     
     
@@ -93,7 +122,8 @@ public class LRUCacheImpl implements Cache {
     @Override
     public synchronized void remove(String key) {
         
-        this.cache.remove(key);
+        Object removed = this.cache.remove(key);
+        bytes -= CacheEntryWeigher.weigh(removed);
         removes++;
     }
     
@@ -102,18 +132,20 @@ public class LRUCacheImpl implements Cache {
     public synchronized void clear() {
         
         this.cache.clear();
+        bytes = 0;
         
         // clear metrics
         hits = 0;
         misses = 0;
         puts = 0;
         removes = 0;
+        weightEvictions = 0;
         startTime = new Date();
     }
     
     
     @Override
-    public Map<String, Object> getStats() {
+    public synchronized Map<String, Object> getStats() {
         
         Map<String, Object> stats = new HashMap<>();
         stats.put("startTime", this.startTime);
@@ -122,6 +154,12 @@ public class LRUCacheImpl implements Cache {
         stats.put("puts", this.puts);
         stats.put("removes", this.removes);
         
+        if(maxBytes > 0) {
+            stats.put("bytes", this.bytes);
+            stats.put("maxBytes", this.maxBytes);
+            stats.put("weightEvictions", this.weightEvictions);
+        }
+        
         // calculate efficiency
         if((misses - removes) > 0) {
             double efficiency = hits / (misses + hits);
@@ -133,7 +171,7 @@ public class LRUCacheImpl implements Cache {
     
     
     // David Flanaghan: http://www.davidflanagan.com/blog/000014.html
-    private static class LRULinkedHashMap<K, V> extends LinkedHashMap<K, V> {
+    private class LRULinkedHashMap extends LinkedHashMap<String, Object> {
         protected int maxsize;
         
         public LRULinkedHashMap(int maxsize) {
@@ -142,8 +180,12 @@ public class LRUCacheImpl implements Cache {
         }
         
         @Override
-        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-            return this.size() > this.maxsize;
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            if(this.size() > this.maxsize) {
+                bytes -= CacheEntryWeigher.weigh(eldest.getValue());
+                return true;
+            }
+            return false;
         }
     }
     
@@ -49,8 +49,13 @@ public class LazyExpiringCacheEntry implements Serializable {
     
     
     public LazyExpiringCacheEntry(Object item) {
+        this(item, System.currentTimeMillis());
+    }
+    
+    
+    LazyExpiringCacheEntry(Object item, long timeCached) {
         this.value = item;
-        this.timeCached = System.currentTimeMillis();
+        this.timeCached = timeCached;
     }
     
     
@@ -68,6 +73,23 @@ public class LazyExpiringCacheEntry implements Serializable {
     }
     
     
+    /**
+     * Retrieve the value of this cache entry, whether fresh or not.
+     */
+    public Object getRawValue() {
+        return this.value;
+    }
+    
+    
+    /**
+     * A copy of this cache entry holding a different value, e.g. the same
+     * content stored elsewhere.  The time cached is kept.
+     */
+    LazyExpiringCacheEntry withValue(Object item) {
+        return new LazyExpiringCacheEntry(item, this.timeCached);
+    }
+    
+    
     /**
      * Determine if this cache entry has expired.
      */
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A cache which keeps the payload of rendered content outside of the java
+ * heap.
+ *
+ * This wraps any other cache and, as content is put into the cache, copies
+ * CachedContent payloads to an OffHeapSlab, so the wrapped cache only holds
+ * keys and small descriptors.  The slab holds at most the "maxBytes" of the
+ * cache and its blocks are freed as soon as content is replaced, removed or
+ * cleared, rather than whenever the garbage collector gets around to it.
+ *
+ * The wrapped cache doesn't tell us what it evicts, so when the slab is full
+ * the content put into it longest ago is removed to make room.  Freed blocks
+ * can only be used again after a grace period, content which doesn't fit
+ * until then is kept on the heap.
+ *
+ * The CacheManager wraps a cache with this when its "offHeap" property is
+ * set to true.
+ */
+public class OffHeapCacheImpl implements Cache {
+
+    private final Cache cache;
+
+    private final OffHeapSlab slab;
+
+    // content we moved off the heap by key, in the order it was put
+    private final Map<String, CachedContent> offHeap = new LinkedHashMap<>();
+
+    // for metrics
+    private final LongAdder offHeapPuts = new LongAdder();
+    private final LongAdder offHeapFull = new LongAdder();
+    private final LongAdder offHeapEvictions = new LongAdder();
+
+
+    protected OffHeapCacheImpl(Cache cache, long maxBytes) {
+        this(cache, new OffHeapSlab(maxBytes));
+    }
+
+
+    OffHeapCacheImpl(Cache cache, OffHeapSlab slab) {
+        this.cache = cache;
+        this.slab = slab;
+    }
+
+
+    @Override
+    public String getId() {
+        return this.cache.getId();
+    }
+
+
+    /**
+     * Store an entry in the cache, moving rendered content off the heap.
+     */
+    @Override
+    public void put(String key, Object value) {
+
+        CachedContent content = null;
+        if (value instanceof CachedContent) {
+            content = (CachedContent) value;
+        } else if (value instanceof LazyExpiringCacheEntry
+                && ((LazyExpiringCacheEntry) value).getRawValue() instanceof CachedContent) {
+            content = (CachedContent) ((LazyExpiringCacheEntry) value).getRawValue();
+        }
+
+        Object offHeapValue = value;
+        CachedContent moved = null;
+        if (content != null) {
+            moved = moveOffHeap(content);
+            if (moved != null) {
+                offHeapPuts.increment();
+                if (value instanceof LazyExpiringCacheEntry) {
+                    // keep the original time cached and dependencies, so
+                    // invalidation still works
+                    offHeapValue = ((LazyExpiringCacheEntry) value).withValue(moved);
+                } else {
+                    offHeapValue = moved;
+                }
+            }
+        }
+
+        CachedContent replaced;
+        synchronized (this) {
+            this.cache.put(key, offHeapValue);
+            replaced = (moved != null) ? offHeap.put(key, moved) : offHeap.remove(key);
+        }
+        if (replaced != null) {
+            replaced.freeOffHeap();
+        }
+    }
+
+
+    /**
+     * Copy content to the slab, making room for later if it's full.
+     *
+     * @return the off-heap copy, or null if there is no room yet
+     */
+    private CachedContent moveOffHeap(CachedContent content) {
+
+        CachedContent moved = content.toOffHeap(slab);
+        if (moved == null) {
+            offHeapFull.increment();
+            while (!content.willFitOffHeap(slab) && evictOldest()) {
+                offHeapEvictions.increment();
+            }
+        }
+        return moved;
+    }
+
+
+    private boolean evictOldest() {
+
+        CachedContent evicted;
+        synchronized (this) {
+            Iterator<Map.Entry<String, CachedContent>> entries = offHeap.entrySet().iterator();
+            if (!entries.hasNext()) {
+                return false;
+            }
+            Map.Entry<String, CachedContent> oldest = entries.next();
+            entries.remove();
+            this.cache.remove(oldest.getKey());
+            evicted = oldest.getValue();
+        }
+        evicted.freeOffHeap();
+        return true;
+    }
+
+
+    @Override
+    public Object get(String key) {
+        return this.cache.get(key);
+    }
+
+
+    @Override
+    public void remove(String key) {
+
+        CachedContent removed;
+        synchronized (this) {
+            this.cache.remove(key);
+            removed = offHeap.remove(key);
+        }
+        if (removed != null) {
+            removed.freeOffHeap();
+        }
+    }
+
+
+    @Override
+    public void clear() {
+
+        List<CachedContent> removed;
+        synchronized (this) {
+            this.cache.clear();
+            removed = new ArrayList<>(offHeap.values());
+            offHeap.clear();
+        }
+        for (CachedContent content : removed) {
+            content.freeOffHeap();
+        }
+
+        offHeapPuts.reset();
+        offHeapFull.reset();
+        offHeapEvictions.reset();
+    }
+
+
+    @Override
+    public Map<String, Object> getStats() {
+
+        Map<String, Object> stats = new HashMap<>(this.cache.getStats());
+        stats.put("offHeapPuts", offHeapPuts.doubleValue());
+        stats.put("offHeapFull", offHeapFull.doubleValue());
+        stats.put("offHeapEvictions", offHeapEvictions.doubleValue());
+        stats.put("offHeapBytes", slab.getUsedBytes());
+        stats.put("offHeapRetiredBytes", slab.getRetiredBytes());
+        stats.put("offHeapAllocatedBytes", slab.getAllocatedBytes());
+        stats.put("offHeapMaxBytes", slab.getMaxBytes());
+
+        return stats;
+    }
+
+}
@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.roller.util.RollerConstants;
+
+
+/**
+ * A fixed budget of direct memory, handed out in pages to hold the content
+ * of an OffHeapCacheImpl.
+ *
+ * Direct memory is allocated in chunks as it is needed, up to the budget,
+ * and is never given back to the jvm, so the direct memory used by a cache
+ * is bounded by its own budget rather than by garbage collection and
+ * -XX:MaxDirectMemorySize.  Content is split over as many pages as it needs,
+ * so freed pages can always be used again whatever the size of the next
+ * content.
+ *
+ * Freed blocks are only used again after a grace period, and never while
+ * they are being read, since a request may be just about to send content it
+ * got from the cache right before it was removed.
+ */
+final class OffHeapSlab {
+    
+    static final int PAGE_SIZE = 8 * 1024;
+    
+    // pages per chunk of direct memory
+    private static final int CHUNK_PAGES = 128;
+    
+    // how long freed blocks can still be read
+    private static final long GRACE_PERIOD = 5L * RollerConstants.SEC_IN_MS;
+    
+    private final int maxPages;
+    private final long gracePeriod;
+    
+    // every page allocated so far, by page number
+    private ByteBuffer[] pages = new ByteBuffer[0];
+    
+    // numbers of the pages not in use
+    private int[] freePages = new int[0];
+    private int freeCount = 0;
+    
+    // freed blocks waiting for their pages to be used again, oldest first
+    private final Deque<Block> retired = new ArrayDeque<>();
+    private int retiredPages = 0;
+    
+    
+    OffHeapSlab(long maxBytes) {
+        this(maxBytes, GRACE_PERIOD);
+    }
+    
+    
+    OffHeapSlab(long maxBytes, long gracePeriod) {
+        this.maxPages = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(0, maxBytes) / PAGE_SIZE);
+        this.gracePeriod = gracePeriod;
+    }
+    
+    
+    /**
+     * Copy some arrays to blocks of direct memory, all or none of them.
+     *
+     * @return one block per array, or null if there is not enough free memory.
+     */
+    Block[] store(byte[]... arrays) {
+        
+        Block[] blocks = new Block[arrays.length];
+        synchronized (this) {
+            int needed = 0;
+            for (byte[] array : arrays) {
+                needed += pagesFor(array.length);
+            }
+            if (freeCount < needed) {
+                reclaim(System.currentTimeMillis());
+            }
+            while (freeCount < needed && pages.length < maxPages) {
+                addChunk();
+            }
+            if (freeCount < needed) {
+                return null;
+            }
+            
+            for (int i = 0; i < arrays.length; i++) {
+                int[] numbers = new int[pagesFor(arrays[i].length)];
+                ByteBuffer[] buffers = new ByteBuffer[numbers.length];
+                for (int p = 0; p < numbers.length; p++) {
+                    numbers[p] = freePages[--freeCount];
+                    buffers[p] = pages[numbers[p]];
+                }
+                blocks[i] = new Block(numbers, buffers, arrays[i].length);
+            }
+        }
+        
+        // the pages are ours alone until the blocks are handed out
+        for (int i = 0; i < arrays.length; i++) {
+            blocks[i].copyFrom(arrays[i]);
+        }
+        return blocks;
+    }
+    
+    
+    /**
+     * True if arrays of the given lengths will fit once the blocks freed so
+     * far can be used again.
+     */
+    synchronized boolean willFit(int... lengths) {
+        int needed = 0;
+        for (int length : lengths) {
+            needed += pagesFor(length);
+        }
+        return freeCount + retiredPages + (maxPages - pages.length) >= needed;
+    }
+    
+    
+    /**
+     * Bytes of direct memory taken up by blocks, including freed blocks
+     * whose pages can't be used again yet.
+     */
+    synchronized long getUsedBytes() {
+        return (long) (pages.length - freeCount) * PAGE_SIZE;
+    }
+    
+    
+    /**
+     * Bytes of direct memory taken up by freed blocks whose pages can't be
+     * used again yet.
+     */
+    synchronized long getRetiredBytes() {
+        return (long) retiredPages * PAGE_SIZE;
+    }
+    
+    
+    synchronized long getAllocatedBytes() {
+        return (long) pages.length * PAGE_SIZE;
+    }
+    
+    
+    long getMaxBytes() {
+        return (long) maxPages * PAGE_SIZE;
+    }
+    
+    
+    private static int pagesFor(int length) {
+        return (length + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+    
+    
+    private void addChunk() {
+        
+        int first = pages.length;
+        int count = Math.min(CHUNK_PAGES, maxPages - first);
+        ByteBuffer chunk = ByteBuffer.allocateDirect(count * PAGE_SIZE);
+        
+        pages = Arrays.copyOf(pages, first + count);
+        freePages = Arrays.copyOf(freePages, first + count);
+        for (int p = 0; p < count; p++) {
+            chunk.limit((p + 1) * PAGE_SIZE).position(p * PAGE_SIZE);
+            pages[first + p] = chunk.slice();
+            freePages[freeCount++] = first + p;
+        }
+    }
+    
+    
+    // put the pages of old enough retired blocks nobody is reading back in use
+    private void reclaim(long now) {
+        Iterator<Block> blocks = retired.iterator();
+        while (blocks.hasNext()) {
+            Block block = blocks.next();
+            if (now - block.retiredAt < gracePeriod) {
+                break;
+            }
+            if (block.refs.compareAndSet(0, -1)) {
+                blocks.remove();
+                retiredPages -= block.numbers.length;
+                for (int number : block.numbers) {
+                    freePages[freeCount++] = number;
+                }
+            }
+        }
+    }
+    
+    
+    private synchronized void retire(Block block) {
+        if (block.retiredAt == 0) {
+            block.retiredAt = System.currentTimeMillis();
+            block.refs.decrementAndGet();
+            retired.add(block);
+            retiredPages += block.numbers.length;
+        }
+    }
+    
+    
+    /**
+     * Some content in direct memory.
+     */
+    final class Block {
+        
+        private final int[] numbers;
+        private final ByteBuffer[] buffers;
+        private final int length;
+        
+        // one for the cache holding the block, plus one per reader, or -1
+        // once the pages are used for something else
+        private final AtomicInteger refs = new AtomicInteger(1);
+        
+        // when the cache let go of the block, guarded by the slab
+        private long retiredAt = 0;
+        
+        private Block(int[] numbers, ByteBuffer[] buffers, int length) {
+            this.numbers = numbers;
+            this.buffers = buffers;
+            this.length = length;
+        }
+        
+        int length() {
+            return length;
+        }
+        
+        /**
+         * Write the content to a stream, a page at a time.
+         */
+        void writeTo(OutputStream out) throws IOException {
+            
+            if (!retain()) {
+                throw new IOException("Off-heap content was removed from the cache");
+            }
+            try {
+                byte[] page = new byte[Math.min(length, PAGE_SIZE)];
+                int remaining = length;
+                for (ByteBuffer buffer : buffers) {
+                    int n = Math.min(remaining, PAGE_SIZE);
+                    buffer.duplicate().get(page, 0, n);
+                    out.write(page, 0, n);
+                    remaining -= n;
+                }
+            } finally {
+                refs.decrementAndGet();
+            }
+        }
+        
+        /**
+         * Copy the content back to the heap.
+         */
+        byte[] toByteArray() {
+            
+            if (!retain()) {
+                throw new IllegalStateException("Off-heap content was removed from the cache");
+            }
+            try {
+                byte[] bytes = new byte[length];
+                for (int p = 0; p < buffers.length; p++) {
+                    buffers[p].duplicate().get(bytes, p * PAGE_SIZE, Math.min(length - p * PAGE_SIZE, PAGE_SIZE));
+                }
+                return bytes;
+            } finally {
+                refs.decrementAndGet();
+            }
+        }
+        
+        /**
+         * Let go of the block, its pages are used again once nobody can be
+         * reading it any more.
+         */
+        void free() {
+            retire(this);
+        }
+        
+        private boolean retain() {
+            while (true) {
+                int count = refs.get();
+                if (count < 0) {
+                    return false;
+                }
+                if (refs.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+        
+        private void copyFrom(byte[] bytes) {
+            for (int p = 0; p < buffers.length; p++) {
+                buffers[p].duplicate().put(bytes, p * PAGE_SIZE, Math.min(bytes.length - p * PAGE_SIZE, PAGE_SIZE));
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.roller.util.RollerConstants;
+
+
+/**
+ * A cache which allows lazily expired entries to be served for a while
+ * after they went stale, as long as somebody is busy replacing them.
+ *
+ * This wraps any other cache.  The cache itself can't tell when an entry
+ * went stale, that's up to whoever checks the freshness of the entries, but
+ * it keeps track of which stale entries are being revalidated: the first
+ * caller to serve a stale entry is asked to revalidate it, and the next put()
+ * of the entry ends the revalidation.  A revalidation which doesn't end
+ * within the stale window, e.g. because rendering failed, is handed over to
+ * the next caller.
+ *
+ * The CacheManager wraps a cache with this when its "staleWhileRevalidate"
+ * property is set to a number of seconds greater than 0.
+ */
+public class StaleWhileRevalidateCacheImpl implements Cache {
+
+    private final Cache cache;
+
+    // how long stale entries may be served, in millis
+    private final long window;
+
+    // revalidations in progress, with the nano time they started at
+    private final Map<String, Long> revalidations = new ConcurrentHashMap<>();
+
+    // for metrics
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder revalidated = new LongAdder();
+    private final LongAdder revalidationTime = new LongAdder();
+
+
+    protected StaleWhileRevalidateCacheImpl(Cache cache, long window) {
+        this.cache = cache;
+
+        // window is specified in seconds
+        this.window = Math.max(0, window) * RollerConstants.SEC_IN_MS;
+    }
+
+
+    @Override
+    public String getId() {
+        return this.cache.getId();
+    }
+
+
+    /**
+     * Determine if an entry which went stale at the given time may still be
+     * served.
+     */
+    public boolean isServable(long staleSince) {
+        return System.currentTimeMillis() - staleSince <= this.window;
+    }
+
+
+    /**
+     * Note that a stale entry is being served.
+     *
+     * @return true if the caller should revalidate the entry, false if
+     *         somebody else is already taking care of it.
+     */
+    public boolean staleHit(String key) {
+
+        staleHits.increment();
+
+        long now = System.nanoTime();
+        Long started = revalidations.putIfAbsent(key, now);
+        if (started == null) {
+            return true;
+        }
+
+        // take over revalidations which seem to have been abandoned
+        return now - started > TimeUnit.MILLISECONDS.toNanos(this.window)
+                && revalidations.replace(key, started, now);
+    }
+
+
+    /**
+     * Store an entry in the cache, ending any revalidation of it.
+     */
+    @Override
+    public void put(String key, Object value) {
+
+        this.cache.put(key, value);
+
+        Long started = revalidations.remove(key);
+        if (started != null) {
+            revalidated.increment();
+            revalidationTime.add(System.nanoTime() - started);
+        }
+    }
+
+
+    @Override
+    public Object get(String key) {
+        return this.cache.get(key);
+    }
+
+
+    @Override
+    public void remove(String key) {
+        this.cache.remove(key);
+    }
+
+
+    @Override
+    public void clear() {
+        this.cache.clear();
+        revalidations.clear();
+        staleHits.reset();
+        revalidated.reset();
+        revalidationTime.reset();
+    }
+
+
+    @Override
+    public Map<String, Object> getStats() {
+
+        Map<String, Object> stats = new HashMap<>(this.cache.getStats());
+        stats.put("staleHits", staleHits.doubleValue());
+        stats.put("revalidations", revalidated.doubleValue());
+
+        // average time it took to replace a stale entry, in millis
+        double count = revalidated.doubleValue();
+        if (count > 0) {
+            stats.put("revalidationTime",
+                    revalidationTime.doubleValue() / count / TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        return stats;
+    }
+
+}
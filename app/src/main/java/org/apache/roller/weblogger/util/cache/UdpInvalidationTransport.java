@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+
+
+/**
+ * Sends cache invalidation events to the other servers as UDP datagrams.
+ *
+ * By default every server joins the same multicast group, which needs no
+ * configuration beyond making sure all servers use the same group and port.
+ * Where multicast is not available the servers can instead be listed in the
+ * "cache.cluster.peers" property as host:port pairs, in which case each batch
+ * is sent to every peer directly.  Listing peers on localhost with different
+ * ports makes it possible to run a cluster of several JVMs on one machine.
+ *
+ * Each datagram starts with a header naming the server which sent it so that
+ * servers can ignore their own events when multicast loops them back.  The
+ * header also carries a signature of the datagram made with the secret in the
+ * "cache.cluster.secret" property, which must be the same on every server.
+ * Datagrams without a valid signature are dropped, and the transport will not
+ * start at all until a secret is configured, so nobody who can reach the port
+ * can flush the caches of the cluster.
+ */
+public class UdpInvalidationTransport implements InvalidationTransport {
+    
+    private static final Log log = LogFactory.getLog(UdpInvalidationTransport.class);
+    
+    private static final String HEADER = "roller-cache-invalidation";
+    
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    
+    // length of a Base64 encoded HmacSHA256 signature
+    private static final int MAC_LENGTH = 44;
+    
+    // keep datagrams small enough to never be fragmented on ethernet
+    static final int MAX_PACKET_SIZE = 1400;
+    
+    // identifies this server in the datagrams it sends
+    private final String nodeId = UUID.randomUUID().toString();
+    
+    private final String group;
+    private final int port;
+    private final String peers;
+    private final int timeToLive;
+    private final String secret;
+    
+    private MulticastSocket socket = null;
+    private List<SocketAddress> targets = Collections.emptyList();
+    private Thread listener = null;
+    
+    
+    public UdpInvalidationTransport() {
+        this(WebloggerConfig.getProperty("cache.cluster.multicastGroup", "239.255.27.1"),
+                WebloggerConfig.getIntProperty("cache.cluster.port", 45588),
+                WebloggerConfig.getProperty("cache.cluster.peers"),
+                WebloggerConfig.getIntProperty("cache.cluster.timeToLive", 1),
+                WebloggerConfig.getProperty("cache.cluster.secret"));
+    }
+    
+    
+    UdpInvalidationTransport(String group, int port, String peers, int timeToLive, String secret) {
+        this.group = group;
+        this.port = port;
+        this.peers = peers;
+        this.timeToLive = timeToLive;
+        this.secret = secret;
+    }
+    
+    
+    @Override
+    public synchronized void start(final Receiver receiver) throws IOException {
+        
+        if (StringUtils.isBlank(secret)) {
+            throw new IOException("cache.cluster.secret is not set");
+        }
+        
+        socket = new MulticastSocket(port);
+        
+        if (StringUtils.isBlank(peers)) {
+            SocketAddress groupAddress = new InetSocketAddress(InetAddress.getByName(group), port);
+            socket.setTimeToLive(timeToLive);
+            socket.joinGroup(groupAddress, null);
+            targets = Collections.singletonList(groupAddress);
+            log.info("Sending cache invalidations to multicast group "+groupAddress);
+        } else {
+            List<SocketAddress> addresses = new ArrayList<>();
+            for (String peer : StringUtils.split(peers, ", ")) {
+                String host = StringUtils.substringBeforeLast(peer, ":");
+                int peerPort = Integer.parseInt(StringUtils.substringAfterLast(peer, ":"));
+                addresses.add(new InetSocketAddress(host, peerPort));
+            }
+            targets = addresses;
+            log.info("Sending cache invalidations to peers "+targets);
+        }
+        
+        listener = new Thread("CacheInvalidationListener") {
+            @Override
+            public void run() {
+                listen(receiver);
+            }
+        };
+        listener.setDaemon(true);
+        listener.start();
+    }
+    
+    
+    @Override
+    public void send(List<String> events) throws IOException {
+        
+        MulticastSocket sendSocket;
+        List<SocketAddress> sendTargets;
+        synchronized (this) {
+            sendSocket = socket;
+            sendTargets = targets;
+        }
+        if (sendSocket == null) {
+            throw new IOException("Transport is not started");
+        }
+        
+        for (byte[] packet : encode(secret, nodeId, events)) {
+            for (SocketAddress target : sendTargets) {
+                sendSocket.send(new DatagramPacket(packet, packet.length, target));
+            }
+        }
+    }
+    
+    
+    @Override
+    public synchronized void shutdown() {
+        if (socket != null) {
+            socket.close();
+        }
+    }
+    
+    
+    /**
+     * The port we are listening on, which is only interesting when asking
+     * for any free port.
+     */
+    synchronized int getLocalPort() {
+        return socket != null ? socket.getLocalPort() : -1;
+    }
+    
+    
+    private void listen(Receiver receiver) {
+        
+        byte[] buffer = new byte[64 * 1024];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    log.warn("Error receiving cache invalidations", e);
+                }
+                continue;
+            }
+            
+            List<String> events = decode(secret, nodeId, packet.getData(), packet.getLength());
+            if (!events.isEmpty()) {
+                try {
+                    receiver.receive(events);
+                } catch (RuntimeException e) {
+                    log.error("Error handling cache invalidations", e);
+                }
+            }
+        }
+        
+        log.debug("Stopped listening for cache invalidations");
+    }
+    
+    
+    /**
+     * Split a batch of events into as few signed datagrams as possible.
+     */
+    static List<byte[]> encode(String secret, String nodeId, List<String> events) {
+        
+        int maxBodySize = MAX_PACKET_SIZE - header(nodeId, StringUtils.repeat('=', MAC_LENGTH)).length;
+        
+        List<byte[]> packets = new ArrayList<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(MAX_PACKET_SIZE);
+        for (String event : events) {
+            byte[] line = (event + "\n").getBytes(StandardCharsets.UTF_8);
+            if (body.size() > 0 && body.size() + line.length > maxBodySize) {
+                packets.add(sign(secret, nodeId, body.toByteArray()));
+                body.reset();
+            }
+            body.write(line, 0, line.length);
+        }
+        if (body.size() > 0) {
+            packets.add(sign(secret, nodeId, body.toByteArray()));
+        }
+        return packets;
+    }
+    
+    
+    /**
+     * The events in a datagram, unless it was sent by us, isn't signed with
+     * our secret or isn't ours at all.
+     */
+    static List<String> decode(String secret, String nodeId, byte[] data, int length) {
+        
+        String[] lines = StringUtils.split(new String(data, 0, length, StandardCharsets.UTF_8), '\n');
+        if (lines.length < 2 || !lines[0].startsWith(HEADER + " ")) {
+            return Collections.emptyList();
+        }
+        
+        String[] header = StringUtils.split(lines[0], ' ');
+        if (header.length != 3 || header[1].equals(nodeId)) {
+            return Collections.emptyList();
+        }
+        
+        int headerLength = lines[0].getBytes(StandardCharsets.UTF_8).length + 1;
+        byte[] body = new byte[length - headerLength];
+        System.arraycopy(data, headerLength, body, 0, body.length);
+        byte[] expected = mac(secret, header[1], body).getBytes(StandardCharsets.UTF_8);
+        if (!MessageDigest.isEqual(expected, header[2].getBytes(StandardCharsets.UTF_8))) {
+            log.debug("Ignoring cache invalidations with a bad signature from "+header[1]);
+            return Collections.emptyList();
+        }
+        
+        List<String> events = new ArrayList<>(lines.length - 1);
+        for (int i = 1; i < lines.length; i++) {
+            events.add(lines[i]);
+        }
+        return events;
+    }
+    
+    
+    private static byte[] sign(String secret, String nodeId, byte[] body) {
+        byte[] header = header(nodeId, mac(secret, nodeId, body));
+        byte[] packet = new byte[header.length + body.length];
+        System.arraycopy(header, 0, packet, 0, header.length);
+        System.arraycopy(body, 0, packet, header.length, body.length);
+        return packet;
+    }
+    
+    
+    private static byte[] header(String nodeId, String mac) {
+        return (HEADER + " " + nodeId + " " + mac + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+    
+    
+    /**
+     * The signature of a datagram body sent by the given server.
+     */
+    private static String mac(String secret, String nodeId, byte[] body) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM));
+            mac.update((nodeId + "\n").getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(mac.doFinal(body));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+}
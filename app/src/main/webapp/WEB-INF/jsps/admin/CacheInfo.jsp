@@ -50,3 +50,61 @@
         <br>
     </s:if>
 </s:iterator>
+
+<s:if test="!indexQueueStats.isEmpty">
+    <table class="table table-bordered">
+        <tr>
+            <th colspan="2"><s:text name="cacheInfo.indexQueue"/></th>
+        </tr>
+        <s:iterator var="prop" value="indexQueueStats">
+            <tr>
+                <td><s:property value="#prop.key"/></td>
+                <td><s:property value="#prop.value"/></td>
+            </tr>
+        </s:iterator>
+    </table>
+
+    <br>
+</s:if>
+
+<s:if test="!hitCountStats.isEmpty">
+    <table class="table table-bordered">
+        <tr>
+            <th colspan="2"><s:text name="cacheInfo.hitCounts"/></th>
+        </tr>
+        <s:iterator var="prop" value="hitCountStats">
+            <tr>
+                <td><s:property value="#prop.key"/></td>
+                <td><s:property value="#prop.value"/></td>
+            </tr>
+        </s:iterator>
+    </table>
+
+    <br>
+</s:if>
+
+<s:if test="!hotWeblogsLastDay.isEmpty">
+    <table class="table table-bordered">
+        <tr>
+            <th colspan="2"><s:text name="cacheInfo.hotWeblogs"/></th>
+        </tr>
+        <tr>
+            <th colspan="2"><s:text name="cacheInfo.hotWeblogsLastHour"/></th>
+        </tr>
+        <s:iterator var="hits" value="hotWeblogsLastHour">
+            <tr>
+                <td><s:property value="#hits.key"/></td>
+                <td><s:property value="#hits.value"/></td>
+            </tr>
+        </s:iterator>
+        <tr>
+            <th colspan="2"><s:text name="cacheInfo.hotWeblogsLastDay"/></th>
+        </tr>
+        <s:iterator var="hits" value="hotWeblogsLastDay">
+            <tr>
+                <td><s:property value="#hits.key"/></td>
+                <td><s:property value="#hits.value"/></td>
+            </tr>
+        </s:iterator>
+    </table>
+</s:if>
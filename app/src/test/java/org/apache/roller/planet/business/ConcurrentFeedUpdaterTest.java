@@ -0,0 +1,189 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.planet.business;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.roller.planet.business.updater.ConcurrentFeedUpdater;
+import org.apache.roller.planet.business.updater.FeedUpdater;
+import org.apache.roller.planet.pojos.Subscription;
+import org.apache.roller.weblogger.TestUtils;
+import org.apache.roller.weblogger.business.WebloggerFactory;
+import org.apache.roller.weblogger.config.WebloggerConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+
+/**
+ * Test concurrent feed updater.
+ */
+public class ConcurrentFeedUpdaterTest  {
+    
+    private static final int FEEDS_PER_HOST = 5;
+    
+    private HttpServer server = null;
+    private ExecutorService serverThreads = null;
+    
+    private final List<String> testSubs = new ArrayList<>();
+    
+    // feeds being fetched right now and the most there ever were, by host
+    private final Map<String, AtomicInteger> fetching = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> mostFetching = new ConcurrentHashMap<>();
+    private final AtomicInteger fetchingAll = new AtomicInteger();
+    private final AtomicInteger mostFetchingAll = new AtomicInteger();
+    
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // setup planet
+        TestUtils.setupWeblogger();
+        
+        server = HttpServer.create(new InetSocketAddress(0), 0);
+        server.createContext("/feed", exchange -> {
+            String host = exchange.getRequestHeaders().getFirst("Host").replaceFirst(":\\d+$", "");
+            String path = exchange.getRequestURI().getPath();
+            int now = fetching.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet();
+            mostFetching.computeIfAbsent(host, h -> new AtomicInteger()).accumulateAndGet(now, Math::max);
+            mostFetchingAll.accumulateAndGet(fetchingAll.incrementAndGet(), Math::max);
+            try {
+                // slow enough for fetches to overlap
+                Thread.sleep(200);
+                
+                if (path.endsWith("/broken")) {
+                    exchange.sendResponseHeaders(500, -1);
+                    return;
+                }
+                byte[] body = ("<?xml version=\"1.0\"?><rss version=\"2.0\"><channel>"
+                        + "<title>Feed " + host + path + "</title><link>http://" + host + path + "</link>"
+                        + "<description>stub</description><pubDate>Mon, 05 Oct 2026 11:00:00 GMT</pubDate>"
+                        + "<item><title>One</title><link>http://" + host + path + "/one</link>"
+                        + "<pubDate>Mon, 05 Oct 2026 10:00:00 GMT</pubDate></item>"
+                        + "<item><title>Two</title><link>http://" + host + path + "/two</link>"
+                        + "<pubDate>Mon, 05 Oct 2026 11:00:00 GMT</pubDate></item>"
+                        + "</channel></rss>").getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().add("ETag", "\"" + host + path + "\"");
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=3600");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                fetchingAll.decrementAndGet();
+                fetching.get(host).decrementAndGet();
+                exchange.close();
+            }
+        });
+        // answer requests at the same time, like any real server
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+        
+        // several feeds on each of two hosts, which are both this server
+        PlanetManager mgr = WebloggerFactory.getWeblogger().getPlanetManager();
+        for (String host : new String[] { "127.0.0.1", "localhost" }) {
+            for (int i = 0; i < FEEDS_PER_HOST; i++) {
+                addSubscription(mgr, feedURL(host, "/feed/" + i));
+            }
+        }
+        addSubscription(mgr, feedURL("127.0.0.1", "/feed/broken"));
+        WebloggerFactory.getWeblogger().flush();
+    }
+    
+    @AfterEach
+    public void tearDown() throws Exception {
+        for (String id : testSubs) {
+            TestUtils.teardownSubscription(id);
+        }
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Test
+    public void testUpdateSubscriptions() throws Exception {
+        
+        FeedUpdater updater = WebloggerFactory.getWeblogger().getFeedUpdater();
+        assertTrue(updater instanceof ConcurrentFeedUpdater);
+        
+        // update all subscriptions, the test ones among them
+        updater.updateSubscriptions();
+        TestUtils.endSession(true);
+        
+        // no host had more than its share of threads, but hosts were
+        // fetched from at the same time
+        int threadsPerHost = WebloggerConfig.getIntProperty("planet.updater.threadsPerHost", 2);
+        assertEquals(2, mostFetching.size());
+        for (Map.Entry<String, AtomicInteger> host : mostFetching.entrySet()) {
+            assertTrue(host.getValue().get() <= threadsPerHost,
+                    host.getValue() + " fetches at once from " + host.getKey());
+        }
+        assertTrue(mostFetchingAll.get() > threadsPerHost,
+                mostFetchingAll + " fetches at once");
+        
+        // verify the results
+        PlanetManager mgr = WebloggerFactory.getWeblogger().getPlanetManager();
+        for (String host : new String[] { "127.0.0.1", "localhost" }) {
+            for (int i = 0; i < FEEDS_PER_HOST; i++) {
+                Subscription sub = mgr.getSubscription(feedURL(host, "/feed/" + i));
+                assertNotNull(sub);
+                assertEquals("Feed " + host + "/feed/" + i, sub.getTitle());
+                assertEquals("http://" + host + "/feed/" + i, sub.getSiteURL());
+                assertEquals(2, sub.getEntries().size());
+                assertNotNull(sub.getLastUpdated());
+                assertEquals("\"" + host + "/feed/" + i + "\"", sub.getETag());
+                long wait = sub.getNextFetch().getTime() - System.currentTimeMillis();
+                assertTrue(wait > 3500 * 1000 && wait <= 3600 * 1000, "next fetch in " + wait);
+            }
+        }
+        
+        // a feed which failed is tried again later, and the others saved anyway
+        Subscription broken = mgr.getSubscription(feedURL("127.0.0.1", "/feed/broken"));
+        assertNotNull(broken);
+        assertTrue(broken.getEntries().isEmpty());
+        assertNull(broken.getETag());
+        assertNotNull(broken.getNextFetch());
+        assertTrue(broken.getNextFetch().getTime() > System.currentTimeMillis());
+    }
+    
+    private String feedURL(String host, String path) {
+        return "http://" + host + ":" + server.getAddress().getPort() + path;
+    }
+    
+    private void addSubscription(PlanetManager mgr, String feedURL) throws Exception {
+        Subscription sub = new Subscription();
+        sub.setTitle(feedURL);
+        sub.setFeedURL(feedURL);
+        mgr.saveSubscription(sub);
+        testSubs.add(sub.getId());
+    }
+    
+}
@@ -16,10 +16,16 @@
 
 package org.apache.roller.planet.business;
 
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.planet.business.fetcher.FeedFetcher;
 import org.apache.roller.planet.business.fetcher.FetcherException;
+import org.apache.roller.planet.business.fetcher.RomeFeedFetcher;
 import org.apache.roller.planet.pojos.Subscription;
 import org.apache.roller.weblogger.TestUtils;
 import org.apache.roller.weblogger.business.WebloggerFactory;
@@ -95,4 +101,78 @@ public class RomeFeedFetcherTest  {
         }
     }
     
+
+
+    @Test
+    public void testFetchFeedWithHttpCaching() throws Exception {
+
+        String rss = "<?xml version=\"1.0\"?><rss version=\"2.0\"><channel>"
+                + "<title>Stub</title><link>http://localhost/</link><description>stub</description>"
+                + "<item><title>One</title><link>http://localhost/one</link>"
+                + "<pubDate>Mon, 05 Oct 2026 10:00:00 GMT</pubDate></item>"
+                + "</channel></rss>";
+        byte[] body = rss.getBytes(StandardCharsets.UTF_8);
+        AtomicInteger fullFetches = new AtomicInteger();
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/feed", exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.getResponseHeaders().add("Cache-Control", "public, max-age=600");
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                fullFetches.incrementAndGet();
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.getResponseHeaders().add("Last-Modified", "Mon, 05 Oct 2026 10:00:00 GMT");
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=60");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.createContext("/busy", exchange -> {
+            exchange.getResponseHeaders().add("Retry-After", "120");
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.start();
+
+        try {
+            String base = "http://localhost:" + server.getAddress().getPort();
+            FeedFetcher feedFetcher = new RomeFeedFetcher();
+
+            // first fetch gets the feed and its validators
+            Subscription sub = new Subscription();
+            sub.setFeedURL(base + "/feed");
+            Subscription fetched = feedFetcher.fetchSubscription(sub);
+            assertNotNull(fetched);
+            assertEquals("Stub", fetched.getTitle());
+            assertEquals(1, fetched.getEntries().size());
+            assertEquals("\"v1\"", sub.getETag());
+            assertEquals("Mon, 05 Oct 2026 10:00:00 GMT", sub.getLastModified());
+            assertNotNull(sub.getNextFetch());
+            long wait = sub.getNextFetch().getTime() - System.currentTimeMillis();
+            assertTrue(wait > 50 * 1000 && wait <= 60 * 1000);
+
+            // second fetch is answered with a 304, validators are kept
+            assertNull(feedFetcher.fetchSubscription(sub));
+            assertEquals(1, fullFetches.get());
+            assertEquals("\"v1\"", sub.getETag());
+            wait = sub.getNextFetch().getTime() - System.currentTimeMillis();
+            assertTrue(wait > 590 * 1000 && wait <= 600 * 1000);
+
+            // an overloaded server tells when to come back
+            Subscription busy = new Subscription();
+            busy.setFeedURL(base + "/busy");
+            assertThrows(FetcherException.class, () -> feedFetcher.fetchSubscription(busy));
+            assertNotNull(busy.getNextFetch());
+            wait = busy.getNextFetch().getTime() - System.currentTimeMillis();
+            assertTrue(wait > 110 * 1000 && wait <= 120 * 1000);
+
+        } finally {
+            server.stop(0);
+        }
+    }
+    
 }
@@ -16,11 +16,15 @@
 
 package org.apache.roller.planet.business;
 
+import java.sql.Timestamp;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.planet.business.updater.FeedUpdater;
 import org.apache.roller.planet.business.updater.SingleThreadedFeedUpdater;
+import org.apache.roller.planet.business.updater.SingleThreadedFeedUpdater.EntryCounts;
+import org.apache.roller.planet.business.updater.UpdaterException;
 import org.apache.roller.planet.pojos.Subscription;
+import org.apache.roller.planet.pojos.SubscriptionEntry;
 import org.apache.roller.weblogger.TestUtils;
 import org.apache.roller.weblogger.business.WebloggerFactory;
 import org.junit.jupiter.api.AfterEach;
@@ -82,4 +86,79 @@ public class SingleThreadedFeedUpdaterTest  {
         assertTrue(!sub.getEntries().isEmpty());
     }
     
+
+    @Test
+    public void testSaveEntriesIncrementally() throws Exception {
+        
+        PlanetManager mgr = WebloggerFactory.getWeblogger().getPlanetManager();
+        TestUpdater updater = new TestUpdater();
+        
+        // all new
+        Subscription sub = mgr.getSubscriptionById(testSub.getId());
+        EntryCounts counts = updater.save(sub, fetched(entry("a", "one"), entry("b", "two")));
+        TestUtils.endSession(true);
+        assertEquals(2, counts.getAdded());
+        assertEquals(2, counts.getChanged());
+        
+        // one unchanged, one changed, one new
+        sub = mgr.getSubscriptionById(testSub.getId());
+        String idOfA = entryId(sub, "a");
+        counts = updater.save(sub, fetched(entry("a", "one"), entry("b", "two, edited"), entry("c", "three")));
+        TestUtils.endSession(true);
+        assertEquals(1, counts.getAdded());
+        assertEquals(1, counts.getUpdated());
+        assertEquals(0, counts.getDeleted());
+        assertEquals(1, counts.getUnchanged());
+        
+        sub = mgr.getSubscriptionById(testSub.getId());
+        assertEquals(3, sub.getEntries().size());
+        assertEquals(idOfA, entryId(sub, "a"));
+        
+        // two gone from the feed
+        counts = updater.save(sub, fetched(entry("c", "three")));
+        TestUtils.endSession(true);
+        assertEquals(2, counts.getDeleted());
+        assertEquals(1, counts.getUnchanged());
+        
+        sub = mgr.getSubscriptionById(testSub.getId());
+        assertEquals(1, sub.getEntries().size());
+        assertEquals(1, mgr.getEntries(sub, 0, -1).size());
+        assertNotNull(entryId(sub, "c"));
+    }
+    
+    private Subscription fetched(SubscriptionEntry... entries) {
+        Subscription fetched = new Subscription();
+        fetched.setFeedURL(feed_url);
+        fetched.setTitle("Test");
+        for (SubscriptionEntry entry : entries) {
+            fetched.addEntry(entry);
+        }
+        return fetched;
+    }
+    
+    private SubscriptionEntry entry(String name, String text) {
+        SubscriptionEntry entry = new SubscriptionEntry();
+        entry.setPermalink("https://example.com/" + name);
+        entry.setTitle(name);
+        entry.setText(text);
+        entry.setPubTime(new Timestamp(1000000000000L));
+        return entry;
+    }
+    
+    private String entryId(Subscription sub, String name) {
+        for (SubscriptionEntry entry : sub.getEntries()) {
+            if (entry.getPermalink().endsWith("/" + name)) {
+                return entry.getId();
+            }
+        }
+        return null;
+    }
+    
+    // to get at saving without fetching
+    private static class TestUpdater extends SingleThreadedFeedUpdater {
+        EntryCounts save(Subscription sub, Subscription fetched) throws UpdaterException {
+            return saveSubscription(sub, fetched);
+        }
+    }
+    
 }
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.planet.business.fetcher;
+
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndFeed;
+import java.io.StringReader;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test StreamingFeedParser.
+ */
+public class StreamingFeedParserTest {
+
+    @Test
+    public void testRss() throws Exception {
+        String rss = "<?xml version=\"1.0\"?>"
+                + "<rss version=\"2.0\" xmlns:content=\"http://purl.org/rss/1.0/modules/content/\">"
+                + "<channel><title>Test Blog</title><link>http://example.com/</link>"
+                + "<pubDate>Mon, 02 Jan 2023 10:00:00 GMT</pubDate>"
+                + "<image><title>ignored</title></image>"
+                + "<item><title>First</title><link>http://example.com/1</link>"
+                + "<guid isPermaLink=\"false\">urn:1</guid>"
+                + "<description>&lt;p&gt;summary&lt;/p&gt;</description>"
+                + "<content:encoded><![CDATA[<p>full text</p>]]></content:encoded>"
+                + "<pubDate>Mon, 02 Jan 2023 09:00:00 GMT</pubDate>"
+                + "<category>java</category><category>roller</category></item>"
+                + "<item><title>Second</title><guid>http://example.com/2</guid></item>"
+                + "</channel></rss>";
+
+        SyndFeed feed = new StreamingFeedParser(10).parse(new StringReader(rss));
+        assertNotNull(feed);
+        assertEquals("Test Blog", feed.getTitle());
+        assertEquals("http://example.com/", feed.getLink());
+        assertNotNull(feed.getPublishedDate());
+
+        List<SyndEntry> entries = feed.getEntries();
+        assertEquals(2, entries.size());
+
+        SyndEntry first = entries.get(0);
+        assertEquals("First", first.getTitle());
+        assertEquals("http://example.com/1", first.getLink());
+        assertEquals("urn:1", first.getUri());
+        assertEquals("<p>summary</p>", first.getDescription().getValue());
+        assertEquals("<p>full text</p>", first.getContents().get(0).getValue());
+        assertNotNull(first.getPublishedDate());
+        assertEquals(2, first.getCategories().size());
+        assertEquals("roller", first.getCategories().get(1).getName());
+
+        // a guid is a permalink by default
+        assertEquals("http://example.com/2", entries.get(1).getLink());
+    }
+
+    @Test
+    public void testAtom() throws Exception {
+        String atom = "<?xml version=\"1.0\"?>"
+                + "<feed xmlns=\"http://www.w3.org/2005/Atom\">"
+                + "<title>Atom Blog</title>"
+                + "<link rel=\"self\" href=\"http://example.com/atom\"/>"
+                + "<link href=\"http://example.com/\"/>"
+                + "<updated>2023-01-02T10:00:00Z</updated>"
+                + "<author><name>Dave</name></author>"
+                + "<entry><title>Entry</title><id>tag:example.com,2023:1</id>"
+                + "<link rel=\"alternate\" href=\"http://example.com/1\"/>"
+                + "<published>2023-01-02T09:00:00Z</published>"
+                + "<updated>2023-01-02T09:30:00Z</updated>"
+                + "<category term=\"java\"/>"
+                + "<content type=\"xhtml\"><div xmlns=\"http://www.w3.org/1999/xhtml\">"
+                + "<p>Hello <a href=\"http://example.com/?a=1&amp;b=2\">world</a></p></div></content>"
+                + "</entry></feed>";
+
+        SyndFeed feed = new StreamingFeedParser(10).parse(new StringReader(atom));
+        assertNotNull(feed);
+        assertEquals("Atom Blog", feed.getTitle());
+        assertEquals("http://example.com/", feed.getLink());
+        assertEquals("Dave", feed.getAuthor());
+        assertNotNull(feed.getPublishedDate());
+
+        SyndEntry entry = feed.getEntries().get(0);
+        assertEquals("http://example.com/1", entry.getLink());
+        assertEquals("tag:example.com,2023:1", entry.getUri());
+        assertNotNull(entry.getPublishedDate());
+        assertNotNull(entry.getUpdatedDate());
+        assertEquals("java", entry.getCategories().get(0).getName());
+        assertEquals("xhtml", entry.getContents().get(0).getType());
+        assertEquals("<div><p>Hello <a href=\"http://example.com/?a=1&amp;b=2\">world</a></p></div>",
+                entry.getContents().get(0).getValue());
+    }
+
+    @Test
+    public void testKeepsNewestEntries() throws Exception {
+        StringBuilder rss = new StringBuilder("<rss version=\"2.0\"><channel><title>Big</title>");
+        // out of date order, as some feeds are
+        int[] days = {5, 9, 1, 7, 3, 8};
+        for (int day : days) {
+            rss.append("<item><link>http://example.com/").append(day).append("</link>")
+               .append("<pubDate>0").append(day).append(" Jan 2023 10:00:00 GMT</pubDate></item>");
+        }
+        rss.append("</channel></rss>");
+
+        List<SyndEntry> entries = new StreamingFeedParser(3).parse(new StringReader(rss.toString())).getEntries();
+
+        // the three newest, in the order of the feed
+        assertEquals(3, entries.size());
+        assertEquals("http://example.com/9", entries.get(0).getLink());
+        assertEquals("http://example.com/7", entries.get(1).getLink());
+        assertEquals("http://example.com/8", entries.get(2).getLink());
+    }
+
+    @Test
+    public void testOtherFormatsLeftToRome() throws Exception {
+        String rdf = "<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\""
+                + " xmlns=\"http://purl.org/rss/1.0/\"><channel/></rdf:RDF>";
+        assertNull(new StreamingFeedParser(10).parse(new StringReader(rdf)));
+
+        String atom03 = "<feed version=\"0.3\" xmlns=\"http://purl.org/atom/ns#\"/>";
+        assertNull(new StreamingFeedParser(10).parse(new StringReader(atom03)));
+    }
+
+}
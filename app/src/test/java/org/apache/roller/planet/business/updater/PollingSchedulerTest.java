@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.planet.business.updater;
+
+import java.util.Date;
+import org.apache.roller.planet.pojos.Subscription;
+import org.apache.roller.util.RollerConstants;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test PollingScheduler.
+ */
+public class PollingSchedulerTest {
+
+    private static final long HOUR = RollerConstants.HOUR_IN_MS;
+
+    private final PollingScheduler scheduler = new PollingScheduler(HOUR / 4, 24 * HOUR);
+
+    @Test
+    public void testChangingFeed() {
+        Subscription sub = new Subscription();
+
+        // changed for the first time, nothing known yet
+        scheduler.fetched(sub, true);
+        assertNotNull(sub.getLastChanged());
+        assertEquals(0, sub.getChangeInterval());
+        assertDueIn(sub, HOUR / 4);
+
+        // changed again after four hours, polled every two hours
+        sub.setLastChanged(new Date(System.currentTimeMillis() - 4 * HOUR));
+        scheduler.fetched(sub, true);
+        assertEquals(4 * 3600, sub.getChangeInterval());
+        assertDueIn(sub, 2 * HOUR);
+
+        // then after an hour, averaged
+        sub.setLastChanged(new Date(System.currentTimeMillis() - HOUR));
+        scheduler.fetched(sub, true);
+        assertEquals(3 * 3600 + 900, sub.getChangeInterval());
+    }
+
+    @Test
+    public void testDormantFeed() {
+        Subscription sub = new Subscription();
+        sub.setChangeInterval(3600);
+        sub.setLastChanged(new Date(System.currentTimeMillis() - 10 * HOUR));
+
+        scheduler.fetched(sub, false);
+        assertDueIn(sub, 5 * HOUR);
+
+        // never later than the max interval
+        sub.setLastChanged(new Date(System.currentTimeMillis() - 30 * 24 * HOUR));
+        scheduler.fetched(sub, false);
+        assertDueIn(sub, 24 * HOUR);
+    }
+
+    @Test
+    public void testFailingFeed() {
+        Subscription sub = new Subscription();
+
+        scheduler.failed(sub);
+        assertEquals(1, sub.getFetchFailures());
+        assertDueIn(sub, HOUR / 2);
+
+        scheduler.failed(sub);
+        assertEquals(2, sub.getFetchFailures());
+        assertDueIn(sub, HOUR);
+
+        // back to normal once it works again, the fetcher having reset the
+        // next fetch time to what the server asked for
+        sub.setNextFetch(null);
+        scheduler.fetched(sub, false);
+        assertEquals(0, sub.getFetchFailures());
+        assertDueIn(sub, HOUR / 4);
+    }
+
+    @Test
+    public void testServerAskedForLater() {
+        Subscription sub = new Subscription();
+
+        // e.g. Retry-After or Cache-Control
+        sub.setNextFetch(new Date(System.currentTimeMillis() + 6 * HOUR));
+        scheduler.fetched(sub, false);
+        assertDueIn(sub, 6 * HOUR);
+    }
+
+    // due within a tenth of the expected interval, as jittered
+    private static void assertDueIn(Subscription sub, long interval) {
+        assertNotNull(sub.getNextFetch());
+        long dueIn = sub.getNextFetch().getTime() - System.currentTimeMillis();
+        assertTrue(dueIn > interval * 0.9 - 1000 && dueIn <= interval * 1.1,
+                "due in " + dueIn + " ms, expected about " + interval);
+    }
+
+}
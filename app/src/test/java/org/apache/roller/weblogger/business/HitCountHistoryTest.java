@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.business;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.roller.util.RollerConstants;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test HitCountHistory.
+ */
+public class HitCountHistoryTest {
+
+    private static final long MINUTE = RollerConstants.MIN_IN_MS;
+    private static final long HOUR = RollerConstants.HOUR_IN_MS;
+
+    // some time well after the epoch, at the start of an hour
+    private static final long START = 1000 * HOUR;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testHotWeblogs() {
+        HitCountHistory history = new HitCountHistory(true, 24, null, 600);
+        assertTrue(history.isEmpty());
+
+        history.record(hits("blog1", 5, "blog2", 3), START);
+        history.record(hits("blog2", 4), START + 10 * MINUTE);
+        history.record(hits("blog3", 1), START + 2 * HOUR);
+        assertFalse(history.isEmpty());
+
+        // last hour by the hour
+        List<Map.Entry<String, Long>> hot = history.getRanking(false, 1, START / HOUR, -1);
+        assertEquals(2, hot.size());
+        assertEquals("blog2", hot.get(0).getKey());
+        assertEquals(7L, hot.get(0).getValue().longValue());
+        assertEquals("blog1", hot.get(1).getKey());
+        assertEquals(5L, hot.get(1).getValue().longValue());
+
+        // last 5 minutes, at 12 minutes past
+        hot = history.getRanking(true, 5, START / MINUTE + 12, -1);
+        assertEquals(1, hot.size());
+        assertEquals("blog2", hot.get(0).getKey());
+        assertEquals(4L, hot.get(0).getValue().longValue());
+
+        // two hours later only the newest hits are in the last hour
+        hot = history.getRanking(false, 1, START / HOUR + 2, -1);
+        assertEquals(1, hot.size());
+        assertEquals("blog3", hot.get(0).getKey());
+
+        // but all of them are in the last three hours
+        hot = history.getRanking(false, 3, START / HOUR + 2, 2);
+        assertEquals(2, hot.size());
+        assertEquals("blog2", hot.get(0).getKey());
+        assertEquals("blog1", hot.get(1).getKey());
+    }
+
+    @Test
+    public void testOldHitsRollOff() {
+        HitCountHistory history = new HitCountHistory(true, 3, null, 600);
+
+        history.record(hits("blog1", 5), START);
+        history.record(hits("blog1", 1), START + 2 * HOUR);
+        assertEquals(6L, history.getRanking(false, 3, START / HOUR + 2, -1).get(0).getValue().longValue());
+
+        // the slot of the first hour is reused
+        history.record(hits("blog1", 2), START + 3 * HOUR);
+        assertEquals(3L, history.getRanking(false, 3, START / HOUR + 3, -1).get(0).getValue().longValue());
+
+        // same for minutes, an hour later the old minute is gone
+        history.record(hits("blog1", 7), START + 3 * HOUR + 5 * MINUTE);
+        history.record(hits("blog1", 1), START + 4 * HOUR + 5 * MINUTE);
+        assertEquals(1L, history.getRanking(true, 60, START / MINUTE + 245, -1).get(0).getValue().longValue());
+
+        // nothing at all after a long quiet spell
+        assertTrue(history.getRanking(false, 3, START / HOUR + 100, -1).isEmpty());
+    }
+
+    @Test
+    public void testSaveAndLoad() {
+        File file = dir.resolve("hitcount-history.txt").toFile();
+
+        HitCountHistory history = new HitCountHistory(true, 24, file, 600);
+        history.record(hits("blog1", 5, "blog2", 3), START);
+        history.record(hits("blog2", 4), START + HOUR);
+        history.save(START + HOUR);
+        assertTrue(file.isFile());
+
+        HitCountHistory loaded = new HitCountHistory(true, 24, file, 600);
+        loaded.load(START + HOUR);
+        List<Map.Entry<String, Long>> hot = loaded.getRanking(false, 2, START / HOUR + 1, -1);
+        assertEquals(2, hot.size());
+        assertEquals("blog2", hot.get(0).getKey());
+        assertEquals(7L, hot.get(0).getValue().longValue());
+        assertEquals(5L, hot.get(1).getValue().longValue());
+
+        // counts older than the hours kept are not loaded
+        loaded = new HitCountHistory(true, 24, file, 600);
+        loaded.load(START + 24 * HOUR);
+        hot = loaded.getRanking(false, 24, START / HOUR + 24, -1);
+        assertEquals(1, hot.size());
+        assertEquals(4L, hot.get(0).getValue().longValue());
+    }
+
+    private static Map<String, Long> hits(Object... handlesAndCounts) {
+        Map<String, Long> hits = new HashMap<>();
+        for (int i = 0; i < handlesAndCounts.length; i += 2) {
+            hits.put((String) handlesAndCounts[i], ((Integer) handlesAndCounts[i + 1]).longValue());
+        }
+        return hits;
+    }
+
+}
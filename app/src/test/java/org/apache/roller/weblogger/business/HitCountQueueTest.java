@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+
+package org.apache.roller.weblogger.business;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test HitCountQueue.
+ */
+public class HitCountQueueTest {
+
+    @Test
+    public void testGetAndResetHits() {
+        HitCountQueue queue = new HitCountQueue();
+        queue.processHit("blog1");
+        queue.processHit("blog1");
+        queue.processHit("blog2");
+        queue.processHit((Weblog) null);
+
+        Map<String, Long> hits = queue.getAndResetHits();
+        assertEquals(2, hits.size());
+        assertEquals(2L, hits.get("blog1"));
+        assertEquals(1L, hits.get("blog2"));
+
+        // counted hits are gone, and weblogs without hits are left out
+        queue.processHit("blog2");
+        hits = queue.getAndResetHits();
+        assertEquals(1, hits.size());
+        assertEquals(1L, hits.get("blog2"));
+        assertTrue(queue.getAndResetHits().isEmpty());
+    }
+
+    @Test
+    public void testStats() {
+        HitCountQueue queue = new HitCountQueue();
+        queue.processHit("blog1");
+        queue.processHit("blog2");
+        assertEquals(2L, queue.getStats().get("pendingHits"));
+
+        queue.getAndResetHits();
+        queue.recordFlush(2, 2, 30);
+        queue.recordFlush(4, 1, 10);
+        queue.recordFailedFlush(3);
+
+        Map<String, Object> stats = queue.getStats();
+        assertEquals(0L, stats.get("pendingHits"));
+        assertEquals(2L, stats.get("flushes"));
+        assertEquals(1L, stats.get("failedFlushes"));
+        assertEquals(6L, stats.get("storedHits"));
+        assertEquals(3L, stats.get("lostHits"));
+        assertEquals(4L, stats.get("lastFlushHits"));
+        assertEquals(1, stats.get("lastFlushWeblogs"));
+        assertEquals(10L, stats.get("lastFlushMillis"));
+        assertEquals(30L, stats.get("maxFlushMillis"));
+        assertEquals(20L, stats.get("averageFlushMillis"));
+    }
+
+    @Test
+    public void testConcurrentHits() throws Exception {
+        final HitCountQueue queue = new HitCountQueue();
+        final int threads = 8;
+        final int hitsPerThread = 50000;
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Map<String, Long> total = new HashMap<>();
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < hitsPerThread; i++) {
+                        queue.processHit("blog" + (i % 4));
+                    }
+                    return null;
+                }));
+            }
+
+            // take the counts while hits are still coming in
+            start.countDown();
+            boolean done = false;
+            while (!done) {
+                done = true;
+                for (Future<?> result : results) {
+                    done &= result.isDone();
+                }
+                queue.getAndResetHits().forEach((k, v) -> total.merge(k, v, Long::sum));
+            }
+            for (Future<?> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+            queue.getAndResetHits().forEach((k, v) -> total.merge(k, v, Long::sum));
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // every hit is counted exactly once
+        assertEquals(4, total.size());
+        for (Long count : total.values()) {
+            assertEquals(threads * hitsPerThread / 4, count.longValue());
+        }
+    }
+
+}
@@ -28,8 +28,10 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -199,6 +201,55 @@ public class HitCountTest  {
         assertNull(hitCount);
     }
     
+    @Test
+    public void testIncrementHitCounts() throws Exception {
+        WeblogEntryManager mgr = WebloggerFactory.getWeblogger().getWeblogEntryManager();
+        
+        testUser = TestUtils.getManagedUser(testUser);
+        Weblog blog1 = TestUtils.setupWeblog("hitCntIncTest1", testUser);
+        Weblog blog2 = TestUtils.setupWeblog("hitCntIncTest2", testUser);
+        
+        // only the first weblog has a hit count so far
+        WeblogHitCount cnt1 = TestUtils.setupHitCount(blog1, 10);
+        TestUtils.endSession(true);
+        
+        try {
+            Map<String, Long> hits = new HashMap<>();
+            hits.put(blog1.getHandle(), 5L);
+            hits.put(blog2.getHandle(), 7L);
+            hits.put("hitCntIncTestNoSuchWeblog", 3L);
+            assertEquals(2, mgr.incrementHitCounts(hits));
+            TestUtils.endSession(true);
+            WebloggerFactory.getWeblogger().evict(WeblogHitCount.class);
+            
+            // existing count was incremented, missing one was created
+            WeblogHitCount testCount = mgr.getHitCount(cnt1.getId());
+            assertEquals(15, testCount.getDailyHits());
+            blog2 = TestUtils.getManagedWebsite(blog2);
+            testCount = mgr.getHitCountByWeblog(blog2);
+            assertNotNull(testCount);
+            assertEquals(7, testCount.getDailyHits());
+            
+            // second time around handles are already known
+            assertEquals(2, mgr.incrementHitCounts(hits));
+            TestUtils.endSession(true);
+            WebloggerFactory.getWeblogger().evict(WeblogHitCount.class);
+            
+            testCount = mgr.getHitCount(cnt1.getId());
+            assertEquals(20, testCount.getDailyHits());
+            blog2 = TestUtils.getManagedWebsite(blog2);
+            testCount = mgr.getHitCountByWeblog(blog2);
+            assertEquals(14, testCount.getDailyHits());
+            TestUtils.teardownHitCount(testCount.getId());
+        
+        } finally {
+            // cleanup
+            TestUtils.teardownHitCount(cnt1.getId());
+            TestUtils.teardownWeblog(blog1.getId());
+            TestUtils.teardownWeblog(blog2.getId());
+        }
+    }
+    
     @Test
     public void testResetHitCounts() throws Exception {
         WeblogEntryManager mgr = WebloggerFactory.getWeblogger().getWeblogEntryManager();
@@ -21,8 +21,10 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.roller.util.RollerConstants;
 import org.apache.roller.weblogger.TestUtils;
+import org.apache.roller.weblogger.business.search.FacetCounts;
 import org.apache.roller.weblogger.business.search.IndexManager;
 import org.apache.roller.weblogger.business.search.IndexManagerImpl;
+import org.apache.roller.weblogger.business.search.SearchResult;
 import org.apache.roller.weblogger.business.search.operations.AddEntryOperation;
 import org.apache.roller.weblogger.business.search.operations.SearchOperation;
 import org.apache.roller.weblogger.pojos.User;
@@ -37,6 +39,8 @@ import org.junit.jupiter.api.Test;
 import java.sql.Timestamp;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Test Search Manager business layer operations.
@@ -140,11 +144,44 @@ public class IndexManagerTest  {
         imgr.executeIndexOperationNow(search);
         assertEquals(2, search.getResultsCount());
 
+        // hits counted by category and weblog while searching
+        FacetCounts facets = search.getFacets();
+        assertEquals(Integer.valueOf(2), facets.get(FacetCounts.CATEGORY).get("general"));
+        assertEquals(Integer.valueOf(2), facets.get(FacetCounts.WEBLOG).get(testWeblog.getHandle()));
+
+        // and the words searched for are highlighted in excerpts
+        String[] snippets = search.getSnippets(search.getResults().scoreDocs);
+        assertEquals(2, snippets.length);
+        for (String snippet : snippets) {
+            assertTrue(snippet.contains("<b>Enterprise</b>"), snippet);
+        }
+        search.release();
+
+        // the same search of an unchanged index is answered from the cache
+        SearchOperation searchAgain = new SearchOperation(imgr);
+        searchAgain.setTerm("Enterprise");
+        imgr.executeIndexOperationNow(searchAgain);
+        assertSame(search.getResults(), searchAgain.getResults());
+        searchAgain.release();
+
         SearchOperation search2 = new SearchOperation(imgr);
         search2.setTerm("Tholian");
         imgr.executeIndexOperationNow(search2);
         assertEquals(1, search2.getResultsCount());
 
+        // results can be shown from what the index stored
+        SearchResult result = SearchResult.fromDocument(
+                search2.getSearcher().doc(search2.getResults().scoreDocs[0].doc));
+        assertTrue(result.isComplete());
+        assertEquals(wd1.getId(), result.getId());
+        assertEquals("The Tholian Web", result.getTitle());
+        assertEquals("dummy1", result.getAnchor());
+        assertEquals("General", result.getCategoryName());
+        assertEquals(testWeblog.getHandle(), result.getWeblogHandle());
+        assertEquals(wd1.getPubTime().getTime(), result.getPubTime().getTime());
+        assertTrue(result.getSummary().startsWith("When the Enterprise"));
+        search2.release();
+
         // Clean up
         imgr.removeEntryIndexOperation(wd1);
         imgr.removeEntryIndexOperation(wd2);
@@ -153,5 +190,6 @@ public class IndexManagerTest  {
         search3.setTerm("Enterprise");
         imgr.executeIndexOperationNow(search3);
         assertEquals(0, search3.getResultsCount());
+        search3.release();
     }    
 }
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.business.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test EntryIndexQueue.
+ */
+public class EntryIndexQueueTest {
+
+    @Test
+    public void testCoalescingAndBatches() {
+        List<List<String>> batches = new ArrayList<>();
+        EntryIndexQueue queue = new EntryIndexQueue(batches::add, 2, 0);
+
+        queue.add("a");
+        queue.add("b");
+        queue.add("a");
+        queue.add("c");
+        queue.add("d");
+        queue.remove("d");
+        assertEquals(3, queue.getDepth());
+        assertTrue(queue.getLag() >= 0);
+
+        // not started, so nothing happens until flushed
+        queue.flush();
+        assertEquals(Arrays.asList(Arrays.asList("a", "b"), Collections.singletonList("c")), batches);
+        assertEquals(0, queue.getDepth());
+        assertEquals(0L, queue.getLag());
+
+        assertEquals(5L, queue.getStats().get("queued"));
+        assertEquals(3L, queue.getStats().get("indexed"));
+        assertEquals(2L, queue.getStats().get("batches"));
+        assertEquals(1, queue.getStats().get("lastBatchSize"));
+    }
+
+    @Test
+    public void testWorker() throws Exception {
+        List<String> indexed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        EntryIndexQueue queue = new EntryIndexQueue(ids -> {
+            for (String id : ids) {
+                indexed.add(id);
+                done.countDown();
+            }
+        }, 10, 100);
+
+        queue.start();
+        try {
+            queue.add("a");
+            queue.add("b");
+            queue.add("a");
+            queue.add("c");
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            queue.stop();
+        }
+
+        // each entry indexed once, in the order first queued
+        assertEquals(Arrays.asList("a", "b", "c"), indexed);
+        assertEquals(0, queue.getDepth());
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test CacheWarmer.
+ */
+public class CacheWarmerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testTopURLs() {
+        CacheWarmer warmer = new CacheWarmer(true, 3, null, null, 1);
+        hit(warmer, "blog1", "/blog1/", 5);
+        hit(warmer, "blog1", "/blog1/feed/entries/atom", 3);
+        hit(warmer, "blog2", "/blog2/", 4);
+        hit(warmer, "blog2", "/blog2/entry/rarely_read", 1);
+
+        assertEquals(Arrays.asList("/blog1/", "/blog2/", "/blog1/feed/entries/atom"),
+                warmer.getTopURLs(null));
+        assertEquals(Collections.singletonList("/blog2/"),
+                warmer.getTopURLs(Collections.singleton("blog2")));
+    }
+
+    @Test
+    public void testPruning() {
+        CacheWarmer warmer = new CacheWarmer(true, 1, null, null, 1);
+        hit(warmer, "blog1", "/blog1/", 1000);
+        for (int i = 0; i < 1000; i++) {
+            hit(warmer, "blog1", "/blog1/entry/" + i, 1);
+        }
+
+        // the popular page survives all the one-off requests
+        assertEquals(Collections.singletonList("/blog1/"), warmer.getTopURLs(null));
+    }
+
+    @Test
+    public void testSaveAndLoad() {
+        File file = dir.resolve("warmup-urls.txt").toFile();
+        CacheWarmer warmer = new CacheWarmer(true, 10, file, null, 1);
+        hit(warmer, "blog1", "/blog1/", 2);
+        hit(warmer, "blog1", "/blog1/entry/a b", 3);
+        warmer.save();
+
+        CacheWarmer restarted = new CacheWarmer(true, 10, file, null, 1);
+        restarted.load();
+        assertEquals(Arrays.asList("/blog1/entry/a b", "/blog1/"), restarted.getTopURLs(null));
+    }
+
+    @Test
+    public void testLoadDropsQueryStrings() throws Exception {
+        File file = dir.resolve("warmup-urls.txt").toFile();
+        Files.write(file.toPath(), Arrays.asList(
+                "3 blog1 /blog1/search?q=roller",
+                "2 blog1 /blog1/search?q=java",
+                "4 blog1 /blog1/"), StandardCharsets.UTF_8);
+
+        CacheWarmer warmer = new CacheWarmer(true, 10, file, null, 1);
+        warmer.load();
+        assertEquals(Arrays.asList("/blog1/search", "/blog1/"), warmer.getTopURLs(null));
+    }
+
+    @Test
+    public void testWarmup() throws Exception {
+        final Map<String, String> requested = new ConcurrentHashMap<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().toString();
+            requested.put(path, String.valueOf(exchange.getRequestHeaders().getFirst(CacheWarmer.WARMUP_HEADER)));
+            int status = path.startsWith("/roller/gone") ? 404 : 200;
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            String baseURL = "http://127.0.0.1:" + server.getAddress().getPort() + "/roller/";
+            CacheWarmer warmer = new CacheWarmer(true, 10, null, baseURL, 2);
+            hit(warmer, "blog1", "/blog1/", 2);
+            hit(warmer, "blog1", "/blog1/feed/entries/rss", 2);
+            hit(warmer, "gone", "/gone/", 1);
+
+            warmer.warmup(null);
+            assertEquals(3, requested.size());
+            assertNotEquals("null", requested.get("/roller/blog1/"));
+
+            // pages which can't be warmed up are forgotten
+            List<String> urls = warmer.getTopURLs(null);
+            assertEquals(2, urls.size());
+            assertFalse(urls.contains("/gone/"));
+
+            // only warm up some weblogs
+            requested.clear();
+            warmer.warmup(Collections.singleton("blog2"));
+            assertTrue(requested.isEmpty());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void hit(CacheWarmer warmer, String handle, String url, int times) {
+        for (int i = 0; i < times; i++) {
+            warmer.recordHit(handle, url);
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.ui.rendering.util.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.roller.weblogger.util.cache.CachedContent;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test RenderCoalescer.
+ */
+public class RenderCoalescerTest {
+
+    @Test
+    public void testSingleRender() throws Exception {
+        final RenderCoalescer coalescer = new RenderCoalescer(10000);
+        final AtomicInteger renders = new AtomicInteger();
+        final CountDownLatch joined = new CountDownLatch(8);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<CachedContent>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(pool.submit(() -> {
+                    RenderCoalescer.Render render = coalescer.join("page");
+                    joined.countDown();
+                    if (!render.isLeader()) {
+                        return render.await();
+                    }
+
+                    // hold on until everybody has joined
+                    joined.await(1, TimeUnit.MINUTES);
+                    renders.incrementAndGet();
+                    CachedContent content = content();
+                    render.finish(content);
+                    return content;
+                }));
+            }
+
+            CachedContent first = results.get(0).get(1, TimeUnit.MINUTES);
+            assertNotNull(first);
+            for (Future<CachedContent> result : results) {
+                assertSame(first, result.get(1, TimeUnit.MINUTES));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, renders.get());
+
+        // the next render has a new leader
+        assertTrue(coalescer.join("page").isLeader());
+    }
+
+    @Test
+    public void testFailedRender() throws Exception {
+        RenderCoalescer coalescer = new RenderCoalescer(10000);
+
+        RenderCoalescer.Render leader = coalescer.join("page");
+        RenderCoalescer.Render follower = coalescer.join("page");
+        assertTrue(leader.isLeader());
+        assertFalse(follower.isLeader());
+
+        // followers have to render themselves
+        leader.finish(null);
+        assertNull(follower.await());
+
+        // a finish after failure changes nothing
+        leader.finish(content());
+        assertNull(follower.await());
+    }
+
+    @Test
+    public void testFinishAfterSuccess() throws Exception {
+        RenderCoalescer coalescer = new RenderCoalescer(10000);
+
+        RenderCoalescer.Render leader = coalescer.join("page");
+        RenderCoalescer.Render follower = coalescer.join("page");
+        CachedContent content = content();
+        leader.finish(content);
+
+        // the next render has begun by the time the old leader cleans up
+        RenderCoalescer.Render next = coalescer.join("page");
+        assertTrue(next.isLeader());
+        leader.finish(null);
+
+        assertSame(content, follower.await());
+        assertFalse(coalescer.join("page").isLeader());
+        next.finish(null);
+    }
+
+    @Test
+    public void testSlowRender() throws Exception {
+        RenderCoalescer coalescer = new RenderCoalescer(100);
+
+        RenderCoalescer.Render leader = coalescer.join("page");
+        assertTrue(leader.isLeader());
+        assertNull(coalescer.join("page").await());
+
+        // other keys are not affected
+        assertTrue(coalescer.join("other").isLeader());
+        leader.finish(content());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        RenderCoalescer coalescer = new RenderCoalescer(0);
+        assertTrue(coalescer.join("page").isLeader());
+        assertTrue(coalescer.join("page").isLeader());
+    }
+
+    private static CachedContent content() throws Exception {
+        CachedContent content = new CachedContent(16);
+        content.getCachedWriter().write("content");
+        content.close();
+        return content;
+    }
+
+}
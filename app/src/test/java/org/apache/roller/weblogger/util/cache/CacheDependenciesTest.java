@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntryComment;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test CacheDependencies and DependentCacheEntry.
+ */
+public class CacheDependenciesTest {
+
+    @AfterEach
+    public void tearDown() {
+        CacheDependencies.stopRecording();
+    }
+
+    @Test
+    public void testRecording() {
+        Weblog weblog = weblog("weblog1");
+        WeblogEntry entry = entry(weblog, "entry1");
+
+        // nothing is recorded unless asked for
+        CacheDependencies.recordEntry(entry);
+        assertNull(CacheDependencies.stopRecording());
+
+        CacheDependencies dependencies = CacheDependencies.startRecording(42);
+        CacheDependencies.recordEntry(entry);
+        CacheDependencies.recordEntries(weblog);
+        CacheDependencies.recordEntry(entry);
+        assertSame(dependencies, CacheDependencies.stopRecording());
+
+        assertEquals(42, dependencies.getVersion());
+        assertFalse(dependencies.isUntracked());
+        assertEquals(2, dependencies.getDependencies().size());
+        assertTrue(dependencies.getDependencies().contains(CacheDependencies.entryKey(entry)));
+        assertTrue(dependencies.getDependencies().contains(CacheDependencies.entriesKey(weblog)));
+
+        // recording stopped
+        CacheDependencies.recordComments(weblog);
+        assertEquals(2, dependencies.getDependencies().size());
+
+        dependencies = CacheDependencies.startRecording(43);
+        CacheDependencies.recordUntracked();
+        assertTrue(CacheDependencies.stopRecording().isUntracked());
+    }
+
+    @Test
+    public void testInvalidation() {
+        Weblog weblog = weblog("weblog1");
+        WeblogEntry entry1 = entry(weblog, "entry1");
+        WeblogEntry entry2 = entry(weblog, "entry2");
+
+        CacheDependencies.startRecording(10);
+        CacheDependencies.recordEntry(entry1);
+        CacheDependencies dependencies = CacheDependencies.stopRecording();
+
+        DependentCacheEntry cacheEntry = new DependentCacheEntry("page",
+                dependencies.getDependencies(), dependencies.getVersion());
+
+        // a comment on another entry does not matter
+        Map<String, Long> invalidations = new HashMap<>();
+        for (String key : CacheDependencies.keysFor(comment(entry2))) {
+            invalidations.put(key, 11L);
+        }
+        assertFalse(cacheEntry.isInvalid(invalidations));
+
+        // invalidations from before the page was rendered don't either
+        for (String key : CacheDependencies.keysFor(comment(entry1))) {
+            invalidations.put(key, 9L);
+        }
+        assertFalse(cacheEntry.isInvalid(invalidations));
+
+        // but a new comment on the entry does
+        for (String key : CacheDependencies.keysFor(comment(entry1))) {
+            invalidations.put(key, 12L);
+        }
+        assertTrue(cacheEntry.isInvalid(invalidations));
+    }
+
+    @Test
+    public void testOffHeapKeepsDependencies() throws Exception {
+        CachedContent content = new CachedContent(16);
+        content.getCachedWriter().write("content");
+        content.close();
+
+        Cache cache = new OffHeapCacheImpl(new LRUCacheImpl("test", 10), 1024 * 1024);
+        cache.put("page", new DependentCacheEntry(content,
+                Collections.singleton("entry:entry1"), 10));
+
+        DependentCacheEntry cached = (DependentCacheEntry) cache.get("page");
+        assertTrue(((CachedContent) cached.getValue()).isOffHeap());
+        assertEquals(10, cached.getVersion());
+
+        Map<String, Long> invalidations = new HashMap<>();
+        invalidations.put("entry:entry1", 11L);
+        assertTrue(cached.isInvalid(invalidations));
+    }
+
+    private static Weblog weblog(String id) {
+        Weblog weblog = new Weblog();
+        weblog.setId(id);
+        return weblog;
+    }
+
+    private static WeblogEntry entry(Weblog weblog, String id) {
+        WeblogEntry entry = new WeblogEntry();
+        entry.setId(id);
+        entry.setWebsite(weblog);
+        return entry;
+    }
+
+    private static WeblogEntryComment comment(WeblogEntry entry) {
+        WeblogEntryComment comment = new WeblogEntryComment();
+        comment.setWeblogEntry(entry);
+        return comment;
+    }
+
+}
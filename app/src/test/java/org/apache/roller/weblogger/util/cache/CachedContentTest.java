@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test CachedContent.
+ */
+public class CachedContentTest {
+
+    @Test
+    public void testGzip() throws Exception {
+        CachedContent content = new CachedContent(1024, "text/html");
+        for (int i = 0; i < 100; i++) {
+            content.getCachedWriter().print("<p>some very repetitive content</p>");
+        }
+
+        assertThrows(IllegalStateException.class, content::gzip);
+        content.close();
+
+        assertFalse(content.isGzipped());
+        assertEquals(-1, content.getGzippedContentLength());
+
+        content.gzip();
+        assertTrue(content.isGzipped());
+        assertTrue(content.getGzippedContentLength() < content.getContentLength());
+        assertArrayEquals(content.getContent(), gunzip(content));
+
+        // the gzipped variant moves off heap along with the content
+        CachedContent offHeap = content.toOffHeap(new OffHeapSlab(1024 * 1024));
+        assertTrue(offHeap.isGzipped());
+        assertEquals(content.getGzippedContentLength(), offHeap.getGzippedContentLength());
+        assertArrayEquals(content.getContent(), gunzip(offHeap));
+    }
+
+    @Test
+    public void testContentHash() throws Exception {
+        CachedContent content = new CachedContent(16, "text/plain");
+        content.getCachedWriter().print("hello");
+        assertNull(content.getContentHash());
+        content.close();
+
+        CachedContent same = new CachedContent(16, "text/plain");
+        same.getCachedWriter().print("hello");
+        same.close();
+
+        CachedContent other = new CachedContent(16, "text/plain");
+        other.getCachedWriter().print("hello!");
+        other.close();
+
+        assertNotNull(content.getContentHash());
+        assertEquals(content.getContentHash(), same.getContentHash());
+        assertNotEquals(content.getContentHash(), other.getContentHash());
+        assertEquals(content.getContentHash(), content.toOffHeap(new OffHeapSlab(1024 * 1024)).getContentHash());
+    }
+
+    @Test
+    public void testGzipSkipsIncompressibleContent() throws Exception {
+        CachedContent content = new CachedContent(16, "text/plain");
+        content.getCachedWriter().print("tiny");
+        content.close();
+
+        content.gzip();
+        assertFalse(content.isGzipped());
+        assertThrows(IllegalStateException.class, () -> content.writeGzippedContent(new ByteArrayOutputStream()));
+    }
+
+    private static byte[] gunzip(CachedContent content) throws Exception {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        content.writeGzippedContent(gzipped);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.toByteArray()))) {
+            return in.readAllBytes();
+        }
+    }
+
+}
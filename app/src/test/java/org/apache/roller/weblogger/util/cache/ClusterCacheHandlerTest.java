@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.roller.weblogger.pojos.Weblog;
+import org.apache.roller.weblogger.pojos.WeblogEntry;
+import org.apache.roller.weblogger.pojos.WeblogEntryComment;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test ClusterCacheHandler and UdpInvalidationTransport.
+ */
+public class ClusterCacheHandlerTest {
+
+    @Test
+    public void testBatching() {
+        RecordingTransport transport = new RecordingTransport();
+        ClusterCacheHandler handler = new ClusterCacheHandler(transport);
+        assertTrue(transport.started);
+
+        Weblog weblog = new Weblog();
+        weblog.setId("weblog1");
+        WeblogEntry entry = new WeblogEntry();
+        entry.setId("entry1");
+        entry.setWebsite(weblog);
+        WeblogEntryComment comment = new WeblogEntryComment();
+        comment.setId("comment1");
+        comment.setWeblogEntry(entry);
+
+        // nothing to send
+        handler.flush();
+        assertTrue(transport.batches.isEmpty());
+
+        handler.invalidate(entry);
+        handler.invalidate(comment);
+        handler.invalidate(entry);
+        handler.invalidate(weblog);
+        handler.flush();
+
+        assertEquals(1, transport.batches.size());
+        assertEquals(Arrays.asList(
+                "entry entry1 weblog1",
+                "comment comment1 weblog1 entry1",
+                "weblog weblog1"), transport.batches.get(0));
+
+        // the next batch starts over
+        handler.invalidate(entry);
+        handler.flush();
+        assertEquals(2, transport.batches.size());
+        assertEquals(Arrays.asList("entry entry1 weblog1"), transport.batches.get(1));
+
+        handler.shutdown();
+        assertTrue(transport.stopped);
+    }
+
+    @Test
+    public void testEncoding() {
+        List<String> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            events.add("entry 4028e4a4-entry-" + i + " 4028e4a4-weblog");
+        }
+
+        List<byte[]> packets = UdpInvalidationTransport.encode("secret", "node1", events);
+        assertTrue(packets.size() > 1);
+
+        List<String> decoded = new ArrayList<>();
+        for (byte[] packet : packets) {
+            assertTrue(packet.length <= UdpInvalidationTransport.MAX_PACKET_SIZE);
+            decoded.addAll(UdpInvalidationTransport.decode("secret", "node2", packet, packet.length));
+
+            // as are packets signed with another secret
+            assertTrue(UdpInvalidationTransport.decode("other", "node2", packet, packet.length).isEmpty());
+
+            // our own packets are ignored
+            assertTrue(UdpInvalidationTransport.decode("secret", "node1", packet, packet.length).isEmpty());
+        }
+        assertEquals(events, decoded);
+
+        // so is anything else
+        byte[] junk = "hello\nworld".getBytes();
+        assertTrue(UdpInvalidationTransport.decode("secret", "node2", junk, junk.length).isEmpty());
+
+        // and unsigned packets
+        byte[] unsigned = "roller-cache-invalidation node1\nweblog weblog1\n".getBytes();
+        assertTrue(UdpInvalidationTransport.decode("secret", "node2", unsigned, unsigned.length).isEmpty());
+    }
+
+    @Test
+    public void testUdpPeers() throws Exception {
+        final BlockingQueue<List<String>> received = new LinkedBlockingQueue<>();
+
+        UdpInvalidationTransport receiver = new UdpInvalidationTransport(null, 0, "127.0.0.1:9", 1, "secret");
+        receiver.start(received::add);
+        UdpInvalidationTransport sender = new UdpInvalidationTransport(null, 0,
+                "127.0.0.1:" + receiver.getLocalPort(), 1, "secret");
+        sender.start(events -> fail("nothing should be sent to the sender"));
+        try {
+            List<String> events = Arrays.asList("weblog weblog1", "user user1");
+            sender.send(events);
+            assertEquals(events, received.poll(10, TimeUnit.SECONDS));
+        } finally {
+            sender.shutdown();
+            receiver.shutdown();
+        }
+    }
+
+    @Test
+    public void testUdpNeedsSecret() {
+        UdpInvalidationTransport transport = new UdpInvalidationTransport(null, 0, "127.0.0.1:9", 1, "");
+        assertThrows(IOException.class, () -> transport.start(events -> { }));
+    }
+
+    private static class RecordingTransport implements InvalidationTransport {
+
+        private final List<List<String>> batches = new ArrayList<>();
+        private boolean started = false;
+        private boolean stopped = false;
+
+        @Override
+        public void start(Receiver receiver) {
+            started = true;
+        }
+
+        @Override
+        public void send(List<String> events) {
+            batches.add(events);
+        }
+
+        @Override
+        public void shutdown() {
+            stopped = true;
+        }
+    }
+
+}
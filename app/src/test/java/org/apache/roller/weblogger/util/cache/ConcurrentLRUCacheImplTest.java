@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test ConcurrentLRUCacheImpl.
+ */
+public class ConcurrentLRUCacheImplTest {
+
+    @Test
+    public void testLRU() {
+        // small caches only have a single segment, so LRU order is exact
+        ConcurrentLRUCacheImpl cache = new ConcurrentLRUCacheImpl("test", 3, 0);
+
+        cache.put("key1", "string1");
+        cache.put("key2", "string2");
+        cache.put("key3", "string3");
+        assertNotNull(cache.get("key1"));
+        assertNotNull(cache.get("key2"));
+        assertNotNull(cache.get("key3"));
+
+        // accessing key1 and key2 will make key3 LRU
+        cache.get("key1");
+        cache.get("key2");
+
+        // adding a forth key will push out the LRU entry
+        cache.put("key4", "string4");
+        assertNull(cache.get("key3"));
+        assertNotNull(cache.get("key1"));
+        assertNotNull(cache.get("key4"));
+        assertEquals(1.0, cache.getStats().get("evictions"));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        ConcurrentLRUCacheImpl cache = new ConcurrentLRUCacheImpl("test", 100, 1);
+
+        cache.put("key1", "string1");
+        assertEquals("string1", cache.get("key1"));
+
+        Thread.sleep(1100);
+        assertNull(cache.get("key1"));
+        assertEquals(1.0, cache.getStats().get("expirations"));
+    }
+
+    @Test
+    public void testByteBudget() throws Exception {
+        // a single segment, so the whole budget applies to every key
+        ConcurrentLRUCacheImpl cache = new ConcurrentLRUCacheImpl("test", 10, 0, 1000);
+
+        cache.put("page1", new LazyExpiringCacheEntry(content(400)));
+        cache.put("page2", new LazyExpiringCacheEntry(content(400)));
+        cache.get("page1");
+        assertEquals(800L, cache.getStats().get("bytes"));
+
+        // page2 is least recently used and has to make room
+        cache.put("page3", new LazyExpiringCacheEntry(content(400)));
+        assertNull(cache.get("page2"));
+        assertNotNull(cache.get("page1"));
+        assertNotNull(cache.get("page3"));
+        assertEquals(800L, cache.getStats().get("bytes"));
+        assertEquals(1.0, cache.getStats().get("weightEvictions"));
+
+        cache.remove("page1");
+        assertEquals(400L, cache.getStats().get("bytes"));
+
+        // the same budget applies to the synchronized LRU cache
+        ExpiringLRUCacheImpl lru = new ExpiringLRUCacheImpl("test", 100, 60, 1000);
+        lru.put("page1", new LazyExpiringCacheEntry(content(400)));
+        lru.put("page2", new LazyExpiringCacheEntry(content(400)));
+        lru.get("page1");
+        lru.put("page3", new LazyExpiringCacheEntry(content(400)));
+        assertNull(lru.get("page2"));
+        assertNotNull(lru.get("page1"));
+        assertEquals(800L, lru.getStats().get("bytes"));
+    }
+
+    @Test
+    public void testRemoveAndClear() {
+        ConcurrentLRUCacheImpl cache = new ConcurrentLRUCacheImpl("test", 100, 0);
+
+        cache.put("key1", "string1");
+        cache.put("key2", "string2");
+        cache.remove("key1");
+        assertNull(cache.get("key1"));
+        assertNotNull(cache.get("key2"));
+
+        cache.clear();
+        assertNull(cache.get("key2"));
+        assertEquals(0L, cache.getStats().get("size"));
+    }
+
+    @Test
+    public void testSizeBoundUnderContention() throws Exception {
+        final int maxsize = 400;
+        final ConcurrentLRUCacheImpl cache = new ConcurrentLRUCacheImpl("test", maxsize, 0);
+
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                final int thread = t;
+                results.add(pool.submit(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        String key = "key" + ((i * 31 + thread) % 2000);
+                        if (cache.get(key) == null) {
+                            cache.put(key, key);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // one more put per segment settles any skipped evictions
+        for (int i = 0; i < 1000; i++) {
+            cache.put("final" + i, "value");
+        }
+
+        long size = (Long) cache.getStats().get("size");
+        assertTrue(size <= maxsize, "cache grew to " + size);
+    }
+
+    private static CachedContent content(int length) throws Exception {
+        CachedContent content = new CachedContent(length);
+        for (int i = 0; i < length; i++) {
+            content.getCachedWriter().write('x');
+        }
+        content.close();
+        return content;
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test DiskCacheImpl.
+ */
+public class DiskCacheImplTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testSurvivesRestart() throws Exception {
+        DiskCacheImpl cache = new DiskCacheImpl(new LRUCacheImpl("test", 10), dir.toFile(), 3600, 0);
+
+        String text = "<p>page</p><p>page</p><p>page</p><p>page</p><p>page</p>";
+        CachedContent page = content(text, "text/html");
+        page.gzip();
+        assertTrue(page.isGzipped());
+        long timeCached = System.currentTimeMillis() - 1000;
+        LazyExpiringCacheEntry entry = new LazyExpiringCacheEntry(page, timeCached);
+        cache.put("page", entry);
+        cache.put("feed", content("feed", null));
+        cache.put("other", "not content");
+        cache.awaitWrites();
+
+        // a new cache on the same directory is a restart
+        LRUCacheImpl memory = new LRUCacheImpl("test", 10);
+        cache = new DiskCacheImpl(memory, dir.toFile(), 3600, 0);
+        assertEquals(2, cache.getStats().get("diskEntries"));
+
+        LazyExpiringCacheEntry restored = (LazyExpiringCacheEntry) cache.get("page");
+        assertEquals(timeCached, restored.getTimeCached());
+        CachedContent content = (CachedContent) restored.getRawValue();
+        assertEquals(text, content.getContentAsString());
+        assertEquals("text/html", content.getContentType());
+        assertEquals(page.getContentHash(), content.getContentHash());
+        assertTrue(content.isGzipped());
+
+        // content is promoted into memory on the first hit
+        assertSame(restored, memory.get("page"));
+
+        CachedContent feed = (CachedContent) cache.get("feed");
+        assertEquals("feed", feed.getContentAsString());
+        assertNull(feed.getContentType());
+
+        assertNull(cache.get("other"));
+    }
+
+    @Test
+    public void testRemoveAndClear() throws Exception {
+        DiskCacheImpl cache = new DiskCacheImpl(new LRUCacheImpl("test", 10), dir.toFile(), 0, 0);
+        cache.put("page1", content("page1", null));
+        cache.put("page2", content("page2", null));
+        cache.put("page3", content("page3", null));
+        cache.remove("page1");
+
+        // replacing content with something we can't keep on disk removes it
+        cache.put("page3", "not content");
+        cache.awaitWrites();
+
+        cache = new DiskCacheImpl(new LRUCacheImpl("test", 10), dir.toFile(), 0, 0);
+        assertNull(cache.get("page1"));
+        assertEquals("page2", ((CachedContent) cache.get("page2")).getContentAsString());
+        assertNull(cache.get("page3"));
+
+        cache.clear();
+        cache = new DiskCacheImpl(new LRUCacheImpl("test", 10), dir.toFile(), 0, 0);
+        assertNull(cache.get("page2"));
+        assertEquals(1, dir.toFile().list().length);
+    }
+
+    @Test
+    public void testExpiredContentIsDropped() throws Exception {
+        DiskCacheImpl cache = new DiskCacheImpl(new LRUCacheImpl("test", 10), dir.toFile(), 3600, 0);
+        long twoHoursAgo = System.currentTimeMillis() - 2 * 3600 * 1000L;
+        cache.put("old", new LazyExpiringCacheEntry(content("old", null), twoHoursAgo));
+        cache.put("new", new LazyExpiringCacheEntry(content("new", null)));
+        cache.awaitWrites();
+
+        cache = new DiskCacheImpl(new LRUCacheImpl("test", 10), dir.toFile(), 3600, 0);
+        assertNull(cache.get("old"));
+        assertNotNull(cache.get("new"));
+    }
+
+    @Test
+    public void testByteBudget() throws Exception {
+        long maxBytes = 8L * 1024 * 1024;
+        DiskCacheImpl cache = new DiskCacheImpl(new LRUCacheImpl("test", 2), dir.toFile(), 0, maxBytes);
+
+        char[] chars = new char[512 * 1024];
+        Arrays.fill(chars, 'x');
+        String big = new String(chars);
+        for (int i = 0; i < 40; i++) {
+            cache.put("page" + i, content(big + i, null));
+        }
+        cache.awaitWrites();
+
+        long diskBytes = (Long) cache.getStats().get("diskBytes");
+        assertTrue(diskBytes <= maxBytes, "disk bytes " + diskBytes);
+
+        // the oldest content is gone, the newest is still there
+        assertNull(cache.get("page0"));
+        assertEquals(big + 39, ((CachedContent) cache.get("page39")).getContentAsString());
+    }
+
+    @Test
+    public void testBrokenRecordsAreIgnored() throws Exception {
+        DiskCacheImpl cache = new DiskCacheImpl(new LRUCacheImpl("test", 10), dir.toFile(), 0, 0);
+        cache.put("page1", content("page1", null));
+        cache.put("page2", content("page2", null));
+        cache.awaitWrites();
+
+        // scribble over the end of the last record, as a crash might
+        File[] segments = dir.toFile().listFiles();
+        assertEquals(1, segments.length);
+        try (RandomAccessFile raf = new RandomAccessFile(segments[0], "rw")) {
+            long end = 8;
+            while (true) {
+                raf.seek(end);
+                int length = raf.readInt();
+                if (length == 0) {
+                    break;
+                }
+                end += 8 + length;
+            }
+            raf.seek(end - 3);
+            raf.write(new byte[] { 1, 2, 3 });
+        }
+
+        cache = new DiskCacheImpl(new LRUCacheImpl("test", 10), dir.toFile(), 0, 0);
+        assertEquals("page1", ((CachedContent) cache.get("page1")).getContentAsString());
+        assertNull(cache.get("page2"));
+    }
+
+    @Test
+    public void testPendingWrites() throws Exception {
+        LRUCacheImpl memory = new LRUCacheImpl("test", 10);
+        DiskCacheImpl cache = new DiskCacheImpl(memory, dir.toFile(), 0, 0);
+        cache.put("page", content("old", null));
+        cache.awaitWrites();
+
+        // the old content isn't read back while the new content waits to
+        // be written
+        cache.put("page", content("new", null));
+        memory.clear();
+        CachedContent read = (CachedContent) cache.get("page");
+        assertTrue(read == null || "new".equals(read.getContentAsString()));
+        memory.clear();
+        cache.awaitWrites();
+        assertEquals("new", ((CachedContent) cache.get("page")).getContentAsString());
+
+        // neither is removed content
+        cache.remove("page");
+        assertNull(cache.get("page"));
+        cache.awaitWrites();
+        assertNull(cache.get("page"));
+        assertEquals(0, cache.getStats().get("diskPending"));
+    }
+
+    private static CachedContent content(String text, String contentType) throws Exception {
+        CachedContent content = new CachedContent(16, contentType);
+        content.getCachedWriter().write(text);
+        content.close();
+        return content;
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import java.io.ByteArrayOutputStream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test OffHeapCacheImpl.
+ */
+public class OffHeapCacheImplTest {
+
+    @Test
+    public void testContentMovesOffHeap() throws Exception {
+        OffHeapCacheImpl cache = new OffHeapCacheImpl(new ExpiringLRUCacheImpl("test", 10, 60, 1000), 1024 * 1024);
+
+        CachedContent content = new CachedContent(100, "text/html");
+        content.getCachedWriter().print("<html>hello</html>");
+        content.close();
+
+        LazyExpiringCacheEntry entry = new LazyExpiringCacheEntry(content);
+        cache.put("page", entry);
+
+        LazyExpiringCacheEntry cached = (LazyExpiringCacheEntry) cache.get("page");
+        assertEquals(entry.getTimeCached(), cached.getTimeCached());
+
+        CachedContent offHeap = (CachedContent) cached.getValue(0);
+        assertTrue(offHeap.isOffHeap());
+        assertFalse(content.isOffHeap());
+        assertEquals("text/html", offHeap.getContentType());
+        assertEquals(content.getContentLength(), offHeap.getContentLength());
+        assertEquals("<html>hello</html>", offHeap.getContentAsString());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        offHeap.writeContent(out);
+        assertArrayEquals(content.getContent(), out.toByteArray());
+
+        // the wrapped cache still weighs the content
+        assertEquals(18L, cache.getStats().get("bytes"));
+        assertEquals(1.0, cache.getStats().get("offHeapPuts"));
+
+        // other values are stored as is
+        cache.put("other", "value");
+        assertEquals("value", cache.get("other"));
+    }
+
+    @Test
+    public void testContentIsFreedAndEvicted() throws Exception {
+        // room for two pages of content, freed pages can be used right away
+        OffHeapSlab slab = new OffHeapSlab(2 * OffHeapSlab.PAGE_SIZE, 0);
+        OffHeapCacheImpl cache = new OffHeapCacheImpl(new LRUCacheImpl("test", 10), slab);
+
+        cache.put("a", content('a'));
+        cache.put("b", content('b'));
+        assertEquals(2.0, cache.getStats().get("offHeapPuts"));
+        assertEquals(2L * OffHeapSlab.PAGE_SIZE, cache.getStats().get("offHeapBytes"));
+
+        // the slab is full, so the oldest content makes room and this one
+        // stays on the heap for now
+        cache.put("c", content('c'));
+        assertNull(cache.get("a"));
+        assertFalse(((CachedContent) cache.get("c")).isOffHeap());
+        assertEquals(1.0, cache.getStats().get("offHeapFull"));
+        assertEquals(1.0, cache.getStats().get("offHeapEvictions"));
+        assertEquals((long) OffHeapSlab.PAGE_SIZE, cache.getStats().get("offHeapRetiredBytes"));
+
+        // which the next put can use
+        cache.put("c", content('c'));
+        assertTrue(((CachedContent) cache.get("c")).isOffHeap());
+        assertEquals(0L, cache.getStats().get("offHeapRetiredBytes"));
+
+        // removed content is freed
+        CachedContent b = (CachedContent) cache.get("b");
+        cache.remove("b");
+        assertEquals((long) OffHeapSlab.PAGE_SIZE, cache.getStats().get("offHeapRetiredBytes"));
+
+        // and may still be read until its pages are used again
+        assertEquals(OffHeapSlab.PAGE_SIZE / 2, b.getContent().length);
+
+        cache.clear();
+        assertEquals(2L * OffHeapSlab.PAGE_SIZE, cache.getStats().get("offHeapRetiredBytes"));
+        assertEquals(2L * OffHeapSlab.PAGE_SIZE, cache.getStats().get("offHeapMaxBytes"));
+    }
+
+    private static CachedContent content(char c) throws Exception {
+        CachedContent content = new CachedContent(OffHeapSlab.PAGE_SIZE, "text/plain");
+        for (int i = 0; i < OffHeapSlab.PAGE_SIZE / 2; i++) {
+            content.getCachedWriter().print(c);
+        }
+        content.close();
+        return content;
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  The ASF licenses this file to You
+ * under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.  For additional information regarding
+ * copyright in this work, please see the NOTICE file in the top level
+ * directory of this distribution.
+ */
+
+package org.apache.roller.weblogger.util.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test StaleWhileRevalidateCacheImpl.
+ */
+public class StaleWhileRevalidateCacheImplTest {
+
+    @Test
+    public void testWindow() {
+        StaleWhileRevalidateCacheImpl cache =
+                new StaleWhileRevalidateCacheImpl(new LRUCacheImpl("test", 10), 30);
+
+        long now = System.currentTimeMillis();
+        assertTrue(cache.isServable(now - 1000));
+        assertFalse(cache.isServable(now - 31000));
+    }
+
+    @Test
+    public void testRevalidation() {
+        StaleWhileRevalidateCacheImpl cache =
+                new StaleWhileRevalidateCacheImpl(new LRUCacheImpl("test", 10), 30);
+
+        cache.put("page", "stale");
+
+        // only the first stale hit has to revalidate
+        assertTrue(cache.staleHit("page"));
+        assertFalse(cache.staleHit("page"));
+        assertTrue(cache.staleHit("other"));
+
+        // the put ends the revalidation
+        cache.put("page", "fresh");
+        assertEquals("fresh", cache.get("page"));
+        assertEquals(3.0, cache.getStats().get("staleHits"));
+        assertEquals(1.0, cache.getStats().get("revalidations"));
+        assertNotNull(cache.getStats().get("revalidationTime"));
+
+        // and the next time the page goes stale it's revalidated again
+        assertTrue(cache.staleHit("page"));
+    }
+
+    @Test
+    public void testAbandonedRevalidation() throws Exception {
+        // a zero window means revalidations are taken over right away
+        StaleWhileRevalidateCacheImpl cache =
+                new StaleWhileRevalidateCacheImpl(new LRUCacheImpl("test", 10), 0);
+
+        assertTrue(cache.staleHit("page"));
+        Thread.sleep(1);
+        assertTrue(cache.staleHit("page"));
+    }
+
+}